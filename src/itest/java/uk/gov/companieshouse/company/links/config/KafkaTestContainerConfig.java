@@ -66,6 +66,18 @@ public class KafkaTestContainerConfig {
         return factory;
     }
 
+    @Bean
+    ConcurrentKafkaListenerContainerFactory<String, ResourceChangedData> retryListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, ResourceChangedData> factory
+                = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(kafkaConsumerFactory());
+        factory.getContainerProperties().setIdleBetweenPolls(0);
+        factory.getContainerProperties().setPollTimeout(10L);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.RECORD);
+
+        return factory;
+    }
+
     @Bean
     public ConsumerFactory<String, ResourceChangedData> kafkaConsumerFactory() {
         return new DefaultKafkaConsumerFactory<>(consumerConfigs(confluentKafkaContainer()), new StringDeserializer(),
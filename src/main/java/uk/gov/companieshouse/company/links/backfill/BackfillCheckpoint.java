@@ -0,0 +1,69 @@
+package uk.gov.companieshouse.company.links.backfill;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tracks how many lines of a backfill input have been finished with, so an interrupted backfill
+ * can resume where it left off. Lines finish out of order when they are processed in parallel,
+ * so the checkpoint only moves past a line once every line before it has finished too.
+ */
+final class BackfillCheckpoint {
+
+    private final Path path;
+    private final Set<Long> finishedAhead = new HashSet<>();
+    private long finished;
+
+    private BackfillCheckpoint(Path path, long finished) {
+        this.path = path;
+        this.finished = finished;
+    }
+
+    /**
+     * Read the checkpoint at the given path, starting from the first line if there is none.
+     */
+    static BackfillCheckpoint load(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return new BackfillCheckpoint(path, 0L);
+        }
+        String content = Files.readString(path, StandardCharsets.UTF_8).trim();
+        return new BackfillCheckpoint(path, content.isEmpty() ? 0L : Long.parseLong(content));
+    }
+
+    /**
+     * The number of lines, from the start of the input, that have all been finished with.
+     */
+    synchronized long getFinished() {
+        return finished;
+    }
+
+    /**
+     * Mark a line as finished with.
+     *
+     * @param line the line number, counting from one
+     */
+    synchronized void finish(long line) {
+        if (line <= finished) {
+            return;
+        }
+        finishedAhead.add(line);
+        while (finishedAhead.remove(finished + 1)) {
+            finished++;
+        }
+    }
+
+    /**
+     * Write the checkpoint, replacing the previous one in a single step.
+     */
+    void save() throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(temporary, Long.toString(getFinished()), StandardCharsets.UTF_8);
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,324 @@
+package uk.gov.companieshouse.company.links.backfill;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.api.company.CompanyProfile;
+import uk.gov.companieshouse.api.company.Data;
+import uk.gov.companieshouse.api.model.ApiResponse;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.processor.CompanyProfileStreamProcessor;
+import uk.gov.companieshouse.company.links.service.CompanyProfileService;
+import uk.gov.companieshouse.company.links.type.LinkType;
+import uk.gov.companieshouse.company.links.util.RateLimit;
+import uk.gov.companieshouse.logging.Logger;
+
+/**
+ * Reconciles the links of every company listed in a file, outside the streaming path. Each
+ * company's profile is read from company-profile-api and the same lookups as a Company Profile
+ * ResourceChanged message are made for its missing links, so only the PATCHes that are needed
+ * are sent. With apply off nothing is patched and the report lists the links that are missing.
+ *
+ * <p>The input is either NDJSON, with a {@code company_number} field on each line, or CSV with
+ * the company number in the first column. Companies are reconciled in parallel, with the calls
+ * to each API, including each PATCH, spaced out to its configured rate. Every company gets a
+ * line in the report, listing any links patched before a failure, and a checkpoint next to the
+ * report records how much of the input has been finished with, so running the backfill again
+ * with the same report resumes where it stopped.</p>
+ */
+@Component
+public class LinkBackfill {
+
+    static final String METRIC_NAME = "company.links.backfill";
+    static final String COMPANY_PROFILE_API = "company-profile";
+    static final Set<LinkType> RECONCILED_LINKS = Collections.unmodifiableSet(EnumSet.of(
+            LinkType.CHARGES, LinkType.EXEMPTIONS, LinkType.FILING_HISTORY,
+            LinkType.INSOLVENCY, LinkType.OFFICERS, LinkType.PSCS, LinkType.STATEMENTS));
+
+    private static final String RATE_LIMIT_PREFIX = "company-links.consumer.backfill.rate-limit.";
+    private static final String REPORT_HEADER = "company_number,outcome,links,detail";
+    private static final String COMPANY_NUMBER_FIELD = "company_number";
+    private static final long SHUTDOWN_TIMEOUT_MINUTES = 10L;
+
+    /**
+     * What reconciling a company came to.
+     */
+    public enum Outcome {
+        UNCHANGED,
+        PATCHED,
+        MISSING,
+        NOT_FOUND,
+        FAILED
+    }
+
+    private final int parallelism;
+    private final long checkpointInterval;
+    private final Environment environment;
+    private final CompanyProfileService companyProfileService;
+    private final CompanyProfileStreamProcessor companyProfileStreamProcessor;
+    private final ObjectMapper objectMapper;
+    private final Logger logger;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, RateLimit> rateLimits = new ConcurrentHashMap<>();
+
+    /**
+     * Construct the link backfill.
+     */
+    public LinkBackfill(
+            @Value("${company-links.consumer.backfill.parallelism}") int parallelism,
+            @Value("${company-links.consumer.backfill.checkpoint-interval}")
+                    long checkpointInterval,
+            Environment environment, CompanyProfileService companyProfileService,
+            CompanyProfileStreamProcessor companyProfileStreamProcessor,
+            ObjectMapper objectMapper, Logger logger, MeterRegistry meterRegistry) {
+        this.parallelism = Math.max(parallelism, 1);
+        this.checkpointInterval = Math.max(checkpointInterval, 1L);
+        this.environment = environment;
+        this.companyProfileService = companyProfileService;
+        this.companyProfileStreamProcessor = companyProfileStreamProcessor;
+        this.objectMapper = objectMapper;
+        this.logger = logger;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Reconcile every company in the input, resuming from the checkpoint for the report if
+     * there is one.
+     *
+     * @param input  an NDJSON or CSV file of company numbers
+     * @param report the CSV file to append each company's outcome to
+     * @param apply  false to report the missing links without patching them
+     * @return how many companies came to each outcome
+     */
+    public Map<Outcome, Long> run(Path input, Path report, boolean apply)
+            throws IOException, InterruptedException {
+        BackfillCheckpoint checkpoint = BackfillCheckpoint.load(
+                report.resolveSibling(report.getFileName() + ".checkpoint"));
+        long resumeAfter = checkpoint.getFinished();
+        boolean ndjson = isNdjson(input);
+        Map<Outcome, LongAdder> counts = new EnumMap<>(Outcome.class);
+        for (Outcome outcome : Outcome.values()) {
+            counts.put(outcome, new LongAdder());
+        }
+        AtomicReference<IOException> reportFailure = new AtomicReference<>();
+        logger.info(String.format("Starting link backfill of %s from line %d, %s", input,
+                resumeAfter + 1, apply ? "patching missing links" : "reporting only"),
+                DataMapHolder.getLogMap());
+
+        boolean newReport = !Files.exists(report) || Files.size(report) == 0L;
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+                BufferedWriter writer = Files.newBufferedWriter(report, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (newReport) {
+                writer.write(REPORT_HEADER);
+                writer.newLine();
+            }
+            ExecutorService workers = Executors.newFixedThreadPool(parallelism,
+                    new CustomizableThreadFactory("backfill-"));
+            Semaphore queued = new Semaphore(parallelism * 2);
+            try {
+                long lineNumber = 0L;
+                String line;
+                while (reportFailure.get() == null && (line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (lineNumber <= resumeAfter) {
+                        continue;
+                    }
+                    String companyNumber = companyNumber(line, ndjson);
+                    if (companyNumber == null) {
+                        checkpoint.finish(lineNumber);
+                        continue;
+                    }
+                    queued.acquire();
+                    long current = lineNumber;
+                    workers.execute(() -> {
+                        try {
+                            Result result = reconcile(companyNumber, apply);
+                            synchronized (writer) {
+                                writer.write(result.toReportLine(companyNumber));
+                                writer.newLine();
+                            }
+                            counts.get(result.outcome).increment();
+                            meterRegistry.counter(METRIC_NAME, "outcome",
+                                    result.outcome.name().toLowerCase()).increment();
+                            checkpoint.finish(current);
+                        } catch (IOException exception) {
+                            reportFailure.compareAndSet(null, exception);
+                        } finally {
+                            queued.release();
+                        }
+                    });
+                    if ((lineNumber - resumeAfter) % checkpointInterval == 0L) {
+                        save(writer, checkpoint, counts);
+                    }
+                }
+            } finally {
+                workers.shutdown();
+                if (!workers.awaitTermination(SHUTDOWN_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                    workers.shutdownNow();
+                }
+            }
+            save(writer, checkpoint, counts);
+        }
+        if (reportFailure.get() != null) {
+            throw reportFailure.get();
+        }
+
+        Map<Outcome, Long> totals = new EnumMap<>(Outcome.class);
+        counts.forEach((outcome, count) -> totals.put(outcome, count.sum()));
+        logger.info(String.format("Finished link backfill of %s, %s", input, totals),
+                DataMapHolder.getLogMap());
+        return totals;
+    }
+
+    private Result reconcile(String companyNumber, boolean apply) {
+        String contextId = "link-backfill-" + UUID.randomUUID();
+        DataMapHolder.initialise(contextId);
+        DataMapHolder.get().companyNumber(companyNumber);
+        Set<LinkType> added = EnumSet.noneOf(LinkType.class);
+        try {
+            rateLimit(COMPANY_PROFILE_API).acquire(1);
+            ApiResponse<CompanyProfile> response = companyProfileService.getCompanyProfile(
+                    contextId, companyNumber);
+            if (response.getStatusCode() == 404) {
+                return new Result(Outcome.NOT_FOUND, Set.of(), null);
+            }
+            if (response.getStatusCode() != 200 || response.getData() == null) {
+                return new Result(Outcome.FAILED, Set.of(), String.format(
+                        "company-profile-api responded with status %d",
+                        response.getStatusCode()));
+            }
+            Data data = response.getData().getData();
+            for (LinkType type : RECONCILED_LINKS) {
+                if (type.getLink(data == null ? null : data.getLinks()) == null) {
+                    rateLimit(apiFor(type)).acquire(1);
+                }
+            }
+            companyProfileStreamProcessor.reconcileLinks(contextId, companyNumber, data, apply,
+                    this::acquirePatchPermit, added);
+            if (added.isEmpty()) {
+                return new Result(Outcome.UNCHANGED, added, null);
+            }
+            return new Result(apply ? Outcome.PATCHED : Outcome.MISSING, added, null);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return new Result(Outcome.FAILED, added, "Interrupted");
+        } catch (RuntimeException exception) {
+            logger.info(String.format("Link backfill of company %s failed", companyNumber),
+                    DataMapHolder.getLogMap());
+            // the links added before the failure are reported, so a rerun is not a surprise
+            return new Result(Outcome.FAILED, added, exception.getMessage());
+        } finally {
+            DataMapHolder.clear();
+        }
+    }
+
+    /**
+     * Wait for a permit to call company-profile-api before each link is patched.
+     */
+    private void acquirePatchPermit() {
+        try {
+            rateLimit(COMPANY_PROFILE_API).acquire(1);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new RetryableErrorException("Interrupted waiting to patch links", exception);
+        }
+    }
+
+    private void save(BufferedWriter writer, BackfillCheckpoint checkpoint,
+            Map<Outcome, LongAdder> counts) throws IOException {
+        // the report must hold every line the checkpoint says is finished
+        synchronized (writer) {
+            writer.flush();
+        }
+        checkpoint.save();
+        logger.info(String.format("Link backfill finished with %d lines, %s",
+                checkpoint.getFinished(), counts), DataMapHolder.getLogMap());
+    }
+
+    private RateLimit rateLimit(String api) {
+        return rateLimits.computeIfAbsent(api, key -> new RateLimit(environment.getProperty(
+                RATE_LIMIT_PREFIX + key, Double.class,
+                environment.getRequiredProperty(RATE_LIMIT_PREFIX + "default", Double.class))));
+    }
+
+    static String apiFor(LinkType type) {
+        return type.name().toLowerCase().replace('_', '-');
+    }
+
+    private static boolean isNdjson(Path input) {
+        String name = input.getFileName().toString().toLowerCase();
+        return name.endsWith(".ndjson") || name.endsWith(".jsonl") || name.endsWith(".json");
+    }
+
+    String companyNumber(String line, boolean ndjson) {
+        if (StringUtils.isBlank(line)) {
+            return null;
+        }
+        String companyNumber;
+        if (ndjson) {
+            try {
+                JsonNode node = objectMapper.readTree(line).get(COMPANY_NUMBER_FIELD);
+                companyNumber = node == null ? null : node.asText();
+            } catch (IOException exception) {
+                logger.info(String.format("Skipping unreadable backfill line %s", line),
+                        DataMapHolder.getLogMap());
+                return null;
+            }
+        } else {
+            companyNumber = StringUtils.strip(StringUtils.substringBefore(line, ","), " \"");
+        }
+        if (StringUtils.isBlank(companyNumber)
+                || COMPANY_NUMBER_FIELD.equalsIgnoreCase(companyNumber)) {
+            return null;
+        }
+        return companyNumber.trim().toUpperCase();
+    }
+
+    private static final class Result {
+
+        private final Outcome outcome;
+        private final Set<LinkType> links;
+        private final String detail;
+
+        private Result(Outcome outcome, Set<LinkType> links, String detail) {
+            this.outcome = outcome;
+            this.links = links;
+            this.detail = detail;
+        }
+
+        private String toReportLine(String companyNumber) {
+            return String.join(",", companyNumber, outcome.name().toLowerCase(),
+                    links.stream().sorted().map(LinkType::getField)
+                            .collect(Collectors.joining("|")),
+                    detail == null ? "" : "\"" + detail.replace("\"", "\"\"") + "\"");
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package uk.gov.companieshouse.company.links.backfill;
+
+import java.nio.file.Path;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.logging.Logger;
+
+/**
+ * Runs the {@link LinkBackfill} as a batch job when an input file is configured, and then shuts
+ * the application down with a non-zero exit code if any company failed. The stream consumers
+ * should be disabled for an instance started this way.
+ */
+@Component
+public class LinkBackfillRunner implements ApplicationRunner {
+
+    private final String input;
+    private final String report;
+    private final boolean apply;
+    private final LinkBackfill linkBackfill;
+    private final ConfigurableApplicationContext applicationContext;
+    private final Logger logger;
+
+    /**
+     * Construct the link backfill runner.
+     */
+    public LinkBackfillRunner(@Value("${company-links.consumer.backfill.input}") String input,
+            @Value("${company-links.consumer.backfill.report}") String report,
+            @Value("${company-links.consumer.backfill.apply}") boolean apply,
+            LinkBackfill linkBackfill, ConfigurableApplicationContext applicationContext,
+            Logger logger) {
+        this.input = input;
+        this.report = report;
+        this.apply = apply;
+        this.linkBackfill = linkBackfill;
+        this.applicationContext = applicationContext;
+        this.logger = logger;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        if (StringUtils.isBlank(input)) {
+            return;
+        }
+        int exitCode;
+        try {
+            Map<LinkBackfill.Outcome, Long> totals = linkBackfill.run(Path.of(input),
+                    Path.of(report), apply);
+            exitCode = totals.get(LinkBackfill.Outcome.FAILED) == 0L ? 0 : 1;
+        } catch (Exception exception) {
+            logger.error(String.format("Link backfill of %s failed", input), exception,
+                    DataMapHolder.getLogMap());
+            exitCode = 2;
+        }
+        int code = exitCode;
+        System.exit(SpringApplication.exit(applicationContext, () -> code));
+    }
+}
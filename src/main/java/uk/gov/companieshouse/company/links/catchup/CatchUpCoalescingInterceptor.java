@@ -0,0 +1,92 @@
+package uk.gov.companieshouse.company.links.catchup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.kafka.clients.consumer.ConsumerInterceptor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+/**
+ * Drops the records in a poll that are replaced by a later record for the same resource in the
+ * same partition, for topics in {@link CatchUpMode}. Links only depend on where a resource has
+ * ended up, so the latest event for it is the only one that needs processing. The dropped
+ * records are covered by the offset committed for the later one, as it follows them in the
+ * same partition.
+ *
+ * <p>The interceptor is created by the Kafka consumer, so the {@link CatchUpMode} is passed to
+ * it in the consumer configuration.</p>
+ */
+public class CatchUpCoalescingInterceptor implements ConsumerInterceptor<Object, Object> {
+
+    public static final String CATCH_UP_MODE_CONFIG = "company.links.catch-up.mode";
+
+    private CatchUpMode catchUpMode;
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        if (configs.get(CATCH_UP_MODE_CONFIG) instanceof CatchUpMode configured) {
+            catchUpMode = configured;
+        }
+    }
+
+    @Override
+    public ConsumerRecords<Object, Object> onConsume(ConsumerRecords<Object, Object> records) {
+        if (catchUpMode == null || records.isEmpty()) {
+            return records;
+        }
+        Map<TopicPartition, List<ConsumerRecord<Object, Object>>> kept = new HashMap<>();
+        int dropped = 0;
+        for (TopicPartition partition : records.partitions()) {
+            List<ConsumerRecord<Object, Object>> partitionRecords = records.records(partition);
+            if (!catchUpMode.isCatchingUp(partition.topic())) {
+                kept.put(partition, partitionRecords);
+                continue;
+            }
+            List<ConsumerRecord<Object, Object>> latest = latestPerResource(partitionRecords);
+            dropped += partitionRecords.size() - latest.size();
+            kept.put(partition, latest);
+        }
+        if (dropped == 0) {
+            return records;
+        }
+        catchUpMode.recordCoalesced(dropped);
+        return new ConsumerRecords<>(kept);
+    }
+
+    @Override
+    public void onCommit(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        // nothing to do
+    }
+
+    @Override
+    public void close() {
+        // nothing to do
+    }
+
+    /**
+     * The records that are the last for their resource, in their original order. Records that
+     * are not resource changes, such as those that failed to deserialise, are always kept.
+     */
+    static List<ConsumerRecord<Object, Object>> latestPerResource(
+            List<ConsumerRecord<Object, Object>> records) {
+        Set<String> seen = new HashSet<>();
+        List<ConsumerRecord<Object, Object>> latest = new ArrayList<>();
+        for (int i = records.size() - 1; i >= 0; i--) {
+            ConsumerRecord<Object, Object> record = records.get(i);
+            if (!(record.value() instanceof ResourceChangedData payload)
+                    || payload.getResourceUri() == null || seen.add(payload.getResourceUri())) {
+                latest.add(record);
+            }
+        }
+        Collections.reverse(latest);
+        return latest;
+    }
+}
@@ -0,0 +1,225 @@
+package uk.gov.companieshouse.company.links.catchup;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.concurrency.ContainerRestarts;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.logging.Logger;
+
+/**
+ * Switches a main topic listener into catch-up mode while its lag is above a threshold, and
+ * back once the lag falls below a lower one, so a backlog after an outage is worked off for
+ * throughput rather than latency.
+ *
+ * <p>In catch-up mode the listener is restarted to commit once per poll rather than once per
+ * record, and to fetch larger polls, through {@link ContainerRestarts} so it never races a
+ * concurrency change to the same listener. The {@link CatchUpCoalescingInterceptor} drops
+ * the records in each poll that a later record for the same resource in the same partition
+ * replaces, and only a sample of the records processed write their per-record log lines.
+ * Errors are always logged. Lag is the sum of the consumers' per-partition
+ * {@code records-lag} metrics, so no extra broker calls are made.</p>
+ */
+@Component
+public class CatchUpMode implements InitializingBean, DisposableBean {
+
+    static final String METRIC_NAME = "company.links.catch-up";
+
+    private static final String LAG_METRIC = "records-lag";
+    private static final String PARTITION_TAG = "partition";
+    private static final String RETRY_SUFFIX = "-retry";
+    private static final String ERROR_SUFFIX = "-error";
+
+    private final boolean enabled;
+    private final long enterLag;
+    private final long exitLag;
+    private final long intervalMs;
+    private final int logSampleRate;
+    private final int maxPollRecords;
+    private final KafkaListenerEndpointRegistry registry;
+    private final ContainerRestarts containerRestarts;
+    private final Logger logger;
+    private final Set<String> catchingUp = ConcurrentHashMap.newKeySet();
+    private final Map<String, AtomicLong> logged = new ConcurrentHashMap<>();
+    private final Counter enteredCounter;
+    private final Counter exitedCounter;
+    private final Counter coalescedCounter;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Construct the catch-up mode controller.
+     */
+    public CatchUpMode(
+            @Value("${company-links.consumer.catch-up.enable}") boolean enabled,
+            @Value("${company-links.consumer.catch-up.enter-lag}") long enterLag,
+            @Value("${company-links.consumer.catch-up.exit-lag}") long exitLag,
+            @Value("${company-links.consumer.catch-up.interval-ms}") long intervalMs,
+            @Value("${company-links.consumer.catch-up.log-sample-rate}") int logSampleRate,
+            @Value("${company-links.consumer.catch-up.max-poll-records}") int maxPollRecords,
+            KafkaListenerEndpointRegistry registry, ContainerRestarts containerRestarts,
+            Logger logger, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.enterLag = enterLag;
+        this.exitLag = Math.min(exitLag, enterLag);
+        this.intervalMs = intervalMs;
+        this.logSampleRate = Math.max(logSampleRate, 1);
+        this.maxPollRecords = Math.max(maxPollRecords, 1);
+        this.registry = registry;
+        this.containerRestarts = containerRestarts;
+        this.logger = logger;
+        this.enteredCounter = meterRegistry.counter(METRIC_NAME, "outcome", "entered");
+        this.exitedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "exited");
+        this.coalescedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "coalesced");
+        meterRegistry.gauge(METRIC_NAME + ".topics", catchingUp, Set::size);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("catch-up-mode-"));
+        scheduler.scheduleWithFixedDelay(this::check, intervalMs, intervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * True while the given topic is in catch-up mode.
+     */
+    public boolean isCatchingUp(String topic) {
+        return catchingUp.contains(topic);
+    }
+
+    /**
+     * Whether a record read from the given topic should write its per-record log lines.
+     */
+    public boolean shouldLog(String topic) {
+        if (!isCatchingUp(topic)) {
+            return true;
+        }
+        return logged.computeIfAbsent(topic, key -> new AtomicLong())
+                .getAndIncrement() % logSampleRate == 0;
+    }
+
+    void recordCoalesced(int records) {
+        coalescedCounter.increment(records);
+    }
+
+    /**
+     * Compare each running main topic listener's lag with the thresholds and switch it into or
+     * out of catch-up mode.
+     */
+    synchronized void check() {
+        try {
+            for (MessageListenerContainer container : registry.getListenerContainers()) {
+                if (!(container instanceof ConcurrentMessageListenerContainer<?, ?> listener)
+                        || !isMainTopic(listener) || !listener.isRunning()
+                        || listener.isPauseRequested()
+                        || containerRestarts.isRestarting(listener)
+                        || isManuallyAcknowledged(listener)) {
+                    continue;
+                }
+                String topic = listener.getContainerProperties().getTopics()[0];
+                long lag = lagOf(listener);
+                if (!isCatchingUp(topic) && lag > enterLag) {
+                    switchMode(listener, topic, true, lag);
+                } else if (isCatchingUp(topic) && lag < exitLag) {
+                    switchMode(listener, topic, false, lag);
+                }
+            }
+        } catch (RuntimeException exception) {
+            logger.error("Unable to check catch-up mode", exception, DataMapHolder.getLogMap());
+        }
+    }
+
+    private void switchMode(ConcurrentMessageListenerContainer<?, ?> container, String topic,
+            boolean catchUp, long lag) {
+        boolean restarted = containerRestarts.restart(container, () -> {
+            ContainerProperties properties = container.getContainerProperties();
+            if (catchUp) {
+                properties.setAckMode(ContainerProperties.AckMode.BATCH);
+                properties.getKafkaConsumerProperties().setProperty(
+                        ConsumerConfig.MAX_POLL_RECORDS_CONFIG, String.valueOf(maxPollRecords));
+            } else {
+                properties.setAckMode(ContainerProperties.AckMode.RECORD);
+                properties.getKafkaConsumerProperties().remove(
+                        ConsumerConfig.MAX_POLL_RECORDS_CONFIG);
+            }
+        });
+        if (!restarted) {
+            return;
+        }
+        if (catchUp) {
+            catchingUp.add(topic);
+            enteredCounter.increment();
+        } else {
+            catchingUp.remove(topic);
+            logged.remove(topic);
+            exitedCounter.increment();
+        }
+        logger.info(String.format("%s catch-up mode for %s, lag is %d",
+                catchUp ? "Entering" : "Leaving", topic, lag), DataMapHolder.getLogMap());
+    }
+
+    private static long lagOf(MessageListenerContainer container) {
+        double lag = 0.0;
+        for (Map<MetricName, ? extends Metric> metrics : container.metrics().values()) {
+            for (Map.Entry<MetricName, ? extends Metric> metric : metrics.entrySet()) {
+                if (LAG_METRIC.equals(metric.getKey().name())
+                        && metric.getKey().tags().containsKey(PARTITION_TAG)
+                        && metric.getValue().metricValue() instanceof Double value
+                        && !value.isNaN()) {
+                    lag += value;
+                }
+            }
+        }
+        return (long) lag;
+    }
+
+    /**
+     * A listener that acknowledges records itself, such as the multi-topic listener, keeps
+     * its acknowledgement mode.
+     */
+    private static boolean isManuallyAcknowledged(MessageListenerContainer container) {
+        ContainerProperties.AckMode ackMode = container.getContainerProperties().getAckMode();
+        return ackMode == ContainerProperties.AckMode.MANUAL
+                || ackMode == ContainerProperties.AckMode.MANUAL_IMMEDIATE;
+    }
+
+    private static boolean isMainTopic(MessageListenerContainer container) {
+        String[] topics = container.getContainerProperties().getTopics();
+        return topics != null && topics.length > 0 && Arrays.stream(topics).noneMatch(topic ->
+                topic.endsWith(RETRY_SUFFIX) || topic.endsWith(ERROR_SUFFIX));
+    }
+}
@@ -0,0 +1,249 @@
+package uk.gov.companieshouse.company.links.concurrency;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.retry.DownstreamBreakers;
+import uk.gov.companieshouse.company.links.retry.RetryBudget;
+import uk.gov.companieshouse.logging.Logger;
+
+/**
+ * Scales the concurrency of each main topic listener between configured bounds, so quiet
+ * topics run on the minimum number of consumers and busy ones get enough to work off their lag
+ * within the target drain time.
+ *
+ * <p>Each topic's lag is the sum of its consumers' per-partition {@code records-lag} metrics
+ * and its processing rate the sum of their {@code records-consumed-rate}, so no extra broker
+ * calls are made. The concurrency wanted is the lag divided by what one consumer processes in
+ * the drain time. Listeners acknowledge each record before taking the next, so the number of
+ * consumers is also the number of records in flight for the topic. While the topic's
+ * {@link DownstreamBreakers} breaker is open, or the {@link RetryBudget} is exhausted, more
+ * consumers would only add load to a saturated downstream, so the topic is scaled down
+ * instead.</p>
+ *
+ * <p>A listener's concurrency can only be changed while it is stopped, so each change restarts
+ * the listener and costs a rebalance of its partitions. Scaling up may double the consumers at
+ * once, scaling down removes one at a time, and a topic is left alone for the cooldown after
+ * each change. Restarts go through {@link ContainerRestarts}, so a listener that catch-up mode
+ * is restarting is left alone until it is running again. With static membership the consumers
+ * removed keep their partitions until their session times out.</p>
+ *
+ * <p>Each instance also publishes the number of instances its own share of the lag needs, at
+ * the maximum concurrency, for its busiest topic. Summed across the deployment this is the
+ * recommended replica count, which is what an autoscaler targeting an average value of one per
+ * instance works out.</p>
+ */
+@Component
+public class AdaptiveConcurrency implements InitializingBean, DisposableBean {
+
+    static final String METRIC_NAME = "company.links.concurrency";
+
+    private static final String LAG_METRIC = "records-lag";
+    private static final String RATE_METRIC = "records-consumed-rate";
+    private static final String PARTITION_TAG = "partition";
+    private static final String TOPIC_TAG = "topic";
+    private static final String RETRY_SUFFIX = "-retry";
+    private static final String ERROR_SUFFIX = "-error";
+
+    private final boolean enabled;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final long drainSeconds;
+    private final long intervalMs;
+    private final long cooldownMs;
+    private final KafkaListenerEndpointRegistry registry;
+    private final ContainerRestarts containerRestarts;
+    private final DownstreamBreakers downstreamBreakers;
+    private final RetryBudget retryBudget;
+    private final Logger logger;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, AtomicInteger> concurrencies = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastChanged = new ConcurrentHashMap<>();
+    private final Counter scaledUpCounter;
+    private final Counter scaledDownCounter;
+    private ScheduledExecutorService scheduler;
+    private volatile double replicaDemand;
+
+    /**
+     * Construct the adaptive concurrency controller.
+     */
+    public AdaptiveConcurrency(
+            @Value("${company-links.consumer.adaptive-concurrency.enable}") boolean enabled,
+            @Value("${company-links.consumer.adaptive-concurrency.min}") int minConcurrency,
+            @Value("${company-links.consumer.adaptive-concurrency.max}") int maxConcurrency,
+            @Value("${company-links.consumer.adaptive-concurrency.drain-seconds}")
+                    long drainSeconds,
+            @Value("${company-links.consumer.adaptive-concurrency.interval-ms}") long intervalMs,
+            @Value("${company-links.consumer.adaptive-concurrency.cooldown-ms}") long cooldownMs,
+            KafkaListenerEndpointRegistry registry, ContainerRestarts containerRestarts,
+            DownstreamBreakers downstreamBreakers, RetryBudget retryBudget, Logger logger,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.minConcurrency = Math.max(minConcurrency, 1);
+        this.maxConcurrency = Math.max(maxConcurrency, this.minConcurrency);
+        this.drainSeconds = Math.max(drainSeconds, 1L);
+        this.intervalMs = intervalMs;
+        this.cooldownMs = cooldownMs;
+        this.registry = registry;
+        this.containerRestarts = containerRestarts;
+        this.downstreamBreakers = downstreamBreakers;
+        this.retryBudget = retryBudget;
+        this.logger = logger;
+        this.meterRegistry = meterRegistry;
+        this.scaledUpCounter = meterRegistry.counter(METRIC_NAME, "outcome", "scaled-up");
+        this.scaledDownCounter = meterRegistry.counter(METRIC_NAME, "outcome", "scaled-down");
+        meterRegistry.gauge(METRIC_NAME + ".replica.demand", this,
+                AdaptiveConcurrency::getReplicaDemand);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("adaptive-concurrency-"));
+        scheduler.scheduleWithFixedDelay(this::check, intervalMs, intervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * The number of instances this instance's share of the lag needs for its busiest topic.
+     */
+    public double getReplicaDemand() {
+        return replicaDemand;
+    }
+
+    /**
+     * Work out the concurrency each running main topic listener needs and restart any that are
+     * due a change.
+     */
+    synchronized void check() {
+        double demand = 0.0;
+        try {
+            for (MessageListenerContainer container : registry.getListenerContainers()) {
+                if (container instanceof ConcurrentMessageListenerContainer<?, ?> listener
+                        && isMainTopic(listener) && listener.isRunning()
+                        && !listener.isPauseRequested()
+                        && !containerRestarts.isRestarting(listener)) {
+                    demand = Math.max(demand, adjust(listener));
+                }
+            }
+            replicaDemand = demand;
+        } catch (RuntimeException exception) {
+            logger.error("Unable to adjust listener concurrency", exception,
+                    DataMapHolder.getLogMap());
+        }
+    }
+
+    /**
+     * The number of consumers needed to work off the lag within the drain time, before the
+     * bounds are applied.
+     *
+     * @param lag           the records waiting to be consumed
+     * @param ratePerThread the records one consumer processes each second
+     * @param current       the current number of consumers
+     * @param drainSeconds  the time the lag should be worked off in
+     */
+    static int desiredConcurrency(long lag, double ratePerThread, int current,
+            long drainSeconds) {
+        if (lag <= 0) {
+            return 0;
+        }
+        if (ratePerThread <= 0.0) {
+            // nothing processed yet, so there is nothing to base a change on
+            return current;
+        }
+        return (int) Math.min(Integer.MAX_VALUE,
+                Math.ceil(lag / (ratePerThread * drainSeconds)));
+    }
+
+    private double adjust(ConcurrentMessageListenerContainer<?, ?> container) {
+        String topic = container.getContainerProperties().getTopics()[0];
+        int current = container.getConcurrency();
+        concurrencies.computeIfAbsent(topic, key -> meterRegistry.gauge(
+                METRIC_NAME + ".threads", Tags.of(TOPIC_TAG, key), new AtomicInteger()))
+                .set(current);
+
+        long lag = (long) sumOf(container, LAG_METRIC, true);
+        double rate = sumOf(container, RATE_METRIC, false);
+        boolean saturated = downstreamBreakers.isOpen(topic) || retryBudget.isExhausted();
+        int desired = saturated ? current - 1
+                : desiredConcurrency(lag, rate / current, current, drainSeconds);
+        int target = Math.min(Math.max(desired, minConcurrency), maxConcurrency);
+        if (target > current) {
+            target = Math.min(target, current * 2);
+        } else if (target < current) {
+            target = current - 1;
+        }
+
+        Long changed = lastChanged.get(topic);
+        if (target != current
+                && (changed == null || System.currentTimeMillis() - changed >= cooldownMs)) {
+            restart(container, topic, current, target, lag);
+        }
+        return (double) (saturated ? current : Math.max(desired, minConcurrency))
+                / maxConcurrency;
+    }
+
+    private void restart(ConcurrentMessageListenerContainer<?, ?> container, String topic,
+            int current, int target, long lag) {
+        if (!containerRestarts.restart(container, () -> container.setConcurrency(target))) {
+            return;
+        }
+        lastChanged.put(topic, System.currentTimeMillis());
+        (target > current ? scaledUpCounter : scaledDownCounter).increment();
+        logger.info(String.format("Changing concurrency of %s from %d to %d, lag is %d", topic,
+                current, target, lag), DataMapHolder.getLogMap());
+    }
+
+    private static double sumOf(MessageListenerContainer container, String name,
+            boolean perPartition) {
+        double sum = 0.0;
+        for (Map<MetricName, ? extends Metric> metrics : container.metrics().values()) {
+            for (Map.Entry<MetricName, ? extends Metric> metric : metrics.entrySet()) {
+                MetricName metricName = metric.getKey();
+                // per-partition lag, and the consumer's total rate rather than per topic
+                boolean wanted = perPartition ? metricName.tags().containsKey(PARTITION_TAG)
+                        : !metricName.tags().containsKey(TOPIC_TAG);
+                if (name.equals(metricName.name()) && wanted
+                        && metric.getValue().metricValue() instanceof Double value
+                        && !value.isNaN()) {
+                    sum += value;
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static boolean isMainTopic(MessageListenerContainer container) {
+        String[] topics = container.getContainerProperties().getTopics();
+        return topics != null && topics.length > 0 && Arrays.stream(topics).noneMatch(topic ->
+                topic.endsWith(RETRY_SUFFIX) || topic.endsWith(ERROR_SUFFIX));
+    }
+}
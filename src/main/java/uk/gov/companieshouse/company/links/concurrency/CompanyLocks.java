@@ -0,0 +1,107 @@
+package uk.gov.companieshouse.company.links.concurrency;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+
+/**
+ * Striped locks keyed by company number, shared by every processor in the instance. Holding the
+ * lock for a company while its links are read and patched stops events from different topics
+ * for the same company overwriting each other's updates.
+ */
+@Component
+public class CompanyLocks {
+
+    static final String METRIC_PREFIX = "company.links.lock";
+
+    private final boolean enabled;
+    private final ReentrantLock[] stripes;
+    private final long timeoutMs;
+    private final Timer waitTimer;
+    private final Counter contendedCounter;
+    private final Counter timeoutCounter;
+
+    /**
+     * Construct the company locks.
+     */
+    public CompanyLocks(
+            @Value("${company-links.consumer.company-lock.enable}") boolean enabled,
+            @Value("${company-links.consumer.company-lock.stripes}") int stripes,
+            @Value("${company-links.consumer.company-lock.timeout-ms}") long timeoutMs,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.stripes = new ReentrantLock[powerOfTwoAtLeast(stripes)];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.timeoutMs = timeoutMs;
+        this.waitTimer = meterRegistry.timer(METRIC_PREFIX + ".wait");
+        this.contendedCounter = meterRegistry.counter(METRIC_PREFIX + ".contended");
+        this.timeoutCounter = meterRegistry.counter(METRIC_PREFIX + ".timeout");
+    }
+
+    /**
+     * Run the action while holding the lock for the given company. Actions for a blank company
+     * number are run without locking and left to fail their own validation.
+     *
+     * @param companyNumber the company the action reads and updates
+     * @param action        the action to run
+     * @throws RetryableErrorException if the lock could not be acquired in time
+     */
+    public void withLock(String companyNumber, Runnable action) {
+        if (!enabled || StringUtils.isBlank(companyNumber)) {
+            action.run();
+            return;
+        }
+
+        ReentrantLock lock = stripeFor(companyNumber);
+        acquire(lock, companyNumber);
+        try {
+            action.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void acquire(ReentrantLock lock, String companyNumber) {
+        if (lock.tryLock()) {
+            return;
+        }
+
+        contendedCounter.increment();
+        long start = System.nanoTime();
+        try {
+            if (!lock.tryLock(timeoutMs, TimeUnit.MILLISECONDS)) {
+                timeoutCounter.increment();
+                throw new RetryableErrorException(String.format(
+                        "Timed out waiting for lock on company number %s", companyNumber));
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new RetryableErrorException(String.format(
+                    "Interrupted waiting for lock on company number %s", companyNumber),
+                    exception);
+        } finally {
+            waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    ReentrantLock stripeFor(String companyNumber) {
+        int hash = companyNumber.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static int powerOfTwoAtLeast(int value) {
+        int result = 1;
+        while (result < value) {
+            result <<= 1;
+        }
+        return result;
+    }
+}
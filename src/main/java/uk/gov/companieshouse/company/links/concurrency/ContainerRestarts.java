@@ -0,0 +1,53 @@
+package uk.gov.companieshouse.company.links.concurrency;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Restarts listener containers to change settings that only take effect while they are
+ * stopped, for every controller that does so, so that two controllers never stop and start the
+ * same container at once. A container is restarted by one controller at a time, and a request
+ * to restart a container that is already being restarted is refused rather than queued, as the
+ * controller will look at it again on its next check.
+ */
+@Component
+public class ContainerRestarts {
+
+    private final Set<MessageListenerContainer> restarting = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Whether the container is being restarted.
+     */
+    public boolean isRestarting(MessageListenerContainer container) {
+        return restarting.contains(container);
+    }
+
+    /**
+     * Stop the container, apply the change once it has stopped and start it again.
+     *
+     * @param container    the container to restart
+     * @param whileStopped the change to make while the container is stopped
+     * @return false if the container is already being restarted, so nothing was done
+     */
+    public boolean restart(MessageListenerContainer container, Runnable whileStopped) {
+        if (!restarting.add(container)) {
+            return false;
+        }
+        try {
+            container.stop(() -> {
+                try {
+                    whileStopped.run();
+                    container.start();
+                } finally {
+                    restarting.remove(container);
+                }
+            });
+        } catch (RuntimeException exception) {
+            restarting.remove(container);
+            throw exception;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,337 @@
+package uk.gov.companieshouse.company.links.concurrency;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerContainerFactory;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.config.SimpleKafkaListenerEndpoint;
+import org.springframework.kafka.listener.BatchAcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.retry.ErrorTopicPublisher;
+import uk.gov.companieshouse.company.links.retry.ListenerMethods;
+import uk.gov.companieshouse.company.links.retry.RetryPolicies;
+import uk.gov.companieshouse.company.links.retry.RetryTopicPublisher;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+/**
+ * Reads every main topic with a single listener container, one consumer per thread, and hands
+ * the records in each poll to a shared work-stealing pool that calls the listener for each
+ * record's topic, in place of the per-topic main listener containers. Low-volume topics then
+ * share threads and consumers with the busy ones rather than each holding their own.
+ *
+ * <p>The container is made by the main listener container factory and registered with the
+ * {@link KafkaListenerEndpointRegistry}, so it is paused, resized and restarted along with
+ * every other listener. A downstream breaker for one of its topics pauses only that topic's
+ * partitions, so the other topics carry on.</p>
+ *
+ * <p>Records for the same resource are processed in the order they were read. The consumer
+ * thread waits for every record in the poll, which holds at most the configured number in
+ * flight, and then acknowledges the whole poll. Records go through the listener aspects as
+ * fresh records, so the usual deferral and parking apply; a record that still fails, or that
+ * is backed off, is published through the {@link RetryTopicPublisher}, or to its error topic
+ * if it cannot be retried. Only a record that cannot be handed on at all is read again: the
+ * offsets before it on its partition are committed along with the rest of the poll, the
+ * partition is sought back to it and paused for a short sleep, and the records after it that
+ * were already processed are skipped when they are read again. Records after it for the same
+ * resource are not processed until then. The retry topic containers are left as they are, so
+ * the group ID here must be the one the main topic listeners use.</p>
+ */
+@Component
+public class MultiTopicListener implements SmartInitializingSingleton, DisposableBean {
+
+    public static final String LISTENER_ID = "multi-topic-consumer";
+
+    static final String METRIC_NAME = "company.links.multi-topic";
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30L;
+
+    private final boolean enabled;
+    private final List<String> topics;
+    private final String groupId;
+    private final int consumers;
+    private final int maxInFlight;
+    private final Duration nackSleep;
+    private final KafkaListenerEndpointRegistry registry;
+    private final KafkaListenerContainerFactory<?> listenerContainerFactory;
+    private final ListenerMethods listenerMethods;
+    private final RetryTopicPublisher retryTopicPublisher;
+    private final RetryPolicies retryPolicies;
+    private final ErrorTopicPublisher errorTopicPublisher;
+    private final Logger logger;
+    private final Counter processedCounter;
+    private final Counter retriedCounter;
+    private final Counter failedCounter;
+    private final Counter nackedCounter;
+    private final ForkJoinPool pool;
+    private final ScheduledExecutorService scheduler;
+    private final Map<TopicPartition, Set<Long>> alreadyProcessed = new ConcurrentHashMap<>();
+
+    /**
+     * Construct the multi-topic listener.
+     */
+    public MultiTopicListener(
+            @Value("${company-links.consumer.multi-topic.enable}") boolean enabled,
+            @Value("${company-links.consumer.multi-topic.topics}") List<String> topics,
+            @Value("${company-links.consumer.multi-topic.group-id}") String groupId,
+            @Value("${company-links.consumer.multi-topic.consumers}") int consumers,
+            @Value("${company-links.consumer.multi-topic.pool-size}") int poolSize,
+            @Value("${company-links.consumer.multi-topic.max-in-flight}") int maxInFlight,
+            @Value("${company-links.consumer.multi-topic.nack-sleep-ms}") long nackSleepMs,
+            KafkaListenerEndpointRegistry registry,
+            @Qualifier("listenerContainerFactory")
+                    KafkaListenerContainerFactory<?> listenerContainerFactory,
+            ListenerMethods listenerMethods, RetryTopicPublisher retryTopicPublisher,
+            RetryPolicies retryPolicies, ErrorTopicPublisher errorTopicPublisher, Logger logger,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.topics = List.copyOf(topics);
+        this.groupId = groupId;
+        this.consumers = Math.max(consumers, 1);
+        this.maxInFlight = Math.max(maxInFlight, 1);
+        this.nackSleep = Duration.ofMillis(Math.max(nackSleepMs, 0L));
+        this.registry = registry;
+        this.listenerContainerFactory = listenerContainerFactory;
+        this.listenerMethods = listenerMethods;
+        this.retryTopicPublisher = retryTopicPublisher;
+        this.retryPolicies = retryPolicies;
+        this.errorTopicPublisher = errorTopicPublisher;
+        this.logger = logger;
+        this.processedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "processed");
+        this.retriedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "retried");
+        this.failedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "failed");
+        this.nackedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "nacked");
+        // asynchronous mode takes queued records first in, first out
+        this.pool = enabled ? new ForkJoinPool(Math.max(poolSize, 1),
+                MultiTopicListener::newWorker, null, true) : null;
+        this.scheduler = enabled ? Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("multi-topic-resume-")) : null;
+    }
+
+    /**
+     * Register the listener container once every listener is in place to be called. The
+     * registry starts it along with the other containers.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!enabled) {
+            return;
+        }
+        SimpleKafkaListenerEndpoint<String, ResourceChangedData> endpoint =
+                new SimpleKafkaListenerEndpoint<>();
+        endpoint.setId(LISTENER_ID);
+        endpoint.setGroupId(groupId);
+        endpoint.setTopics(topics.toArray(String[]::new));
+        endpoint.setConcurrency(consumers);
+        endpoint.setBatchListener(true);
+        Properties consumerProperties = new Properties();
+        consumerProperties.setProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG,
+                String.valueOf(maxInFlight));
+        endpoint.setConsumerProperties(consumerProperties);
+        endpoint.setMessageListener(
+                (BatchAcknowledgingConsumerAwareMessageListener<String, ResourceChangedData>)
+                        this::onMessage);
+        registry.registerListenerContainer(endpoint, listenerContainerFactory);
+        logger.info(String.format("Reading %d topics with %d consumers", topics.size(),
+                consumers), DataMapHolder.getLogMap());
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (pool != null) {
+            pool.shutdown();
+            pool.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Process a poll of records, each behind any earlier record for the same resource, and
+     * acknowledge it once every record has been processed or handed on. Otherwise commit each
+     * partition up to its first record that was not, and read that partition again from there.
+     */
+    void onMessage(List<ConsumerRecord<String, ResourceChangedData>> records,
+            Acknowledgment acknowledgment, Consumer<?, ?> consumer) {
+        List<CompletableFuture<Boolean>> results = new ArrayList<>(records.size());
+        Map<String, CompletableFuture<Boolean>> tails = new HashMap<>();
+        for (ConsumerRecord<String, ResourceChangedData> record : records) {
+            if (isAlreadyProcessed(record)) {
+                results.add(CompletableFuture.completedFuture(true));
+                continue;
+            }
+            CompletableFuture<Boolean> result = tails.compute(orderingKey(record), (key, tail) ->
+                    tail == null ? CompletableFuture.supplyAsync(() -> process(record), pool)
+                            // a record is not processed ahead of an earlier one being read again
+                            : tail.thenApplyAsync(done -> done && process(record), pool));
+            results.add(result);
+        }
+        CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).join();
+
+        Map<TopicPartition, OffsetAndMetadata> commits = new HashMap<>();
+        Map<TopicPartition, Long> rereads = new HashMap<>();
+        for (int index = 0; index < results.size(); index++) {
+            ConsumerRecord<String, ResourceChangedData> record = records.get(index);
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            if (rereads.containsKey(partition)) {
+                if (results.get(index).join()) {
+                    alreadyProcessed.computeIfAbsent(partition,
+                            key -> ConcurrentHashMap.newKeySet()).add(record.offset());
+                }
+            } else if (results.get(index).join()) {
+                commits.put(partition, new OffsetAndMetadata(record.offset() + 1));
+            } else {
+                rereads.put(partition, record.offset());
+                commits.put(partition, new OffsetAndMetadata(record.offset()));
+            }
+        }
+        if (rereads.isEmpty()) {
+            acknowledgment.acknowledge();
+            return;
+        }
+        consumer.commitSync(commits);
+        rereads.forEach((partition, offset) -> {
+            nackedCounter.increment();
+            consumer.seek(partition, offset);
+            pausePartition(partition);
+        });
+    }
+
+    private boolean isAlreadyProcessed(ConsumerRecord<String, ResourceChangedData> record) {
+        Set<Long> offsets = alreadyProcessed.get(
+                new TopicPartition(record.topic(), record.partition()));
+        return offsets != null && offsets.remove(record.offset());
+    }
+
+    /**
+     * Pause a partition whose record is to be read again for the nack sleep, leaving the other
+     * partitions to carry on.
+     */
+    private void pausePartition(TopicPartition partition) {
+        MessageListenerContainer container = registry.getListenerContainer(LISTENER_ID);
+        if (container == null || nackSleep.isZero()) {
+            return;
+        }
+        container.pausePartition(partition);
+        scheduler.schedule(() -> container.resumePartition(partition), nackSleep.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Call the listener for the record, handing it on to a retry or error topic if it fails.
+     * Never throws, so the records queued behind it run.
+     *
+     * A record that is backed off is handed on to the retry topic in the same way.
+     *
+     * @return true if the record was processed or handed on, false if it must be read again
+     */
+    private boolean process(ConsumerRecord<String, ResourceChangedData> record) {
+        KafkaUtils.setConsumerGroupId(groupId);
+        try {
+            if (record.value() == null) {
+                throw new NonRetryableErrorException(String.format(
+                        "Unable to deserialise record on %s partition %d offset %d",
+                        record.topic(), record.partition(), record.offset()));
+            }
+            listenerMethods.dispatch(record.topic(), record.key(), record.partition(),
+                    record.offset(), record.value());
+            processedCounter.increment();
+            return true;
+        } catch (NonRetryableErrorException exception) {
+            return publishToErrorTopic(record, exception);
+        } catch (RuntimeException exception) {
+            return publishToRetryTopic(record, exception);
+        } finally {
+            KafkaUtils.clearConsumerGroupId();
+        }
+    }
+
+    private boolean publishToRetryTopic(ConsumerRecord<String, ResourceChangedData> record,
+            RuntimeException failure) {
+        RetryPolicies.RetryPolicy policy = retryPolicies.policyFor(record.topic(), failure);
+        if (!policy.canRetry(1)) {
+            return publishToErrorTopic(record, failure);
+        }
+        try {
+            retryTopicPublisher.publish(record.topic(), groupId, record.key(),
+                    record.partition(), record.offset(), record.value(), failure,
+                    policy.delayFor(1));
+            retriedCounter.increment();
+            return true;
+        } catch (ExecutionException | TimeoutException exception) {
+            return notHandedOn(record, exception);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return notHandedOn(record, exception);
+        }
+    }
+
+    private boolean publishToErrorTopic(ConsumerRecord<String, ResourceChangedData> record,
+            RuntimeException failure) {
+        try {
+            errorTopicPublisher.publish(record.topic(), groupId, record.key(),
+                    record.partition(), record.offset(), record.value(), failure);
+            failedCounter.increment();
+            return true;
+        } catch (ExecutionException | TimeoutException exception) {
+            return notHandedOn(record, exception);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return notHandedOn(record, exception);
+        }
+    }
+
+    private boolean notHandedOn(ConsumerRecord<String, ResourceChangedData> record,
+            Exception exception) {
+        logger.error(String.format("Unable to hand on failed record from %s partition %d "
+                        + "offset %d", record.topic(), record.partition(), record.offset()),
+                exception, DataMapHolder.getLogMap());
+        return false;
+    }
+
+    static String orderingKey(ConsumerRecord<String, ResourceChangedData> record) {
+        if (record.value() != null && record.value().getResourceUri() != null) {
+            return record.value().getResourceUri();
+        }
+        return record.topic() + "-" + record.partition();
+    }
+
+    private static ForkJoinWorkerThread newWorker(ForkJoinPool pool) {
+        ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+                .newThread(pool);
+        worker.setName("multi-topic-worker-" + worker.getPoolIndex());
+        return worker;
+    }
+}
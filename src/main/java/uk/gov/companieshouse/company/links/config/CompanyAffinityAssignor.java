@@ -0,0 +1,120 @@
+package uk.gov.companieshouse.company.links.config;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.kafka.clients.consumer.ConsumerPartitionAssignor;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Assigns the same partition number of every topic to the same instance of the consumer, so
+ * when the topics are partitioned by company number each instance sees every event for its
+ * share of the companies, and anything cached per company is only held by one instance.
+ *
+ * <p>Each listener container is a separate member of the consumer group, so members say which
+ * instance they run in through their subscription user data. Partition {@code p} of a topic
+ * goes to the instance at position {@code p} modulo the number of instances subscribed to it,
+ * in instance ID order, and then to the instance's members for that topic in turn.</p>
+ *
+ * <p>The assignor supports the cooperative rebalance protocol. A partition that has to move
+ * is taken from its current owner without being given to its new one, so it is revoked first
+ * and assigned in the follow-up rebalance, and partitions that stay put are never revoked.</p>
+ */
+public class CompanyAffinityAssignor implements ConsumerPartitionAssignor, Configurable {
+
+    public static final String NAME = "company-affinity";
+    public static final String INSTANCE_ID_CONFIG = "company.links.affinity.instance.id";
+
+    private static final String JVM_INSTANCE_ID = UUID.randomUUID().toString();
+
+    private String instanceId = JVM_INSTANCE_ID;
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        Object configured = configs.get(INSTANCE_ID_CONFIG);
+        if (configured != null && StringUtils.isNotBlank(configured.toString())) {
+            instanceId = configured.toString();
+        }
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public List<RebalanceProtocol> supportedProtocols() {
+        return List.of(RebalanceProtocol.COOPERATIVE, RebalanceProtocol.EAGER);
+    }
+
+    @Override
+    public ByteBuffer subscriptionUserData(Set<String> topics) {
+        return ByteBuffer.wrap(instanceId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public GroupAssignment assign(Cluster metadata, GroupSubscription groupSubscription) {
+        Map<String, Subscription> subscriptions = groupSubscription.groupSubscription();
+        Map<String, List<TopicPartition>> assigned = new HashMap<>();
+        Map<TopicPartition, String> owners = new HashMap<>();
+        subscriptions.forEach((memberId, subscription) -> {
+            assigned.put(memberId, new ArrayList<>());
+            subscription.ownedPartitions().forEach(partition ->
+                    owners.put(partition, memberId));
+        });
+
+        Set<String> topics = new TreeSet<>();
+        subscriptions.values().forEach(subscription -> topics.addAll(subscription.topics()));
+        for (String topic : topics) {
+            Integer partitionCount = metadata.partitionCountForTopic(topic);
+            if (partitionCount == null) {
+                continue;
+            }
+            // instance ID to its members subscribed to the topic, both in a stable order
+            TreeMap<String, List<String>> instances = new TreeMap<>();
+            new TreeMap<>(subscriptions).forEach((memberId, subscription) -> {
+                if (subscription.topics().contains(topic)) {
+                    instances.computeIfAbsent(instanceOf(memberId, subscription),
+                            instance -> new ArrayList<>()).add(memberId);
+                }
+            });
+            List<List<String>> members = new ArrayList<>(instances.values());
+            for (int partition = 0; partition < partitionCount; partition++) {
+                List<String> instanceMembers = members.get(partition % members.size());
+                String target = instanceMembers.get(
+                        (partition / members.size()) % instanceMembers.size());
+                TopicPartition topicPartition = new TopicPartition(topic, partition);
+                String owner = owners.get(topicPartition);
+                if (owner == null || owner.equals(target)) {
+                    assigned.get(target).add(topicPartition);
+                }
+            }
+        }
+
+        Map<String, Assignment> assignments = new HashMap<>();
+        assigned.forEach((memberId, partitions) ->
+                assignments.put(memberId, new Assignment(partitions)));
+        return new GroupAssignment(assignments);
+    }
+
+    private static String instanceOf(String memberId, Subscription subscription) {
+        ByteBuffer userData = subscription.userData();
+        if (userData == null || !userData.hasRemaining()) {
+            // a member without an instance ID is an instance of its own
+            return memberId;
+        }
+        byte[] bytes = new byte[userData.remaining()];
+        userData.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,8 +1,12 @@
 package uk.gov.companieshouse.company.links.config;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.CooperativeStickyAssignor;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
@@ -10,6 +14,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.kafka.KafkaException;
 import org.springframework.kafka.annotation.EnableKafka;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
@@ -17,8 +23,15 @@ import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
 import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.listener.KafkaBackoffException;
+import org.springframework.kafka.listener.SeekUtils;
 import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
+import uk.gov.companieshouse.company.links.catchup.CatchUpCoalescingInterceptor;
+import uk.gov.companieshouse.company.links.catchup.CatchUpMode;
+import uk.gov.companieshouse.company.links.concurrency.MultiTopicListener;
 import uk.gov.companieshouse.company.links.exception.RetryableTopicErrorInterceptor;
 import uk.gov.companieshouse.company.links.serialization.ResourceChangedDataDeserializer;
 import uk.gov.companieshouse.company.links.serialization.ResourceChangedDataSerializer;
@@ -34,6 +47,19 @@ public class KafkaConfig {
 
     private final String bootstrapServers;
     private final Integer listenerConcurrency;
+    private final Integer retryListenerConcurrency;
+    private final boolean sharedRetryEnabled;
+    private final String sharedRetryTopic;
+    private final boolean affinityEnabled;
+    private final String affinityInstanceId;
+    private final boolean cooperativeRebalancing;
+    private final boolean staticMembership;
+    private final String instanceId;
+    private final Integer sessionTimeoutMs;
+    private final boolean multiTopicEnabled;
+    private final List<String> multiTopicTopics;
+    private final PartitionRebalanceListener partitionRebalanceListener;
+    private final CatchUpMode catchUpMode;
 
     /**
      * Constructor.
@@ -41,11 +67,40 @@ public class KafkaConfig {
     public KafkaConfig(ResourceChangedDataDeserializer resourceChangedDataDeserializer,
             ResourceChangedDataSerializer resourceChangedDataSerializer,
             @Value("${spring.kafka.bootstrap-servers}") String bootstrapServers,
-            @Value("${spring.kafka.listener.concurrency}") Integer listenerConcurrency) {
+            @Value("${spring.kafka.listener.concurrency}") Integer listenerConcurrency,
+            @Value("${company-links.consumer.retry-listener.concurrency}")
+                    Integer retryListenerConcurrency,
+            @Value("${company-links.consumer.shared-retry.enable}") boolean sharedRetryEnabled,
+            @Value("${company-links.consumer.shared-retry.topic}") String sharedRetryTopic,
+            @Value("${company-links.consumer.affinity.enable}") boolean affinityEnabled,
+            @Value("${company-links.consumer.affinity.instance-id}") String affinityInstanceId,
+            @Value("${company-links.consumer.rebalance.cooperative}")
+                    boolean cooperativeRebalancing,
+            @Value("${company-links.consumer.rebalance.static-membership}")
+                    boolean staticMembership,
+            @Value("${company-links.consumer.rebalance.instance-id}") String instanceId,
+            @Value("${company-links.consumer.rebalance.session-timeout-ms}")
+                    Integer sessionTimeoutMs,
+            @Value("${company-links.consumer.multi-topic.enable}") boolean multiTopicEnabled,
+            @Value("${company-links.consumer.multi-topic.topics}") List<String> multiTopicTopics,
+            PartitionRebalanceListener partitionRebalanceListener, CatchUpMode catchUpMode) {
         this.resourceChangedDataDeserializer = resourceChangedDataDeserializer;
         this.resourceChangedDataSerializer = resourceChangedDataSerializer;
         this.bootstrapServers = bootstrapServers;
         this.listenerConcurrency = listenerConcurrency;
+        this.retryListenerConcurrency = retryListenerConcurrency;
+        this.sharedRetryEnabled = sharedRetryEnabled;
+        this.sharedRetryTopic = sharedRetryTopic;
+        this.affinityEnabled = affinityEnabled;
+        this.affinityInstanceId = affinityInstanceId;
+        this.cooperativeRebalancing = cooperativeRebalancing;
+        this.staticMembership = staticMembership && StringUtils.isNotBlank(instanceId);
+        this.instanceId = instanceId;
+        this.sessionTimeoutMs = sessionTimeoutMs;
+        this.multiTopicEnabled = multiTopicEnabled;
+        this.multiTopicTopics = multiTopicTopics;
+        this.partitionRebalanceListener = partitionRebalanceListener;
+        this.catchUpMode = catchUpMode;
     }
 
     /**
@@ -87,13 +142,75 @@ public class KafkaConfig {
             <String, ResourceChangedData> listenerContainerFactory() {
         ConcurrentKafkaListenerContainerFactory<String, ResourceChangedData> factory
                 = new ConcurrentKafkaListenerContainerFactory<>();
-        factory.setConsumerFactory(kafkaConsumerFactory());
+        factory.setConsumerFactory(listenerConsumerFactory());
         factory.setConcurrency(listenerConcurrency);
         factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.RECORD);
+        factory.getContainerProperties().setConsumerRebalanceListener(
+                partitionRebalanceListener);
+        factory.setContainerCustomizer(container -> {
+            setGroupInstanceId(container);
+            String[] topics = container.getContainerProperties().getTopics();
+            if (MultiTopicListener.LISTENER_ID.equals(container.getListenerId())) {
+                // the multi-topic listener acknowledges or rejects each poll itself
+                container.getContainerProperties().setAckMode(
+                        ContainerProperties.AckMode.MANUAL);
+            } else if (multiTopicEnabled && topics != null
+                    && multiTopicTopics.containsAll(Arrays.asList(topics))) {
+                // the multi-topic listener reads these topics in place of their own containers
+                container.setAutoStartup(false);
+            }
+        });
+
+        return factory;
+    }
+
+    /**
+     * Kafka Listener Container Factory for the retry and error topics, with its own threads so
+     * a retry backlog does not hold up fresh events.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory
+            <String, ResourceChangedData> retryListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, ResourceChangedData> factory
+                = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(kafkaConsumerFactory());
+        factory.setConcurrency(retryListenerConcurrency);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.RECORD);
+        factory.getContainerProperties().setListenerTaskExecutor(
+                new SimpleAsyncTaskExecutor("retry-listener-"));
+        factory.getContainerProperties().setConsumerRebalanceListener(
+                partitionRebalanceListener);
+        factory.setContainerCustomizer(container -> {
+            setGroupInstanceId(container);
+            String[] topics = container.getContainerProperties().getTopics();
+            // the shared retry topic replaces each consumer's own retry topic
+            if (sharedRetryEnabled && topics != null && Arrays.stream(topics).allMatch(topic ->
+                    topic.endsWith("-retry") && !topic.equals(sharedRetryTopic))) {
+                container.setAutoStartup(false);
+            }
+            if (topics != null && Arrays.asList(topics).contains(sharedRetryTopic)) {
+                container.setCommonErrorHandler(sharedRetryErrorHandler());
+            }
+        });
 
         return factory;
     }
 
+    /**
+     * The shared retry listener pauses the partition of a record that is not yet due and fails
+     * it with a {@link KafkaBackoffException}. That is never recovered, so the record is sought
+     * back to and read again once the partition resumes rather than being skipped.
+     */
+    private static DefaultErrorHandler sharedRetryErrorHandler() {
+        DefaultErrorHandler errorHandler = new DefaultErrorHandler((record, exception) -> {
+            if (SeekUtils.isBackoffException(exception)) {
+                throw new KafkaException("Shared retry record is not yet due", exception);
+            }
+        });
+        errorHandler.addNotRetryableExceptions(KafkaBackoffException.class);
+        return errorHandler;
+    }
+
     private Map<String, Object> consumerConfigs() {
         Map<String, Object> props = new HashMap<>();
 
@@ -106,9 +223,56 @@ public class KafkaConfig {
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
         props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
         props.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        if (affinityEnabled) {
+            // cooperative sticky stays listed so instances can be rolled onto the new assignor
+            props.put(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG, List.of(
+                    CompanyAffinityAssignor.class.getName(),
+                    CooperativeStickyAssignor.class.getName()));
+            props.put(CompanyAffinityAssignor.INSTANCE_ID_CONFIG, affinityInstanceId);
+        } else if (cooperativeRebalancing) {
+            props.put(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG,
+                    CooperativeStickyAssignor.class.getName());
+        }
+        if (staticMembership) {
+            // a restarted instance has this long to rejoin before its partitions are moved
+            props.put(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG, sessionTimeoutMs);
+        }
 
         return props;
     }
+
+    /**
+     * The consumer factory for the main topic listeners, which adds the
+     * {@link CatchUpCoalescingInterceptor} when catch-up mode is enabled. The replayers, the
+     * reprocessor and the company links view use {@link #kafkaConsumerFactory()}, so they always
+     * see every record.
+     */
+    private ConsumerFactory<String, ResourceChangedData> listenerConsumerFactory() {
+        if (!catchUpMode.isEnabled()) {
+            return kafkaConsumerFactory();
+        }
+        Map<String, Object> props = consumerConfigs();
+        props.put(ConsumerConfig.INTERCEPTOR_CLASSES_CONFIG,
+                CatchUpCoalescingInterceptor.class.getName());
+        props.put(CatchUpCoalescingInterceptor.CATCH_UP_MODE_CONFIG, catchUpMode);
+        return new DefaultKafkaConsumerFactory<>(props, new StringDeserializer(),
+                new ErrorHandlingDeserializer<>(resourceChangedDataDeserializer));
+    }
+
+    /**
+     * Give each listener container a group instance ID made from the instance identity and the
+     * listener ID, so a restarted instance rejoins as the same static members and gets the same
+     * partitions back without a rebalance. Containers with a concurrency above one add a suffix
+     * for each of their consumers.
+     */
+    private void setGroupInstanceId(
+            ConcurrentMessageListenerContainer<String, ResourceChangedData> container) {
+        if (staticMembership) {
+            container.getContainerProperties().getKafkaConsumerProperties().setProperty(
+                    ConsumerConfig.GROUP_INSTANCE_ID_CONFIG,
+                    instanceId + "-" + container.getListenerId());
+        }
+    }
 }
 
 
@@ -0,0 +1,36 @@
+package uk.gov.companieshouse.company.links.config;
+
+import org.springframework.core.Ordered;
+
+/**
+ * The order of the aspects around every {@code @KafkaListener} method, outermost first:
+ *
+ * <ol>
+ *     <li>message logging, which sets up and clears the {@code DataMapHolder} log map every
+ *     other aspect logs with;</li>
+ *     <li>priority lanes, which park records beyond their lane's quota before any other work
+ *     is done for them;</li>
+ *     <li>duplicate suppression, which drops records already processed;</li>
+ *     <li>supersession, which drops records a later record for the same resource has already
+ *     replaced;</li>
+ *     <li>retry deferral, which hands retryable failures to the local retry queue or shared
+ *     retry topic;</li>
+ *     <li>delete rechecks, which take over deletes that are not yet deleted before they are
+ *     treated as ordinary retryable failures;</li>
+ *     <li>downstream availability, innermost so the breakers see the listener's own outcome
+ *     rather than one an outer aspect has already handled.</li>
+ * </ol>
+ */
+public final class ListenerAspectOrder {
+
+    public static final int MESSAGE_LOGGING = Ordered.HIGHEST_PRECEDENCE;
+    public static final int PRIORITY_LANE = Ordered.LOWEST_PRECEDENCE - 6;
+    public static final int DUPLICATE_SUPPRESSION = Ordered.LOWEST_PRECEDENCE - 5;
+    public static final int SUPERSESSION = Ordered.LOWEST_PRECEDENCE - 4;
+    public static final int RETRY_DEFERRAL = Ordered.LOWEST_PRECEDENCE - 3;
+    public static final int DELETE_RECHECK = Ordered.LOWEST_PRECEDENCE - 2;
+    public static final int DOWNSTREAM_AVAILABILITY = Ordered.LOWEST_PRECEDENCE - 1;
+
+    private ListenerAspectOrder() {
+    }
+}
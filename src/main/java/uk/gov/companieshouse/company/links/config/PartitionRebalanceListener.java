@@ -0,0 +1,76 @@
+package uk.gov.companieshouse.company.links.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Collection;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.logging.Logger;
+
+/**
+ * Counts and logs the partitions a rebalance assigns to, revokes from and loses from a listener
+ * container.
+ *
+ * <p>Revocation is called on the consumer thread between polls, so the listener has finished
+ * the records it was given and, with record acknowledgement, the container commits their
+ * offsets straight after this callback. Nothing else is done here, as time spent in the
+ * callback holds up the poll loop and the rest of the group. The link state snapshot is not
+ * tied to partitions, and is written on its own schedule and at shutdown instead.</p>
+ */
+@Component
+public class PartitionRebalanceListener implements ConsumerAwareRebalanceListener {
+
+    static final String METRIC_NAME = "company.links.rebalance.partitions";
+
+    private final Logger logger;
+    private final Counter assignedCounter;
+    private final Counter revokedCounter;
+    private final Counter lostCounter;
+
+    /**
+     * Construct the partition rebalance listener.
+     */
+    public PartitionRebalanceListener(Logger logger, MeterRegistry meterRegistry) {
+        this.logger = logger;
+        this.assignedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "assigned");
+        this.revokedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "revoked");
+        this.lostCounter = meterRegistry.counter(METRIC_NAME, "outcome", "lost");
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer,
+            Collection<TopicPartition> partitions) {
+        // cooperative rebalances call this with nothing revoked when a member keeps everything
+        if (partitions.isEmpty()) {
+            return;
+        }
+        revokedCounter.increment(partitions.size());
+        logger.info(String.format("Partitions revoked: %s", partitions),
+                DataMapHolder.getLogMap());
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer,
+            Collection<TopicPartition> partitions) {
+        if (partitions.isEmpty()) {
+            return;
+        }
+        lostCounter.increment(partitions.size());
+        logger.info(String.format("Partitions lost: %s", partitions),
+                DataMapHolder.getLogMap());
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer,
+            Collection<TopicPartition> partitions) {
+        if (partitions.isEmpty()) {
+            return;
+        }
+        assignedCounter.increment(partitions.size());
+        logger.info(String.format("Partitions assigned: %s", partitions),
+                DataMapHolder.getLogMap());
+    }
+}
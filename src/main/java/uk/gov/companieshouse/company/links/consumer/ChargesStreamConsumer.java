@@ -43,6 +43,7 @@ public class ChargesStreamConsumer {
             dltTopicSuffix = "-${company-links.consumer.charges.group-id}-error",
             dltStrategy = DltStrategy.FAIL_ON_ERROR,
             autoCreateTopics = "false",
+            listenerContainerFactory = "retryListenerContainerFactory",
             exclude = NonRetryableErrorException.class)
     @KafkaListener(
             id = "${company-links.consumer.charges.topic}-consumer",
@@ -57,9 +58,11 @@ public class ChargesStreamConsumer {
         Instant startTime = Instant.now();
         ResourceChangedData payload = resourceChangedMessage.getPayload();
         String contextId = payload.getContextId();
-        logger.info(String.format("A new message successfully picked up from topic: %s, "
-                        + "partition: %s and offset: %s with contextId: %s",
-                topic, partition, offset, contextId), DataMapHolder.getLogMap());
+        if (DataMapHolder.isSampled()) {
+            logger.info(String.format("A new message successfully picked up from topic: %s, "
+                            + "partition: %s and offset: %s with contextId: %s",
+                    topic, partition, offset, contextId), DataMapHolder.getLogMap());
+        }
 
         try {
             final boolean deleteEventType = "deleted"
@@ -67,16 +70,20 @@ public class ChargesStreamConsumer {
 
             if (deleteEventType) {
                 chargesProcessor.processDelete(resourceChangedMessage);
-                logger.info(format("Charges Links Delete message with contextId: %s is "
-                                        + "successfully processed in %d milliseconds", contextId,
-                                Duration.between(startTime, Instant.now()).toMillis()),
-                        DataMapHolder.getLogMap());
+                if (DataMapHolder.isSampled()) {
+                    logger.info(format("Charges Links Delete message with contextId: %s is "
+                            + "successfully processed in %d milliseconds", contextId,
+                            Duration.between(startTime, Instant.now()).toMillis()),
+                            DataMapHolder.getLogMap());
+                }
             } else {
                 chargesProcessor.processDelta(resourceChangedMessage);
-                logger.info(format("Charges Links Delta message with contextId: %s is "
-                                        + "successfully processed in %d milliseconds", contextId,
-                                Duration.between(startTime, Instant.now()).toMillis()),
-                        DataMapHolder.getLogMap());
+                if (DataMapHolder.isSampled()) {
+                    logger.info(format("Charges Links Delta message with contextId: %s is "
+                            + "successfully processed in %d milliseconds", contextId,
+                            Duration.between(startTime, Instant.now()).toMillis()),
+                            DataMapHolder.getLogMap());
+                }
             }
         } catch (Exception exception) {
             logger.errorContext(contextId, format("Exception occurred while processing "
@@ -43,6 +43,7 @@ public class CompanyProfileStreamConsumer {
             dltTopicSuffix = "-${company-links.consumer.company-profile.group-id}-error",
             dltStrategy = DltStrategy.FAIL_ON_ERROR,
             autoCreateTopics = "false",
+            listenerContainerFactory = "retryListenerContainerFactory",
             exclude = NonRetryableErrorException.class)
     @KafkaListener(
             id = "${company-links.consumer.company-profile.topic}-consumer",
@@ -57,20 +58,24 @@ public class CompanyProfileStreamConsumer {
         Instant startTime = Instant.now();
         ResourceChangedData payload = resourceChangedMessage.getPayload();
         String contextId = payload.getContextId();
-        logger.info(String.format("A new message successfully picked up from topic: %s, "
-                        + "partition: %s and offset: %s with contextId: %s",
-                topic, partition, offset, contextId), DataMapHolder.getLogMap());
+        if (DataMapHolder.isSampled()) {
+            logger.info(String.format("A new message successfully picked up from topic: %s, "
+                            + "partition: %s and offset: %s with contextId: %s",
+                    topic, partition, offset, contextId), DataMapHolder.getLogMap());
 
-        logger.info("Payload for CompanyProfileStreamConsumer: " + payload.getData());
+            logger.info("Payload for CompanyProfileStreamConsumer: " + payload.getData());
+        }
 
         try {
             String eventType = resourceChangedMessage.getPayload().getEvent().getType();
             if (eventType.equals("changed")) {
                 companyProfileStreamProcessor.processDelta(resourceChangedMessage);
-                logger.info(format("Company Profile Links Delta message with contextId: %s is "
-                                        + "successfully processed in %d milliseconds", contextId,
-                                Duration.between(startTime, Instant.now()).toMillis()),
-                        DataMapHolder.getLogMap());
+                if (DataMapHolder.isSampled()) {
+                    logger.info(format("Company Profile Links Delta message with contextId: %s "
+                            + "is successfully processed in %d milliseconds", contextId,
+                            Duration.between(startTime, Instant.now()).toMillis()),
+                            DataMapHolder.getLogMap());
+                }
             } else if (!eventType.equals("deleted")) {
                 throw new NonRetryableErrorException("Company Profile Links Delta message "
                         + "with unexpected event type: " + eventType);
@@ -42,6 +42,7 @@ public class ExemptionsStreamConsumer {
             dltTopicSuffix = "-${company-links.consumer.exemptions.group-id}-error",
             dltStrategy = DltStrategy.FAIL_ON_ERROR,
             autoCreateTopics = "false",
+            listenerContainerFactory = "retryListenerContainerFactory",
             exclude = NonRetryableErrorException.class)
     @KafkaListener(
             id = "${company-links.consumer.exemptions.topic}-consumer",
@@ -56,16 +57,20 @@ public class ExemptionsStreamConsumer {
         Instant startTime = Instant.now();
         ResourceChangedData payload = resourceChangedMessage.getPayload();
         String contextId = payload.getContextId();
-        logger.info(String.format("A new message successfully picked up from topic: %s, "
-                        + "partition: %s and offset: %s with contextId: %s",
-                topic, partition, offset, contextId), DataMapHolder.getLogMap());
+        if (DataMapHolder.isSampled()) {
+            logger.info(String.format("A new message successfully picked up from topic: %s, "
+                            + "partition: %s and offset: %s with contextId: %s",
+                    topic, partition, offset, contextId), DataMapHolder.getLogMap());
+        }
 
         try {
             exemptionsRouter.route(new ResourceChange(payload), "exemptions");
-            logger.info(format("Company exemptions message with contextId: %s is "
-                                    + "successfully processed in %d milliseconds", contextId,
-                            Duration.between(startTime, Instant.now()).toMillis()),
-                    DataMapHolder.getLogMap());
+            if (DataMapHolder.isSampled()) {
+                logger.info(format("Company exemptions message with contextId: %s is "
+                                        + "successfully processed in %d milliseconds", contextId,
+                                Duration.between(startTime, Instant.now()).toMillis()),
+                        DataMapHolder.getLogMap());
+            }
         } catch (Exception exception) {
             logger.errorContext(contextId, format("Exception occurred while processing "
                     + "message on the topic: %s", topic), exception, DataMapHolder.getLogMap());
@@ -42,6 +42,7 @@ public class FilingHistoryStreamConsumer {
             dltTopicSuffix = "-${company-links.consumer.filing_history.group-id}-error",
             dltStrategy = DltStrategy.FAIL_ON_ERROR,
             autoCreateTopics = "false",
+            listenerContainerFactory = "retryListenerContainerFactory",
             exclude = NonRetryableErrorException.class)
     @KafkaListener(
             id = "${company-links.consumer.filing_history.topic}-consumer",
@@ -56,14 +57,18 @@ public class FilingHistoryStreamConsumer {
         Instant startTime = Instant.now();
         ResourceChangedData payload = resourceChangedMessage.getPayload();
         String contextId = payload.getContextId();
-        logger.info("Message read from topic", DataMapHolder.getLogMap());
+        if (DataMapHolder.isSampled()) {
+            logger.info("Message read from topic", DataMapHolder.getLogMap());
+        }
 
         try {
             router.route(new ResourceChange(payload), "filing-history");
-            logger.info(format("Company filing history message successfully processed in "
-                                    + "%d milliseconds",
-                            Duration.between(startTime, Instant.now()).toMillis()),
-                    DataMapHolder.getLogMap());
+            if (DataMapHolder.isSampled()) {
+                logger.info(format("Company filing history message successfully processed in "
+                                        + "%d milliseconds",
+                                Duration.between(startTime, Instant.now()).toMillis()),
+                        DataMapHolder.getLogMap());
+            }
         } catch (Exception exception) {
             logger.errorContext(contextId, format("Exception occurred while processing "
                             + "message on topic: %s", topic),
@@ -44,6 +44,7 @@ public class InsolvencyStreamConsumer {
             dltTopicSuffix = "-${company-links.consumer.insolvency.group-id}-error",
             dltStrategy = DltStrategy.FAIL_ON_ERROR,
             autoCreateTopics = "false",
+            listenerContainerFactory = "retryListenerContainerFactory",
             exclude = NonRetryableErrorException.class)
     @KafkaListener(
             id = "${company-links.consumer.insolvency.topic}-consumer",
@@ -58,9 +59,11 @@ public class InsolvencyStreamConsumer {
         Instant startTime = Instant.now();
         ResourceChangedData payload = resourceChangedMessage.getPayload();
         String contextId = payload.getContextId();
-        logger.info(String.format("A new message successfully picked up from topic: %s, "
-                        + "partition: %s and offset: %s with contextId: %s",
-                topic, partition, offset, contextId), DataMapHolder.getLogMap());
+        if (DataMapHolder.isSampled()) {
+            logger.info(String.format("A new message successfully picked up from topic: %s, "
+                            + "partition: %s and offset: %s with contextId: %s",
+                    topic, partition, offset, contextId), DataMapHolder.getLogMap());
+        }
 
         try {
             final boolean deleteEventType = "deleted"
@@ -68,16 +71,20 @@ public class InsolvencyStreamConsumer {
 
             if (deleteEventType) {
                 insolvencyProcessor.processDelete(resourceChangedMessage);
-                logger.info(format("Insolvency Links Delete message with contextId: %s is "
-                                        + "successfully processed in %d milliseconds", contextId,
-                                Duration.between(startTime, Instant.now()).toMillis()),
-                        DataMapHolder.getLogMap());
+                if (DataMapHolder.isSampled()) {
+                    logger.info(format("Insolvency Links Delete message with contextId: %s is "
+                            + "successfully processed in %d milliseconds", contextId,
+                            Duration.between(startTime, Instant.now()).toMillis()),
+                            DataMapHolder.getLogMap());
+                }
             } else {
                 insolvencyProcessor.processDelta(resourceChangedMessage);
-                logger.info(format("Insolvency Links Delta message with contextId: %s is "
-                                        + "successfully processed in %d milliseconds", contextId,
-                                Duration.between(startTime, Instant.now()).toMillis()),
-                        DataMapHolder.getLogMap());
+                if (DataMapHolder.isSampled()) {
+                    logger.info(format("Insolvency Links Delta message with contextId: %s is "
+                            + "successfully processed in %d milliseconds", contextId,
+                            Duration.between(startTime, Instant.now()).toMillis()),
+                            DataMapHolder.getLogMap());
+                }
             }
         } catch (Exception exception) {
             logger.errorContext(contextId, format("Exception occurred while processing "
@@ -0,0 +1,56 @@
+package uk.gov.companieshouse.company.links.consumer;
+
+import static java.lang.String.format;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.priority.PriorityLanes;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+@Component
+public class ParkedRecordConsumer {
+
+    private final PriorityLanes priorityLanes;
+    private final Logger logger;
+
+    @Autowired
+    public ParkedRecordConsumer(PriorityLanes priorityLanes, Logger logger) {
+        this.priorityLanes = priorityLanes;
+        this.logger = logger;
+    }
+
+    /**
+     * Receives low priority records parked while their lane was full.
+     */
+    @KafkaListener(
+            id = "${company-links.consumer.priority.parking-topic}-consumer",
+            topics = "${company-links.consumer.priority.parking-topic}",
+            groupId = "${company-links.consumer.priority.parking-group-id}",
+            autoStartup = "${company-links.consumer.priority.enable}",
+            containerFactory = "retryListenerContainerFactory")
+    public void receive(Message<ResourceChangedData> resourceChangedMessage,
+            @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
+            @Header(KafkaHeaders.RECEIVED_PARTITION) String partition,
+            @Header(KafkaHeaders.OFFSET) String offset) {
+        String contextId = resourceChangedMessage.getPayload().getContextId();
+        if (DataMapHolder.isSampled()) {
+            logger.info(format("A new message successfully picked up from topic: %s, "
+                            + "partition: %s and offset: %s with contextId: %s",
+                    topic, partition, offset, contextId), DataMapHolder.getLogMap());
+        }
+
+        try {
+            priorityLanes.unpark(resourceChangedMessage);
+        } catch (Exception exception) {
+            logger.errorContext(contextId, format("Exception occurred while processing "
+                    + "message on the topic: %s", topic), exception, DataMapHolder.getLogMap());
+            throw exception;
+        }
+    }
+}
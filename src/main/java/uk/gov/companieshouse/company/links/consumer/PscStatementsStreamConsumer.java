@@ -40,6 +40,7 @@ public class PscStatementsStreamConsumer {
             dltTopicSuffix = "-${company-links.consumer.statements.group-id}-error",
             dltStrategy = DltStrategy.FAIL_ON_ERROR,
             autoCreateTopics = "false",
+            listenerContainerFactory = "retryListenerContainerFactory",
             exclude = NonRetryableErrorException.class)
     @KafkaListener(
             id = "${company-links.consumer.statements.topic}-consumer",
@@ -54,15 +55,19 @@ public class PscStatementsStreamConsumer {
         Instant startTime = Instant.now();
         ResourceChangedData payload = resourceChangedMessage.getPayload();
         String contextId = payload.getContextId();
-        logger.info(String.format("A new message successfully picked up from topic: %s, "
-                        + "partition: %s and offest %s with contextId: %s",
-                topic, partition, offset, contextId), DataMapHolder.getLogMap());
+        if (DataMapHolder.isSampled()) {
+            logger.info(String.format("A new message successfully picked up from topic: %s, "
+                            + "partition: %s and offest %s with contextId: %s",
+                    topic, partition, offset, contextId), DataMapHolder.getLogMap());
+        }
         try {
             statementsRouter.route(new ResourceChange(payload), "statements");
-            logger.info(String.format("PSC statements message with contextId: %s is "
-                                    + "successfully processed in %d milliseconds",
-                            contextId, Duration.between(startTime, Instant.now()).toMillis()),
-                    DataMapHolder.getLogMap());
+            if (DataMapHolder.isSampled()) {
+                logger.info(String.format("PSC statements message with contextId: %s is "
+                                        + "successfully processed in %d milliseconds",
+                                contextId, Duration.between(startTime, Instant.now()).toMillis()),
+                        DataMapHolder.getLogMap());
+            }
         } catch (Exception ex) {
             logger.errorContext(contextId, String.format("Exception occurred while processing "
                     + "message on the topic: %s", topic), ex, DataMapHolder.getLogMap());
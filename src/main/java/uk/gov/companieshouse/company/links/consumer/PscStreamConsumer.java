@@ -39,6 +39,7 @@ public class PscStreamConsumer {
             dltTopicSuffix = "-${company-links.consumer.pscs.group-id}-error",
             dltStrategy = DltStrategy.FAIL_ON_ERROR,
             autoCreateTopics = "false",
+            listenerContainerFactory = "retryListenerContainerFactory",
             exclude = NonRetryableErrorException.class)
     @KafkaListener(
             id = "${company-links.consumer.pscs.topic}-consumer",
@@ -53,14 +54,18 @@ public class PscStreamConsumer {
         Instant startTime = Instant.now();
         ResourceChangedData payload = resourceChangedMessage.getPayload();
         String contextId = payload.getContextId();
-        logger.info(String.format("A new message successfully picked up from topic: %s, "
-                        + "partition: %s and offest %s with contextId: %s",
-                topic, partition, offset, contextId));
+        if (DataMapHolder.isSampled()) {
+            logger.info(String.format("A new message successfully picked up from topic: %s, "
+                            + "partition: %s and offest %s with contextId: %s",
+                    topic, partition, offset, contextId));
+        }
         try {
             pscRouter.route(new ResourceChange(payload), "pscs");
-            logger.info(String.format("PSC message with contextId: %s is "
-                            + "successfully processed in %d milliseconds",
-                    contextId, Duration.between(startTime, Instant.now()).toMillis()));
+            if (DataMapHolder.isSampled()) {
+                logger.info(String.format("PSC message with contextId: %s is "
+                                + "successfully processed in %d milliseconds",
+                        contextId, Duration.between(startTime, Instant.now()).toMillis()));
+            }
         } catch (Exception ex) {
             logger.errorContext(contextId, String.format("Exception occurred while processing "
                     + "message on the topic: %s", topic), ex, null);
@@ -44,6 +44,7 @@ public class RegistersStreamConsumer {
             dltTopicSuffix = "-${company-links.consumer.registers.group-id}-error",
             dltStrategy = DltStrategy.FAIL_ON_ERROR,
             autoCreateTopics = "false",
+            listenerContainerFactory = "retryListenerContainerFactory",
             exclude = NonRetryableErrorException.class)
     @KafkaListener(
             id = "${company-links.consumer.registers.topic}-consumer",
@@ -58,9 +59,11 @@ public class RegistersStreamConsumer {
         Instant startTime = Instant.now();
         ResourceChangedData payload = resourceChangedMessage.getPayload();
         String contextId = payload.getContextId();
-        logger.info(String.format("A new message successfully picked up from topic: %s, "
-                        + "partition: %s and offset: %s with contextId: %s",
-                topic, partition, offset, contextId), DataMapHolder.getLogMap());
+        if (DataMapHolder.isSampled()) {
+            logger.info(String.format("A new message successfully picked up from topic: %s, "
+                            + "partition: %s and offset: %s with contextId: %s",
+                    topic, partition, offset, contextId), DataMapHolder.getLogMap());
+        }
 
         try {
             final boolean deleteEventType = "deleted"
@@ -68,16 +71,20 @@ public class RegistersStreamConsumer {
 
             if (deleteEventType) {
                 registersProcessor.processDelete(resourceChangedMessage);
-                logger.info(format("Registers Links Delete message with contextId: %s is "
-                                        + "successfully processed in %d milliseconds", contextId,
-                                Duration.between(startTime, Instant.now()).toMillis()),
-                        DataMapHolder.getLogMap());
+                if (DataMapHolder.isSampled()) {
+                    logger.info(format("Registers Links Delete message with contextId: %s is "
+                            + "successfully processed in %d milliseconds", contextId,
+                            Duration.between(startTime, Instant.now()).toMillis()),
+                            DataMapHolder.getLogMap());
+                }
             } else {
                 registersProcessor.processDelta(resourceChangedMessage);
-                logger.info(format("Registers Links Delta message with contextId: %s is "
-                                        + "successfully processed in %d milliseconds", contextId,
-                                Duration.between(startTime, Instant.now()).toMillis()),
-                        DataMapHolder.getLogMap());
+                if (DataMapHolder.isSampled()) {
+                    logger.info(format("Registers Links Delta message with contextId: %s is "
+                            + "successfully processed in %d milliseconds", contextId,
+                            Duration.between(startTime, Instant.now()).toMillis()),
+                            DataMapHolder.getLogMap());
+                }
             }
         } catch (Exception exception) {
             logger.errorContext(contextId, format("Exception occurred while processing "
@@ -0,0 +1,61 @@
+package uk.gov.companieshouse.company.links.consumer;
+
+import static java.lang.String.format;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.KafkaBackoffException;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.retry.SharedRetryTopic;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+@Component
+public class SharedRetryConsumer {
+
+    private final SharedRetryTopic sharedRetryTopic;
+    private final Logger logger;
+
+    @Autowired
+    public SharedRetryConsumer(SharedRetryTopic sharedRetryTopic, Logger logger) {
+        this.sharedRetryTopic = sharedRetryTopic;
+        this.logger = logger;
+    }
+
+    /**
+     * Receives messages from the retry topic shared by every link stream.
+     */
+    @KafkaListener(
+            id = "${company-links.consumer.shared-retry.topic}-consumer",
+            topics = "${company-links.consumer.shared-retry.topic}",
+            groupId = "${company-links.consumer.shared-retry.group-id}",
+            autoStartup = "${company-links.consumer.shared-retry.enable}",
+            containerFactory = "retryListenerContainerFactory")
+    public void receive(Message<ResourceChangedData> resourceChangedMessage,
+            @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
+            @Header(KafkaHeaders.RECEIVED_PARTITION) String partition,
+            @Header(KafkaHeaders.OFFSET) String offset, Consumer<?, ?> consumer) {
+        String contextId = resourceChangedMessage.getPayload().getContextId();
+        if (DataMapHolder.isSampled()) {
+            logger.info(format("A new message successfully picked up from topic: %s, "
+                            + "partition: %s and offset: %s with contextId: %s",
+                    topic, partition, offset, contextId), DataMapHolder.getLogMap());
+        }
+
+        try {
+            sharedRetryTopic.redrive(resourceChangedMessage, consumer);
+        } catch (KafkaBackoffException exception) {
+            // not yet due, so the partition is paused and the record read again later
+            throw exception;
+        } catch (Exception exception) {
+            logger.errorContext(contextId, format("Exception occurred while processing "
+                    + "message on the topic: %s", topic), exception, DataMapHolder.getLogMap());
+            throw exception;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package uk.gov.companieshouse.company.links.dedup;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * A bounded filter of the records already processed, keyed by context ID and a hash of the
+ * record contents, so a record delivered again after a rebalance or a producer retry can be
+ * acknowledged without being processed again.
+ *
+ * <p>The filter is a pair of Bloom filters. Records are added to the current one and looked
+ * up in both, and once the current one has been filling for the configured window, or holds
+ * the expected number of records, it becomes the previous one and an empty filter takes its
+ * place. A record is therefore remembered for between one and two windows, memory stays at two
+ * filters sized for the expected records and false positive rate, and the false positive rate
+ * of either filter never exceeds the configured one. A false positive suppresses a record that
+ * was never processed, so the rate should be set well below the tolerable loss rate.</p>
+ */
+@Component
+public class DuplicateFilter {
+
+    static final String METRIC_NAME = "company.links.duplicates";
+
+    private static final double MIN_FALSE_POSITIVE_RATE = 1e-12;
+
+    private final boolean enabled;
+    private final long expectedRecords;
+    private final long windowMillis;
+    private final int hashFunctions;
+    private final int bits;
+    private final LongSupplier clock;
+    private final Counter suppressedCounter;
+    private final Counter recordedCounter;
+    private final Counter rotatedCounter;
+    private long[] current;
+    private long[] previous;
+    private long currentRecords;
+    private long rotatedAt;
+
+    /**
+     * Construct the duplicate filter.
+     */
+    public DuplicateFilter(@Value("${company-links.consumer.dedup.enable}") boolean enabled,
+            @Value("${company-links.consumer.dedup.expected-records}") long expectedRecords,
+            @Value("${company-links.consumer.dedup.false-positive-rate}") double falsePositiveRate,
+            @Value("${company-links.consumer.dedup.window-seconds}") long windowSeconds,
+            MeterRegistry meterRegistry) {
+        this(enabled, expectedRecords, falsePositiveRate, windowSeconds, meterRegistry,
+                System::currentTimeMillis);
+    }
+
+    DuplicateFilter(boolean enabled, long expectedRecords, double falsePositiveRate,
+            long windowSeconds, MeterRegistry meterRegistry, LongSupplier clock) {
+        this.enabled = enabled;
+        this.expectedRecords = Math.max(expectedRecords, 1L);
+        this.windowMillis = windowSeconds * 1000L;
+        this.clock = clock;
+        double rate = Math.min(Math.max(falsePositiveRate, MIN_FALSE_POSITIVE_RATE), 0.5);
+        long optimalBits = (long) Math.ceil(-this.expectedRecords * Math.log(rate)
+                / (Math.log(2) * Math.log(2)));
+        this.bits = enabled ? (int) Math.min(Math.max(optimalBits, Long.SIZE),
+                (long) Integer.MAX_VALUE - Long.SIZE + 1) : Long.SIZE;
+        this.hashFunctions = Math.max(1, (int) Math.round(
+                (double) bits / this.expectedRecords * Math.log(2)));
+        this.current = new long[(bits + Long.SIZE - 1) / Long.SIZE];
+        this.previous = new long[current.length];
+        this.rotatedAt = clock.getAsLong();
+        this.suppressedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "suppressed");
+        this.recordedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "recorded");
+        this.rotatedCounter = meterRegistry.counter(METRIC_NAME + ".rotations");
+        meterRegistry.gauge(METRIC_NAME + ".bytes", this, DuplicateFilter::sizeInBytes);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether a record with this context ID and contents has probably been processed already.
+     *
+     * @param contextId the context ID of the record
+     * @param contents  the serialised record
+     */
+    public boolean isDuplicate(String contextId, byte[] contents) {
+        if (!enabled) {
+            return false;
+        }
+        long fingerprint = fingerprint(contextId, contents);
+        boolean duplicate;
+        synchronized (this) {
+            rotateIfDue();
+            duplicate = contains(current, fingerprint) || contains(previous, fingerprint);
+        }
+        if (duplicate) {
+            suppressedCounter.increment();
+        }
+        return duplicate;
+    }
+
+    /**
+     * Remember a record that has been processed.
+     */
+    public void recordProcessed(String contextId, byte[] contents) {
+        if (!enabled) {
+            return;
+        }
+        long fingerprint = fingerprint(contextId, contents);
+        synchronized (this) {
+            rotateIfDue();
+            int first = (int) fingerprint;
+            int second = (int) (fingerprint >>> 32);
+            for (int i = 0; i < hashFunctions; i++) {
+                int bit = index(first + i * second);
+                current[bit >>> 6] |= 1L << bit;
+            }
+            currentRecords++;
+        }
+        recordedCounter.increment();
+    }
+
+    long sizeInBytes() {
+        return 2L * current.length * Long.BYTES;
+    }
+
+    int hashFunctions() {
+        return hashFunctions;
+    }
+
+    private boolean contains(long[] filter, long fingerprint) {
+        int first = (int) fingerprint;
+        int second = (int) (fingerprint >>> 32);
+        for (int i = 0; i < hashFunctions; i++) {
+            int bit = index(first + i * second);
+            if ((filter[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int index(int combined) {
+        return (combined & Integer.MAX_VALUE) % bits;
+    }
+
+    private void rotateIfDue() {
+        long now = clock.getAsLong();
+        if (now - rotatedAt < windowMillis && currentRecords < expectedRecords) {
+            return;
+        }
+        long[] cleared = previous;
+        Arrays.fill(cleared, 0L);
+        previous = current;
+        current = cleared;
+        currentRecords = 0L;
+        rotatedAt = now;
+        rotatedCounter.increment();
+    }
+
+    private static long fingerprint(String contextId, byte[] contents) {
+        long contentHash = XxHash64.hash(contents, 0L);
+        return contextId == null ? contentHash
+                : XxHash64.hash(contextId.getBytes(StandardCharsets.UTF_8), contentHash);
+    }
+}
@@ -0,0 +1,74 @@
+package uk.gov.companieshouse.company.links.dedup;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.annotation.Order;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.config.ListenerAspectOrder;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.retry.ListenerMethods;
+import uk.gov.companieshouse.company.links.retry.SharedRetryTopic;
+import uk.gov.companieshouse.company.links.serialization.ResourceChangedDataSerializer;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+/**
+ * Acknowledges records the {@link DuplicateFilter} has probably already seen processed, before
+ * they reach the processors, and adds every record that is processed successfully to it. A
+ * record that fails, or that an inner aspect hands on to be processed later, is not added, so
+ * it is still processed when it comes round again.
+ *
+ * <p>Records re-driven through {@link ListenerMethods} are always processed, as replay and
+ * reprocessing deliberately run records that were processed before. Records on the shared
+ * retry topic are left to the re-drive, since a record deferred again is published with the
+ * same contents.</p>
+ */
+@Component
+@Aspect
+@Order(ListenerAspectOrder.DUPLICATE_SUPPRESSION)
+class DuplicateSuppressionAspect {
+
+    private final DuplicateFilter duplicateFilter;
+    private final ResourceChangedDataSerializer serializer;
+    private final ListenerMethods listenerMethods;
+    private final SharedRetryTopic sharedRetryTopic;
+    private final Logger logger;
+
+    DuplicateSuppressionAspect(DuplicateFilter duplicateFilter,
+            ResourceChangedDataSerializer serializer, ListenerMethods listenerMethods,
+            SharedRetryTopic sharedRetryTopic, Logger logger) {
+        this.duplicateFilter = duplicateFilter;
+        this.serializer = serializer;
+        this.listenerMethods = listenerMethods;
+        this.sharedRetryTopic = sharedRetryTopic;
+        this.logger = logger;
+    }
+
+    @Around("@annotation(org.springframework.kafka.annotation.KafkaListener)")
+    public Object suppressDuplicates(ProceedingJoinPoint joinPoint) throws Throwable {
+        Object[] args = joinPoint.getArgs();
+        Message<?> message = (Message<?>) args[0];
+        String topic = (String) args[1];
+        if (!duplicateFilter.isEnabled() || listenerMethods.isRedriving()
+                || sharedRetryTopic.isSharedTopic(topic)
+                || !(message.getPayload() instanceof ResourceChangedData payload)) {
+            return joinPoint.proceed();
+        }
+        byte[] contents = serializer.serialize(topic, payload);
+        if (duplicateFilter.isDuplicate(payload.getContextId(), contents)) {
+            logger.info(String.format("Record from topic: %s, partition: %s and offset: %s "
+                    + "with contextId: %s has already been processed, skipping", topic,
+                    args[2], args[3], payload.getContextId()), DataMapHolder.getLogMap());
+            return null;
+        }
+        listenerMethods.clearHandedOn();
+        Object result = joinPoint.proceed();
+        // a record handed on to be processed later must not be dropped when it is re-driven
+        if (!listenerMethods.isHandedOn()) {
+            duplicateFilter.recordProcessed(payload.getContextId(), contents);
+        }
+        return result;
+    }
+}
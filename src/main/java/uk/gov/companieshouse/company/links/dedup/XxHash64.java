@@ -0,0 +1,89 @@
+package uk.gov.companieshouse.company.links.dedup;
+
+/**
+ * The 64-bit xxHash of a byte array, used to fingerprint record contents cheaply.
+ */
+final class XxHash64 {
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private XxHash64() {
+    }
+
+    static long hash(byte[] input, long seed) {
+        final int length = input.length;
+        int index = 0;
+        long hash;
+        if (length >= 32) {
+            long v1 = seed + PRIME1 + PRIME2;
+            long v2 = seed + PRIME2;
+            long v3 = seed;
+            long v4 = seed - PRIME1;
+            final int limit = length - 32;
+            do {
+                v1 = round(v1, readLong(input, index));
+                v2 = round(v2, readLong(input, index + 8));
+                v3 = round(v3, readLong(input, index + 16));
+                v4 = round(v4, readLong(input, index + 24));
+                index += 32;
+            } while (index <= limit);
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12)
+                    + Long.rotateLeft(v4, 18);
+            hash = merge(hash, v1);
+            hash = merge(hash, v2);
+            hash = merge(hash, v3);
+            hash = merge(hash, v4);
+        } else {
+            hash = seed + PRIME5;
+        }
+        hash += length;
+
+        while (index + 8 <= length) {
+            hash ^= round(0L, readLong(input, index));
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+            index += 8;
+        }
+        if (index + 4 <= length) {
+            hash ^= (readInt(input, index) & 0xFFFFFFFFL) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+            index += 4;
+        }
+        while (index < length) {
+            hash ^= (input[index] & 0xFFL) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+            index++;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static long round(long accumulator, long input) {
+        accumulator += input * PRIME2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * PRIME1;
+    }
+
+    private static long merge(long accumulator, long value) {
+        accumulator ^= round(0L, value);
+        return accumulator * PRIME1 + PRIME4;
+    }
+
+    private static long readLong(byte[] input, int index) {
+        return (readInt(input, index) & 0xFFFFFFFFL)
+                | ((long) readInt(input, index + 4) << 32);
+    }
+
+    private static int readInt(byte[] input, int index) {
+        return (input[index] & 0xFF) | (input[index + 1] & 0xFF) << 8
+                | (input[index + 2] & 0xFF) << 16 | (input[index + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,35 @@
+package uk.gov.companieshouse.company.links.exception;
+
+/**
+ * Thrown when a delete event arrives before the data API has deleted the resource. Carries a
+ * recheck that verifies only the sub-resource and finishes the link removal, so the delete can
+ * be retried in-process. The company profile is only read again once the sub-resource has gone
+ * and the link is to be removed.
+ */
+public class NotYetDeletedException extends RetryableErrorException {
+
+    private final String companyNumber;
+    private final transient Runnable recheck;
+
+    /**
+     * Construct a not yet deleted exception.
+     *
+     * @param message       the exception message
+     * @param companyNumber the company the resource belongs to
+     * @param recheck       re-verifies the sub-resource and removes the link if it has gone,
+     *                      throwing another NotYetDeletedException if it has not
+     */
+    public NotYetDeletedException(String message, String companyNumber, Runnable recheck) {
+        super(message);
+        this.companyNumber = companyNumber;
+        this.recheck = recheck;
+    }
+
+    public String getCompanyNumber() {
+        return companyNumber;
+    }
+
+    public Runnable getRecheck() {
+        return recheck;
+    }
+}
@@ -11,12 +11,30 @@ public class DataMapHolder {
     private static final ThreadLocal<DataMap.Builder> DATAMAP_BUILDER = ThreadLocal.withInitial(
             () -> new Builder().requestId("uninitialised"));
 
+    private static final ThreadLocal<Boolean> SAMPLED = ThreadLocal.withInitial(() -> true);
+
     public static void initialise(String requestId) {
         DATAMAP_BUILDER.get().requestId(requestId);
     }
 
     public static void clear() {
         DATAMAP_BUILDER.remove();
+        SAMPLED.remove();
+    }
+
+    /**
+     * Set whether the record being processed on this thread writes its per-record log lines.
+     */
+    public static void sample(boolean sampled) {
+        SAMPLED.set(sampled);
+    }
+
+    /**
+     * Whether the record being processed on this thread writes its per-record log lines.
+     * Errors are logged whether or not the record is sampled.
+     */
+    public static boolean isSampled() {
+        return SAMPLED.get();
     }
 
     public static DataMap.Builder get() {
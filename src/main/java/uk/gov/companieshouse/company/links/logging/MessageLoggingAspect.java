@@ -5,14 +5,18 @@ import java.util.UUID;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.annotation.Order;
 import org.springframework.messaging.Message;
 import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.catchup.CatchUpMode;
+import uk.gov.companieshouse.company.links.config.ListenerAspectOrder;
 import uk.gov.companieshouse.delta.ChsDelta;
 import uk.gov.companieshouse.logging.Logger;
 import uk.gov.companieshouse.stream.ResourceChangedData;
 
 @Component
 @Aspect
+@Order(ListenerAspectOrder.MESSAGE_LOGGING)
 class MessageLoggingAspect {
 
     private static final String LOG_MESSAGE_RECEIVED = "Processing delta";
@@ -20,9 +24,11 @@ class MessageLoggingAspect {
     private static final String EXCEPTION_MESSAGE = "%s exception thrown: %s";
 
     private final Logger logger;
+    private final CatchUpMode catchUpMode;
 
-    public MessageLoggingAspect(Logger logger) {
+    public MessageLoggingAspect(Logger logger, CatchUpMode catchUpMode) {
         this.logger = logger;
+        this.catchUpMode = catchUpMode;
     }
 
     @Around("@annotation(org.springframework.kafka.annotation.KafkaListener)")
@@ -40,12 +46,17 @@ class MessageLoggingAspect {
                     .topic(topic)
                     .partition(Integer.valueOf(partition))
                     .offset(Long.valueOf(offset));
+            DataMapHolder.sample(catchUpMode.shouldLog(topic));
 
-            logger.debug(LOG_MESSAGE_RECEIVED, DataMapHolder.getLogMap());
+            if (DataMapHolder.isSampled()) {
+                logger.debug(LOG_MESSAGE_RECEIVED, DataMapHolder.getLogMap());
+            }
 
             Object result = joinPoint.proceed();
 
-            logger.debug(LOG_MESSAGE_PROCESSED, DataMapHolder.getLogMap());
+            if (DataMapHolder.isSampled()) {
+                logger.debug(LOG_MESSAGE_PROCESSED, DataMapHolder.getLogMap());
+            }
 
             return result;
         } catch (Exception ex) {
@@ -0,0 +1,116 @@
+package uk.gov.companieshouse.company.links.priority;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.retry.ContainerPauses;
+import uk.gov.companieshouse.logging.Logger;
+
+/**
+ * Pauses the parking topic listener while the low {@link PriorityLanes} lane is full, so
+ * parked records are only re-driven once there is room for them. The lane counts as full
+ * while it has no free place, or while a record was parked since the last check, as parking
+ * only happens once the lane has stayed full for the configured wait. The listener is resumed
+ * at the first check that finds the lane has room.
+ */
+@Component
+public class ParkingGate implements InitializingBean, DisposableBean {
+
+    static final String METRIC_NAME = "company.links.priority.parking";
+
+    private static final String PAUSE_REASON = "low-lane-full";
+
+    private final boolean enabled;
+    private final long intervalMs;
+    private final String listenerId;
+    private final PriorityLanes priorityLanes;
+    private final KafkaListenerEndpointRegistry registry;
+    private final ContainerPauses containerPauses;
+    private final Logger logger;
+    private final Counter pausedCounter;
+    private final Counter resumedCounter;
+    private ScheduledExecutorService scheduler;
+    private long lastCheckMillis;
+    private boolean paused;
+
+    /**
+     * Construct the parking gate.
+     */
+    public ParkingGate(
+            @Value("${company-links.consumer.priority.enable}") boolean enabled,
+            @Value("${company-links.consumer.priority.parking-check-interval-ms}")
+                    long intervalMs,
+            @Value("${company-links.consumer.priority.parking-topic}") String parkingTopic,
+            PriorityLanes priorityLanes, KafkaListenerEndpointRegistry registry,
+            ContainerPauses containerPauses, Logger logger, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.intervalMs = intervalMs;
+        this.listenerId = parkingTopic + "-consumer";
+        this.priorityLanes = priorityLanes;
+        this.registry = registry;
+        this.containerPauses = containerPauses;
+        this.logger = logger;
+        this.pausedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "paused");
+        this.resumedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "resumed");
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("parking-gate-"));
+        scheduler.scheduleWithFixedDelay(this::check, intervalMs, intervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Pause or resume the parking topic listener depending on whether the low lane has room.
+     */
+    synchronized void check() {
+        try {
+            MessageListenerContainer container = registry.getListenerContainer(listenerId);
+            long now = System.currentTimeMillis();
+            boolean full = !priorityLanes.hasCapacity(PriorityLanes.Lane.LOW)
+                    || priorityLanes.getLastParkedMillis() > lastCheckMillis;
+            lastCheckMillis = now;
+            if (container == null) {
+                return;
+            }
+            if (!paused && full) {
+                paused = true;
+                containerPauses.pause(container, PAUSE_REASON);
+                pausedCounter.increment();
+                logger.info("Pausing parking topic listener, the low priority lane is full",
+                        DataMapHolder.getLogMap());
+            } else if (paused && !full) {
+                paused = false;
+                containerPauses.resume(container, PAUSE_REASON);
+                resumedCounter.increment();
+                logger.info("Resuming parking topic listener, the low priority lane has room",
+                        DataMapHolder.getLogMap());
+            }
+        } catch (RuntimeException exception) {
+            logger.error("Unable to check the low priority lane", exception,
+                    DataMapHolder.getLogMap());
+        }
+    }
+}
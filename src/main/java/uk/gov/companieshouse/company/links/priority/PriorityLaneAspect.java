@@ -0,0 +1,67 @@
+package uk.gov.companieshouse.company.links.priority;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.annotation.Order;
+import org.springframework.kafka.support.KafkaUtils;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.config.ListenerAspectOrder;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.company.links.retry.ListenerMethods;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+/**
+ * Holds a place in the record's {@link PriorityLanes} lane while the listener runs, parking
+ * low priority adds instead when their lane stays full. Records re-driven through
+ * {@link ListenerMethods} are never parked again. Parked records wait for their lane, as the
+ * {@link ParkingGate} stops the parking topic being read while the low lane is full; other
+ * re-drives wait no longer than the configured time for their lane and otherwise fail as
+ * retryable, so the quota holds for re-drives without tying up their threads. Ordered
+ * outside every other listener aspect but logging so the quota covers all the work done for a
+ * record.
+ */
+@Component
+@Aspect
+@Order(ListenerAspectOrder.PRIORITY_LANE)
+class PriorityLaneAspect {
+
+    private final PriorityLanes priorityLanes;
+    private final ListenerMethods listenerMethods;
+
+    PriorityLaneAspect(PriorityLanes priorityLanes, ListenerMethods listenerMethods) {
+        this.priorityLanes = priorityLanes;
+        this.listenerMethods = listenerMethods;
+    }
+
+    @Around("@annotation(org.springframework.kafka.annotation.KafkaListener)")
+    public Object enterLane(ProceedingJoinPoint joinPoint) throws Throwable {
+        Object[] args = joinPoint.getArgs();
+        Message<?> message = (Message<?>) args[0];
+        String topic = (String) args[1];
+        if (!priorityLanes.isEnabled() || priorityLanes.isParkingTopic(topic)
+                || !(message.getPayload() instanceof ResourceChangedData payload)) {
+            return joinPoint.proceed();
+        }
+        PriorityLanes.Lane lane = priorityLanes.laneFor(topic, payload);
+        if (!priorityLanes.tryEnter(lane)) {
+            if (listenerMethods.isRedriving() && !priorityLanes.isUnparking()) {
+                throw new RetryableErrorException(String.format("The %s priority lane is full",
+                        lane));
+            }
+            if (!listenerMethods.isRedriving() && priorityLanes.isParkable(topic, payload)
+                    && priorityLanes.park(message, topic, (String) args[2], (String) args[3],
+                    KafkaUtils.getConsumerGroupId())) {
+                listenerMethods.markHandedOn();
+                return null;
+            }
+            priorityLanes.enter(lane);
+        }
+        try {
+            return joinPoint.proceed();
+        } finally {
+            priorityLanes.exit(lane);
+        }
+    }
+}
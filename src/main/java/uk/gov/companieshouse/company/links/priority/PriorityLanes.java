@@ -0,0 +1,363 @@
+package uk.gov.companieshouse.company.links.priority;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.retry.ListenerMethods;
+import uk.gov.companieshouse.company.links.retry.RetryPolicies;
+import uk.gov.companieshouse.company.links.retry.RetryTopicPublisher;
+import uk.gov.companieshouse.company.links.retry.SharedRetryTopic;
+import uk.gov.companieshouse.company.links.service.PatchLinkRequestExtractable;
+import uk.gov.companieshouse.company.links.state.LinkState;
+import uk.gov.companieshouse.company.links.state.LinkStateIndex;
+import uk.gov.companieshouse.company.links.type.LinkType;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+/**
+ * Puts each record into a high, normal or low priority lane, each with its own quota of
+ * records in flight across every listener thread, so a flood of low priority events cannot
+ * hold up the urgent ones. Deletes always go in the high lane; otherwise the lane comes from
+ * the topic, and a retry topic shares the lane of its main topic.
+ *
+ * <p>When the low lane has been full for the configured wait, a low priority add whose link
+ * state the {@link LinkStateIndex} does not know is parked: published to the parking topic
+ * and acknowledged. Nearly every such event is for a company that already has the link, so
+ * parking it costs little. An add whose link the index knows to be present or absent costs
+ * no API call and is processed rather than parked. Every other record read from its topic
+ * waits for its lane. Other re-driven records wait no longer than the configured time, and
+ * fail as retryable if their lane is still full, so re-drives never pile up behind a full
+ * lane. Parked records are not re-driven until the lane has room: the {@link ParkingGate}
+ * pauses the parking topic listener while the low lane is full, and a parked record already
+ * polled waits for its lane rather than using up a retry. A parked record that fails is
+ * published through the
+ * {@link RetryTopicPublisher}, to the {@link SharedRetryTopic} when that is enabled and
+ * otherwise to its consumer's own retry topic, as a first failed attempt with its policy's
+ * first delay, so it runs out of attempts and reaches the error topic like any other
+ * record.</p>
+ */
+@Component
+public class PriorityLanes {
+
+    static final String METRIC_NAME = "company.links.priority";
+    static final String PARKED_TOPIC = "company_links_parked_topic";
+    static final String PARKED_PARTITION = "company_links_parked_partition";
+    static final String PARKED_OFFSET = "company_links_parked_offset";
+    static final String PARKED_GROUP_ID = "company_links_parked_group_id";
+
+    private static final String DELETED = "deleted";
+    private static final String RETRY_SUFFIX = "-retry";
+    private static final long PUBLISH_TIMEOUT_SECONDS = 10L;
+
+    /**
+     * The priority lanes, most urgent first.
+     */
+    enum Lane {
+        HIGH, NORMAL, LOW
+    }
+
+    private final boolean enabled;
+    private final Map<String, Lane> topicLanes = new HashMap<>();
+    private final Map<String, LinkType> linkTypes = new HashMap<>();
+    private final Map<Lane, Semaphore> quotas = new EnumMap<>(Lane.class);
+    private final Map<Lane, Timer> waitTimers = new EnumMap<>(Lane.class);
+    private final long maxWaitMs;
+    private final String parkingTopic;
+    private final PatchLinkRequestExtractable extractor;
+    private final LinkStateIndex linkStateIndex;
+    private final ListenerMethods listenerMethods;
+    private final RetryTopicPublisher retryTopicPublisher;
+    private final RetryPolicies retryPolicies;
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final Logger logger;
+    private final Counter parkedCounter;
+    private final Counter unparkedCounter;
+    private final Counter escalatedCounter;
+    private final ThreadLocal<Boolean> unparking = ThreadLocal.withInitial(() -> false);
+    private volatile long lastParkedMillis;
+
+    /**
+     * Construct the priority lanes.
+     *
+     * @param highLane the topics whose records go in the high lane
+     * @param lowLane  the topics whose records go in the low lane, each as
+     *                 {@code topic=link_type} when its adds may be parked
+     */
+    public PriorityLanes(
+            @Value("${company-links.consumer.priority.enable}") boolean enabled,
+            @Value("${company-links.consumer.priority.high-lane}") List<String> highLane,
+            @Value("${company-links.consumer.priority.low-lane}") List<String> lowLane,
+            @Value("${company-links.consumer.priority.high.max-in-flight}") int highMaxInFlight,
+            @Value("${company-links.consumer.priority.normal.max-in-flight}")
+                    int normalMaxInFlight,
+            @Value("${company-links.consumer.priority.low.max-in-flight}") int lowMaxInFlight,
+            @Value("${company-links.consumer.priority.max-wait-ms}") long maxWaitMs,
+            @Value("${company-links.consumer.priority.parking-topic}") String parkingTopic,
+            PatchLinkRequestExtractable extractor, LinkStateIndex linkStateIndex,
+            ListenerMethods listenerMethods, RetryTopicPublisher retryTopicPublisher,
+            RetryPolicies retryPolicies, KafkaTemplate<String, Object> kafkaTemplate,
+            Logger logger, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        highLane.stream().filter(StringUtils::isNotBlank)
+                .forEach(topic -> topicLanes.put(topic.trim(), Lane.HIGH));
+        for (String entry : lowLane) {
+            String topic = StringUtils.substringBefore(entry, "=").trim();
+            String linkType = StringUtils.substringAfter(entry, "=").trim();
+            if (StringUtils.isNotBlank(topic)) {
+                topicLanes.put(topic, Lane.LOW);
+            }
+            if (StringUtils.isNotBlank(topic) && StringUtils.isNotBlank(linkType)) {
+                linkTypes.put(topic, LinkType.valueOf(linkType.toUpperCase(Locale.ROOT)));
+            }
+        }
+        quotas.put(Lane.HIGH, quota(highMaxInFlight));
+        quotas.put(Lane.NORMAL, quota(normalMaxInFlight));
+        quotas.put(Lane.LOW, quota(lowMaxInFlight));
+        for (Lane lane : Lane.values()) {
+            waitTimers.put(lane, meterRegistry.timer(METRIC_NAME + ".wait", "lane",
+                    lane.name().toLowerCase(Locale.ROOT)));
+        }
+        this.maxWaitMs = maxWaitMs;
+        this.parkingTopic = parkingTopic;
+        this.extractor = extractor;
+        this.linkStateIndex = linkStateIndex;
+        this.listenerMethods = listenerMethods;
+        this.retryTopicPublisher = retryTopicPublisher;
+        this.retryPolicies = retryPolicies;
+        this.kafkaTemplate = kafkaTemplate;
+        this.logger = logger;
+        this.parkedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "parked");
+        this.unparkedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "unparked");
+        this.escalatedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "escalated");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isParkingTopic(String topic) {
+        return parkingTopic.equals(topic);
+    }
+
+    /**
+     * The lane for a record read from the given topic.
+     */
+    Lane laneFor(String topic, ResourceChangedData payload) {
+        if (payload.getEvent() != null && DELETED.equals(payload.getEvent().getType())) {
+            return Lane.HIGH;
+        }
+        Lane lane = topicLanes.get(topic);
+        if (lane == null && StringUtils.endsWith(topic, RETRY_SUFFIX)) {
+            for (Map.Entry<String, Lane> entry : topicLanes.entrySet()) {
+                if (topic.startsWith(entry.getKey() + "-")) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return lane == null ? Lane.NORMAL : lane;
+    }
+
+    /**
+     * Take a place in the lane, waiting up to the configured time for one to free up.
+     *
+     * @return true if a place was taken and must be given back with {@link #exit(Lane)}
+     */
+    boolean tryEnter(Lane lane) {
+        Semaphore quota = quotas.get(lane);
+        if (quota == null || quota.tryAcquire()) {
+            return true;
+        }
+        long start = System.nanoTime();
+        try {
+            return quota.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new RetryableErrorException(String.format("Interrupted waiting for the %s "
+                    + "priority lane", lane), exception);
+        } finally {
+            waitTimers.get(lane).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Take a place in the lane, however long it takes to free up. Only for records read from
+     * their topic, so no more threads wait than there are consumers.
+     */
+    void enter(Lane lane) {
+        Semaphore quota = quotas.get(lane);
+        if (quota == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            quota.acquire();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new RetryableErrorException(String.format("Interrupted waiting for the %s "
+                    + "priority lane", lane), exception);
+        } finally {
+            waitTimers.get(lane).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * True if the lane has a place free right now.
+     */
+    boolean hasCapacity(Lane lane) {
+        Semaphore quota = quotas.get(lane);
+        return quota == null || quota.availablePermits() > 0;
+    }
+
+    /**
+     * True while the current thread is re-driving a parked record.
+     */
+    boolean isUnparking() {
+        return unparking.get();
+    }
+
+    long getLastParkedMillis() {
+        return lastParkedMillis;
+    }
+
+    void exit(Lane lane) {
+        Semaphore quota = quotas.get(lane);
+        if (quota != null) {
+            quota.release();
+        }
+    }
+
+    /**
+     * True if the record is a low priority add that may be parked rather than waited for.
+     */
+    boolean isParkable(String topic, ResourceChangedData payload) {
+        LinkType linkType = linkTypes.get(topic);
+        if (linkType == null || laneFor(topic, payload) != Lane.LOW) {
+            return false;
+        }
+        try {
+            String companyNumber = extractor.extractPatchLinkRequest(payload.getResourceUri(),
+                    payload.getContextId()).getCompanyNumber();
+            return linkStateIndex.getLinkState(companyNumber, linkType) == LinkState.UNKNOWN;
+        } catch (RuntimeException exception) {
+            // leave records that cannot be parsed to fail in their processor
+            return false;
+        }
+    }
+
+    /**
+     * Publish a record to the parking topic so the listener can acknowledge it.
+     *
+     * @return true if the record was parked, false if it should be processed now
+     */
+    boolean park(Message<?> message, String topic, String partition, String offset,
+            String groupId) {
+        if (StringUtils.isBlank(groupId)) {
+            return false;
+        }
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(PARKED_TOPIC, bytes(topic));
+        headers.add(PARKED_PARTITION, bytes(partition));
+        headers.add(PARKED_OFFSET, bytes(offset));
+        headers.add(PARKED_GROUP_ID, bytes(groupId));
+        String key = message.getHeaders().get(KafkaHeaders.RECEIVED_KEY, String.class);
+        try {
+            kafkaTemplate.send(new ProducerRecord<>(parkingTopic, null, key,
+                    message.getPayload(), headers)).get(PUBLISH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException exception) {
+            logger.error(String.format("Unable to park record on %s", parkingTopic), exception,
+                    DataMapHolder.getLogMap());
+            return false;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        lastParkedMillis = System.currentTimeMillis();
+        parkedCounter.increment();
+        return true;
+    }
+
+    /**
+     * Re-drive a parked record through the listener for the topic it was parked from, handing
+     * it to the retry topics if it fails. The record waits for a place in its lane however long
+     * that takes, as a full lane is not a failure of the record.
+     */
+    public void unpark(Message<ResourceChangedData> message) {
+        String originalTopic = header(message, PARKED_TOPIC);
+        String groupId = header(message, PARKED_GROUP_ID);
+        String partition = header(message, PARKED_PARTITION);
+        String offset = header(message, PARKED_OFFSET);
+        String key = message.getHeaders().get(KafkaHeaders.RECEIVED_KEY, String.class);
+        if (originalTopic == null || groupId == null) {
+            throw new NonRetryableErrorException(String.format(
+                    "Record on %s has no original topic or consumer group", parkingTopic));
+        }
+        unparking.set(true);
+        try {
+            listenerMethods.invoke(originalTopic, key, NumberUtils.toInt(partition, -1),
+                    NumberUtils.toLong(offset, -1L), message.getPayload());
+            unparkedCounter.increment();
+        } catch (RuntimeException exception) {
+            escalate(message, originalTopic, partition, offset, groupId, key, exception);
+        } finally {
+            unparking.remove();
+        }
+    }
+
+    private void escalate(Message<ResourceChangedData> message, String originalTopic,
+            String partition, String offset, String groupId, String key,
+            RuntimeException failure) {
+        long delayMs = retryPolicies.policyFor(originalTopic, failure).delayFor(1);
+        try {
+            retryTopicPublisher.publish(originalTopic, groupId, key,
+                    NumberUtils.toInt(partition, -1), NumberUtils.toLong(offset, -1L),
+                    message.getPayload(), failure, delayMs);
+        } catch (ExecutionException | TimeoutException exception) {
+            throw new RetryableErrorException("Unable to publish parked record to retry "
+                    + "topic", exception);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new RetryableErrorException("Interrupted publishing parked record to "
+                    + "retry topic", exception);
+        }
+        escalatedCounter.increment();
+    }
+
+    private static Semaphore quota(int maxInFlight) {
+        // no limit for a lane without a positive quota
+        return maxInFlight > 0 ? new Semaphore(maxInFlight, true) : null;
+    }
+
+    private static String header(Message<?> message, String name) {
+        Object value = message.getHeaders().get(name);
+        if (value instanceof byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value == null ? null : value.toString();
+    }
+
+    private static byte[] bytes(String value) {
+        return StringUtils.defaultString(value).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -2,6 +2,7 @@ package uk.gov.companieshouse.company.links.processor;
 
 import static org.apache.commons.lang3.StringUtils.substringAfterLast;
 
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.commons.lang3.StringUtils;
@@ -15,12 +16,19 @@ import uk.gov.companieshouse.api.company.CompanyProfile;
 import uk.gov.companieshouse.api.company.Data;
 import uk.gov.companieshouse.api.company.Links;
 import uk.gov.companieshouse.api.model.ApiResponse;
+import uk.gov.companieshouse.company.links.concurrency.CompanyLocks;
 import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+import uk.gov.companieshouse.company.links.exception.NotYetDeletedException;
 import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
 import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.processor.SpeculativePrefetcher.Prefetch;
 import uk.gov.companieshouse.company.links.service.ChargesService;
 import uk.gov.companieshouse.company.links.service.CompanyProfileService;
+import uk.gov.companieshouse.company.links.state.LinkState;
+import uk.gov.companieshouse.company.links.state.LinkStateIndex;
 import uk.gov.companieshouse.company.links.type.ApiType;
+import uk.gov.companieshouse.company.links.type.LinkPatch;
+import uk.gov.companieshouse.company.links.type.LinkType;
 import uk.gov.companieshouse.logging.Logger;
 import uk.gov.companieshouse.stream.ResourceChangedData;
 
@@ -31,6 +39,10 @@ public class ChargesStreamProcessor extends StreamResponseProcessor {
     public static final String EXTRACT_COMPANY_NUMBER_PATTERN = "(?<=company/)(.*)(?=/charges)";
     private final CompanyProfileService companyProfileService;
     private final ChargesService chargesService;
+    private final SpeculativePrefetcher speculativePrefetcher;
+    private final CompanyLocks companyLocks;
+    private final LinkStateIndex linkStateIndex;
+    private final ProfileConflation profileConflation;
 
     /**
      * Construct an Charges stream processor.
@@ -38,10 +50,18 @@ public class ChargesStreamProcessor extends StreamResponseProcessor {
     @Autowired
     public ChargesStreamProcessor(CompanyProfileService companyProfileService,
             ChargesService chargesService,
-            Logger logger) {
+            Logger logger,
+            SpeculativePrefetcher speculativePrefetcher,
+            CompanyLocks companyLocks,
+            LinkStateIndex linkStateIndex,
+            ProfileConflation profileConflation) {
         super(logger);
         this.companyProfileService = companyProfileService;
         this.chargesService = chargesService;
+        this.speculativePrefetcher = speculativePrefetcher;
+        this.companyLocks = companyLocks;
+        this.linkStateIndex = linkStateIndex;
+        this.profileConflation = profileConflation;
     }
 
     /**
@@ -49,24 +69,70 @@ public class ChargesStreamProcessor extends StreamResponseProcessor {
      */
     public void processDelete(Message<ResourceChangedData> resourceChangedMessage) {
         final ResourceChangedData payload = resourceChangedMessage.getPayload();
-        final String logContext = payload.getContextId();
-        final String resourceUri = payload.getResourceUri();
-        final String companyNumber = extractCompanyNumber(resourceUri);
+        final String companyNumber = extractCompanyNumber(payload.getResourceUri());
         DataMapHolder.get()
                 .companyNumber(companyNumber);
+        if (profileConflation.isEnabled()) {
+            final String logContext = payload.getContextId();
+            if (!isChargesLinkKnown(LinkState.ABSENT, logContext, companyNumber)) {
+                profileConflation.submit(logContext, companyNumber, data -> planChargesLinkRemoval(
+                        payload, companyNumber, data));
+            }
+            return;
+        }
+        companyLocks.withLock(companyNumber, () -> processDelete(payload, companyNumber));
+    }
 
-        final ApiResponse<CompanyProfile> response =
-                getCompanyProfile(payload, companyNumber);
-        var data = response.getData().getData();
-        var links = data.getLinks();
+    private void processDelete(ResourceChangedData payload, String companyNumber) {
+        final String logContext = payload.getContextId();
+        if (isChargesLinkKnown(LinkState.ABSENT, logContext, companyNumber)) {
+            return;
+        }
+
+        var data = getCompanyProfile(payload, companyNumber).getData().getData();
+
+        if (planChargesLinkRemoval(payload, companyNumber, data) != null) {
+            removeCompanyChargesLink(logContext, companyNumber, data);
+        }
+    }
 
+    private LinkPatch planChargesLinkRemoval(ResourceChangedData payload, String companyNumber,
+            Data data) {
+        var links = data.getLinks();
         if (links == null || links.getCharges() == null) {
             logger.trace(String.format("Company profile with company number %s,"
                             + " does not contain charges links, will not perform DELETE",
                             companyNumber), DataMapHolder.getLogMap());
+            return null;
+        }
+
+        return chargesLinkRemoval(payload, companyNumber);
+    }
+
+    /**
+     * Finish a delete that was not yet deleted. Only the charges are checked again while the
+     * charge is still there; once it has gone the company profile is fetched now, so links
+     * changed since the first attempt are not overwritten.
+     */
+    private void removeChargesLinkIfDeleted(ResourceChangedData payload, String companyNumber) {
+        final String logContext = payload.getContextId();
+        if (isChargesLinkKnown(LinkState.ABSENT, logContext, companyNumber)
+                || chargesLinkRemoval(payload, companyNumber) == null) {
+            return;
+        }
+        var data = getCompanyProfile(payload, companyNumber).getData().getData();
+        if (data.getLinks() == null || data.getLinks().getCharges() == null) {
+            logger.trace(String.format("Company profile with company number %s,"
+                            + " no longer contains charges links, will not perform DELETE",
+                            companyNumber), DataMapHolder.getLogMap());
             return;
         }
+        removeCompanyChargesLink(logContext, companyNumber, data);
+    }
 
+    private LinkPatch chargesLinkRemoval(ResourceChangedData payload, String companyNumber) {
+        final String logContext = payload.getContextId();
+        final String resourceUri = payload.getResourceUri();
         ApiResponse<ChargesApi> chargesResponse = chargesService.getCharges(
                 logContext, companyNumber);
 
@@ -76,18 +142,21 @@ public class ChargesStreamProcessor extends StreamResponseProcessor {
         ChargesApi chargesData = chargesResponse.getData();
 
         if (chargesData.getTotalCount() == 0) {
-            removeCompanyChargesLink(logContext, companyNumber, data, links);
-        } else {
-            String incomingChargeId = substringAfterLast(resourceUri, "/");
-            if (chargesData.getItems().stream().anyMatch(x ->
-                    incomingChargeId.equals(x.getId()))) {
-                throw new RetryableErrorException(String.format("Charge with id: %s is still not "
-                        + "deleted", incomingChargeId));
-            }
-
-            logger.trace(String.format("Nothing to PATCH with company number %s, charges link not"
-                    + " removed", companyNumber), DataMapHolder.getLogMap());
+            return LinkPatch.builder()
+                    .removeLink(LinkType.CHARGES)
+                    .build();
+        }
+        String incomingChargeId = substringAfterLast(resourceUri, "/");
+        if (chargesData.getItems().stream().anyMatch(x ->
+                incomingChargeId.equals(x.getId()))) {
+            throw new NotYetDeletedException(String.format("Charge with id: %s is still not "
+                    + "deleted", incomingChargeId), companyNumber,
+                    () -> removeChargesLinkIfDeleted(payload, companyNumber));
         }
+
+        logger.trace(String.format("Nothing to PATCH with company number %s, charges link not"
+                + " removed", companyNumber), DataMapHolder.getLogMap());
+        return null;
     }
 
     /**
@@ -95,31 +164,83 @@ public class ChargesStreamProcessor extends StreamResponseProcessor {
      */
     public void processDelta(Message<ResourceChangedData> resourceChangedMessage) {
         final ResourceChangedData payload = resourceChangedMessage.getPayload();
+        final String companyNumber = extractCompanyNumber(payload.getResourceUri());
+        if (profileConflation.isEnabled()) {
+            final String logContext = payload.getContextId();
+            final String resourceUri = payload.getResourceUri();
+            if (!isChargesLinkKnown(LinkState.PRESENT, logContext, companyNumber)) {
+                profileConflation.submit(logContext, companyNumber, data -> planChargesLink(
+                        logContext, companyNumber, resourceUri, data,
+                        () -> chargesService.getACharge(logContext, resourceUri)));
+            }
+            return;
+        }
+        companyLocks.withLock(companyNumber, () -> processDelta(payload, companyNumber));
+    }
+
+    private void processDelta(ResourceChangedData payload, String companyNumber) {
         final String logContext = payload.getContextId();
+        if (isChargesLinkKnown(LinkState.PRESENT, logContext, companyNumber)) {
+            return;
+        }
         final String resourceUri = payload.getResourceUri();
-        final String companyNumber = extractCompanyNumber(resourceUri);
-        final ApiResponse<CompanyProfile> response =
-                getCompanyProfile(payload, companyNumber);
-        var data = response.getData().getData();
+        final Prefetch<ApiResponse<ChargeApi>> chargePrefetch =
+                speculativePrefetcher.prefetch(logContext, companyNumber,
+                        () -> chargesService.getACharge(logContext, resourceUri));
+        final Data data;
+        try {
+            data = getCompanyProfile(payload, companyNumber).getData().getData();
+        } catch (RuntimeException exception) {
+            chargePrefetch.discard();
+            throw exception;
+        }
         DataMapHolder.get()
                 .companyNumber(companyNumber);
-        // if no charges then update company profile
-        if (!doesCompanyProfileHaveCharges(logContext, companyNumber, data.getLinks())) {
-
-            ApiResponse<ChargeApi> chargeApiResponse =
-                    chargesService.getACharge(logContext, resourceUri);
-            HttpStatus httpStatus =
-                    HttpStatus.resolve(chargeApiResponse.getStatusCode());
-            if (httpStatus == null || !httpStatus.is2xxSuccessful()) {
-                throw new RetryableErrorException(String.format(
-                        "Resource not found in company charges for the "
-                                + "resource uri %s with contextId %s",
-                        resourceUri, logContext));
-            }
+        if (planChargesLink(logContext, companyNumber, resourceUri, data,
+                chargePrefetch::get) == null) {
+            chargePrefetch.discard();
+        } else {
             addCompanyChargesLink(logContext, companyNumber, data);
         }
     }
 
+    private LinkPatch planChargesLink(String logContext, String companyNumber,
+            String resourceUri, Data data, Supplier<ApiResponse<ChargeApi>> charge) {
+        // if no charges then update company profile
+        if (doesCompanyProfileHaveCharges(logContext, companyNumber, data.getLinks())) {
+            return null;
+        }
+        ApiResponse<ChargeApi> chargeApiResponse = charge.get();
+        HttpStatus httpStatus =
+                HttpStatus.resolve(chargeApiResponse.getStatusCode());
+        if (httpStatus == null || !httpStatus.is2xxSuccessful()) {
+            throw new RetryableErrorException(String.format(
+                    "Resource not found in company charges for the "
+                            + "resource uri %s with contextId %s",
+                    resourceUri, logContext));
+        }
+        return LinkPatch.builder()
+                .addLink(LinkType.CHARGES, companyNumber)
+                .build();
+    }
+
+    private boolean isChargesLinkKnown(LinkState linkState, String logContext,
+            String companyNumber) {
+        if (linkStateIndex.getLinkState(companyNumber, LinkType.CHARGES) != linkState) {
+            return false;
+        }
+        if (linkState == LinkState.PRESENT) {
+            logger.trace(String.format("Company profile with company number %s is known to"
+                    + " contain charges links, will not perform PATCH for contextId %s",
+                    companyNumber, logContext), DataMapHolder.getLogMap());
+        } else {
+            logger.trace(String.format("Company profile with company number %s is known not to"
+                    + " contain charges links, will not perform DELETE for contextId %s",
+                    companyNumber, logContext), DataMapHolder.getLogMap());
+        }
+        return true;
+    }
+
     private ApiResponse<CompanyProfile> getCompanyProfile(ResourceChangedData payload,
             String companyNumber) {
         final String logContext = payload.getContextId();
@@ -135,6 +256,7 @@ public class ChargesStreamProcessor extends StreamResponseProcessor {
                 companyProfileService.getCompanyProfile(logContext, companyNumber);
         handleCompanyProfileResponse(HttpStatus.valueOf(response.getStatusCode()), logContext,
                 "GET", ApiType.COMPANY_PROFILE, companyNumber);
+        linkStateIndex.recordProfile(companyNumber, response.getData());
         return response;
     }
 
@@ -143,35 +265,29 @@ public class ChargesStreamProcessor extends StreamResponseProcessor {
                         + "company profile does not contain charges link, attaching charges link",
                 logContext, companyNumber), DataMapHolder.getLogMap());
 
-        Links links = data.getLinks() == null ? new Links() : data.getLinks();
-
-        links.setCharges(String.format("/company/%s/charges", companyNumber));
-        data.setLinks(links);
-        data.setHasCharges(true);
-        var companyProfile = new CompanyProfile();
-        companyProfile.setData(data);
-
-        final ApiResponse<Void> patchResponse = companyProfileService.patchCompanyProfile(
-                logContext, companyNumber, companyProfile);
-        handleResponse(HttpStatus.valueOf(patchResponse.getStatusCode()), logContext,
-                "PATCH", ApiType.COMPANY_PROFILE, companyNumber);
+        patchCompanyProfile(logContext, companyNumber, data, LinkPatch.builder()
+                .addLink(LinkType.CHARGES, companyNumber)
+                .build());
     }
 
-    void removeCompanyChargesLink(String logContext, String companyNumber, Data data, Links links) {
-        links.setCharges(null);
-        data.setHasCharges(false);
-        patchCompanyProfile(logContext, companyNumber, data);
+    void removeCompanyChargesLink(String logContext, String companyNumber, Data data) {
+        patchCompanyProfile(logContext, companyNumber, data, LinkPatch.builder()
+                .removeLink(LinkType.CHARGES)
+                .build());
     }
 
-    private void patchCompanyProfile(String logContext, String companyNumber, Data data) {
+    private void patchCompanyProfile(String logContext, String companyNumber, Data data,
+            LinkPatch linkPatch) {
+        linkPatch.applyTo(data);
+
         CompanyProfile companyProfile = new CompanyProfile();
         companyProfile.setData(data);
-
         final ApiResponse<Void> patchResponse = companyProfileService.patchCompanyProfile(
                 logContext, companyNumber, companyProfile);
 
         handleResponse(HttpStatus.valueOf(patchResponse.getStatusCode()), logContext,
                 "PATCH", ApiType.COMPANY_PROFILE, companyNumber);
+        linkStateIndex.recordPatch(companyNumber, linkPatch);
     }
 
     boolean doesCompanyProfileHaveCharges(String logContext, String companyNumber, Links links) {
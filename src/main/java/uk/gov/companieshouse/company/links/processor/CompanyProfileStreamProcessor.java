@@ -1,6 +1,8 @@
 package uk.gov.companieshouse.company.links.processor;
 
+import java.util.EnumSet;
 import java.util.Optional;
+import java.util.Set;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.messaging.Message;
@@ -19,6 +21,7 @@ import uk.gov.companieshouse.api.model.ApiResponse;
 import uk.gov.companieshouse.api.model.filinghistory.FilingHistoryApi;
 import uk.gov.companieshouse.api.psc.PscList;
 import uk.gov.companieshouse.api.psc.StatementList;
+import uk.gov.companieshouse.company.links.concurrency.CompanyLocks;
 import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
 import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
 import uk.gov.companieshouse.company.links.logging.DataMapHolder;
@@ -37,7 +40,10 @@ import uk.gov.companieshouse.company.links.service.LinkClient;
 import uk.gov.companieshouse.company.links.service.OfficerListClient;
 import uk.gov.companieshouse.company.links.service.PscListClient;
 import uk.gov.companieshouse.company.links.service.StatementsListClient;
+import uk.gov.companieshouse.company.links.state.LinkStateIndex;
 import uk.gov.companieshouse.company.links.type.ApiType;
+import uk.gov.companieshouse.company.links.type.LinkPatch;
+import uk.gov.companieshouse.company.links.type.LinkType;
 import uk.gov.companieshouse.company.links.type.PatchLinkRequest;
 import uk.gov.companieshouse.logging.Logger;
 import uk.gov.companieshouse.stream.ResourceChangedData;
@@ -46,6 +52,9 @@ import uk.gov.companieshouse.stream.ResourceChangedData;
 @Component
 public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
 
+    // streamed messages are paced by their consumers, not per PATCH
+    private static final Runnable NO_PERMIT = () -> { };
+
     private final CompanyProfileDeserializer companyProfileDeserializer;
     private final ChargesService chargesService;
     private final CompanyProfileService companyProfileService;
@@ -60,6 +69,8 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
     private final AddPscClient addPscClient;
     private final StatementsListClient statementsListClient;
     private final AddStatementsClient addStatementsClient;
+    private final CompanyLocks companyLocks;
+    private final LinkStateIndex linkStateIndex;
 
     /**
      * Construct a Company Profile stream processor.
@@ -74,7 +85,9 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
             InsolvencyService insolvencyService,
             OfficerListClient officerListClient, AddOfficersClient addOfficersClient,
             PscListClient pscListClient, AddPscClient addPscClient,
-            StatementsListClient statementsListClient, AddStatementsClient addStatementsClient) {
+            StatementsListClient statementsListClient, AddStatementsClient addStatementsClient,
+            CompanyLocks companyLocks,
+            LinkStateIndex linkStateIndex) {
         super(logger);
         this.companyProfileDeserializer = companyProfileDeserializer;
         this.chargesService = chargesService;
@@ -90,6 +103,8 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
         this.addPscClient = addPscClient;
         this.statementsListClient = statementsListClient;
         this.addStatementsClient = addStatementsClient;
+        this.companyLocks = companyLocks;
+        this.linkStateIndex = linkStateIndex;
     }
 
     /**
@@ -97,18 +112,48 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
      */
     public void processDelta(Message<ResourceChangedData> resourceChangedMessage) {
         final ResourceChangedData payload = resourceChangedMessage.getPayload();
-        final String contextId = payload.getContextId();
         final String companyNumber = payload.getResourceId();
         DataMapHolder.get()
                 .companyNumber(companyNumber);
+        companyLocks.withLock(companyNumber, () -> processDelta(payload, companyNumber));
+    }
+
+    private void processDelta(ResourceChangedData payload, String companyNumber) {
+        final String contextId = payload.getContextId();
         Data companyProfileData =
                 companyProfileDeserializer.deserialiseCompanyData(payload.getData());
+        linkStateIndex.recordLinks(companyNumber, companyProfileData);
+        processLinks(contextId, companyNumber, companyProfileData, true, NO_PERMIT,
+                EnumSet.noneOf(LinkType.class));
+    }
+
+    /**
+     * Add the links missing from a company profile read from company-profile-api, using the same
+     * lookups as a Company Profile ResourceChanged message.
+     *
+     * @param apply       false to only work out which links are missing, without patching them
+     * @param beforePatch run before each PATCH is sent, so the caller can pace them
+     * @param added       collects the links that were, or would have been, added, including
+     *                    those added before a later link failed
+     */
+    public void reconcileLinks(String contextId, String companyNumber, Data data,
+            boolean apply, Runnable beforePatch, Set<LinkType> added) {
+        companyLocks.withLock(companyNumber, () -> {
+            linkStateIndex.recordLinks(companyNumber, data);
+            processLinks(contextId, companyNumber, data, apply, beforePatch, added);
+        });
+    }
 
+    private void processLinks(String contextId, String companyNumber,
+            Data companyProfileData, boolean apply, Runnable beforePatch, Set<LinkType> added) {
         RetryableErrorException retryableLinkException = null;
         NonRetryableErrorException nonRetryableLinkException = null;
 
         try {
-            processChargesLink(contextId, companyNumber, companyProfileData);
+            if (processChargesLink(contextId, companyNumber, companyProfileData, apply,
+                    beforePatch)) {
+                added.add(LinkType.CHARGES);
+            }
         } catch (HttpClientErrorException.Conflict conflictException) {
             nonRetryableLinkException = new NonRetryableErrorException(String.format(
                     "Error retrieving Charges for company number %s", companyNumber),
@@ -119,7 +164,10 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
                     exception);
         }
         try {
-            processExemptionsLink(contextId, companyNumber, companyProfileData);
+            if (processExemptionsLink(contextId, companyNumber, companyProfileData, apply,
+                    beforePatch)) {
+                added.add(LinkType.EXEMPTIONS);
+            }
         } catch (NonRetryableErrorException nonRetryableErrorException) {
             nonRetryableLinkException = new NonRetryableErrorException(String.format(
                     "Error retrieving Exemptions for company number %s", companyNumber),
@@ -130,7 +178,10 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
                     exception);
         }
         try {
-            processFilingHistoryLink(contextId, companyNumber, companyProfileData);
+            if (processFilingHistoryLink(contextId, companyNumber, companyProfileData, apply,
+                    beforePatch)) {
+                added.add(LinkType.FILING_HISTORY);
+            }
         } catch (NonRetryableErrorException nonRetryableErrorException) {
             nonRetryableLinkException = new NonRetryableErrorException(String.format(
                     "Error retrieving Filing History for company number %s", companyNumber),
@@ -141,7 +192,10 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
                     exception);
         }
         try {
-            processInsolvencyLink(contextId, companyNumber, companyProfileData);
+            if (processInsolvencyLink(contextId, companyNumber, companyProfileData, apply,
+                    beforePatch)) {
+                added.add(LinkType.INSOLVENCY);
+            }
         } catch (HttpClientErrorException.Conflict conflictException) {
             nonRetryableLinkException = new NonRetryableErrorException(String.format(
                     "Error retrieving Insolvency for company number %s", companyNumber),
@@ -152,7 +206,10 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
                     exception);
         }
         try {
-            processOfficerLink(contextId, companyNumber, companyProfileData);
+            if (processOfficerLink(contextId, companyNumber, companyProfileData, apply,
+                    beforePatch)) {
+                added.add(LinkType.OFFICERS);
+            }
         } catch (NonRetryableErrorException nonRetryableErrorException) {
             nonRetryableLinkException = new NonRetryableErrorException(String.format(
                     "Error retrieving Officers for company number %s", companyNumber),
@@ -163,7 +220,10 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
                     exception);
         }
         try {
-            processPscLink(contextId, companyNumber, companyProfileData);
+            if (processPscLink(contextId, companyNumber, companyProfileData, apply,
+                    beforePatch)) {
+                added.add(LinkType.PSCS);
+            }
         } catch (NonRetryableErrorException nonRetryableErrorException) {
             nonRetryableLinkException = new NonRetryableErrorException(String.format(
                     "Error retrieving Psc for company number %s", companyNumber),
@@ -174,7 +234,10 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
                     exception);
         }
         try {
-            processPscStatementsLink(contextId, companyNumber, companyProfileData);
+            if (processPscStatementsLink(contextId, companyNumber, companyProfileData, apply,
+                    beforePatch)) {
+                added.add(LinkType.STATEMENTS);
+            }
         } catch (NonRetryableErrorException nonRetryableErrorException) {
             nonRetryableLinkException = new NonRetryableErrorException(String.format(
                     "Error retrieving Psc Statement for company number %s", companyNumber),
@@ -196,7 +259,8 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
      * Process the Charges link for a Company Profile ResourceChanged message.
      * If there is no Charges link in the ResourceChanged and Charges exist then add the link
      */
-    private void processChargesLink(String contextId, String companyNumber, Data data) {
+    private boolean processChargesLink(String contextId, String companyNumber, Data data,
+            boolean apply, Runnable beforePatch) {
         Optional<String> chargesLink = Optional.ofNullable(data)
                 .map(Data::getLinks)
                 .map(Links::getCharges);
@@ -214,36 +278,24 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
             if (chargesResponse.getData() != null
                     && !chargesResponse.getData().getItems().isEmpty()) {
 
-                Links links;
-                if (data != null) {
-                    if (data.getLinks() != null) {
-                        links = data.getLinks();
-                    } else {
-                        links = new Links();
-                    }
-                } else {
-                    data = new Data();
-                    links = new Links();
-                }
-                links.setCharges(String.format("/company/%s/charges", companyNumber));
-                data.setLinks(links);
-                data.setHasCharges(true);
-                var companyProfile = new CompanyProfile();
-                companyProfile.setData(data);
-
                 //Note: There is an issue where the Patch request sent by the AddChargesClient to
                 // the '/company/*/links/charges' endpoint is being picked up by another service
                 // in Cidev. The same happens for Insolvency. Therefore, we are using the
                 // old endpoint '/company/*/links'.
-                final ApiResponse<Void> patchResponse = companyProfileService.patchCompanyProfile(
-                        contextId, companyNumber, companyProfile);
-                handleResponse(HttpStatus.valueOf(patchResponse.getStatusCode()), contextId,
-                        "PATCH", ApiType.COMPANY_PROFILE, companyNumber);
+                if (apply) {
+                    beforePatch.run();
+                    patchCompanyProfile(contextId, companyNumber, data, LinkPatch.builder()
+                            .addLink(LinkType.CHARGES, companyNumber)
+                            .build());
+                }
+                return true;
             }
         }
+        return false;
     }
 
-    private void processExemptionsLink(String contextId, String companyNumber, Data data) {
+    private boolean processExemptionsLink(String contextId, String companyNumber, Data data,
+            boolean apply, Runnable beforePatch) {
         Optional<String> exemptionsLink = Optional.ofNullable(data)
                 .map(Data::getLinks)
                 .map(Links::getExemptions);
@@ -266,11 +318,16 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
                         || exemptions.getPscExemptAsTradingOnUkRegulatedMarket() != null
                         || exemptions.getPscExemptAsTradingOnEuRegulatedMarket() != null
                         || exemptions.getDisclosureTransparencyRulesChapterFiveApplies() != null) {
-                    addCompanyLink(addExemptionsClient, "Company Exemptions",
-                            contextId, companyNumber);
+                    if (apply) {
+                        beforePatch.run();
+                        addCompanyLink(addExemptionsClient, LinkType.EXEMPTIONS,
+                                "Company Exemptions", contextId, companyNumber);
+                    }
+                    return true;
                 }
             }
         }
+        return false;
     }
 
     /**
@@ -278,7 +335,8 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
      * If there is no Filing History link in the ResourceChanged and Filing History records exist
      * then add the link
      */
-    private void processFilingHistoryLink(String contextId, String companyNumber, Data data) {
+    private boolean processFilingHistoryLink(String contextId, String companyNumber, Data data,
+            boolean apply, Runnable beforePatch) {
         Optional<String> filingHistoryLink = Optional.ofNullable(data)
                 .map(Data::getLinks)
                 .map(Links::getFilingHistory);
@@ -296,9 +354,15 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
 
             if (filingHistoryResponse.getItems() != null
                     && !filingHistoryResponse.getItems().isEmpty()) {
-                addCompanyLink(addFilingHistoryClient, "filing history", contextId, companyNumber);
+                if (apply) {
+                    beforePatch.run();
+                    addCompanyLink(addFilingHistoryClient, LinkType.FILING_HISTORY,
+                            "filing history", contextId, companyNumber);
+                }
+                return true;
             }
         }
+        return false;
     }
 
     /**
@@ -306,7 +370,8 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
      * If there is no Insolvency link in the ResourceChanged and Insolvencies exist
      * then add the link
      */
-    private void processInsolvencyLink(String contextId, String companyNumber, Data data) {
+    private boolean processInsolvencyLink(String contextId, String companyNumber, Data data,
+            boolean apply, Runnable beforePatch) {
         Optional<String> insolvencyLink = Optional.ofNullable(data)
                 .map(Data::getLinks)
                 .map(Links::getInsolvency);
@@ -324,40 +389,28 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
             if (insolvencyResponse.getData() != null
                     && !insolvencyResponse.getData().getCases().isEmpty()) {
 
-                Links links;
-                if (data != null) {
-                    if (data.getLinks() != null) {
-                        links = data.getLinks();
-                    } else {
-                        links = new Links();
-                    }
-                } else {
-                    data = new Data();
-                    links = new Links();
-                }
-                links.setInsolvency(String.format("/company/%s/insolvency", companyNumber));
-                data.setLinks(links);
-                data.setHasInsolvencyHistory(true);
-                var companyProfile = new CompanyProfile();
-                companyProfile.setData(data);
-
                 //Note: There is an issue where the Patch request sent by the AddInsolvencyClient to
                 // the '/company/*/links/insolvency' endpoint is being picked up by another service
                 // in Cidev. The same happens for Charges. Therefore, we are using the
                 // old endpoint '/company/*/links'.
-                final ApiResponse<Void> patchResponse = companyProfileService.patchCompanyProfile(
-                        contextId, companyNumber, companyProfile);
-                handleResponse(HttpStatus.valueOf(patchResponse.getStatusCode()), contextId,
-                        "PATCH", ApiType.COMPANY_PROFILE, companyNumber);
+                if (apply) {
+                    beforePatch.run();
+                    patchCompanyProfile(contextId, companyNumber, data, LinkPatch.builder()
+                            .addLink(LinkType.INSOLVENCY, companyNumber)
+                            .build());
+                }
+                return true;
             }
         }
+        return false;
     }
 
     /**
      * Process the Officers link for a Company Profile ResourceChanged message.
      * If there is no Officers link in the ResourceChanged and Officers exist then add the link
      */
-    private void processOfficerLink(String contextId, String companyNumber, Data data) {
+    private boolean processOfficerLink(String contextId, String companyNumber, Data data,
+            boolean apply, Runnable beforePatch) {
         Optional<String> officerLink = Optional.ofNullable(data)
                 .map(Data::getLinks)
                 .map(Links::getOfficers);
@@ -376,16 +429,23 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
             }
             if (officersList != null
                     && !officersList.getItems().isEmpty()) {
-                addCompanyLink(addOfficersClient, "officers", contextId, companyNumber);
+                if (apply) {
+                    beforePatch.run();
+                    addCompanyLink(addOfficersClient, LinkType.OFFICERS, "officers",
+                            contextId, companyNumber);
+                }
+                return true;
             }
         }
+        return false;
     }
 
     /**
      * Process the PSCs link for a Company Profile ResourceChanged message.
      * If there is no PSCs link in the ResourceChanged and PSCs exist then add the link
      */
-    private void processPscLink(String contextId, String companyNumber, Data data) {
+    private boolean processPscLink(String contextId, String companyNumber, Data data,
+            boolean apply, Runnable beforePatch) {
         Optional<String> pscLink = Optional.ofNullable(data)
                 .map(Data::getLinks)
                 .map(Links::getPersonsWithSignificantControl);
@@ -403,9 +463,14 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
 
             if (pscList != null
                     && !pscList.getItems().isEmpty()) {
-                addCompanyLink(addPscClient, "PSC", contextId, companyNumber);
+                if (apply) {
+                    beforePatch.run();
+                    addCompanyLink(addPscClient, LinkType.PSCS, "PSC", contextId, companyNumber);
+                }
+                return true;
             }
         }
+        return false;
     }
 
     /**
@@ -413,7 +478,8 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
      * If there is no PSC Statements link in the ResourceChanged and PSC statements exist
      * then add the link.
      */
-    private void processPscStatementsLink(String contextId, String companyNumber, Data data) {
+    private boolean processPscStatementsLink(String contextId, String companyNumber, Data data,
+            boolean apply, Runnable beforePatch) {
         Optional<String> pscStatementsLink = Optional.ofNullable(data)
                 .map(Data::getLinks)
                 .map(Links::getPersonsWithSignificantControlStatements);
@@ -429,13 +495,33 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
             }
 
             if (statementList != null && !statementList.getItems().isEmpty()) {
-                addCompanyLink(addStatementsClient, "PSC Statements", contextId, companyNumber);
+                if (apply) {
+                    beforePatch.run();
+                    addCompanyLink(addStatementsClient, LinkType.STATEMENTS, "PSC Statements",
+                            contextId, companyNumber);
+                }
+                return true;
             }
         }
+        return false;
+    }
+
+    private void patchCompanyProfile(String contextId, String companyNumber, Data data,
+            LinkPatch linkPatch) {
+        Data target = data == null ? new Data() : data;
+        linkPatch.applyTo(target);
+
+        var companyProfile = new CompanyProfile();
+        companyProfile.setData(target);
+        final ApiResponse<Void> patchResponse = companyProfileService.patchCompanyProfile(
+                contextId, companyNumber, companyProfile);
+        handleResponse(HttpStatus.valueOf(patchResponse.getStatusCode()), contextId,
+                "PATCH", ApiType.COMPANY_PROFILE, companyNumber);
+        linkStateIndex.recordPatch(companyNumber, linkPatch);
     }
 
-    private void addCompanyLink(LinkClient linkClient, String linkType, String contextId,
-                                String companyNumber) {
+    private void addCompanyLink(LinkClient linkClient, LinkType type, String linkType,
+                                String contextId, String companyNumber) {
         try {
             logger.trace(String.format("Message with contextId %s and company number %s -"
                                     + "company profile does not contain %s link, attaching link",
@@ -444,6 +530,7 @@ public class CompanyProfileStreamProcessor extends StreamResponseProcessor {
             PatchLinkRequest linkRequest = new PatchLinkRequest(companyNumber, contextId);
 
             linkClient.patchLink(linkRequest);
+            linkStateIndex.recordLink(companyNumber, type, true);
         } catch (HttpClientErrorException.Conflict conflictException) {
             throw new NonRetryableErrorException(String.format(
                     "Error updating %s link for company number %s", linkType, companyNumber),
@@ -1,5 +1,6 @@
 package uk.gov.companieshouse.company.links.processor;
 
+import java.util.function.Supplier;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -7,15 +8,21 @@ import org.springframework.messaging.Message;
 import org.springframework.stereotype.Component;
 import uk.gov.companieshouse.api.company.CompanyProfile;
 import uk.gov.companieshouse.api.company.Data;
-import uk.gov.companieshouse.api.company.Links;
 import uk.gov.companieshouse.api.insolvency.CompanyInsolvency;
 import uk.gov.companieshouse.api.model.ApiResponse;
+import uk.gov.companieshouse.company.links.concurrency.CompanyLocks;
 import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+import uk.gov.companieshouse.company.links.exception.NotYetDeletedException;
 import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
 import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.processor.SpeculativePrefetcher.Prefetch;
 import uk.gov.companieshouse.company.links.service.CompanyProfileService;
 import uk.gov.companieshouse.company.links.service.InsolvencyService;
+import uk.gov.companieshouse.company.links.state.LinkState;
+import uk.gov.companieshouse.company.links.state.LinkStateIndex;
 import uk.gov.companieshouse.company.links.type.ApiType;
+import uk.gov.companieshouse.company.links.type.LinkPatch;
+import uk.gov.companieshouse.company.links.type.LinkType;
 import uk.gov.companieshouse.logging.Logger;
 import uk.gov.companieshouse.stream.ResourceChangedData;
 
@@ -25,6 +32,10 @@ public class InsolvencyStreamProcessor extends StreamResponseProcessor {
 
     private final CompanyProfileService companyProfileService;
     private final InsolvencyService insolvencyService;
+    private final SpeculativePrefetcher speculativePrefetcher;
+    private final CompanyLocks companyLocks;
+    private final LinkStateIndex linkStateIndex;
+    private final ProfileConflation profileConflation;
 
     /**
      * Construct an insolvency stream processor.
@@ -32,10 +43,18 @@ public class InsolvencyStreamProcessor extends StreamResponseProcessor {
     @Autowired
     public InsolvencyStreamProcessor(
             CompanyProfileService companyProfileService,
-            Logger logger, InsolvencyService insolvencyService) {
+            Logger logger, InsolvencyService insolvencyService,
+            SpeculativePrefetcher speculativePrefetcher,
+            CompanyLocks companyLocks,
+            LinkStateIndex linkStateIndex,
+            ProfileConflation profileConflation) {
         super(logger);
         this.companyProfileService = companyProfileService;
         this.insolvencyService = insolvencyService;
+        this.speculativePrefetcher = speculativePrefetcher;
+        this.companyLocks = companyLocks;
+        this.linkStateIndex = linkStateIndex;
+        this.profileConflation = profileConflation;
     }
 
     /**
@@ -43,40 +62,85 @@ public class InsolvencyStreamProcessor extends StreamResponseProcessor {
      */
     public void processDelete(Message<ResourceChangedData> resourceChangedMessage) {
         final ResourceChangedData payload = resourceChangedMessage.getPayload();
-        final String logContext = payload.getContextId();
 
         // the resource_id field returned represents the insolvency record's company number
         final String companyNumber = payload.getResourceId();
         DataMapHolder.get()
                 .companyNumber(companyNumber);
-        final ApiResponse<CompanyProfile> response = getCompanyProfile(payload, logContext,
-                companyNumber);
+        if (profileConflation.isEnabled()) {
+            final String logContext = payload.getContextId();
+            if (!isInsolvencyLinkKnown(LinkState.ABSENT, logContext, companyNumber)) {
+                profileConflation.submit(logContext, companyNumber,
+                        data -> planInsolvencyLinkRemoval(data, payload, logContext,
+                                companyNumber));
+            }
+            return;
+        }
+        companyLocks.withLock(companyNumber, () -> processDelete(payload, companyNumber));
+    }
 
-        var data = response.getData().getData();
+    private void processDelete(ResourceChangedData payload, String companyNumber) {
+        final String logContext = payload.getContextId();
+        if (isInsolvencyLinkKnown(LinkState.ABSENT, logContext, companyNumber)) {
+            return;
+        }
+        var data = getCompanyProfile(payload, logContext, companyNumber).getData().getData();
+        LinkPatch linkPatch = planInsolvencyLinkRemoval(data, payload, logContext, companyNumber);
+        if (linkPatch != null) {
+            patchCompanyProfile(data, linkPatch, logContext, companyNumber);
+        }
+    }
+
+    private LinkPatch planInsolvencyLinkRemoval(Data data, ResourceChangedData payload,
+            String logContext, String companyNumber) {
         var links = data.getLinks();
 
         if (links == null || links.getInsolvency() == null) {
             logger.trace(String.format("Company profile with company number %s,"
                     + " does not contain insolvency links, will not perform patch"
                     + " for contextId %s", companyNumber, logContext), DataMapHolder.getLogMap());
+            return null;
+        }
+
+        return insolvencyLinkRemoval(payload, logContext, companyNumber);
+    }
+
+    /**
+     * Finish a delete that was not yet deleted. Only the insolvency record is checked again
+     * while it is still there; once it has gone the company profile is fetched now, so links
+     * changed since the first attempt are not overwritten.
+     */
+    private void removeInsolvencyLinkIfDeleted(ResourceChangedData payload, String logContext,
+            String companyNumber) {
+        if (isInsolvencyLinkKnown(LinkState.ABSENT, logContext, companyNumber)) {
+            return;
+        }
+        LinkPatch linkPatch = insolvencyLinkRemoval(payload, logContext, companyNumber);
+        var data = getCompanyProfile(payload, logContext, companyNumber).getData().getData();
+        if (data.getLinks() == null || data.getLinks().getInsolvency() == null) {
+            logger.trace(String.format("Company profile with company number %s,"
+                    + " no longer contains insolvency links, will not perform patch"
+                    + " for contextId %s", companyNumber, logContext), DataMapHolder.getLogMap());
             return;
         }
+        patchCompanyProfile(data, linkPatch, logContext, companyNumber);
+    }
 
+    private LinkPatch insolvencyLinkRemoval(ResourceChangedData payload, String logContext,
+            String companyNumber) {
         final ApiResponse<CompanyInsolvency> insolvencyResponse = insolvencyService
                 .getInsolvency(logContext, companyNumber);
 
         if (insolvencyResponse.getStatusCode() == HttpStatus.NOT_FOUND.value()) {
-            links.setInsolvency(null);
-            data.hasInsolvencyHistory(false);
-            data.setLinks(links);
-
-            patchCompanyProfile(data, logContext, companyNumber);
-        } else {
-            String message = "Response from insolvency-data-api service, main delta is not "
-                    + "yet deleted, throwing retry-able exception to check again";
-            logger.errorContext(logContext, message, null, DataMapHolder.getLogMap());
-            throw new RetryableErrorException(message);
+            return LinkPatch.builder()
+                    .removeLink(LinkType.INSOLVENCY)
+                    .build();
         }
+        String message = "Response from insolvency-data-api service, main delta is not "
+                + "yet deleted, throwing retry-able exception to check again";
+        logger.errorContext(logContext, message, null, DataMapHolder.getLogMap());
+        throw new NotYetDeletedException(message, companyNumber,
+                () -> removeInsolvencyLinkIfDeleted(payload, logContext, companyNumber));
     }
 
     /**
@@ -84,55 +148,101 @@ public class InsolvencyStreamProcessor extends StreamResponseProcessor {
      */
     public void processDelta(Message<ResourceChangedData> resourceChangedMessage) {
         final var payload = resourceChangedMessage.getPayload();
-        final String logContext = payload.getContextId();
 
         // the resource_id field returned represents the insolvency record's company number
         final String companyNumber = payload.getResourceId();
         DataMapHolder.get().companyNumber(companyNumber);
-        final ApiResponse<CompanyProfile> response =
-                getCompanyProfile(payload, logContext, companyNumber);
+        if (profileConflation.isEnabled()) {
+            final String logContext = payload.getContextId();
+            if (!isInsolvencyLinkKnown(LinkState.PRESENT, logContext, companyNumber)) {
+                profileConflation.submit(logContext, companyNumber,
+                        data -> planInsolvencyLink(data, logContext, companyNumber,
+                                () -> insolvencyService.getInsolvency(logContext, companyNumber)));
+            }
+            return;
+        }
+        companyLocks.withLock(companyNumber, () -> processDelta(payload, companyNumber));
+    }
+
+    private void processDelta(ResourceChangedData payload, String companyNumber) {
+        final String logContext = payload.getContextId();
+        if (isInsolvencyLinkKnown(LinkState.PRESENT, logContext, companyNumber)) {
+            return;
+        }
+        final Prefetch<ApiResponse<CompanyInsolvency>> insolvencyPrefetch =
+                speculativePrefetcher.prefetch(logContext, companyNumber,
+                        () -> insolvencyService.getInsolvency(logContext, companyNumber));
+        final Data data;
+        try {
+            data = getCompanyProfile(payload, logContext, companyNumber).getData().getData();
+        } catch (RuntimeException exception) {
+            insolvencyPrefetch.discard();
+            throw exception;
+        }
+
+        LinkPatch linkPatch = planInsolvencyLink(data, logContext, companyNumber,
+                insolvencyPrefetch::get);
+        if (linkPatch == null) {
+            insolvencyPrefetch.discard();
+        } else {
+            patchCompanyProfile(data, linkPatch, logContext, companyNumber);
+        }
+    }
 
-        var data = response.getData().getData();
+    private LinkPatch planInsolvencyLink(Data data, String logContext, String companyNumber,
+            Supplier<ApiResponse<CompanyInsolvency>> insolvency) {
         var links = data.getLinks();
 
         if (links != null && !StringUtils.isBlank(links.getInsolvency())) {
             logger.trace(String.format("Company profile with company number %s,"
                     + " contains insolvency links, will not perform PATCH"
                     + " for contextId %s", companyNumber, logContext), DataMapHolder.getLogMap());
-            return;
+            return null;
         }
 
-        if (links == null) {
-            links = new Links();
-        }
-
-        final ApiResponse<CompanyInsolvency> companyInsolvencyResponse =
-                insolvencyService.getInsolvency(logContext, companyNumber);
+        final ApiResponse<CompanyInsolvency> companyInsolvencyResponse = insolvency.get();
 
         HttpStatus statusCode = HttpStatus.valueOf(companyInsolvencyResponse.getStatusCode());
 
         if (statusCode.is2xxSuccessful()) {
-            links.setInsolvency(String.format("/company/%s/insolvency", companyNumber));
-            data.setLinks(links);
-            data.setHasInsolvencyHistory(true);
+            return LinkPatch.builder()
+                    .addLink(LinkType.INSOLVENCY, companyNumber)
+                    .build();
+        }
+        String message = "Response from companyInsolvencyService, main delta update not"
+                + " yet completed, Re-Trying";
+        logger.errorContext(logContext, message, null, DataMapHolder.getLogMap());
+        throw new RetryableErrorException(message);
+    }
 
-            patchCompanyProfile(data, logContext, companyNumber);
+    private boolean isInsolvencyLinkKnown(LinkState linkState, String logContext,
+            String companyNumber) {
+        if (linkStateIndex.getLinkState(companyNumber, LinkType.INSOLVENCY) != linkState) {
+            return false;
+        }
+        if (linkState == LinkState.PRESENT) {
+            logger.trace(String.format("Company profile with company number %s is known to"
+                    + " contain insolvency links, will not perform PATCH for contextId %s",
+                    companyNumber, logContext), DataMapHolder.getLogMap());
         } else {
-            String message = "Response from companyInsolvencyService, main delta update not"
-                    + " yet completed, Re-Trying";
-            logger.errorContext(logContext, message, null, DataMapHolder.getLogMap());
-            throw new RetryableErrorException(message);
+            logger.trace(String.format("Company profile with company number %s is known not to"
+                    + " contain insolvency links, will not perform DELETE for contextId %s",
+                    companyNumber, logContext), DataMapHolder.getLogMap());
         }
+        return true;
     }
 
-    private void patchCompanyProfile(Data data, String logContext, String companyNumber) {
+    private void patchCompanyProfile(Data data, LinkPatch linkPatch, String logContext,
+            String companyNumber) {
+        linkPatch.applyTo(data);
+
         var companyProfile = new CompanyProfile();
         companyProfile.setData(data);
-
         final ApiResponse<Void> patchResponse = companyProfileService.patchCompanyProfile(
                 logContext, companyNumber, companyProfile);
         handleResponse(HttpStatus.valueOf(patchResponse.getStatusCode()), logContext,
                 "PATCH", ApiType.COMPANY_PROFILE, companyNumber);
+        linkStateIndex.recordPatch(companyNumber, linkPatch);
     }
 
     private ApiResponse<CompanyProfile> getCompanyProfile(ResourceChangedData payload,
@@ -151,6 +261,7 @@ public class InsolvencyStreamProcessor extends StreamResponseProcessor {
                 companyProfileService.getCompanyProfile(logContext, companyNumber);
         handleCompanyProfileResponse(HttpStatus.valueOf(response.getStatusCode()), logContext,
                 "GET", ApiType.COMPANY_PROFILE, companyNumber);
+        linkStateIndex.recordProfile(companyNumber, response.getData());
         return response;
     }
 }
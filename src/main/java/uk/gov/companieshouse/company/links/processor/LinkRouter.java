@@ -1,9 +1,15 @@
 package uk.gov.companieshouse.company.links.processor;
 
+import java.util.Map;
 import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.concurrency.CompanyLocks;
 import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.service.LinkClient;
 import uk.gov.companieshouse.company.links.service.LinkClientFactory;
 import uk.gov.companieshouse.company.links.service.PatchLinkRequestExtractable;
+import uk.gov.companieshouse.company.links.state.LinkState;
+import uk.gov.companieshouse.company.links.state.LinkStateIndex;
+import uk.gov.companieshouse.company.links.type.LinkType;
 import uk.gov.companieshouse.company.links.type.PatchLinkRequest;
 import uk.gov.companieshouse.company.links.type.ResourceChange;
 import uk.gov.companieshouse.stream.ResourceChangedData;
@@ -11,12 +17,28 @@ import uk.gov.companieshouse.stream.ResourceChangedData;
 @Component
 public class LinkRouter implements LinkRoutable {
 
+    private static final String DELETED = "deleted";
+    private static final Map<String, LinkType> LINK_TYPES = Map.of(
+            "exemptions", LinkType.EXEMPTIONS,
+            "officers", LinkType.OFFICERS,
+            "statements", LinkType.STATEMENTS,
+            "pscs", LinkType.PSCS,
+            "filing-history", LinkType.FILING_HISTORY);
+
     private final PatchLinkRequestExtractable extractor;
     private final LinkClientFactory factory;
+    private final CompanyLocks companyLocks;
+    private final LinkStateIndex linkStateIndex;
 
-    public LinkRouter(PatchLinkRequestExtractable extractor, LinkClientFactory factory) {
+    /**
+     * Construct a link router.
+     */
+    public LinkRouter(PatchLinkRequestExtractable extractor, LinkClientFactory factory,
+            CompanyLocks companyLocks, LinkStateIndex linkStateIndex) {
         this.extractor = extractor;
         this.factory = factory;
+        this.companyLocks = companyLocks;
+        this.linkStateIndex = linkStateIndex;
     }
 
     @Override
@@ -27,6 +49,31 @@ public class LinkRouter implements LinkRoutable {
                 data.getContextId());
         DataMapHolder.get()
                 .companyNumber(request.getCompanyNumber());
-        factory.getLinkClient(deltaType, eventType).patchLink(request);
+        LinkClient linkClient = factory.getLinkClient(deltaType, eventType);
+        companyLocks.withLock(request.getCompanyNumber(), () ->
+                patchLink(linkClient, request, LINK_TYPES.get(deltaType),
+                        DELETED.equals(eventType)));
+    }
+
+    private void patchLink(LinkClient linkClient, PatchLinkRequest request, LinkType linkType,
+            boolean deleted) {
+        if (linkType == null) {
+            linkClient.patchLink(request);
+            return;
+        }
+
+        // skip the call when the link is already known to be in the state it would leave
+        LinkState linkState = linkStateIndex.getLinkState(request.getCompanyNumber(), linkType);
+        if (linkState == (deleted ? LinkState.ABSENT : LinkState.PRESENT)) {
+            return;
+        }
+
+        linkClient.patchLink(request);
+        if (deleted) {
+            // a delete only removes the link once the last resource has gone
+            linkStateIndex.forgetLink(request.getCompanyNumber(), linkType);
+        } else {
+            linkStateIndex.recordLink(request.getCompanyNumber(), linkType, true);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,269 @@
+package uk.gov.companieshouse.company.links.processor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.api.company.CompanyProfile;
+import uk.gov.companieshouse.api.company.Data;
+import uk.gov.companieshouse.api.model.ApiResponse;
+import uk.gov.companieshouse.company.links.concurrency.CompanyLocks;
+import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.service.CompanyProfileService;
+import uk.gov.companieshouse.company.links.state.LinkStateIndex;
+import uk.gov.companieshouse.company.links.type.ApiType;
+import uk.gov.companieshouse.company.links.type.LinkPatch;
+import uk.gov.companieshouse.logging.Logger;
+
+/**
+ * Conflates the link changes for one company that arrive on different topics while a change
+ * for the same company is being made, so they share one company profile GET and one PATCH
+ * instead of making one of each.
+ *
+ * <p>An event for a company with nothing in progress is reconciled straight away by its own
+ * listener thread, without waiting for anything. Events for the same company that arrive on
+ * other listener threads while that reconcile is running join the company's next window, up to
+ * the configured number of events, and the first of them reconciles the whole window as soon
+ * as the running one has finished. A reconcile reads the profile, asks each event in turn
+ * for its change to the links given the profile as it stands, merges the changes and sends
+ * them in one PATCH. Every listener thread waits for its own event's outcome and only then
+ * returns, so each topic's offset is committed, or its record retried, exactly as it would
+ * have been without conflation. An event that fails to work out its change fails on its own;
+ * a failed GET or PATCH fails every event that took part.</p>
+ */
+@Component
+public class ProfileConflation extends StreamResponseProcessor {
+
+    static final String METRIC_NAME = "company.links.conflation";
+
+    /**
+     * Works out one event's change to a company's links.
+     */
+    @FunctionalInterface
+    interface LinkPlanner {
+
+        /**
+         * The change to make, given the company profile as it stands, or null for none.
+         */
+        LinkPatch plan(Data data);
+    }
+
+    private static final CompletableFuture<Void> NOTHING_IN_PROGRESS =
+            CompletableFuture.completedFuture(null);
+
+    private final boolean enabled;
+    private final int maxEvents;
+    private final CompanyProfileService companyProfileService;
+    private final CompanyLocks companyLocks;
+    private final LinkStateIndex linkStateIndex;
+    private final Map<String, Window> open = new HashMap<>();
+    private final Counter reconciledCounter;
+    private final Counter conflatedCounter;
+
+    /**
+     * Construct the profile conflation stage.
+     */
+    public ProfileConflation(
+            @Value("${company-links.consumer.conflation.enable}") boolean enabled,
+            @Value("${company-links.consumer.conflation.max-events}") int maxEvents,
+            CompanyProfileService companyProfileService,
+            CompanyLocks companyLocks, LinkStateIndex linkStateIndex,
+            Logger logger, MeterRegistry meterRegistry) {
+        super(logger);
+        this.enabled = enabled;
+        this.maxEvents = Math.max(maxEvents, 1);
+        this.companyProfileService = companyProfileService;
+        this.companyLocks = companyLocks;
+        this.linkStateIndex = linkStateIndex;
+        this.reconciledCounter = meterRegistry.counter(METRIC_NAME, "outcome", "reconciled");
+        this.conflatedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "conflated");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Make an event's change to a company's links as part of the company's next window,
+     * waiting until the change has been made.
+     *
+     * @param logContext    the context ID of the event
+     * @param companyNumber the company the event is for
+     * @param planner       works out the event's change from the company profile
+     */
+    void submit(String logContext, String companyNumber, LinkPlanner planner) {
+        if (StringUtils.isEmpty(companyNumber)) {
+            throw new NonRetryableErrorException(String.format(
+                    "Company number is empty or null in message with contextId %s", logContext));
+        }
+        Member member = new Member(logContext, planner);
+        Window window;
+        boolean opened = false;
+        synchronized (open) {
+            window = open.get(companyNumber);
+            if (window == null || window.started || window.members.size() >= maxEvents) {
+                // the new window runs once the one before it has finished
+                window = new Window(companyNumber,
+                        window == null ? NOTHING_IN_PROGRESS : window.finished);
+                open.put(companyNumber, window);
+                opened = true;
+            } else {
+                conflatedCounter.increment();
+            }
+            window.members.add(member);
+        }
+        if (opened) {
+            run(window);
+        }
+        awaitOutcome(member);
+    }
+
+    private void run(Window window) {
+        try {
+            window.previous.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            RetryableErrorException failure = new RetryableErrorException(String.format(
+                    "Interrupted waiting to change the links for company number %s",
+                    window.companyNumber), exception);
+            synchronized (open) {
+                window.started = true;
+                open.remove(window.companyNumber, window);
+            }
+            window.members.forEach(member -> member.outcome.completeExceptionally(failure));
+            // the window after this one still waits for the one before it
+            window.previous.whenComplete((result, error) -> window.finished.complete(null));
+            return;
+        } catch (ExecutionException exception) {
+            // a window only ever finishes normally
+        }
+        try {
+            reconcile(window);
+        } finally {
+            synchronized (open) {
+                open.remove(window.companyNumber, window);
+            }
+            window.finished.complete(null);
+        }
+    }
+
+    private void reconcile(Window window) {
+        // no member can join once the window has started
+        List<Member> members;
+        synchronized (open) {
+            window.started = true;
+            members = new ArrayList<>(window.members);
+        }
+        reconciledCounter.increment();
+        try {
+            companyLocks.withLock(window.companyNumber, () -> reconcile(window.companyNumber,
+                    members));
+        } catch (RuntimeException exception) {
+            members.forEach(member -> member.outcome.completeExceptionally(exception));
+        } catch (Error error) {
+            members.forEach(member -> member.outcome.completeExceptionally(error));
+            throw error;
+        }
+    }
+
+    private void reconcile(String companyNumber, List<Member> members) {
+        final String logContext = members.get(0).logContext;
+        final ApiResponse<CompanyProfile> response =
+                companyProfileService.getCompanyProfile(logContext, companyNumber);
+        handleCompanyProfileResponse(HttpStatus.valueOf(response.getStatusCode()),
+                logContext, "GET", ApiType.COMPANY_PROFILE, companyNumber);
+        linkStateIndex.recordProfile(companyNumber, response.getData());
+        Data data = response.getData().getData();
+
+        LinkPatch.Builder merged = LinkPatch.builder();
+        List<Member> changed = new ArrayList<>();
+        for (Member member : members) {
+            LinkPatch linkPatch;
+            try {
+                linkPatch = member.planner.plan(data);
+            } catch (RuntimeException exception) {
+                member.outcome.completeExceptionally(exception);
+                continue;
+            }
+            if (linkPatch == null || linkPatch.getLinks().isEmpty()) {
+                member.outcome.complete(null);
+            } else {
+                // later events see the changes of the events before them
+                linkPatch.applyTo(data);
+                merged.merge(linkPatch);
+                changed.add(member);
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        LinkPatch linkPatch = merged.build();
+        CompanyProfile companyProfile = new CompanyProfile();
+        companyProfile.setData(data);
+        final ApiResponse<Void> patchResponse = companyProfileService.patchCompanyProfile(
+                logContext, companyNumber, companyProfile);
+        handleResponse(HttpStatus.valueOf(patchResponse.getStatusCode()), logContext,
+                "PATCH", ApiType.COMPANY_PROFILE, companyNumber);
+        linkStateIndex.recordPatch(companyNumber, linkPatch);
+        logger.trace(String.format("Patched %d link changes from %d events for company "
+                + "number %s", linkPatch.getLinks().size(), members.size(), companyNumber),
+                DataMapHolder.getLogMap());
+        changed.forEach(member -> member.outcome.complete(null));
+    }
+
+    private static void awaitOutcome(Member member) {
+        try {
+            member.outcome.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new RetryableErrorException(String.format("Interrupted waiting for the link "
+                    + "changes for contextId %s", member.logContext), exception);
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new RetryableErrorException(cause.getMessage(), (Exception) cause);
+        }
+    }
+
+    private static final class Window {
+
+        private final String companyNumber;
+        private final CompletableFuture<Void> previous;
+        private final List<Member> members = new ArrayList<>();
+        private final CompletableFuture<Void> finished = new CompletableFuture<>();
+        private boolean started;
+
+        private Window(String companyNumber, CompletableFuture<Void> previous) {
+            this.companyNumber = companyNumber;
+            this.previous = previous;
+        }
+    }
+
+    private static final class Member {
+
+        private final String logContext;
+        private final LinkPlanner planner;
+        private final CompletableFuture<Void> outcome = new CompletableFuture<>();
+
+        private Member(String logContext, LinkPlanner planner) {
+            this.logContext = logContext;
+            this.planner = planner;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package uk.gov.companieshouse.company.links.processor;
 
+import java.util.function.Supplier;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -7,15 +8,21 @@ import org.springframework.messaging.Message;
 import org.springframework.stereotype.Component;
 import uk.gov.companieshouse.api.company.CompanyProfile;
 import uk.gov.companieshouse.api.company.Data;
-import uk.gov.companieshouse.api.company.Links;
 import uk.gov.companieshouse.api.model.ApiResponse;
 import uk.gov.companieshouse.api.model.registers.CompanyRegistersApi;
+import uk.gov.companieshouse.company.links.concurrency.CompanyLocks;
 import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+import uk.gov.companieshouse.company.links.exception.NotYetDeletedException;
 import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
 import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.processor.SpeculativePrefetcher.Prefetch;
 import uk.gov.companieshouse.company.links.service.CompanyProfileService;
 import uk.gov.companieshouse.company.links.service.RegistersService;
+import uk.gov.companieshouse.company.links.state.LinkState;
+import uk.gov.companieshouse.company.links.state.LinkStateIndex;
 import uk.gov.companieshouse.company.links.type.ApiType;
+import uk.gov.companieshouse.company.links.type.LinkPatch;
+import uk.gov.companieshouse.company.links.type.LinkType;
 import uk.gov.companieshouse.logging.Logger;
 import uk.gov.companieshouse.stream.ResourceChangedData;
 
@@ -25,6 +32,10 @@ public class RegistersStreamProcessor extends StreamResponseProcessor {
 
     private final CompanyProfileService companyProfileService;
     private final RegistersService registersService;
+    private final SpeculativePrefetcher speculativePrefetcher;
+    private final CompanyLocks companyLocks;
+    private final LinkStateIndex linkStateIndex;
+    private final ProfileConflation profileConflation;
 
     /**
      * Construct a registers stream processor.
@@ -32,10 +43,18 @@ public class RegistersStreamProcessor extends StreamResponseProcessor {
     @Autowired
     public RegistersStreamProcessor(
             CompanyProfileService companyProfileService,
-            Logger logger, RegistersService registersService) {
+            Logger logger, RegistersService registersService,
+            SpeculativePrefetcher speculativePrefetcher,
+            CompanyLocks companyLocks,
+            LinkStateIndex linkStateIndex,
+            ProfileConflation profileConflation) {
         super(logger);
         this.companyProfileService = companyProfileService;
         this.registersService = registersService;
+        this.speculativePrefetcher = speculativePrefetcher;
+        this.companyLocks = companyLocks;
+        this.linkStateIndex = linkStateIndex;
+        this.profileConflation = profileConflation;
     }
 
     /**
@@ -43,39 +62,85 @@ public class RegistersStreamProcessor extends StreamResponseProcessor {
      */
     public void processDelete(Message<ResourceChangedData> resourceChangedMessage) {
         final ResourceChangedData payload = resourceChangedMessage.getPayload();
-        final String logContext = payload.getContextId();
 
         // the resource_id field returned represents the registers record's company number
         final String companyNumber = payload.getResourceId();
         DataMapHolder.get()
                 .companyNumber(companyNumber);
-        final ApiResponse<CompanyProfile> response = getCompanyProfile(payload, logContext,
-                companyNumber);
+        if (profileConflation.isEnabled()) {
+            final String logContext = payload.getContextId();
+            if (!isRegistersLinkKnown(LinkState.ABSENT, logContext, companyNumber)) {
+                profileConflation.submit(logContext, companyNumber,
+                        data -> planRegistersLinkRemoval(data, payload, logContext,
+                                companyNumber));
+            }
+            return;
+        }
+        companyLocks.withLock(companyNumber, () -> processDelete(payload, companyNumber));
+    }
 
-        var data = response.getData().getData();
+    private void processDelete(ResourceChangedData payload, String companyNumber) {
+        final String logContext = payload.getContextId();
+        if (isRegistersLinkKnown(LinkState.ABSENT, logContext, companyNumber)) {
+            return;
+        }
+        var data = getCompanyProfile(payload, logContext, companyNumber).getData().getData();
+        LinkPatch linkPatch = planRegistersLinkRemoval(data, payload, logContext, companyNumber);
+        if (linkPatch != null) {
+            patchCompanyProfile(data, linkPatch, logContext, companyNumber);
+        }
+    }
+
+    private LinkPatch planRegistersLinkRemoval(Data data, ResourceChangedData payload,
+            String logContext, String companyNumber) {
         var links = data.getLinks();
 
         if (links == null || links.getRegisters() == null) {
             logger.trace(String.format("Company profile with company number %s,"
                     + " does not contain registers links, will not perform patch"
                     + " for contextId %s", companyNumber, logContext), DataMapHolder.getLogMap());
+            return null;
+        }
+
+        return registersLinkRemoval(payload, logContext, companyNumber);
+    }
+
+    /**
+     * Finish a delete that was not yet deleted. Only the registers are checked again while they
+     * are still there; once they have gone the company profile is fetched now, so links
+     * changed since the first attempt are not overwritten.
+     */
+    private void removeRegistersLinkIfDeleted(ResourceChangedData payload, String logContext,
+            String companyNumber) {
+        if (isRegistersLinkKnown(LinkState.ABSENT, logContext, companyNumber)) {
+            return;
+        }
+        LinkPatch linkPatch = registersLinkRemoval(payload, logContext, companyNumber);
+        var data = getCompanyProfile(payload, logContext, companyNumber).getData().getData();
+        if (data.getLinks() == null || data.getLinks().getRegisters() == null) {
+            logger.trace(String.format("Company profile with company number %s,"
+                    + " no longer contains registers links, will not perform patch"
+                    + " for contextId %s", companyNumber, logContext), DataMapHolder.getLogMap());
             return;
         }
+        patchCompanyProfile(data, linkPatch, logContext, companyNumber);
+    }
 
+    private LinkPatch registersLinkRemoval(ResourceChangedData payload, String logContext,
+            String companyNumber) {
         final ApiResponse<CompanyRegistersApi> registersResponse = registersService
                 .getRegisters(logContext, companyNumber);
 
         if (registersResponse.getStatusCode() == HttpStatus.NOT_FOUND.value()) {
-            links.setRegisters(null);
-            data.setLinks(links);
-
-            patchCompanyProfile(data, logContext, companyNumber);
-        } else {
-            String message = "Response from registers-data-api service, main delta is not "
-                    + "yet deleted, throwing retry-able exception to check again";
-            logger.errorContext(logContext, message, null, DataMapHolder.getLogMap());
-            throw new RetryableErrorException(message);
+            return LinkPatch.builder()
+                    .removeLink(LinkType.REGISTERS)
+                    .build();
         }
+        String message = "Response from registers-data-api service, main delta is not "
+                + "yet deleted, throwing retry-able exception to check again";
+        logger.errorContext(logContext, message, null, DataMapHolder.getLogMap());
+        throw new NotYetDeletedException(message, companyNumber,
+                () -> removeRegistersLinkIfDeleted(payload, logContext, companyNumber));
     }
 
     /**
@@ -83,54 +148,101 @@ public class RegistersStreamProcessor extends StreamResponseProcessor {
      */
     public void processDelta(Message<ResourceChangedData> resourceChangedMessage) {
         final var payload = resourceChangedMessage.getPayload();
-        final String logContext = payload.getContextId();
 
         // the resource_id field returned represents the registers record's company number
         final String companyNumber = payload.getResourceId();
         DataMapHolder.get().companyNumber(companyNumber);
-        final ApiResponse<CompanyProfile> response =
-                getCompanyProfile(payload, logContext, companyNumber);
+        if (profileConflation.isEnabled()) {
+            final String logContext = payload.getContextId();
+            if (!isRegistersLinkKnown(LinkState.PRESENT, logContext, companyNumber)) {
+                profileConflation.submit(logContext, companyNumber,
+                        data -> planRegistersLink(data, logContext, companyNumber,
+                                () -> registersService.getRegisters(logContext, companyNumber)));
+            }
+            return;
+        }
+        companyLocks.withLock(companyNumber, () -> processDelta(payload, companyNumber));
+    }
+
+    private void processDelta(ResourceChangedData payload, String companyNumber) {
+        final String logContext = payload.getContextId();
+        if (isRegistersLinkKnown(LinkState.PRESENT, logContext, companyNumber)) {
+            return;
+        }
+        final Prefetch<ApiResponse<CompanyRegistersApi>> registersPrefetch =
+                speculativePrefetcher.prefetch(logContext, companyNumber,
+                        () -> registersService.getRegisters(logContext, companyNumber));
+        final Data data;
+        try {
+            data = getCompanyProfile(payload, logContext, companyNumber).getData().getData();
+        } catch (RuntimeException exception) {
+            registersPrefetch.discard();
+            throw exception;
+        }
+
+        LinkPatch linkPatch = planRegistersLink(data, logContext, companyNumber,
+                registersPrefetch::get);
+        if (linkPatch == null) {
+            registersPrefetch.discard();
+        } else {
+            patchCompanyProfile(data, linkPatch, logContext, companyNumber);
+        }
+    }
 
-        var data = response.getData().getData();
+    private LinkPatch planRegistersLink(Data data, String logContext, String companyNumber,
+            Supplier<ApiResponse<CompanyRegistersApi>> registers) {
         var links = data.getLinks();
 
         if (links != null && !StringUtils.isBlank(links.getRegisters())) {
             logger.trace(String.format("Company profile with company number %s,"
                     + " contains registers links, will not perform PATCH"
                     + " for contextId %s", companyNumber, logContext), DataMapHolder.getLogMap());
-            return;
+            return null;
         }
 
-        if (links == null) {
-            links = new Links();
-        }
-
-        final ApiResponse<CompanyRegistersApi> companyRegistersResponse =
-                registersService.getRegisters(logContext, companyNumber);
+        final ApiResponse<CompanyRegistersApi> companyRegistersResponse = registers.get();
 
         HttpStatus statusCode = HttpStatus.valueOf(companyRegistersResponse.getStatusCode());
 
         if (statusCode.is2xxSuccessful()) {
-            links.setRegisters(String.format("/company/%s/registers", companyNumber));
-            data.setLinks(links);
+            return LinkPatch.builder()
+                    .addLink(LinkType.REGISTERS, companyNumber)
+                    .build();
+        }
+        String message = "Response from companyRegistersService, main delta update not"
+                + " yet completed, Re-Trying";
+        logger.errorContext(logContext, message, null, DataMapHolder.getLogMap());
+        throw new RetryableErrorException(message);
+    }
 
-            patchCompanyProfile(data, logContext, companyNumber);
+    private boolean isRegistersLinkKnown(LinkState linkState, String logContext,
+            String companyNumber) {
+        if (linkStateIndex.getLinkState(companyNumber, LinkType.REGISTERS) != linkState) {
+            return false;
+        }
+        if (linkState == LinkState.PRESENT) {
+            logger.trace(String.format("Company profile with company number %s is known to"
+                    + " contain registers links, will not perform PATCH for contextId %s",
+                    companyNumber, logContext), DataMapHolder.getLogMap());
         } else {
-            String message = "Response from companyRegistersService, main delta update not"
-                    + " yet completed, Re-Trying";
-            logger.errorContext(logContext, message, null, DataMapHolder.getLogMap());
-            throw new RetryableErrorException(message);
+            logger.trace(String.format("Company profile with company number %s is known not to"
+                    + " contain registers links, will not perform DELETE for contextId %s",
+                    companyNumber, logContext), DataMapHolder.getLogMap());
         }
+        return true;
     }
 
-    private void patchCompanyProfile(Data data, String logContext, String companyNumber) {
+    private void patchCompanyProfile(Data data, LinkPatch linkPatch, String logContext,
+            String companyNumber) {
+        linkPatch.applyTo(data);
+
         var companyProfile = new CompanyProfile();
         companyProfile.setData(data);
-
         final ApiResponse<Void> patchResponse = companyProfileService.patchCompanyProfile(
                 logContext, companyNumber, companyProfile);
         handleResponse(HttpStatus.valueOf(patchResponse.getStatusCode()), logContext,
                 "PATCH", ApiType.COMPANY_PROFILE, companyNumber);
+        linkStateIndex.recordPatch(companyNumber, linkPatch);
     }
 
     private ApiResponse<CompanyProfile> getCompanyProfile(ResourceChangedData payload,
@@ -149,6 +261,7 @@ public class RegistersStreamProcessor extends StreamResponseProcessor {
                 companyProfileService.getCompanyProfile(logContext, companyNumber);
         handleCompanyProfileResponse(HttpStatus.valueOf(response.getStatusCode()), logContext,
                 "GET", ApiType.COMPANY_PROFILE, companyNumber);
+        linkStateIndex.recordProfile(companyNumber, response.getData());
         return response;
     }
 }
@@ -0,0 +1,145 @@
+package uk.gov.companieshouse.company.links.processor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+
+/**
+ * Issues sub-resource GET requests speculatively, in parallel with the company profile GET,
+ * so that the profile and sub-resource round-trips overlap on the critical path. When disabled
+ * the call is deferred and only made if the processor asks for the result.
+ *
+ * <p>At most the configured number of calls wait for a prefetch thread. Beyond that the
+ * prefetch is dropped and the call is deferred as if prefetching were disabled, so a slow
+ * sub-resource API never builds up a backlog of requests that may no longer be wanted.</p>
+ */
+@Component
+public class SpeculativePrefetcher implements DisposableBean {
+
+    static final String METRIC_NAME = "company.links.prefetch";
+
+    private final boolean enabled;
+    private final ExecutorService executor;
+    private final Counter usedCounter;
+    private final Counter wastedCounter;
+    private final Counter failedCounter;
+    private final Counter rejectedCounter;
+
+    /**
+     * Construct a speculative prefetcher.
+     */
+    public SpeculativePrefetcher(
+            @Value("${company-links.consumer.speculative-prefetch.enable}") boolean enabled,
+            @Value("${company-links.consumer.speculative-prefetch.threads}") int threads,
+            @Value("${company-links.consumer.speculative-prefetch.max-queued}") int maxQueued,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.executor = enabled ? new ThreadPoolExecutor(threads, threads, 0L,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(Math.max(maxQueued, 1)),
+                new CustomizableThreadFactory("speculative-prefetch-")) : null;
+        this.usedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "used");
+        this.wastedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "wasted");
+        this.failedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "failed");
+        this.rejectedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "rejected");
+    }
+
+    /**
+     * Start a sub-resource call for the given company. The call is only sent ahead of time when
+     * prefetching is enabled, the company number is known and there is room to queue it;
+     * otherwise it is deferred until {@link Prefetch#get()} is called.
+     *
+     * @param contextId     context ID of the message being processed
+     * @param companyNumber the company the sub-resource belongs to
+     * @param call          the sub-resource call
+     * @return a handle used to either consume or discard the result
+     */
+    public <T> Prefetch<T> prefetch(String contextId, String companyNumber, Supplier<T> call) {
+        if (!enabled || StringUtils.isEmpty(companyNumber)) {
+            return new Prefetch<>(call, null);
+        }
+
+        CompletableFuture<T> future;
+        try {
+            future = CompletableFuture.supplyAsync(() -> {
+                DataMapHolder.initialise(contextId);
+                DataMapHolder.get().companyNumber(companyNumber);
+                try {
+                    return call.get();
+                } finally {
+                    DataMapHolder.clear();
+                }
+            }, executor);
+        } catch (RejectedExecutionException ex) {
+            // the queue is full, so make the call on the processing thread if it is needed
+            rejectedCounter.increment();
+            return new Prefetch<>(call, null);
+        }
+        return new Prefetch<>(call, future);
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Handle on a possibly in-flight sub-resource call.
+     */
+    public final class Prefetch<T> {
+
+        private final Supplier<T> call;
+        private final CompletableFuture<T> future;
+
+        private Prefetch(Supplier<T> call, CompletableFuture<T> future) {
+            this.call = call;
+            this.future = future;
+        }
+
+        /**
+         * Return the result of the sub-resource call, waiting for it if it is still in flight,
+         * or making it now if it was deferred.
+         */
+        public T get() {
+            if (future == null) {
+                return call.get();
+            }
+            try {
+                T result = future.join();
+                usedCounter.increment();
+                return result;
+            } catch (CompletionException ex) {
+                failedCounter.increment();
+                if (ex.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new RetryableErrorException("Speculative sub-resource call failed", ex);
+            }
+        }
+
+        /**
+         * Drop the result because the company profile showed it is not needed.
+         */
+        public void discard() {
+            if (future != null) {
+                future.cancel(false);
+                wastedCounter.increment();
+            }
+        }
+    }
+}
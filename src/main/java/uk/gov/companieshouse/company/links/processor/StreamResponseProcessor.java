@@ -34,9 +34,12 @@ public class StreamResponseProcessor {
             logger.errorContext(logContext, message, null, DataMapHolder.getLogMap());
             throw new NonRetryableErrorException(message);
         } else if (httpStatus.is2xxSuccessful()) {
-            logger.info(String.format("Successfully invoked %s %s endpoint"
-                            + " for message with contextId %s and company number %s",
-                    requestType, apiType, logContext, companyNumber), DataMapHolder.getLogMap());
+            if (DataMapHolder.isSampled()) {
+                logger.info(String.format("Successfully invoked %s %s endpoint"
+                                + " for message with contextId %s and company number %s",
+                        requestType, apiType, logContext, companyNumber),
+                        DataMapHolder.getLogMap());
+            }
         } else {
             logger.errorContext(logContext, message, null, DataMapHolder.getLogMap());
             throw new RetryableErrorException(message);
@@ -63,9 +66,12 @@ public class StreamResponseProcessor {
             logger.errorContext(logContext, message, null, DataMapHolder.getLogMap());
             throw new NonRetryableErrorException(message);
         } else if (httpStatus.is2xxSuccessful()) {
-            logger.info(String.format("Successfully invoked %s %s endpoint"
-                            + " for message with contextId %s and company number %s",
-                    requestType, apiType, logContext, companyNumber), DataMapHolder.getLogMap());
+            if (DataMapHolder.isSampled()) {
+                logger.info(String.format("Successfully invoked %s %s endpoint"
+                                + " for message with contextId %s and company number %s",
+                        requestType, apiType, logContext, companyNumber),
+                        DataMapHolder.getLogMap());
+            }
         } else {
             logger.errorContext(logContext, message, null, DataMapHolder.getLogMap());
             throw new RetryableErrorException(message);
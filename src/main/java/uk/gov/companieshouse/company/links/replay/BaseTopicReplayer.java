@@ -0,0 +1,481 @@
+package uk.gov.companieshouse.company.links.replay;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.retry.DownstreamBreakers;
+import uk.gov.companieshouse.company.links.retry.ListenerMethods;
+import uk.gov.companieshouse.company.links.util.RateLimit;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+/**
+ * Reads a set of topics with its own consumer and replays their records through the listener
+ * for the topic they originally came from, so the same processors, aspects and link state
+ * handling apply as when the record was first consumed. Records can be selected by the time
+ * they reached the topic and the company they are for.
+ *
+ * <p>The consumer uses a separate group and nothing is committed, so a replay never moves the
+ * offsets of the live consumer groups and can be repeated. Each partition is read from the
+ * start time, or its beginning, up to the offset that was its end, or the end time, when the
+ * replay started, and the replay then stops. Records are replayed on a number of lanes at a
+ * capped rate, with each company's records kept in order on the same lane. Once a company's
+ * record for a topic and event type has been replayed successfully, later records for the same
+ * company, topic and event type are skipped, as the processors rebuild the link from the
+ * current state of the data APIs either way.
+ * Replay waits while the {@link DownstreamBreakers} breaker for the original topic is open.</p>
+ */
+public abstract class BaseTopicReplayer implements DisposableBean {
+
+    private static final Pattern COMPANY_NUMBER_PATTERN =
+            Pattern.compile("(?<=company/)([a-zA-Z0-9]{6,10})(?=/.*)");
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(500L);
+    private static final long PROGRESS_LOG_INTERVAL_MS = 10000L;
+    private static final long BREAKER_WAIT_MS = 1000L;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30L;
+    private static final long LANE_DRAIN_TIMEOUT_MINUTES = 10L;
+
+    private final String name;
+    private final String groupId;
+    private final int maxInFlight;
+    private final ConsumerFactory<String, ResourceChangedData> consumerFactory;
+    private final ListenerMethods listenerMethods;
+    private final DownstreamBreakers downstreamBreakers;
+    private final Logger logger;
+    private final ExecutorService reader;
+    private final Counter replayedCounter;
+    private final Counter failedCounter;
+    private final Counter deduplicatedCounter;
+    private volatile ReplayJob current;
+
+    /**
+     * Construct the replayer.
+     *
+     * @param name    what the replay is called in logs, thread names and metrics
+     * @param groupId the consumer group to read with, which must not be a live group
+     */
+    protected BaseTopicReplayer(String name, String groupId, int maxInFlight,
+            ConsumerFactory<String, ResourceChangedData> consumerFactory,
+            ListenerMethods listenerMethods, DownstreamBreakers downstreamBreakers,
+            Logger logger, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.groupId = groupId;
+        this.maxInFlight = Math.max(maxInFlight, 1);
+        this.consumerFactory = consumerFactory;
+        this.listenerMethods = listenerMethods;
+        this.downstreamBreakers = downstreamBreakers;
+        this.logger = logger;
+        this.reader = Executors.newSingleThreadExecutor(
+                new CustomizableThreadFactory(name + "-reader-"));
+        String metricName = "company.links." + name;
+        this.replayedCounter = meterRegistry.counter(metricName, "outcome", "replayed");
+        this.failedCounter = meterRegistry.counter(metricName, "outcome", "failed");
+        this.deduplicatedCounter = meterRegistry.counter(metricName, "outcome",
+                "deduplicated");
+    }
+
+    /**
+     * Start a replay in the background.
+     *
+     * @return the progress of the new replay
+     * @throws IllegalStateException if a replay is already running
+     */
+    public synchronized ReplayProgress start(ReplayRequest request) {
+        if (current != null && current.progress.isRunning()) {
+            throw new IllegalStateException(String.format("A %s is already running", name));
+        }
+        if (request.getTopics().isEmpty()
+                || request.getTopics().stream().anyMatch(StringUtils::isBlank)) {
+            throw new IllegalArgumentException(String.format("A topic to %s is required",
+                    name));
+        }
+        validate(request);
+        ReplayJob job = new ReplayJob(request);
+        current = job;
+        reader.execute(job);
+        return job.progress;
+    }
+
+    /**
+     * The progress of the running or most recent replay, or null if there has not been one.
+     */
+    public ReplayProgress progress() {
+        ReplayJob job = current;
+        return job == null ? null : job.progress;
+    }
+
+    /**
+     * Stop the running replay once the records already handed to the lanes are done.
+     *
+     * @return true if a replay was running
+     */
+    public boolean cancel() {
+        ReplayJob job = current;
+        if (job == null || !job.progress.isRunning()) {
+            return false;
+        }
+        job.cancelled = true;
+        return true;
+    }
+
+    /**
+     * Check the request can be replayed before it is started.
+     *
+     * @throws IllegalArgumentException if it cannot
+     */
+    protected void validate(ReplayRequest request) {
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        cancel();
+        reader.shutdown();
+        reader.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    static String companyNumber(ResourceChangedData payload) {
+        if (payload.getResourceUri() == null) {
+            return null;
+        }
+        Matcher matcher = COMPANY_NUMBER_PATTERN.matcher(payload.getResourceUri());
+        return matcher.find() ? matcher.group() : null;
+    }
+
+    private String originalTopic(ConsumerRecord<String, ResourceChangedData> record) {
+        String topic = header(record, KafkaHeaders.ORIGINAL_TOPIC,
+                KafkaHeaders.DLT_ORIGINAL_TOPIC);
+        if (topic != null) {
+            return topic;
+        }
+        if (listenerMethods.hasListener(record.topic())) {
+            return record.topic();
+        }
+        // records moved on to an invalid topic lose their headers, so go by the topic name
+        return listenerMethods.getTopics().stream()
+                .filter(listenerTopic -> record.topic().startsWith(listenerTopic + "-"))
+                .max(Comparator.comparingInt(String::length))
+                .orElse(null);
+    }
+
+    private static boolean isExceptionClass(ConsumerRecord<String, ResourceChangedData> record,
+            String exceptionClass) {
+        for (String name : new String[] {KafkaHeaders.EXCEPTION_FQCN,
+                KafkaHeaders.EXCEPTION_CAUSE_FQCN, KafkaHeaders.DLT_EXCEPTION_FQCN,
+                KafkaHeaders.DLT_EXCEPTION_CAUSE_FQCN}) {
+            String fqcn = header(record, name);
+            if (fqcn != null && (fqcn.equals(exceptionClass)
+                    || fqcn.endsWith("." + exceptionClass))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String header(ConsumerRecord<?, ?> record, String... names) {
+        for (String name : names) {
+            Header header = record.headers().lastHeader(name);
+            if (header != null) {
+                return new String(header.value(), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static long numericHeader(ConsumerRecord<?, ?> record, String... names) {
+        for (String name : names) {
+            Header header = record.headers().lastHeader(name);
+            if (header != null && header.value().length == Integer.BYTES) {
+                return ByteBuffer.wrap(header.value()).getInt();
+            }
+            if (header != null && header.value().length == Long.BYTES) {
+                return ByteBuffer.wrap(header.value()).getLong();
+            }
+        }
+        return -1L;
+    }
+
+    private final class ReplayJob implements Runnable {
+
+        private final ReplayRequest request;
+        private final ReplayProgress progress;
+        private final Set<String> replayedKeys = ConcurrentHashMap.newKeySet();
+        private final Semaphore inFlight = new Semaphore(maxInFlight);
+        private final ExecutorService[] lanes;
+        private final RateLimit rateLimit;
+        private volatile boolean cancelled;
+
+        private ReplayJob(ReplayRequest request) {
+            this.request = request;
+            this.progress = new ReplayProgress(request);
+            this.lanes = new ExecutorService[Math.max(request.getConcurrency(), 1)];
+            for (int i = 0; i < lanes.length; i++) {
+                lanes[i] = Executors.newSingleThreadExecutor(
+                        new CustomizableThreadFactory(name + "-lane-" + i + "-"));
+            }
+            this.rateLimit = new RateLimit(request.getRatePerSecond());
+        }
+
+        @Override
+        public void run() {
+            logger.info(String.format("Starting %s of %s", name, request.getTopics()),
+                    DataMapHolder.getLogMap());
+            ReplayProgress.State outcome = ReplayProgress.State.FAILED;
+            try (Consumer<String, ResourceChangedData> consumer =
+                    consumerFactory.createConsumer(groupId, name + "-", null)) {
+                read(consumer);
+                outcome = cancelled ? ReplayProgress.State.CANCELLED
+                        : ReplayProgress.State.COMPLETED;
+            } catch (RuntimeException exception) {
+                progress.error(exception.getMessage());
+                logger.error(String.format("The %s of %s failed", name,
+                        request.getTopics()), exception, DataMapHolder.getLogMap());
+            } finally {
+                awaitLanes();
+                progress.finish(outcome);
+                logger.info(String.format("Finished %s of %s, %s", name,
+                        request.getTopics(), progress), DataMapHolder.getLogMap());
+            }
+        }
+
+        private void read(Consumer<String, ResourceChangedData> consumer) {
+            List<TopicPartition> partitions = new ArrayList<>();
+            for (String topic : request.getTopics()) {
+                List<PartitionInfo> infos = consumer.partitionsFor(topic);
+                if (infos == null || infos.isEmpty()) {
+                    throw new IllegalArgumentException(String.format(
+                            "Topic %s has no partitions", topic));
+                }
+                infos.forEach(info ->
+                        partitions.add(new TopicPartition(info.topic(), info.partition())));
+            }
+            consumer.assign(partitions);
+            Map<TopicPartition, Long> endOffsets = endOffsets(consumer, partitions);
+            Map<TopicPartition, Long> startOffsets = startOffsets(consumer, partitions,
+                    endOffsets);
+            startOffsets.forEach(consumer::seek);
+            progress.setTotal(partitions.stream()
+                    .mapToLong(partition -> endOffsets.get(partition)
+                            - startOffsets.get(partition))
+                    .sum());
+
+            Set<TopicPartition> remaining = new HashSet<>(partitions);
+            long nextLog = System.currentTimeMillis() + PROGRESS_LOG_INTERVAL_MS;
+            while (!cancelled) {
+                remaining.removeIf(partition ->
+                        consumer.position(partition) >= endOffsets.get(partition));
+                if (remaining.isEmpty()) {
+                    return;
+                }
+                for (ConsumerRecord<String, ResourceChangedData> record
+                        : consumer.poll(POLL_TIMEOUT)) {
+                    TopicPartition partition = new TopicPartition(record.topic(),
+                            record.partition());
+                    if (!remaining.contains(partition)) {
+                        continue;
+                    }
+                    if (record.offset() >= endOffsets.get(partition)
+                            || (request.getTo() != null
+                            && record.timestamp() > request.getTo().toEpochMilli())) {
+                        remaining.remove(partition);
+                        continue;
+                    }
+                    progress.scanned();
+                    dispatch(record);
+                }
+                if (System.currentTimeMillis() >= nextLog) {
+                    nextLog = System.currentTimeMillis() + PROGRESS_LOG_INTERVAL_MS;
+                    logger.info(String.format("Running %s of %s, %s", name,
+                            request.getTopics(), progress), DataMapHolder.getLogMap());
+                }
+            }
+        }
+
+        private Map<TopicPartition, Long> endOffsets(
+                Consumer<String, ResourceChangedData> consumer, List<TopicPartition> partitions) {
+            Map<TopicPartition, Long> endOffsets = new HashMap<>(consumer.endOffsets(partitions));
+            if (request.getTo() == null) {
+                return endOffsets;
+            }
+            // stop at the first record after the end time where the broker can say where that is
+            Map<TopicPartition, Long> timestamps = new HashMap<>();
+            partitions.forEach(partition ->
+                    timestamps.put(partition, request.getTo().toEpochMilli() + 1));
+            consumer.offsetsForTimes(timestamps).forEach((partition, offset) -> {
+                if (offset != null) {
+                    endOffsets.merge(partition, offset.offset(), Math::min);
+                }
+            });
+            return endOffsets;
+        }
+
+        private Map<TopicPartition, Long> startOffsets(
+                Consumer<String, ResourceChangedData> consumer, List<TopicPartition> partitions,
+                Map<TopicPartition, Long> endOffsets) {
+            if (request.getFrom() == null) {
+                return consumer.beginningOffsets(partitions);
+            }
+            Map<TopicPartition, Long> timestamps = new HashMap<>();
+            partitions.forEach(partition ->
+                    timestamps.put(partition, request.getFrom().toEpochMilli()));
+            Map<TopicPartition, Long> startOffsets = new HashMap<>();
+            consumer.offsetsForTimes(timestamps).forEach((partition, offset) ->
+                    startOffsets.put(partition,
+                            offset == null ? endOffsets.get(partition) : offset.offset()));
+            partitions.forEach(partition -> startOffsets.putIfAbsent(partition,
+                    endOffsets.get(partition)));
+            return startOffsets;
+        }
+
+        private void dispatch(ConsumerRecord<String, ResourceChangedData> record) {
+            ResourceChangedData payload = record.value();
+            if (payload == null) {
+                fail(String.format("Record at %s-%d@%d could not be read", record.topic(),
+                        record.partition(), record.offset()));
+                return;
+            }
+            String companyNumber = companyNumber(payload);
+            if ((request.getExceptionClass() != null
+                    && !isExceptionClass(record, request.getExceptionClass()))
+                    || (request.getCompanyNumber() != null
+                    && !request.getCompanyNumber().equalsIgnoreCase(companyNumber))) {
+                progress.filtered();
+                return;
+            }
+            String originalTopic = originalTopic(record);
+            if (originalTopic == null || !listenerMethods.hasListener(originalTopic)) {
+                fail(String.format("No listener for record at %s-%d@%d", record.topic(),
+                        record.partition(), record.offset()));
+                return;
+            }
+
+            String lane = StringUtils.defaultString(companyNumber, record.key());
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+                return;
+            }
+            lanes[Math.floorMod(StringUtils.defaultString(lane).hashCode(), lanes.length)]
+                    .execute(() -> {
+                        try {
+                            replay(record, originalTopic, companyNumber);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+        }
+
+        private void replay(ConsumerRecord<String, ResourceChangedData> record,
+                String originalTopic, String companyNumber) {
+            if (cancelled) {
+                return;
+            }
+            ResourceChangedData payload = record.value();
+            String replayedKey = companyNumber == null ? null : originalTopic + "/"
+                    + companyNumber + "/" + (payload.getEvent() == null ? null
+                    : payload.getEvent().getType());
+            if (replayedKey != null && replayedKeys.contains(replayedKey)) {
+                progress.deduplicated();
+                deduplicatedCounter.increment();
+                return;
+            }
+            awaitBreaker(originalTopic);
+            awaitPermit();
+            boolean onOriginalTopic = originalTopic.equals(record.topic());
+            try {
+                listenerMethods.invoke(originalTopic, record.key(),
+                        onOriginalTopic ? record.partition()
+                                : (int) numericHeader(record, KafkaHeaders.ORIGINAL_PARTITION,
+                                        KafkaHeaders.DLT_ORIGINAL_PARTITION),
+                        onOriginalTopic ? record.offset()
+                                : numericHeader(record, KafkaHeaders.ORIGINAL_OFFSET,
+                                        KafkaHeaders.DLT_ORIGINAL_OFFSET),
+                        payload);
+                if (replayedKey != null) {
+                    replayedKeys.add(replayedKey);
+                }
+                progress.replayed();
+                replayedCounter.increment();
+            } catch (RuntimeException exception) {
+                fail(String.format("Replay of %s-%d@%d failed: %s", record.topic(),
+                        record.partition(), record.offset(), exception.getMessage()));
+            }
+        }
+
+        private void fail(String error) {
+            progress.failed(error);
+            failedCounter.increment();
+            logger.info(error, DataMapHolder.getLogMap());
+        }
+
+        private void awaitBreaker(String topic) {
+            while (!cancelled && downstreamBreakers.isOpen(topic)) {
+                sleep(BREAKER_WAIT_MS);
+            }
+        }
+
+        private void awaitPermit() {
+            try {
+                rateLimit.acquire(1);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+            }
+        }
+
+        private void sleep(long millis) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(millis);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+            }
+        }
+
+        private void awaitLanes() {
+            for (ExecutorService lane : lanes) {
+                lane.shutdown();
+            }
+            try {
+                for (ExecutorService lane : lanes) {
+                    if (!lane.awaitTermination(LANE_DRAIN_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                        lane.shutdownNow();
+                    }
+                }
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                for (ExecutorService lane : lanes) {
+                    lane.shutdownNow();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package uk.gov.companieshouse.company.links.replay;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.retry.DownstreamBreakers;
+import uk.gov.companieshouse.company.links.retry.ListenerMethods;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+/**
+ * Replays records from an error or invalid topic through the listener for the topic they
+ * originally came from. Records can also be selected by the exception that failed them.
+ *
+ * <p>Records on an invalid topic carry no exception headers, so they are only selected when no
+ * exception class is given, and they are matched to their listener by topic name.</p>
+ */
+@Component
+public class ErrorTopicReplayer extends BaseTopicReplayer {
+
+    /**
+     * Construct the error topic replayer.
+     */
+    public ErrorTopicReplayer(
+            @Value("${company-links.consumer.replay.group-id}") String groupId,
+            @Value("${company-links.consumer.replay.max-in-flight}") int maxInFlight,
+            ConsumerFactory<String, ResourceChangedData> consumerFactory,
+            ListenerMethods listenerMethods, DownstreamBreakers downstreamBreakers,
+            Logger logger, MeterRegistry meterRegistry) {
+        super("replay", groupId, maxInFlight, consumerFactory, listenerMethods,
+                downstreamBreakers, logger, meterRegistry);
+    }
+}
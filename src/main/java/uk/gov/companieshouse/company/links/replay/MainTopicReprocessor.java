@@ -0,0 +1,74 @@
+package uk.gov.companieshouse.company.links.replay;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Instant;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.retry.DownstreamBreakers;
+import uk.gov.companieshouse.company.links.retry.ListenerMethods;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+/**
+ * Reprocesses every record a set of main topics received in a time window, for example to
+ * reconcile links after a data API has served bad data. Each configured topic, or every main
+ * topic with a listener when none are configured, is read from the start time up to the end
+ * time or the end of the topic with the reprocess consumer group, and the reprocess then stops.
+ * The live consumer groups' offsets are never read or moved.
+ */
+@Component
+public class MainTopicReprocessor extends BaseTopicReplayer {
+
+    private final List<String> topics;
+    private final ListenerMethods listenerMethods;
+
+    /**
+     * Construct the main topic reprocessor.
+     */
+    public MainTopicReprocessor(
+            @Value("${company-links.consumer.reprocess.group-id}") String groupId,
+            @Value("${company-links.consumer.reprocess.topics}") List<String> topics,
+            @Value("${company-links.consumer.reprocess.max-in-flight}") int maxInFlight,
+            ConsumerFactory<String, ResourceChangedData> consumerFactory,
+            ListenerMethods listenerMethods, DownstreamBreakers downstreamBreakers,
+            Logger logger, MeterRegistry meterRegistry) {
+        super("reprocess", groupId, maxInFlight, consumerFactory, listenerMethods,
+                downstreamBreakers, logger, meterRegistry);
+        this.topics = List.copyOf(topics);
+        this.listenerMethods = listenerMethods;
+    }
+
+    /**
+     * Start reprocessing the configured topics in the background.
+     *
+     * @param from          the earliest time a record reached its topic, or null for the
+     *                      beginning of the topics
+     * @param to            the latest time a record reached its topic, or null for the end of
+     *                      the topics when the reprocess starts
+     * @param companyNumber the only company to reprocess, or null
+     * @return the progress of the new reprocess
+     * @throws IllegalStateException if a reprocess is already running
+     */
+    public ReplayProgress start(Instant from, Instant to, String companyNumber,
+            double ratePerSecond, int concurrency) {
+        return start(new ReplayRequest(topics.isEmpty()
+                ? listenerMethods.getTopics().stream().sorted().toList() : topics, from, to,
+                null, companyNumber, ratePerSecond, concurrency));
+    }
+
+    @Override
+    protected void validate(ReplayRequest request) {
+        for (String topic : request.getTopics()) {
+            if (!listenerMethods.hasListener(topic)) {
+                throw new IllegalArgumentException(String.format(
+                        "Topic %s is not a main topic with a listener", topic));
+            }
+        }
+        if (request.getFrom() != null && request.getTo() != null
+                && request.getTo().isBefore(request.getFrom())) {
+            throw new IllegalArgumentException("The end time is before the start time");
+        }
+    }
+}
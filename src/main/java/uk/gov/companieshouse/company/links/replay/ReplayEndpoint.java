@@ -0,0 +1,63 @@
+package uk.gov.companieshouse.company.links.replay;
+
+import java.time.Instant;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint for starting, watching and cancelling an {@link ErrorTopicReplayer}
+ * replay. Disabled unless {@code management.endpoint.replay.enabled} is set.
+ */
+@Component
+@Endpoint(id = "replay")
+public class ReplayEndpoint {
+
+    private final ErrorTopicReplayer errorTopicReplayer;
+    private final double defaultRatePerSecond;
+    private final int defaultConcurrency;
+
+    /**
+     * Construct the replay endpoint.
+     */
+    public ReplayEndpoint(ErrorTopicReplayer errorTopicReplayer,
+            @Value("${company-links.consumer.replay.rate-per-second}")
+                    double defaultRatePerSecond,
+            @Value("${company-links.consumer.replay.concurrency}") int defaultConcurrency) {
+        this.errorTopicReplayer = errorTopicReplayer;
+        this.defaultRatePerSecond = defaultRatePerSecond;
+        this.defaultConcurrency = defaultConcurrency;
+    }
+
+    @ReadOperation
+    public ReplayProgress progress() {
+        return errorTopicReplayer.progress();
+    }
+
+    /**
+     * Start replaying the selected records from an error or invalid topic.
+     *
+     * @param from an ISO-8601 instant, such as 2024-01-31T09:00:00Z
+     * @param to   an ISO-8601 instant
+     */
+    @WriteOperation
+    public ReplayProgress start(String topic, @Nullable String from, @Nullable String to,
+            @Nullable String exceptionClass, @Nullable String companyNumber,
+            @Nullable Double ratePerSecond, @Nullable Integer concurrency) {
+        return errorTopicReplayer.start(new ReplayRequest(List.of(topic),
+                from == null ? null : Instant.parse(from),
+                to == null ? null : Instant.parse(to), exceptionClass, companyNumber,
+                ratePerSecond == null ? defaultRatePerSecond : ratePerSecond,
+                concurrency == null ? defaultConcurrency : concurrency));
+    }
+
+    @DeleteOperation
+    public boolean cancel() {
+        return errorTopicReplayer.cancel();
+    }
+}
@@ -0,0 +1,130 @@
+package uk.gov.companieshouse.company.links.replay;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How far a replay has got. Counts are updated as the replay runs, so reading them while it is
+ * running gives a live view.
+ */
+public final class ReplayProgress {
+
+    /**
+     * The stages a replay goes through.
+     */
+    public enum State {
+        RUNNING,
+        COMPLETED,
+        CANCELLED,
+        FAILED
+    }
+
+    private final ReplayRequest request;
+    private final Instant startedAt = Instant.now();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong filtered = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile State state = State.RUNNING;
+    private volatile Instant finishedAt;
+    private volatile String lastError;
+
+    ReplayProgress(ReplayRequest request) {
+        this.request = request;
+    }
+
+    public ReplayRequest getRequest() {
+        return request;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * The number of records on the topic within the requested time range, or up to its end
+     * when no end time was given.
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    public long getScanned() {
+        return scanned.get();
+    }
+
+    public long getFiltered() {
+        return filtered.get();
+    }
+
+    public long getDeduplicated() {
+        return deduplicated.get();
+    }
+
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    boolean isRunning() {
+        return state == State.RUNNING;
+    }
+
+    void setTotal(long total) {
+        this.total.set(total);
+    }
+
+    void scanned() {
+        scanned.incrementAndGet();
+    }
+
+    void filtered() {
+        filtered.incrementAndGet();
+    }
+
+    void deduplicated() {
+        deduplicated.incrementAndGet();
+    }
+
+    void replayed() {
+        replayed.incrementAndGet();
+    }
+
+    void failed(String error) {
+        failed.incrementAndGet();
+        lastError = error;
+    }
+
+    void error(String error) {
+        lastError = error;
+    }
+
+    void finish(State state) {
+        this.finishedAt = Instant.now();
+        this.state = state;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: scanned %d of %d, replayed %d, failed %d, deduplicated %d, "
+                + "filtered %d", state, getScanned(), getTotal(), getReplayed(), getFailed(),
+                getDeduplicated(), getFiltered());
+    }
+}
@@ -0,0 +1,70 @@
+package uk.gov.companieshouse.company.links.replay;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Which records to replay from which topics, and how fast. Every selection criterion is
+ * optional apart from the topics.
+ */
+public final class ReplayRequest {
+
+    private final List<String> topics;
+    private final Instant from;
+    private final Instant to;
+    private final String exceptionClass;
+    private final String companyNumber;
+    private final double ratePerSecond;
+    private final int concurrency;
+
+    /**
+     * Construct a replay request.
+     *
+     * @param topics         the topics to read
+     * @param from           the earliest time a record reached its topic, or null
+     * @param to             the latest time a record reached its topic, or null
+     * @param exceptionClass the fully qualified or simple name of the exception that failed
+     *                       the record, or null
+     * @param companyNumber  the company the record is for, or null
+     * @param ratePerSecond  the most records to replay each second
+     * @param concurrency    how many records to replay at once
+     */
+    public ReplayRequest(List<String> topics, Instant from, Instant to, String exceptionClass,
+            String companyNumber, double ratePerSecond, int concurrency) {
+        this.topics = List.copyOf(topics);
+        this.from = from;
+        this.to = to;
+        this.exceptionClass = exceptionClass;
+        this.companyNumber = companyNumber;
+        this.ratePerSecond = ratePerSecond;
+        this.concurrency = concurrency;
+    }
+
+    public List<String> getTopics() {
+        return topics;
+    }
+
+    public Instant getFrom() {
+        return from;
+    }
+
+    public Instant getTo() {
+        return to;
+    }
+
+    public String getExceptionClass() {
+        return exceptionClass;
+    }
+
+    public String getCompanyNumber() {
+        return companyNumber;
+    }
+
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+}
@@ -0,0 +1,61 @@
+package uk.gov.companieshouse.company.links.replay;
+
+import java.time.Instant;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint for starting, watching and cancelling a {@link MainTopicReprocessor}
+ * reprocess. Disabled unless {@code management.endpoint.reprocess.enabled} is set.
+ */
+@Component
+@Endpoint(id = "reprocess")
+public class ReprocessEndpoint {
+
+    private final MainTopicReprocessor mainTopicReprocessor;
+    private final double defaultRatePerSecond;
+    private final int defaultConcurrency;
+
+    /**
+     * Construct the reprocess endpoint.
+     */
+    public ReprocessEndpoint(MainTopicReprocessor mainTopicReprocessor,
+            @Value("${company-links.consumer.reprocess.rate-per-second}")
+                    double defaultRatePerSecond,
+            @Value("${company-links.consumer.reprocess.concurrency}") int defaultConcurrency) {
+        this.mainTopicReprocessor = mainTopicReprocessor;
+        this.defaultRatePerSecond = defaultRatePerSecond;
+        this.defaultConcurrency = defaultConcurrency;
+    }
+
+    @ReadOperation
+    public ReplayProgress progress() {
+        return mainTopicReprocessor.progress();
+    }
+
+    /**
+     * Start reprocessing the main topics from a point in time.
+     *
+     * @param from an ISO-8601 instant, such as 2024-01-31T09:00:00Z
+     * @param to   an ISO-8601 instant
+     */
+    @WriteOperation
+    public ReplayProgress start(String from, @Nullable String to,
+            @Nullable String companyNumber, @Nullable Double ratePerSecond,
+            @Nullable Integer concurrency) {
+        return mainTopicReprocessor.start(Instant.parse(from),
+                to == null ? null : Instant.parse(to), companyNumber,
+                ratePerSecond == null ? defaultRatePerSecond : ratePerSecond,
+                concurrency == null ? defaultConcurrency : concurrency);
+    }
+
+    @DeleteOperation
+    public boolean cancel() {
+        return mainTopicReprocessor.cancel();
+    }
+}
@@ -0,0 +1,52 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps track of why each listener container is paused, so one component resuming a container
+ * cannot undo a pause another component still needs. A container is only resumed once every
+ * reason it was paused for has been lifted.
+ */
+@Component
+public class ContainerPauses {
+
+    private final Map<MessageListenerContainer, Set<String>> reasons = new HashMap<>();
+
+    /**
+     * Pause the container for the given reason.
+     */
+    public synchronized void pause(MessageListenerContainer container, String reason) {
+        reasons.computeIfAbsent(container, key -> new HashSet<>()).add(reason);
+        if (container.isRunning()) {
+            container.pause();
+        }
+    }
+
+    /**
+     * Lift the given reason for pausing the container, resuming it if nothing else needs it
+     * paused.
+     */
+    public synchronized void resume(MessageListenerContainer container, String reason) {
+        Set<String> containerReasons = reasons.get(container);
+        if (containerReasons != null) {
+            containerReasons.remove(reason);
+            if (!containerReasons.isEmpty()) {
+                return;
+            }
+            reasons.remove(container);
+        }
+        if (container.isPauseRequested()) {
+            container.resume();
+        }
+    }
+
+    public synchronized boolean isPaused(MessageListenerContainer container, String reason) {
+        Set<String> containerReasons = reasons.get(container);
+        return containerReasons != null && containerReasons.contains(reason);
+    }
+}
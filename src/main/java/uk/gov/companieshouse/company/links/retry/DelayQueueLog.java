@@ -0,0 +1,311 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only log of delayed records held in fixed size, memory-mapped segment files. Each
+ * record is written with its length and a checksum and flushed to disk before the call
+ * returns, so a crash loses nothing that was acknowledged. A record that is rescheduled is
+ * simply appended again with the same id; the latest copy wins on recovery.
+ *
+ * <p>Recovery replays every segment in order, stopping at the first torn or corrupt record in
+ * each, then compacts the live entries into a fresh segment and deletes the old ones. While
+ * running, the oldest segments are deleted as soon as nothing in them is still live.</p>
+ */
+final class DelayQueueLog implements Closeable {
+
+    static final String SEGMENT_PREFIX = "retry-";
+    static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final byte ENQUEUE = 1;
+    private static final byte COMPLETE = 2;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+    private final Map<Long, Segment> owners = new HashMap<>();
+    private Segment active;
+    private long nextId = 1;
+
+    DelayQueueLog(Path directory, int segmentBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Replay the segments on disk and open a fresh segment for appends.
+     *
+     * @return the entries that were written and not completed, in the order they were written
+     */
+    synchronized List<Entry> recover() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(DelayQueueLog::isSegment).sorted().toList();
+        }
+
+        Map<Long, Entry> live = new LinkedHashMap<>();
+        long sequence = 0;
+        for (Path file : files) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                replay(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), live);
+            }
+            sequence = Math.max(sequence, sequenceOf(file));
+        }
+
+        active = open(sequence + 1);
+        for (Entry entry : live.values()) {
+            write(entry);
+        }
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+        return new ArrayList<>(live.values());
+    }
+
+    synchronized long nextId() {
+        return nextId++;
+    }
+
+    /**
+     * Durably append an entry, replacing any earlier copy with the same id.
+     */
+    synchronized void write(Entry entry) throws IOException {
+        byte[] topic = entry.topic.getBytes(StandardCharsets.UTF_8);
+        byte[] groupId = entry.groupId.getBytes(StandardCharsets.UTF_8);
+        byte[] key = entry.key == null ? null : entry.key.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + Long.BYTES * 3 + Integer.BYTES * 6 + topic.length + groupId.length
+                + (key == null ? 0 : key.length) + entry.payload.length;
+        ByteBuffer body = ByteBuffer.allocate(length)
+                .put(ENQUEUE)
+                .putLong(entry.id)
+                .putLong(entry.dueMillis)
+                .putInt(entry.attempt)
+                .putInt(entry.partition)
+                .putLong(entry.offset);
+        putBytes(body, topic);
+        putBytes(body, groupId);
+        putBytes(body, key);
+        putBytes(body, entry.payload);
+        append(body.flip());
+
+        Segment previous = owners.put(entry.id, active);
+        if (previous != active) {
+            active.live++;
+            if (previous != null) {
+                previous.live--;
+            }
+        }
+        nextId = Math.max(nextId, entry.id + 1);
+        deleteDrainedSegments();
+    }
+
+    /**
+     * Durably mark an entry as finished so it is not recovered.
+     */
+    synchronized void complete(long id) throws IOException {
+        append(ByteBuffer.allocate(1 + Long.BYTES).put(COMPLETE).putLong(id).flip());
+        Segment owner = owners.remove(id);
+        if (owner != null) {
+            owner.live--;
+        }
+        deleteDrainedSegments();
+    }
+
+    synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (active != null) {
+            active.buffer.force();
+        }
+    }
+
+    private void append(ByteBuffer body) throws IOException {
+        int recordBytes = RECORD_HEADER_BYTES + body.remaining();
+        if (recordBytes >= segmentBytes) {
+            throw new IOException(String.format(
+                    "Record of %d bytes does not fit in a %d byte segment", recordBytes,
+                    segmentBytes));
+        }
+        if (active.buffer.remaining() < recordBytes + Integer.BYTES) {
+            active.buffer.force();
+            active = open(active.sequence + 1);
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(body.duplicate());
+        int start = active.buffer.position();
+        active.buffer.putInt(body.remaining()).putInt((int) crc.getValue()).put(body);
+        active.buffer.force(start, recordBytes);
+    }
+
+    private Segment open(long sequence) throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence,
+                SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Segment segment = new Segment(sequence, file,
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+            segments.put(sequence, segment);
+            return segment;
+        }
+    }
+
+    /**
+     * A completion can only be dropped once the entry it completes has been dropped too, so
+     * segments are only ever deleted from the oldest end.
+     */
+    private void deleteDrainedSegments() throws IOException {
+        Map.Entry<Long, Segment> oldest;
+        while ((oldest = segments.firstEntry()) != null && oldest.getValue() != active
+                && oldest.getValue().live == 0) {
+            segments.remove(oldest.getKey());
+            Files.deleteIfExists(oldest.getValue().file);
+        }
+    }
+
+    private void replay(ByteBuffer buffer, Map<Long, Entry> live) {
+        while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+            int length = buffer.getInt(buffer.position());
+            if (length <= 0 || length > buffer.remaining() - RECORD_HEADER_BYTES) {
+                return;
+            }
+            ByteBuffer body = buffer.slice(buffer.position() + RECORD_HEADER_BYTES, length);
+            CRC32C crc = new CRC32C();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(buffer.position() + Integer.BYTES)) {
+                return;
+            }
+            buffer.position(buffer.position() + RECORD_HEADER_BYTES + length);
+
+            byte type = body.get();
+            long id = body.getLong();
+            nextId = Math.max(nextId, id + 1);
+            if (type == COMPLETE) {
+                live.remove(id);
+            } else if (type == ENQUEUE) {
+                long dueMillis = body.getLong();
+                int attempt = body.getInt();
+                int partition = body.getInt();
+                long offset = body.getLong();
+                String topic = getString(body);
+                String groupId = getString(body);
+                String key = getString(body);
+                byte[] payload = getBytes(body);
+                live.remove(id);
+                live.put(id, new Entry(id, dueMillis, attempt, topic, groupId, key, partition,
+                        offset, payload));
+            }
+        }
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = getBytes(buffer);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static long sequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                    name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException exception) {
+            return 0;
+        }
+    }
+
+    /**
+     * A record waiting to be re-driven.
+     */
+    static final class Entry {
+
+        final long id;
+        final long dueMillis;
+        final int attempt;
+        final String topic;
+        final String groupId;
+        final String key;
+        final int partition;
+        final long offset;
+        final byte[] payload;
+
+        Entry(long id, long dueMillis, int attempt, String topic, String groupId, String key,
+                int partition, long offset, byte[] payload) {
+            this.id = id;
+            this.dueMillis = dueMillis;
+            this.attempt = attempt;
+            this.topic = topic;
+            this.groupId = groupId;
+            this.key = key;
+            this.partition = partition;
+            this.offset = offset;
+            this.payload = payload;
+        }
+
+        /**
+         * The same record after another failed attempt, due again at the given time.
+         */
+        Entry retry(long dueMillis) {
+            return new Entry(id, dueMillis, attempt + 1, topic, groupId, key, partition, offset,
+                    payload);
+        }
+    }
+
+    private static final class Segment {
+
+        private final long sequence;
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private int live;
+
+        private Segment(long sequence, Path file, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.annotation.Order;
+import org.springframework.kafka.support.KafkaUtils;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.config.ListenerAspectOrder;
+import uk.gov.companieshouse.company.links.exception.NotYetDeletedException;
+
+/**
+ * Hands deletes that are not yet deleted to the {@link DeleteRechecker} instead of letting the
+ * listener fail, so the record is rechecked in-process. The record is only acknowledged once
+ * the rechecker has stored it; otherwise the exception is rethrown as before. Records being
+ * re-driven by a retry path are left to that path.
+ */
+@Component
+@Aspect
+@Order(ListenerAspectOrder.DELETE_RECHECK)
+class DeleteRecheckAspect {
+
+    private final DeleteRechecker deleteRechecker;
+    private final ListenerMethods listenerMethods;
+
+    DeleteRecheckAspect(DeleteRechecker deleteRechecker, ListenerMethods listenerMethods) {
+        this.deleteRechecker = deleteRechecker;
+        this.listenerMethods = listenerMethods;
+    }
+
+    @Around("@annotation(org.springframework.kafka.annotation.KafkaListener)")
+    public Object recheckNotYetDeleted(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (listenerMethods.isRedriving()) {
+            return joinPoint.proceed();
+        }
+        try {
+            return joinPoint.proceed();
+        } catch (NotYetDeletedException exception) {
+            Message<?> message = (Message<?>) joinPoint.getArgs()[0];
+            String topic = (String) joinPoint.getArgs()[1];
+            if (deleteRechecker.defer(message, topic, KafkaUtils.getConsumerGroupId(),
+                    exception)) {
+                listenerMethods.markHandedOn();
+                return null;
+            }
+            throw exception;
+        }
+    }
+}
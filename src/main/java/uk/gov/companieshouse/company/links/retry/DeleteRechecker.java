@@ -0,0 +1,264 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.concurrency.CompanyLocks;
+import uk.gov.companieshouse.company.links.exception.NotYetDeletedException;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.serialization.ResourceChangedDataSerializer;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+/**
+ * Rechecks deletes that arrived before the data API had deleted the resource, in-process and
+ * after a short, doubling delay, so most of them finish long before a trip round the retry
+ * topic would. Before a record is taken over it is written to a {@link DelayQueueLog} on local
+ * disk, and the listener only acknowledges the record once it is there. Only a recheck that
+ * runs out of attempts or fails is published through the {@link RetryTopicPublisher}, to be
+ * re-driven by the normal retry and error topic handling.
+ *
+ * <p>The rechecks themselves are only held in memory, so anything still in the log at the next
+ * start is published to the retry path then.</p>
+ *
+ * <p>Each recheck takes a token from the {@link RetryBudget}; while the budget is empty the
+ * recheck is put back for later without using up an attempt.</p>
+ *
+ * <p>Only records read from a main topic are rechecked locally; records already on a retry
+ * topic fail as before so the attempt count on that topic stays meaningful.</p>
+ */
+@Component
+public class DeleteRechecker implements SmartInitializingSingleton, DisposableBean {
+
+    static final String METRIC_NAME = "company.links.delete.recheck";
+
+    private static final String RETRY_SUFFIX = "-retry";
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10L;
+    private static final long PUBLISH_RETRY_DELAY_MS = 30000L;
+
+    private final boolean enabled;
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final int maxAttempts;
+    private final CompanyLocks companyLocks;
+    private final RetryTopicPublisher retryTopicPublisher;
+    private final RetryBudget retryBudget;
+    private final ResourceChangedDataSerializer serializer;
+    private final Logger logger;
+    private final DelayQueueLog log;
+    private final HashedTimingWheel<Runnable> timingWheel;
+    private final ExecutorService executor;
+    private final Counter deferredCounter;
+    private final Counter resolvedCounter;
+    private final Counter expiredCounter;
+    private final Counter failedCounter;
+
+    /**
+     * Construct a delete rechecker.
+     */
+    public DeleteRechecker(
+            @Value("${company-links.consumer.delete-recheck.enable}") boolean enabled,
+            @Value("${company-links.consumer.delete-recheck.initial-delay-ms}")
+                    long initialDelayMs,
+            @Value("${company-links.consumer.delete-recheck.max-delay-ms}") long maxDelayMs,
+            @Value("${company-links.consumer.delete-recheck.max-attempts}") int maxAttempts,
+            @Value("${company-links.consumer.delete-recheck.tick-ms}") long tickMs,
+            @Value("${company-links.consumer.delete-recheck.threads}") int threads,
+            @Value("${company-links.consumer.delete-recheck.path}") String path,
+            @Value("${company-links.consumer.delete-recheck.segment-bytes}") int segmentBytes,
+            CompanyLocks companyLocks, RetryTopicPublisher retryTopicPublisher,
+            RetryBudget retryBudget, ResourceChangedDataSerializer serializer, Logger logger,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.maxAttempts = maxAttempts;
+        this.companyLocks = companyLocks;
+        this.retryTopicPublisher = retryTopicPublisher;
+        this.retryBudget = retryBudget;
+        this.serializer = serializer;
+        this.logger = logger;
+        this.log = enabled ? new DelayQueueLog(Path.of(path), segmentBytes) : null;
+        this.executor = enabled ? Executors.newFixedThreadPool(threads,
+                new CustomizableThreadFactory("delete-recheck-")) : null;
+        this.timingWheel = enabled ? new HashedTimingWheel<>("delete-recheck-wheel-", tickMs,
+                512, task -> executor.execute(task)) : null;
+        this.deferredCounter = meterRegistry.counter(METRIC_NAME, "outcome", "deferred");
+        this.resolvedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "resolved");
+        this.expiredCounter = meterRegistry.counter(METRIC_NAME, "outcome", "expired");
+        this.failedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "failed");
+    }
+
+    /**
+     * Hand whatever was left in the log by the previous run to the retry path, as the rechecks
+     * that held it are gone. Runs before the listener containers start.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!enabled) {
+            return;
+        }
+        List<DelayQueueLog.Entry> recovered;
+        try {
+            recovered = log.recover();
+        } catch (IOException exception) {
+            throw new IllegalStateException("Unable to recover delete rechecks", exception);
+        }
+        recovered.forEach(entry -> timingWheel.schedule(() -> escalate(entry,
+                new NotYetDeletedException("Delete recheck was pending at shutdown", null,
+                        null)), 0L));
+        logger.info(String.format("Recovered %d delete rechecks", recovered.size()),
+                DataMapHolder.getLogMap());
+    }
+
+    /**
+     * Take over a delete that is not yet deleted so the listener can acknowledge the record,
+     * once it is safely in the local log.
+     *
+     * @param message   the record being consumed
+     * @param topic     the topic the record was read from
+     * @param groupId   the consumer group reading the record
+     * @param exception the exception carrying the recheck
+     * @return true if the recheck was scheduled, false if the exception should be rethrown
+     */
+    public boolean defer(Message<?> message, String topic, String groupId,
+            NotYetDeletedException exception) {
+        if (!enabled || exception.getRecheck() == null || StringUtils.isBlank(groupId)
+                || StringUtils.endsWith(topic, RETRY_SUFFIX)
+                || !(message.getPayload() instanceof ResourceChangedData)) {
+            return false;
+        }
+
+        Integer partition = message.getHeaders().get(KafkaHeaders.RECEIVED_PARTITION,
+                Integer.class);
+        Long offset = message.getHeaders().get(KafkaHeaders.OFFSET, Long.class);
+        DelayQueueLog.Entry entry;
+        try {
+            entry = new DelayQueueLog.Entry(log.nextId(),
+                    System.currentTimeMillis() + initialDelayMs, 1, topic, groupId,
+                    message.getHeaders().get(KafkaHeaders.RECEIVED_KEY, String.class),
+                    partition == null ? -1 : partition, offset == null ? -1L : offset,
+                    serializer.serialize(topic, message.getPayload()));
+            log.write(entry);
+        } catch (IOException | RuntimeException writeException) {
+            failedCounter.increment();
+            logger.error(String.format("Unable to store delete recheck from %s", topic),
+                    writeException, DataMapHolder.getLogMap());
+            return false;
+        }
+        timingWheel.schedule(new Recheck(entry, (ResourceChangedData) message.getPayload(),
+                exception), initialDelayMs);
+        deferredCounter.increment();
+        return true;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (timingWheel == null) {
+            return;
+        }
+        // pending rechecks are still in the log and go to the retry path on the next start
+        timingWheel.stop();
+        executor.shutdown();
+        executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        log.close();
+    }
+
+    /**
+     * Publish a delete the local rechecks could not finish to the retry path. A failed publish
+     * is tried again on its own; the entry stays in the log until the broker has the record.
+     */
+    private void escalate(DelayQueueLog.Entry entry, RuntimeException failure) {
+        try {
+            retryTopicPublisher.publish(entry.topic, entry.groupId, entry.key, entry.partition,
+                    entry.offset, entry.payload, failure, maxDelayMs);
+            complete(entry);
+        } catch (ExecutionException | TimeoutException exception) {
+            failedCounter.increment();
+            logger.error(String.format("Unable to publish delete recheck from %s",
+                    entry.topic), exception, DataMapHolder.getLogMap());
+            timingWheel.schedule(() -> escalate(entry, failure), PUBLISH_RETRY_DELAY_MS);
+        } catch (InterruptedException exception) {
+            // only interrupted when shutting down; the log still holds the entry for recovery
+            Thread.currentThread().interrupt();
+            failedCounter.increment();
+        }
+    }
+
+    private void complete(DelayQueueLog.Entry entry) {
+        try {
+            log.complete(entry.id);
+        } catch (IOException exception) {
+            // a restart only publishes a delete that has already been dealt with
+            logger.error("Unable to complete delete recheck", exception,
+                    DataMapHolder.getLogMap());
+        }
+    }
+
+    private final class Recheck implements Runnable {
+
+        private final DelayQueueLog.Entry entry;
+        private final ResourceChangedData payload;
+        private final String companyNumber;
+        private final Runnable check;
+        private final NotYetDeletedException exception;
+        private int attempt = 1;
+
+        private Recheck(DelayQueueLog.Entry entry, ResourceChangedData payload,
+                NotYetDeletedException exception) {
+            this.entry = entry;
+            this.payload = payload;
+            this.companyNumber = exception.getCompanyNumber();
+            this.check = exception.getRecheck();
+            this.exception = exception;
+        }
+
+        @Override
+        public void run() {
+            if (!retryBudget.tryAcquire()) {
+                timingWheel.schedule(this, Math.min(initialDelayMs << attempt, maxDelayMs));
+                return;
+            }
+            DataMapHolder.initialise(payload.getContextId());
+            DataMapHolder.get().companyNumber(companyNumber);
+            try {
+                companyLocks.withLock(companyNumber, check);
+                complete(entry);
+                resolvedCounter.increment();
+            } catch (NotYetDeletedException notYetDeleted) {
+                if (attempt < maxAttempts) {
+                    long delay = Math.min(initialDelayMs << attempt, maxDelayMs);
+                    attempt++;
+                    timingWheel.schedule(this, delay);
+                } else {
+                    expiredCounter.increment();
+                    escalate(entry, exception);
+                }
+            } catch (RuntimeException failure) {
+                failedCounter.increment();
+                logger.errorContext(payload.getContextId(), String.format(
+                        "Delete recheck from %s failed, handing it to the retry topic",
+                        entry.topic),
+                        failure, DataMapHolder.getLogMap());
+                escalate(entry, failure);
+            } finally {
+                DataMapHolder.clear();
+            }
+        }
+    }
+}
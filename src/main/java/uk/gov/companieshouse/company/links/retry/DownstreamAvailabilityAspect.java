@@ -0,0 +1,81 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.kafka.common.TopicPartition;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.annotation.Order;
+import org.springframework.kafka.listener.KafkaBackoffException;
+import org.springframework.kafka.support.KafkaUtils;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.config.ListenerAspectOrder;
+
+/**
+ * Feeds listener outcomes to the {@link DownstreamBreakers} and turns records away while the
+ * breaker for their topic is open, or half open with another record already probing. A record
+ * that is turned away, or that opens the breaker, fails with a {@link KafkaBackoffException},
+ * which the retry topic error handling treats as "seek back and try again later" rather than a
+ * failure, so the record is neither committed nor sent to the retry topic and is read again
+ * once the container is resumed.
+ *
+ * <p>Records being re-driven by a retry path still count towards the breaker but are never
+ * turned away, as there is no offset to seek back to.</p>
+ */
+@Component
+@Aspect
+@Order(ListenerAspectOrder.DOWNSTREAM_AVAILABILITY)
+class DownstreamAvailabilityAspect {
+
+    private static final String RETRY_SUFFIX = "-retry";
+
+    private final DownstreamBreakers downstreamBreakers;
+    private final SharedRetryTopic sharedRetryTopic;
+    private final ListenerMethods listenerMethods;
+
+    DownstreamAvailabilityAspect(DownstreamBreakers downstreamBreakers,
+            SharedRetryTopic sharedRetryTopic, ListenerMethods listenerMethods) {
+        this.downstreamBreakers = downstreamBreakers;
+        this.sharedRetryTopic = sharedRetryTopic;
+        this.listenerMethods = listenerMethods;
+    }
+
+    @Around("@annotation(org.springframework.kafka.annotation.KafkaListener)")
+    public Object guardDownstream(ProceedingJoinPoint joinPoint) throws Throwable {
+        Object[] args = joinPoint.getArgs();
+        String topic = (String) args[1];
+        if (!downstreamBreakers.isEnabled() || sharedRetryTopic.isSharedTopic(topic)) {
+            return joinPoint.proceed();
+        }
+        boolean redriving = listenerMethods.isRedriving();
+        String mainTopic = redriving ? topic : mainTopic(topic);
+        if (!redriving && !downstreamBreakers.tryAttempt(mainTopic)) {
+            throw backoff(mainTopic, topic, (String) args[2]);
+        }
+        try {
+            Object result = joinPoint.proceed();
+            downstreamBreakers.recordSuccess(mainTopic);
+            return result;
+        } catch (RuntimeException exception) {
+            if (downstreamBreakers.recordFailure(mainTopic, exception) && !redriving) {
+                throw backoff(mainTopic, topic, (String) args[2]);
+            }
+            throw exception;
+        }
+    }
+
+    private static String mainTopic(String topic) {
+        String retrySuffix = "-" + KafkaUtils.getConsumerGroupId() + RETRY_SUFFIX;
+        return StringUtils.endsWith(topic, retrySuffix)
+                ? StringUtils.removeEnd(topic, retrySuffix) : topic;
+    }
+
+    private static KafkaBackoffException backoff(String mainTopic, String topic,
+            String partition) {
+        return new KafkaBackoffException(String.format(
+                "Downstream for %s is unavailable", mainTopic),
+                new TopicPartition(topic, NumberUtils.toInt(partition)), mainTopic,
+                System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,288 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import uk.gov.companieshouse.api.error.ApiErrorResponseException;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.logging.Logger;
+
+/**
+ * A circuit breaker per main topic over the downstream APIs its records are linked through.
+ * After a run of failures that show a downstream is unavailable (a 5xx status, or no response
+ * at all) the breaker opens and the listener containers for the topic and its retry topic are
+ * paused, so records stay on the topic instead of being pulled, failed and moved on to the
+ * retry and error topics. A container that reads other topics as well only has the topic's
+ * assigned partitions paused. After the open interval the containers are resumed and one
+ * record at a time is let through as the probe: success closes the breaker, another unavailable
+ * failure opens it again for twice as long, up to a cap. Failures that do not show the
+ * downstream is unavailable are ignored, so they neither count towards opening the breaker nor
+ * close it, and a probe that fails that way lets the next record probe instead.
+ *
+ * <p>Pausing never moves the committed offsets, so consumption carries on from the first
+ * record that was turned away once the downstream recovers.</p>
+ */
+@Component
+public class DownstreamBreakers implements DisposableBean {
+
+    static final String METRIC_NAME = "company.links.downstream.breaker";
+
+    private static final String PAUSE_REASON = "downstream-breaker";
+    private static final String RETRY_SUFFIX = "-retry";
+
+    private final boolean enabled;
+    private final int failureThreshold;
+    private final long openMs;
+    private final long maxOpenMs;
+    private final KafkaListenerEndpointRegistry registry;
+    private final ContainerPauses containerPauses;
+    private final Logger logger;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final Counter openedCounter;
+    private final Counter closedCounter;
+
+    /**
+     * Construct the downstream breakers.
+     */
+    public DownstreamBreakers(
+            @Value("${company-links.consumer.downstream-breaker.enable}") boolean enabled,
+            @Value("${company-links.consumer.downstream-breaker.failure-threshold}")
+                    int failureThreshold,
+            @Value("${company-links.consumer.downstream-breaker.open-ms}") long openMs,
+            @Value("${company-links.consumer.downstream-breaker.max-open-ms}") long maxOpenMs,
+            KafkaListenerEndpointRegistry registry, ContainerPauses containerPauses,
+            Logger logger, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.openMs = openMs;
+        this.maxOpenMs = Math.max(maxOpenMs, openMs);
+        this.registry = registry;
+        this.containerPauses = containerPauses;
+        this.logger = logger;
+        this.meterRegistry = meterRegistry;
+        this.scheduler = enabled ? Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("downstream-breaker-")) : null;
+        this.openedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "opened");
+        this.closedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "closed");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * True while records from the given main topic should not be attempted.
+     */
+    public boolean isOpen(String topic) {
+        Breaker breaker = breakers.get(topic);
+        return breaker != null && breaker.isOpen();
+    }
+
+    /**
+     * Whether a record from the given main topic may be attempted now. While the breaker is
+     * half open only one record at a time is let through, until its outcome is recorded.
+     */
+    public boolean tryAttempt(String topic) {
+        if (!enabled) {
+            return true;
+        }
+        Breaker breaker = breakers.get(topic);
+        return breaker == null || breaker.tryAttempt();
+    }
+
+    /**
+     * Record a record from the given main topic that reached its downstream APIs.
+     */
+    public void recordSuccess(String topic) {
+        if (enabled) {
+            breaker(topic).success();
+        }
+    }
+
+    /**
+     * Record a record from the given main topic that failed.
+     *
+     * @return true if the breaker is now open
+     */
+    public boolean recordFailure(String topic, Throwable failure) {
+        if (!enabled) {
+            return false;
+        }
+        Breaker breaker = breaker(topic);
+        if (!isUnavailable(failure)) {
+            // says nothing about the downstream, so it must not close the breaker either
+            breaker.ignore();
+            return false;
+        }
+        return breaker.failure();
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    static boolean isUnavailable(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ApiErrorResponseException apiError) {
+                return apiError.getStatusCode() == 0 || apiError.getStatusCode() >= 500;
+            }
+            if (cause instanceof HttpStatusCodeException httpError) {
+                return httpError.getStatusCode().is5xxServerError();
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Breaker breaker(String topic) {
+        return breakers.computeIfAbsent(topic, key -> {
+            Breaker breaker = new Breaker(key);
+            meterRegistry.gauge(METRIC_NAME + ".open", Tags.of("topic", key), breaker,
+                    value -> value.isOpen() ? 1.0 : 0.0);
+            return breaker;
+        });
+    }
+
+    private void setContainersPaused(String topic, boolean pause) {
+        for (MessageListenerContainer container : registry.getListenerContainers()) {
+            String[] topics = container.getContainerProperties().getTopics();
+            String retryTopic = topic + "-" + container.getGroupId() + RETRY_SUFFIX;
+            if (topics == null || Arrays.stream(topics).noneMatch(containerTopic ->
+                    containerTopic.equals(topic) || containerTopic.equals(retryTopic))) {
+                continue;
+            }
+            if (Arrays.stream(topics).anyMatch(containerTopic -> !containerTopic.equals(topic)
+                    && !containerTopic.equals(retryTopic))) {
+                // a container reading other topics too only stops reading this one
+                setPartitionsPaused(container, topic, pause);
+            } else if (pause) {
+                containerPauses.pause(container, PAUSE_REASON);
+            } else {
+                containerPauses.resume(container, PAUSE_REASON);
+            }
+        }
+    }
+
+    private static void setPartitionsPaused(MessageListenerContainer container, String topic,
+            boolean pause) {
+        Collection<TopicPartition> partitions = container.getAssignedPartitions();
+        if (partitions == null) {
+            return;
+        }
+        for (TopicPartition partition : partitions) {
+            if (!partition.topic().equals(topic)) {
+                continue;
+            }
+            if (pause) {
+                container.pausePartition(partition);
+            } else {
+                container.resumePartition(partition);
+            }
+        }
+    }
+
+    private enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final class Breaker {
+
+        private final String topic;
+        private State state = State.CLOSED;
+        private int failures;
+        private boolean probing;
+        private long currentOpenMs = openMs;
+
+        private Breaker(String topic) {
+            this.topic = topic;
+        }
+
+        private synchronized boolean isOpen() {
+            return state == State.OPEN;
+        }
+
+        private synchronized boolean tryAttempt() {
+            if (state == State.OPEN || (state == State.HALF_OPEN && probing)) {
+                return false;
+            }
+            probing = state == State.HALF_OPEN;
+            return true;
+        }
+
+        private synchronized void success() {
+            failures = 0;
+            probing = false;
+            if (state == State.HALF_OPEN) {
+                state = State.CLOSED;
+                currentOpenMs = openMs;
+                closedCounter.increment();
+                logger.info(String.format("Downstream for %s has recovered", topic),
+                        DataMapHolder.getLogMap());
+            }
+        }
+
+        private synchronized void ignore() {
+            probing = false;
+        }
+
+        private synchronized boolean failure() {
+            probing = false;
+            if (state == State.OPEN) {
+                return true;
+            }
+            if (state == State.HALF_OPEN) {
+                currentOpenMs = Math.min(currentOpenMs * 2, maxOpenMs);
+                open();
+            } else if (++failures >= failureThreshold) {
+                open();
+            }
+            return state == State.OPEN;
+        }
+
+        private void open() {
+            state = State.OPEN;
+            failures = 0;
+            setContainersPaused(topic, true);
+            scheduler.schedule(this::halfOpen, currentOpenMs, TimeUnit.MILLISECONDS);
+            openedCounter.increment();
+            logger.info(String.format("Downstream for %s is unavailable, pausing consumption "
+                    + "for %d ms", topic, currentOpenMs), DataMapHolder.getLogMap());
+        }
+
+        private synchronized void halfOpen() {
+            try {
+                state = State.HALF_OPEN;
+                probing = false;
+                setContainersPaused(topic, false);
+            } catch (RuntimeException exception) {
+                logger.error(String.format("Unable to resume consumption of %s", topic),
+                        exception, DataMapHolder.getLogMap());
+            }
+        }
+    }
+}
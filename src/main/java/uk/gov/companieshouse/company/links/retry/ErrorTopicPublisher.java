@@ -0,0 +1,63 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes a record whose retries are used up to the consumer's error topic with the same
+ * exception headers the retry topics would add, so the
+ * {@link uk.gov.companieshouse.company.links.exception.RetryableTopicErrorInterceptor} still
+ * moves non-retryable failures on to the invalid topic.
+ */
+@Component
+public class ErrorTopicPublisher {
+
+    private static final String ERROR_SUFFIX = "-error";
+    private static final long PUBLISH_TIMEOUT_SECONDS = 10L;
+
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+
+    ErrorTopicPublisher(KafkaTemplate<String, Object> kafkaTemplate) {
+        this.kafkaTemplate = kafkaTemplate;
+    }
+
+    static String errorTopic(String topic, String groupId) {
+        return topic + "-" + groupId + ERROR_SUFFIX;
+    }
+
+    /**
+     * Publish the record and wait for the broker to acknowledge it.
+     */
+    public void publish(String topic, String groupId, String key, int partition, long offset,
+            Object payload, RuntimeException failure)
+            throws ExecutionException, TimeoutException, InterruptedException {
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(KafkaHeaders.EXCEPTION_FQCN, bytes(failure.getClass().getName()));
+        headers.add(KafkaHeaders.EXCEPTION_CAUSE_FQCN, bytes(failure.getClass().getName()));
+        headers.add(KafkaHeaders.EXCEPTION_MESSAGE,
+                bytes(StringUtils.defaultString(failure.getMessage())));
+        headers.add(KafkaHeaders.EXCEPTION_STACKTRACE,
+                bytes(ExceptionUtils.getStackTrace(failure)));
+        headers.add(KafkaHeaders.ORIGINAL_TOPIC, bytes(topic));
+        headers.add(KafkaHeaders.ORIGINAL_PARTITION,
+                ByteBuffer.allocate(Integer.BYTES).putInt(partition).array());
+        headers.add(KafkaHeaders.ORIGINAL_OFFSET,
+                ByteBuffer.allocate(Long.BYTES).putLong(offset).array());
+        kafkaTemplate.send(new ProducerRecord<>(errorTopic(topic, groupId), null, key, payload,
+                headers)).get(PUBLISH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
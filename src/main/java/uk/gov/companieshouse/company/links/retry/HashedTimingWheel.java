@@ -0,0 +1,123 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * A hashed timing wheel: a ring of buckets advanced by a single thread once per tick. Scheduling
+ * is a queue append and expiry only looks at one bucket per tick, so thousands of short delays
+ * cost far less than a priority queue. Delays are rounded up to the tick.
+ *
+ * @param <T> the scheduled item
+ */
+final class HashedTimingWheel<T> {
+
+    private final long tickNanos;
+    private final List<LinkedList<Timeout<T>>> wheel;
+    private final int mask;
+    private final Queue<Timeout<T>> scheduled = new ConcurrentLinkedQueue<>();
+    private final Consumer<T> expiry;
+    private final Thread worker;
+    private final long startNanos;
+    private volatile boolean running = true;
+    private long tick;
+
+    HashedTimingWheel(String name, long tickMillis, int ticksPerWheel, Consumer<T> expiry) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(Math.max(ticksPerWheel, 2) - 1) << 1;
+        this.wheel = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            wheel.add(new LinkedList<>());
+        }
+        this.mask = size - 1;
+        this.expiry = expiry;
+        this.startNanos = System.nanoTime();
+        this.worker = new CustomizableThreadFactory(name).newThread(this::run);
+        this.worker.start();
+    }
+
+    /**
+     * Schedule an item to be handed to the expiry callback after the delay.
+     */
+    void schedule(T item, long delayMillis) {
+        scheduled.add(new Timeout<>(item,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis)));
+    }
+
+    /**
+     * Stop the wheel.
+     *
+     * @return every item that had not yet expired
+     */
+    List<T> stop() throws InterruptedException {
+        running = false;
+        worker.interrupt();
+        worker.join();
+        List<T> remaining = new ArrayList<>();
+        for (List<Timeout<T>> bucket : wheel) {
+            bucket.forEach(timeout -> remaining.add(timeout.item));
+            bucket.clear();
+        }
+        scheduled.forEach(timeout -> remaining.add(timeout.item));
+        scheduled.clear();
+        return remaining;
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException exception) {
+                    return;
+                }
+            }
+            transferScheduled();
+            expire(wheel.get((int) (tick & mask)));
+            tick++;
+        }
+    }
+
+    private void transferScheduled() {
+        Timeout<T> timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            long ticks = Math.max((timeout.deadlineNanos - startNanos) / tickNanos, tick);
+            timeout.rounds = (ticks - tick) / wheel.size();
+            wheel.get((int) (ticks & mask)).add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout<T>> bucket) {
+        Iterator<Timeout<T>> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout<T> timeout = iterator.next();
+            if (timeout.rounds <= 0) {
+                iterator.remove();
+                expiry.accept(timeout.item);
+            } else {
+                timeout.rounds--;
+            }
+        }
+    }
+
+    private static final class Timeout<T> {
+
+        private final T item;
+        private final long deadlineNanos;
+        private long rounds;
+
+        private Timeout(T item, long deadlineNanos) {
+            this.item = item;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+}
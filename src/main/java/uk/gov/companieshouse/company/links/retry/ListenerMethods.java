@@ -0,0 +1,175 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+/**
+ * Finds the {@link KafkaListener} method for each main topic so a record can be re-driven
+ * through the same consumer, and the same listener aspects, without going back through Kafka.
+ * Only methods with the usual message, topic, partition and offset parameters are used.
+ */
+@Component
+public class ListenerMethods {
+
+    private final ApplicationContext applicationContext;
+    private final ThreadLocal<Boolean> redriving = ThreadLocal.withInitial(() -> false);
+    private final ThreadLocal<Boolean> handedOn = ThreadLocal.withInitial(() -> false);
+    private volatile Map<String, ListenerMethod> listeners;
+
+    public ListenerMethods(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    public boolean hasListener(String topic) {
+        return listeners().containsKey(topic);
+    }
+
+    public Set<String> getTopics() {
+        return listeners().keySet();
+    }
+
+    /**
+     * True while a record is being re-driven on the current thread, so a failure goes back to
+     * whichever retry path is re-driving it rather than being taken over again.
+     */
+    public boolean isRedriving() {
+        return redriving.get();
+    }
+
+    /**
+     * Mark the record being consumed on the current thread as handed on to be processed later,
+     * by a retry path, a delete recheck or a parking topic, rather than processed. Aspects that
+     * remember processed records check this after the listener returns, so a record that is
+     * re-driven later is not mistaken for one already done.
+     */
+    public void markHandedOn() {
+        handedOn.set(true);
+    }
+
+    /**
+     * Forget any earlier hand-on on the current thread, before the rest of the listener chain
+     * is called.
+     */
+    public void clearHandedOn() {
+        handedOn.remove();
+    }
+
+    public boolean isHandedOn() {
+        return handedOn.get();
+    }
+
+    /**
+     * Call the listener for the topic as if the record had just been read from it.
+     */
+    public void invoke(String topic, String key, int partition, long offset,
+            ResourceChangedData payload) {
+        redriving.set(true);
+        try {
+            call(topic, key, partition, offset, payload);
+        } finally {
+            redriving.remove();
+        }
+    }
+
+    /**
+     * Call the listener for the topic with a record read from it by something other than its
+     * own listener container, so the listener aspects treat it as a fresh record and a
+     * failure takes the usual retry path.
+     */
+    public void dispatch(String topic, String key, int partition, long offset,
+            ResourceChangedData payload) {
+        call(topic, key, partition, offset, payload);
+    }
+
+    private void call(String topic, String key, int partition, long offset,
+            ResourceChangedData payload) {
+        ListenerMethod listener = listeners().get(topic);
+        if (listener == null) {
+            throw new NonRetryableErrorException(String.format("No listener for topic %s",
+                    topic));
+        }
+        Message<ResourceChangedData> message = MessageBuilder.withPayload(payload)
+                .setHeader(KafkaHeaders.RECEIVED_KEY, key)
+                .setHeader(KafkaHeaders.RECEIVED_TOPIC, topic)
+                .setHeader(KafkaHeaders.RECEIVED_PARTITION, partition)
+                .setHeader(KafkaHeaders.OFFSET, offset)
+                .build();
+        try {
+            listener.method.invoke(listener.bean, message, topic, String.valueOf(partition),
+                    String.valueOf(offset));
+        } catch (InvocationTargetException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new RetryableErrorException(cause.getMessage(), (Exception) cause);
+        } catch (IllegalAccessException exception) {
+            throw new NonRetryableErrorException(exception.getMessage(), exception);
+        }
+    }
+
+    private Map<String, ListenerMethod> listeners() {
+        Map<String, ListenerMethod> resolved = listeners;
+        if (resolved == null) {
+            synchronized (this) {
+                resolved = listeners;
+                if (resolved == null) {
+                    resolved = resolve();
+                    listeners = resolved;
+                }
+            }
+        }
+        return resolved;
+    }
+
+    private Map<String, ListenerMethod> resolve() {
+        Map<String, ListenerMethod> resolved = new HashMap<>();
+        for (String beanName : applicationContext.getBeanNamesForAnnotation(Component.class)) {
+            Object bean = applicationContext.getBean(beanName);
+            Map<Method, KafkaListener> methods = MethodIntrospector.selectMethods(
+                    AopUtils.getTargetClass(bean),
+                    (MethodIntrospector.MetadataLookup<KafkaListener>) method ->
+                            AnnotatedElementUtils.findMergedAnnotation(method,
+                                    KafkaListener.class));
+            methods.forEach((method, listener) -> {
+                if (method.getParameterCount() == 4) {
+                    for (String topic : listener.topics()) {
+                        resolved.put(applicationContext.getEnvironment()
+                                .resolvePlaceholders(topic), new ListenerMethod(bean,
+                                AopUtils.selectInvocableMethod(method, bean.getClass())));
+                    }
+                }
+            });
+        }
+        return Map.copyOf(resolved);
+    }
+
+    private static final class ListenerMethod {
+
+        private final Object bean;
+        private final Method method;
+
+        private ListenerMethod(Object bean, Method method) {
+            this.bean = bean;
+            this.method = method;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.serialization.ResourceChangedDataDeserializer;
+import uk.gov.companieshouse.company.links.serialization.ResourceChangedDataSerializer;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+/**
+ * An alternative to the retry topics: records that fail on a main topic with a retryable error
+ * are written to a {@link DelayQueueLog} on local disk and re-driven through the same listener
+ * method after the delay set by its {@link RetryPolicies} policy, without another round trip
+ * through Kafka. Once the attempts
+ * are used up, or the record fails with a non-retryable error, it is published to the
+ * consumer's error topic with the usual exception headers, so the
+ * {@link uk.gov.companieshouse.company.links.exception.RetryableTopicErrorInterceptor} still
+ * moves non-retryable failures on to the invalid topic.
+ *
+ * <p>Anything still waiting at shutdown, or when the process dies, stays in the log and is
+ * scheduled again on the next start at its original due time.</p>
+ */
+@Component
+public class LocalRetryQueue implements SmartInitializingSingleton, DisposableBean {
+
+    static final String METRIC_NAME = "company.links.local.retry";
+
+    private static final String RETRY_SUFFIX = "-retry";
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10L;
+    private static final long PUBLISH_RETRY_DELAY_MS = 30000L;
+    private static final long BUDGET_RETRY_DELAY_MS = 1000L;
+
+    private final boolean enabled;
+    private final RetryPolicies retryPolicies;
+    private final RetryBudget retryBudget;
+    private final ListenerMethods listenerMethods;
+    private final ErrorTopicPublisher errorTopicPublisher;
+    private final ResourceChangedDataSerializer serializer;
+    private final ResourceChangedDataDeserializer deserializer;
+    private final Logger logger;
+    private final DelayQueueLog log;
+    private final HashedTimingWheel<Runnable> timingWheel;
+    private final ExecutorService executor;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Counter deferredCounter;
+    private final Counter resolvedCounter;
+    private final Counter rescheduledCounter;
+    private final Counter exhaustedCounter;
+    private final Counter failedCounter;
+
+    /**
+     * Construct the local retry queue.
+     */
+    public LocalRetryQueue(
+            @Value("${company-links.consumer.local-retry.enable}") boolean enabled,
+            @Value("${company-links.consumer.local-retry.path}") String path,
+            @Value("${company-links.consumer.local-retry.segment-bytes}") int segmentBytes,
+            @Value("${company-links.consumer.local-retry.tick-ms}") long tickMs,
+            @Value("${company-links.consumer.local-retry.threads}") int threads,
+            RetryPolicies retryPolicies, RetryBudget retryBudget,
+            ListenerMethods listenerMethods, ErrorTopicPublisher errorTopicPublisher,
+            ResourceChangedDataSerializer serializer,
+            ResourceChangedDataDeserializer deserializer, Logger logger,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.retryPolicies = retryPolicies;
+        this.retryBudget = retryBudget;
+        this.listenerMethods = listenerMethods;
+        this.errorTopicPublisher = errorTopicPublisher;
+        this.serializer = serializer;
+        this.deserializer = deserializer;
+        this.logger = logger;
+        this.log = this.enabled ? new DelayQueueLog(Path.of(path), segmentBytes) : null;
+        this.executor = this.enabled ? Executors.newFixedThreadPool(threads,
+                new CustomizableThreadFactory("local-retry-")) : null;
+        this.timingWheel = this.enabled ? new HashedTimingWheel<>("local-retry-wheel-", tickMs,
+                512, task -> executor.execute(task)) : null;
+        this.deferredCounter = meterRegistry.counter(METRIC_NAME, "outcome", "deferred");
+        this.resolvedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "resolved");
+        this.rescheduledCounter = meterRegistry.counter(METRIC_NAME, "outcome", "rescheduled");
+        this.exhaustedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "exhausted");
+        this.failedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "failed");
+        meterRegistry.gauge(METRIC_NAME + ".pending", pending);
+    }
+
+    /**
+     * Schedule whatever was left in the log by the previous run. Runs before the listener
+     * containers start.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!enabled) {
+            return;
+        }
+        List<DelayQueueLog.Entry> recovered;
+        try {
+            recovered = log.recover();
+        } catch (IOException exception) {
+            throw new IllegalStateException("Unable to recover local retry queue", exception);
+        }
+        long now = System.currentTimeMillis();
+        recovered.forEach(entry -> {
+            pending.incrementAndGet();
+            timingWheel.schedule(() -> redrive(entry), Math.max(entry.dueMillis - now, 0L));
+        });
+        logger.info(String.format("Recovered %d records from local retry queue",
+                recovered.size()), DataMapHolder.getLogMap());
+    }
+
+    /**
+     * Store a record that failed on a main topic so the listener can acknowledge it.
+     *
+     * @param message   the record being consumed
+     * @param topic     the topic the record was read from
+     * @param partition the partition the record was read from
+     * @param offset    the offset of the record
+     * @param groupId   the consumer group reading the record
+     * @param failure   the exception that failed the record
+     * @return true if the record was stored, false if the exception should be rethrown
+     */
+    public boolean defer(Message<?> message, String topic, String partition, String offset,
+            String groupId, RuntimeException failure) {
+        if (!enabled || StringUtils.isBlank(groupId) || StringUtils.endsWith(topic, RETRY_SUFFIX)
+                || !listenerMethods.hasListener(topic)
+                || !(message.getPayload() instanceof ResourceChangedData)) {
+            return false;
+        }
+        RetryPolicies.RetryPolicy policy = retryPolicies.policyFor(topic, failure);
+        if (!policy.canRetry(1)) {
+            return false;
+        }
+
+        long delay = policy.delayFor(1);
+        DelayQueueLog.Entry entry;
+        try {
+            entry = new DelayQueueLog.Entry(log.nextId(),
+                    System.currentTimeMillis() + delay, 1, topic, groupId,
+                    message.getHeaders().get(KafkaHeaders.RECEIVED_KEY, String.class),
+                    Integer.parseInt(partition), Long.parseLong(offset),
+                    serializer.serialize(topic, message.getPayload()));
+            log.write(entry);
+        } catch (IOException | RuntimeException exception) {
+            failedCounter.increment();
+            logger.error("Unable to store record in local retry queue", exception,
+                    DataMapHolder.getLogMap());
+            return false;
+        }
+        pending.incrementAndGet();
+        timingWheel.schedule(() -> redrive(entry), delay);
+        deferredCounter.increment();
+        retryPolicies.recordRetry(topic, policy);
+        return true;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        // anything not yet re-driven is still in the log and is recovered on the next start
+        timingWheel.stop();
+        executor.shutdown();
+        executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        log.close();
+    }
+
+    private void redrive(DelayQueueLog.Entry entry) {
+        if (!retryBudget.tryAcquire()) {
+            // the attempt is not counted, and the log still holds the entry's due time
+            timingWheel.schedule(() -> redrive(entry), BUDGET_RETRY_DELAY_MS);
+            return;
+        }
+        RuntimeException failure;
+        try {
+            listenerMethods.invoke(entry.topic, entry.key, entry.partition, entry.offset,
+                    deserializer.deserialize(entry.topic, entry.payload));
+            complete(entry);
+            resolvedCounter.increment();
+            retryPolicies.recordAttempts(entry.topic, "resolved", entry.attempt + 1);
+            return;
+        } catch (RuntimeException exception) {
+            failure = exception;
+        }
+
+        RetryPolicies.RetryPolicy policy = retryPolicies.policyFor(entry.topic, failure);
+        if (!(failure instanceof NonRetryableErrorException)
+                && policy.canRetry(entry.attempt + 1)) {
+            long delay = policy.delayFor(entry.attempt + 1);
+            reschedule(entry.retry(System.currentTimeMillis() + delay), delay);
+            rescheduledCounter.increment();
+            retryPolicies.recordRetry(entry.topic, policy);
+        } else {
+            publishToErrorTopic(entry, failure);
+        }
+    }
+
+    private void reschedule(DelayQueueLog.Entry entry, long delay) {
+        try {
+            log.write(entry);
+        } catch (IOException exception) {
+            // the earlier copy is still in the log, so a restart only repeats an attempt
+            logger.error("Unable to update record in local retry queue", exception,
+                    DataMapHolder.getLogMap());
+        }
+        timingWheel.schedule(() -> redrive(entry), delay);
+    }
+
+    /**
+     * Publish a record that has used up its attempts. A failed or interrupted publish is retried
+     * on its own rather than running the listener again, unless the queue is shutting down; if
+     * the process stops first, the entry is still in the log with its attempts used up, so it
+     * goes straight back here after one more run.
+     */
+    private void publishToErrorTopic(DelayQueueLog.Entry entry, RuntimeException failure) {
+        try {
+            errorTopicPublisher.publish(entry.topic, entry.groupId, entry.key, entry.partition,
+                    entry.offset, entry.payload, failure);
+            complete(entry);
+            exhaustedCounter.increment();
+            retryPolicies.recordAttempts(entry.topic, "exhausted", entry.attempt + 1);
+        } catch (ExecutionException | TimeoutException exception) {
+            failedCounter.increment();
+            logger.error(String.format("Unable to publish local retry to %s",
+                    ErrorTopicPublisher.errorTopic(entry.topic, entry.groupId)), exception,
+                    DataMapHolder.getLogMap());
+            timingWheel.schedule(() -> publishToErrorTopic(entry, failure),
+                    PUBLISH_RETRY_DELAY_MS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            failedCounter.increment();
+            String errorTopic = ErrorTopicPublisher.errorTopic(entry.topic, entry.groupId);
+            if (executor.isShutdown()) {
+                logger.info(String.format("Interrupted publishing local retry to %s while "
+                        + "shutting down, leaving it in the log for the next start",
+                        errorTopic), DataMapHolder.getLogMap());
+            } else {
+                logger.error(String.format("Interrupted publishing local retry to %s, trying "
+                        + "again", errorTopic), exception, DataMapHolder.getLogMap());
+                timingWheel.schedule(() -> publishToErrorTopic(entry, failure),
+                        PUBLISH_RETRY_DELAY_MS);
+            }
+        }
+    }
+
+    private void complete(DelayQueueLog.Entry entry) {
+        pending.decrementAndGet();
+        try {
+            log.complete(entry.id);
+        } catch (IOException exception) {
+            logger.error("Unable to complete record in local retry queue", exception,
+                    DataMapHolder.getLogMap());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.logging.Logger;
+
+/**
+ * Pauses the retry topic listeners while any main topic listener is lagging, so a retry
+ * backlog drains in the background rather than competing with fresh events. Lag is the
+ * consumers' own {@code records-lag-max} metric, so no extra broker calls are made. The retry
+ * listeners are resumed once the lag falls below a lower threshold, which stops them flapping.
+ *
+ * <p>The retry listeners are also paused while the {@link RetryBudget} is empty, so retry
+ * topic consumption waits for the budget to refill. This applies whenever the budget is
+ * enabled, whether or not the lag thresholds are.</p>
+ */
+@Component
+public class RetryBackpressure implements InitializingBean, DisposableBean {
+
+    static final String METRIC_NAME = "company.links.retry.backpressure";
+
+    private static final String LAG_METRIC = "records-lag-max";
+    private static final String RETRY_SUFFIX = "-retry";
+    private static final String ERROR_SUFFIX = "-error";
+    private static final String PAUSE_REASON = "retry-backpressure";
+
+    private final boolean enabled;
+    private final long pauseLag;
+    private final long resumeLag;
+    private final long intervalMs;
+    private final KafkaListenerEndpointRegistry registry;
+    private final RetryBudget retryBudget;
+    private final ContainerPauses containerPauses;
+    private final Logger logger;
+    private final AtomicLong mainLag = new AtomicLong();
+    private final Counter pausedCounter;
+    private final Counter resumedCounter;
+    private ScheduledExecutorService scheduler;
+    private boolean paused;
+
+    /**
+     * Construct the retry backpressure.
+     */
+    public RetryBackpressure(
+            @Value("${company-links.consumer.retry-backpressure.enable}") boolean enabled,
+            @Value("${company-links.consumer.retry-backpressure.pause-lag}") long pauseLag,
+            @Value("${company-links.consumer.retry-backpressure.resume-lag}") long resumeLag,
+            @Value("${company-links.consumer.retry-backpressure.interval-ms}") long intervalMs,
+            KafkaListenerEndpointRegistry registry, RetryBudget retryBudget,
+            ContainerPauses containerPauses, Logger logger, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.pauseLag = pauseLag;
+        this.resumeLag = Math.min(resumeLag, pauseLag);
+        this.intervalMs = intervalMs;
+        this.registry = registry;
+        this.retryBudget = retryBudget;
+        this.containerPauses = containerPauses;
+        this.logger = logger;
+        this.pausedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "paused");
+        this.resumedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "resumed");
+        meterRegistry.gauge(METRIC_NAME + ".main.lag", mainLag);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled && !retryBudget.isEnabled()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("retry-backpressure-"));
+        scheduler.scheduleWithFixedDelay(this::check, intervalMs, intervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Compare the main topic lag with the thresholds, check the retry budget and pause or
+     * resume the retry listeners.
+     */
+    synchronized void check() {
+        try {
+            long lag = 0;
+            if (enabled) {
+                for (MessageListenerContainer container : registry.getListenerContainers()) {
+                    if (isMainTopic(container) && container.isRunning()) {
+                        lag = Math.max(lag, lagOf(container));
+                    }
+                }
+                mainLag.set(lag);
+            }
+            boolean lagging = enabled && lag > pauseLag;
+            boolean caughtUp = !enabled || lag < resumeLag;
+            boolean budgetExhausted = retryBudget.isExhausted();
+
+            if (!paused && (lagging || budgetExhausted)) {
+                setRetryListenersPaused(true);
+                pausedCounter.increment();
+                logger.info(String.format("Pausing retry listeners, main topic lag is %d%s", lag,
+                        budgetExhausted ? " and the retry budget is exhausted" : ""),
+                        DataMapHolder.getLogMap());
+            } else if (paused && caughtUp && !budgetExhausted) {
+                setRetryListenersPaused(false);
+                resumedCounter.increment();
+                logger.info(String.format("Resuming retry listeners, main topic lag is %d",
+                        lag), DataMapHolder.getLogMap());
+            }
+        } catch (RuntimeException exception) {
+            logger.error("Unable to check main topic lag", exception, DataMapHolder.getLogMap());
+        }
+    }
+
+    private void setRetryListenersPaused(boolean pause) {
+        paused = pause;
+        for (MessageListenerContainer container : registry.getListenerContainers()) {
+            if (!isRetryTopic(container)) {
+                continue;
+            }
+            if (pause) {
+                containerPauses.pause(container, PAUSE_REASON);
+            } else {
+                containerPauses.resume(container, PAUSE_REASON);
+            }
+        }
+    }
+
+    private static long lagOf(MessageListenerContainer container) {
+        long lag = 0;
+        for (Map<MetricName, ? extends Metric> metrics : container.metrics().values()) {
+            for (Map.Entry<MetricName, ? extends Metric> metric : metrics.entrySet()) {
+                if (LAG_METRIC.equals(metric.getKey().name())
+                        && metric.getValue().metricValue() instanceof Double value
+                        && !value.isNaN()) {
+                    lag = Math.max(lag, value.longValue());
+                }
+            }
+        }
+        return lag;
+    }
+
+    private static boolean isMainTopic(MessageListenerContainer container) {
+        String[] topics = container.getContainerProperties().getTopics();
+        return topics != null && Arrays.stream(topics).noneMatch(topic ->
+                topic.endsWith(RETRY_SUFFIX) || topic.endsWith(ERROR_SUFFIX));
+    }
+
+    private static boolean isRetryTopic(MessageListenerContainer container) {
+        String[] topics = container.getContainerProperties().getTopics();
+        return topics != null && Arrays.stream(topics).allMatch(topic ->
+                topic.endsWith(RETRY_SUFFIX));
+    }
+}
@@ -0,0 +1,152 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * An instance-wide budget for retries, shared by every topic, so an outage of a downstream
+ * API cannot turn into a retry storm against it. The budget is a token bucket: each record
+ * that succeeds on a main topic adds a fraction of a token, a slow minimum refill keeps
+ * retries trickling through when nothing is succeeding, and each retry attempt takes a whole
+ * token. Retries are therefore held to a share of the successful throughput.
+ *
+ * <p>When the bucket is empty, retries are deferred rather than attempted: the local retry
+ * queue and the delete rechecker put the record back for later, retry topic listeners wait
+ * briefly for a token, and {@link RetryBackpressure} pauses the retry topic listeners until
+ * the bucket refills.</p>
+ */
+@Component
+public class RetryBudget {
+
+    static final String METRIC_NAME = "company.links.retry.budget";
+
+    private static final long POLL_MS = 100L;
+
+    private final boolean enabled;
+    private final double ratio;
+    private final double minPerSecond;
+    private final double maxTokens;
+    private final long maxWaitMs;
+    private final Counter acquiredCounter;
+    private final Counter deniedCounter;
+    private final Counter depositedCounter;
+    private double tokens;
+    private long refilledAt;
+
+    /**
+     * Construct the retry budget.
+     */
+    public RetryBudget(
+            @Value("${company-links.consumer.retry-budget.enable}") boolean enabled,
+            @Value("${company-links.consumer.retry-budget.ratio}") double ratio,
+            @Value("${company-links.consumer.retry-budget.min-per-second}") double minPerSecond,
+            @Value("${company-links.consumer.retry-budget.max-tokens}") double maxTokens,
+            @Value("${company-links.consumer.retry-budget.max-wait-ms}") long maxWaitMs,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.ratio = ratio;
+        this.minPerSecond = minPerSecond;
+        this.maxTokens = Math.max(maxTokens, 1.0);
+        this.maxWaitMs = maxWaitMs;
+        this.tokens = this.maxTokens;
+        this.refilledAt = System.nanoTime();
+        this.acquiredCounter = meterRegistry.counter(METRIC_NAME, "outcome", "acquired");
+        this.deniedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "denied");
+        this.depositedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "deposited");
+        meterRegistry.gauge(METRIC_NAME + ".tokens", this, RetryBudget::available);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Add to the budget for a record that succeeded at its first attempt.
+     */
+    public void recordSuccess() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            refill();
+            tokens = Math.min(tokens + ratio, maxTokens);
+        }
+        depositedCounter.increment();
+    }
+
+    /**
+     * Take a token for a retry attempt without waiting.
+     *
+     * @return true if the attempt may go ahead, false if it should be deferred
+     */
+    public boolean tryAcquire() {
+        if (!enabled) {
+            return true;
+        }
+        if (take()) {
+            acquiredCounter.increment();
+            return true;
+        }
+        deniedCounter.increment();
+        return false;
+    }
+
+    /**
+     * Take a token for a retry attempt read from a retry topic, waiting up to the configured
+     * time for one. The attempt goes ahead either way once the wait is over, as the record has
+     * already been fetched; {@link RetryBackpressure} stops any more being fetched while the
+     * budget is empty.
+     */
+    public void acquire() {
+        if (!enabled) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + maxWaitMs;
+        while (!take()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                deniedCounter.increment();
+                return;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(Math.min(remaining, POLL_MS));
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                deniedCounter.increment();
+                return;
+            }
+        }
+        acquiredCounter.increment();
+    }
+
+    /**
+     * True while there is not a whole token left for another retry.
+     */
+    public boolean isExhausted() {
+        return enabled && available() < 1.0;
+    }
+
+    synchronized double available() {
+        refill();
+        return tokens;
+    }
+
+    private synchronized boolean take() {
+        refill();
+        if (tokens < 1.0) {
+            return false;
+        }
+        tokens -= 1.0;
+        return true;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double seconds = (now - refilledAt) / (double) TimeUnit.SECONDS.toNanos(1);
+        refilledAt = now;
+        tokens = Math.min(tokens + seconds * minPerSecond, maxTokens);
+    }
+}
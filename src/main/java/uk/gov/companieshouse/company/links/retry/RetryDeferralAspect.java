@@ -0,0 +1,78 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import org.apache.commons.lang3.StringUtils;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.annotation.Order;
+import org.springframework.kafka.listener.KafkaBackoffException;
+import org.springframework.kafka.support.KafkaUtils;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.config.ListenerAspectOrder;
+import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+
+/**
+ * Hands records that fail with a retryable error to the {@link LocalRetryQueue}, or failing
+ * that the {@link SharedRetryTopic}, instead of letting the listener fail and the record go to
+ * the consumer's own retry topic. Ordered outside the {@link DeleteRecheckAspect} so deletes
+ * that are not yet deleted still reach the {@link DeleteRechecker} first.
+ *
+ * <p>Records read from a retry topic take a token from the {@link RetryBudget} before they are
+ * attempted, and records that succeed on a main topic add to it.</p>
+ */
+@Component
+@Aspect
+@Order(ListenerAspectOrder.RETRY_DEFERRAL)
+class RetryDeferralAspect {
+
+    private static final String RETRY_SUFFIX = "-retry";
+
+    private final LocalRetryQueue localRetryQueue;
+    private final SharedRetryTopic sharedRetryTopic;
+    private final ListenerMethods listenerMethods;
+    private final RetryBudget retryBudget;
+
+    RetryDeferralAspect(LocalRetryQueue localRetryQueue, SharedRetryTopic sharedRetryTopic,
+            ListenerMethods listenerMethods, RetryBudget retryBudget) {
+        this.localRetryQueue = localRetryQueue;
+        this.sharedRetryTopic = sharedRetryTopic;
+        this.listenerMethods = listenerMethods;
+        this.retryBudget = retryBudget;
+    }
+
+    @Around("@annotation(org.springframework.kafka.annotation.KafkaListener)")
+    public Object deferRetries(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (listenerMethods.isRedriving()) {
+            return joinPoint.proceed();
+        }
+        Object[] args = joinPoint.getArgs();
+        String topic = (String) args[1];
+        boolean retryTopic = StringUtils.endsWith(topic, RETRY_SUFFIX)
+                || sharedRetryTopic.isSharedTopic(topic);
+        if (retryTopic) {
+            retryBudget.acquire();
+        }
+        try {
+            Object result = joinPoint.proceed();
+            if (!retryTopic) {
+                retryBudget.recordSuccess();
+            }
+            return result;
+        } catch (NonRetryableErrorException | KafkaBackoffException exception) {
+            throw exception;
+        } catch (RuntimeException exception) {
+            Message<?> message = (Message<?>) args[0];
+            String partition = (String) args[2];
+            String offset = (String) args[3];
+            String groupId = KafkaUtils.getConsumerGroupId();
+            if (localRetryQueue.defer(message, topic, partition, offset, groupId, exception)
+                    || sharedRetryTopic.defer(message, topic, partition, offset, groupId,
+                    exception)) {
+                listenerMethods.markHandedOn();
+                return null;
+            }
+            throw exception;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import uk.gov.companieshouse.api.error.ApiErrorResponseException;
+import uk.gov.companieshouse.company.links.exception.NotYetDeletedException;
+
+/**
+ * Exponential, jittered retry policies chosen by the class of error that failed the record.
+ * A server error, a resource that is not yet deleted and a rejected API key settle on very
+ * different timescales, so each gets its own initial delay, multiplier, cap, jitter and number
+ * of attempts.
+ *
+ * <p>Each setting is read from {@code company-links.consumer.retry-policy.<topic>.<class>.*},
+ * falling back to {@code company-links.consumer.retry-policy.<class>.*} and then to the
+ * {@code default} class, so a single stream can be tuned without repeating everything.</p>
+ */
+@Component
+public class RetryPolicies {
+
+    static final String METRIC_NAME = "company.links.retry.attempts";
+    static final String SCHEDULED_METRIC_NAME = "company.links.retry.scheduled";
+
+    private static final String PREFIX = "company-links.consumer.retry-policy.";
+
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, RetryPolicy> policies = new ConcurrentHashMap<>();
+
+    public RetryPolicies(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * The policy for a record from the given main topic that failed with the given error.
+     */
+    public RetryPolicy policyFor(String topic, Throwable failure) {
+        ErrorClass errorClass = classify(failure);
+        return policies.computeIfAbsent(topic + "/" + errorClass.key,
+                key -> new RetryPolicy(errorClass,
+                        setting(topic, errorClass, "initial-delay-ms", Long.class),
+                        setting(topic, errorClass, "multiplier", Double.class),
+                        setting(topic, errorClass, "max-delay-ms", Long.class),
+                        setting(topic, errorClass, "jitter", Double.class),
+                        setting(topic, errorClass, "max-attempts", Integer.class)));
+    }
+
+    /**
+     * Record how many attempts a retried record took and how it ended.
+     *
+     * @param outcome resolved once the record succeeds, exhausted once it goes to the error
+     *                topic
+     */
+    public void recordAttempts(String topic, String outcome, int attempts) {
+        DistributionSummary.builder(METRIC_NAME)
+                .tag("topic", topic)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(attempts);
+    }
+
+    /**
+     * Count a retry scheduled under the given policy.
+     */
+    public void recordRetry(String topic, RetryPolicy policy) {
+        meterRegistry.counter(SCHEDULED_METRIC_NAME, "topic", topic, "error.class",
+                policy.getErrorClass().getKey()).increment();
+    }
+
+    static ErrorClass classify(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NotYetDeletedException) {
+                return ErrorClass.NOT_YET_DELETED;
+            }
+            Integer status = null;
+            if (cause instanceof ApiErrorResponseException apiError) {
+                status = apiError.getStatusCode();
+            } else if (cause instanceof HttpStatusCodeException httpError) {
+                status = httpError.getStatusCode().value();
+            }
+            if (status != null) {
+                if (status == 401 || status == 403) {
+                    return ErrorClass.UNAUTHORISED;
+                }
+                if (status >= 500) {
+                    return ErrorClass.SERVER_ERROR;
+                }
+            }
+        }
+        return ErrorClass.DEFAULT;
+    }
+
+    private <T> T setting(String topic, ErrorClass errorClass, String name, Class<T> type) {
+        T value = environment.getProperty(PREFIX + topic + "." + errorClass.key + "." + name,
+                type);
+        if (value == null) {
+            value = environment.getProperty(PREFIX + errorClass.key + "." + name, type);
+        }
+        if (value == null) {
+            value = environment.getRequiredProperty(PREFIX + ErrorClass.DEFAULT.key + "." + name,
+                    type);
+        }
+        return value;
+    }
+
+    /**
+     * The classes of error a policy can be configured for.
+     */
+    public enum ErrorClass {
+        DEFAULT("default"),
+        SERVER_ERROR("server-error"),
+        NOT_YET_DELETED("not-yet-deleted"),
+        UNAUTHORISED("unauthorised");
+
+        private final String key;
+
+        ErrorClass(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * Backoff and attempt limits for one topic and class of error.
+     */
+    public static final class RetryPolicy {
+
+        private final ErrorClass errorClass;
+        private final long initialDelayMs;
+        private final double multiplier;
+        private final long maxDelayMs;
+        private final double jitter;
+        private final int maxAttempts;
+
+        RetryPolicy(ErrorClass errorClass, long initialDelayMs, double multiplier,
+                long maxDelayMs, double jitter, int maxAttempts) {
+            this.errorClass = errorClass;
+            this.initialDelayMs = initialDelayMs;
+            this.multiplier = multiplier;
+            this.maxDelayMs = maxDelayMs;
+            this.jitter = Math.max(0.0, Math.min(jitter, 1.0));
+            this.maxAttempts = maxAttempts;
+        }
+
+        public ErrorClass getErrorClass() {
+            return errorClass;
+        }
+
+        /**
+         * True if another attempt may be made after the given number of attempts.
+         */
+        public boolean canRetry(int attemptsMade) {
+            return attemptsMade < maxAttempts;
+        }
+
+        /**
+         * The delay before the next attempt, taking off a random share of up to the jitter
+         * fraction so records that failed together do not all come back together.
+         *
+         * @param attemptsMade the number of attempts already made, at least one
+         */
+        public long delayFor(int attemptsMade) {
+            double delay = initialDelayMs * Math.pow(multiplier, Math.max(attemptsMade - 1, 0));
+            long capped = (long) Math.min(delay, maxDelayMs);
+            return capped - (long) (capped * jitter * ThreadLocalRandom.current().nextDouble());
+        }
+    }
+}
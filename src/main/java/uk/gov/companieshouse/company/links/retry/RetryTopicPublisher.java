@@ -0,0 +1,88 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.retrytopic.RetryTopicHeaders;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes a record that failed its first attempt outside its listener container to the
+ * retry path, with the headers the container's own retry handling would add. With the
+ * {@link SharedRetryTopic} enabled the record goes there; otherwise it goes to the consumer's
+ * {@code @RetryableTopic} retry topic with its attempt count and backoff timestamp set, so it
+ * waits out its delay and reaches the error topic once its attempts are used up.
+ */
+@Component
+public class RetryTopicPublisher {
+
+    private static final String RETRY_SUFFIX = "-retry";
+    private static final long PUBLISH_TIMEOUT_SECONDS = 10L;
+    // the first attempt was made on the main topic
+    private static final int NEXT_ATTEMPT = 2;
+
+    private final SharedRetryTopic sharedRetryTopic;
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+
+    RetryTopicPublisher(SharedRetryTopic sharedRetryTopic,
+            KafkaTemplate<String, Object> kafkaTemplate) {
+        this.sharedRetryTopic = sharedRetryTopic;
+        this.kafkaTemplate = kafkaTemplate;
+    }
+
+    static String retryTopic(String topic, String groupId) {
+        return topic + "-" + groupId + RETRY_SUFFIX;
+    }
+
+    /**
+     * Publish the record and wait for the broker to acknowledge it.
+     *
+     * @param topic     the main topic the record was read from
+     * @param groupId   the consumer group reading the record
+     * @param key       the record key
+     * @param partition the partition the record was read from
+     * @param offset    the offset of the record
+     * @param payload   the record value
+     * @param failure   the exception that failed the record
+     * @param delayMs   how long to wait before the record is retried
+     */
+    public void publish(String topic, String groupId, String key, int partition, long offset,
+            Object payload, RuntimeException failure, long delayMs)
+            throws ExecutionException, TimeoutException, InterruptedException {
+        if (sharedRetryTopic.isEnabled()) {
+            sharedRetryTopic.send(payload, key, topic, partition, offset, groupId, 1, delayMs)
+                    .get(PUBLISH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(RetryTopicHeaders.DEFAULT_HEADER_ATTEMPTS,
+                ByteBuffer.allocate(Integer.BYTES).putInt(NEXT_ATTEMPT).array());
+        headers.add(RetryTopicHeaders.DEFAULT_HEADER_BACKOFF_TIMESTAMP,
+                BigInteger.valueOf(now + delayMs).toByteArray());
+        headers.add(RetryTopicHeaders.DEFAULT_HEADER_ORIGINAL_TIMESTAMP,
+                BigInteger.valueOf(now).toByteArray());
+        headers.add(KafkaHeaders.ORIGINAL_TOPIC, bytes(topic));
+        headers.add(KafkaHeaders.ORIGINAL_PARTITION,
+                ByteBuffer.allocate(Integer.BYTES).putInt(partition).array());
+        headers.add(KafkaHeaders.ORIGINAL_OFFSET,
+                ByteBuffer.allocate(Long.BYTES).putLong(offset).array());
+        headers.add(KafkaHeaders.EXCEPTION_FQCN, bytes(failure.getClass().getName()));
+        headers.add(KafkaHeaders.EXCEPTION_MESSAGE,
+                bytes(StringUtils.defaultString(failure.getMessage())));
+        kafkaTemplate.send(new ProducerRecord<>(retryTopic(topic, groupId), null, key, payload,
+                headers)).get(PUBLISH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
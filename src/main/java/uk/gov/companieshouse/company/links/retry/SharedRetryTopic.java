@@ -0,0 +1,281 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.KafkaConsumerBackoffManager;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+/**
+ * One retry topic shared by every link stream, in place of the retry topic each consumer's
+ * {@code @RetryableTopic} creates. Records that fail on a main topic are published here with
+ * headers naming the topic, partition, offset and consumer group they came from, and the
+ * shared retry consumer re-drives them through the listener for that topic. Once the attempts
+ * are used up, or a re-drive fails with a non-retryable error, the record is published to the
+ * original consumer's error topic as before. Delays and attempts come from the
+ * {@link RetryPolicies} policy for the original topic and the error that failed the record.
+ * A record that is not yet due pauses its partition until it is, through the same back off
+ * manager the retry topic containers use, so it is never re-driven early.
+ *
+ * <p>While this is enabled the per-consumer retry containers are not started, which saves a
+ * consumer thread and group membership for each stream.</p>
+ */
+@Component
+public class SharedRetryTopic {
+
+    static final String METRIC_NAME = "company.links.shared.retry";
+    static final String ORIGINAL_TOPIC = "company_links_original_topic";
+    static final String ORIGINAL_PARTITION = "company_links_original_partition";
+    static final String ORIGINAL_OFFSET = "company_links_original_offset";
+    static final String ORIGINAL_GROUP_ID = "company_links_original_group_id";
+    static final String ATTEMPTS = "company_links_attempts";
+    static final String DUE = "company_links_due";
+
+    private static final String RETRY_SUFFIX = "-retry";
+    private static final String LISTENER_ID_SUFFIX = "-consumer";
+    private static final long PUBLISH_TIMEOUT_SECONDS = 10L;
+
+    private final boolean enabled;
+    private final String topic;
+    private final long maxWaitMs;
+    private final RetryPolicies retryPolicies;
+    private final ListenerMethods listenerMethods;
+    private final ErrorTopicPublisher errorTopicPublisher;
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final KafkaConsumerBackoffManager backoffManager;
+    private final Logger logger;
+    private final Counter deferredCounter;
+    private final Counter resolvedCounter;
+    private final Counter retriedCounter;
+    private final Counter exhaustedCounter;
+
+    /**
+     * Construct the shared retry topic. The back off manager is only registered once the retry
+     * topic listeners are processed, so it is looked up on first use.
+     */
+    public SharedRetryTopic(
+            @Value("${company-links.consumer.shared-retry.enable}") boolean enabled,
+            @Value("${company-links.consumer.shared-retry.topic}") String topic,
+            @Value("${company-links.consumer.shared-retry.max-wait-ms}") long maxWaitMs,
+            RetryPolicies retryPolicies, ListenerMethods listenerMethods,
+            ErrorTopicPublisher errorTopicPublisher, KafkaTemplate<String, Object> kafkaTemplate,
+            @Lazy KafkaConsumerBackoffManager backoffManager, Logger logger,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.topic = topic;
+        this.maxWaitMs = maxWaitMs;
+        this.retryPolicies = retryPolicies;
+        this.listenerMethods = listenerMethods;
+        this.errorTopicPublisher = errorTopicPublisher;
+        this.kafkaTemplate = kafkaTemplate;
+        this.backoffManager = backoffManager;
+        this.logger = logger;
+        this.deferredCounter = meterRegistry.counter(METRIC_NAME, "outcome", "deferred");
+        this.resolvedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "resolved");
+        this.retriedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "retried");
+        this.exhaustedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "exhausted");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isSharedTopic(String topic) {
+        return this.topic.equals(topic);
+    }
+
+    /**
+     * Publish a record that failed on a main topic to the shared retry topic so the listener
+     * can acknowledge it.
+     *
+     * @param message   the record being consumed
+     * @param topic     the topic the record was read from
+     * @param partition the partition the record was read from
+     * @param offset    the offset of the record
+     * @param groupId   the consumer group reading the record
+     * @param failure   the exception that failed the record
+     * @return true if the record was published, false if the exception should be rethrown
+     */
+    public boolean defer(Message<?> message, String topic, String partition, String offset,
+            String groupId, RuntimeException failure) {
+        if (!enabled || StringUtils.isBlank(groupId) || this.topic.equals(topic)
+                || StringUtils.endsWith(topic, RETRY_SUFFIX)
+                || !listenerMethods.hasListener(topic)
+                || !(message.getPayload() instanceof ResourceChangedData)) {
+            return false;
+        }
+        RetryPolicies.RetryPolicy policy = retryPolicies.policyFor(topic, failure);
+        if (!policy.canRetry(1)) {
+            return false;
+        }
+        try {
+            send(message.getPayload(),
+                    message.getHeaders().get(KafkaHeaders.RECEIVED_KEY, String.class), topic,
+                    NumberUtils.toInt(partition, -1), NumberUtils.toLong(offset, -1L), groupId, 1,
+                    policy.delayFor(1)).get(PUBLISH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException exception) {
+            logger.error(String.format("Unable to publish record to %s", this.topic), exception,
+                    DataMapHolder.getLogMap());
+            return false;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        deferredCounter.increment();
+        retryPolicies.recordRetry(topic, policy);
+        return true;
+    }
+
+    /**
+     * Re-drive a record read from the shared retry topic through the listener for the topic it
+     * originally came from, once its backoff has passed.
+     *
+     * @param message  the record read from the shared retry topic
+     * @param consumer the consumer that read the record
+     * @throws org.springframework.kafka.listener.KafkaBackoffException if the record is not yet
+     *                                                                  due
+     */
+    public void redrive(Message<ResourceChangedData> message, Consumer<?, ?> consumer) {
+        String originalTopic = header(message, ORIGINAL_TOPIC);
+        String groupId = header(message, ORIGINAL_GROUP_ID);
+        int partition = NumberUtils.toInt(header(message, ORIGINAL_PARTITION), -1);
+        long offset = NumberUtils.toLong(header(message, ORIGINAL_OFFSET), -1L);
+        int attempt = NumberUtils.toInt(header(message, ATTEMPTS), 1) + 1;
+        String key = message.getHeaders().get(KafkaHeaders.RECEIVED_KEY, String.class);
+        if (originalTopic == null || groupId == null) {
+            throw new NonRetryableErrorException(String.format(
+                    "Record on %s has no original topic or consumer group", topic));
+        }
+        awaitDue(message, consumer, NumberUtils.toLong(header(message, DUE), 0L));
+
+        try {
+            listenerMethods.invoke(originalTopic, key, partition, offset, message.getPayload());
+            resolvedCounter.increment();
+            retryPolicies.recordAttempts(originalTopic, "resolved", attempt);
+            return;
+        } catch (NonRetryableErrorException exception) {
+            publishToErrorTopic(originalTopic, groupId, key, partition, offset,
+                    message.getPayload(), exception, attempt);
+        } catch (RuntimeException exception) {
+            RetryPolicies.RetryPolicy policy = retryPolicies.policyFor(originalTopic, exception);
+            if (policy.canRetry(attempt)) {
+                publish(() -> send(message.getPayload(), key, originalTopic, partition, offset,
+                        groupId, attempt, policy.delayFor(attempt))
+                        .get(PUBLISH_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+                retriedCounter.increment();
+                retryPolicies.recordRetry(originalTopic, policy);
+            } else {
+                publishToErrorTopic(originalTopic, groupId, key, partition, offset,
+                        message.getPayload(), exception, attempt);
+            }
+        }
+    }
+
+    /**
+     * Publish a record to the shared retry topic.
+     *
+     * @param attempts the number of attempts already made at the record
+     * @param delayMs  how long to wait before the next attempt
+     */
+    CompletableFuture<SendResult<String, Object>> send(Object payload, String key,
+            String originalTopic, int partition, long offset, String groupId, int attempts,
+            long delayMs) {
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(ORIGINAL_TOPIC, bytes(originalTopic));
+        headers.add(ORIGINAL_PARTITION, bytes(String.valueOf(partition)));
+        headers.add(ORIGINAL_OFFSET, bytes(String.valueOf(offset)));
+        headers.add(ORIGINAL_GROUP_ID, bytes(groupId));
+        headers.add(ATTEMPTS, bytes(String.valueOf(attempts)));
+        headers.add(DUE, bytes(String.valueOf(System.currentTimeMillis() + delayMs)));
+        return kafkaTemplate.send(new ProducerRecord<>(topic, null, key, payload, headers));
+    }
+
+    private void publishToErrorTopic(String originalTopic, String groupId, String key,
+            int partition, long offset, Object payload, RuntimeException failure, int attempts) {
+        publish(() -> errorTopicPublisher.publish(originalTopic, groupId, key, partition, offset,
+                payload, failure));
+        exhaustedCounter.increment();
+        retryPolicies.recordAttempts(originalTopic, "exhausted", attempts);
+    }
+
+    /**
+     * Fails the record so the container redelivers it if the broker does not acknowledge the
+     * send.
+     */
+    private void publish(Publish publish) {
+        try {
+            publish.send();
+        } catch (ExecutionException | TimeoutException exception) {
+            throw new RetryableErrorException("Unable to publish record from shared retry topic",
+                    exception);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new RetryableErrorException("Interrupted publishing record from shared retry "
+                    + "topic", exception);
+        }
+    }
+
+    /**
+     * Waits for the record at the head of the partition to become due. Short waits are slept
+     * out on the consumer thread; anything longer than the maximum wait pauses the partition
+     * until the record is due and seeks back to it, so a long backoff never stalls the
+     * consumer past its poll interval and the record is never re-driven early.
+     */
+    private void awaitDue(Message<?> message, Consumer<?, ?> consumer, long dueMillis) {
+        long wait = dueMillis - System.currentTimeMillis();
+        if (wait > maxWaitMs) {
+            TopicPartition topicPartition = new TopicPartition(
+                    message.getHeaders().get(KafkaHeaders.RECEIVED_TOPIC, String.class),
+                    message.getHeaders().get(KafkaHeaders.RECEIVED_PARTITION, Integer.class));
+            backoffManager.backOffIfNecessary(backoffManager.createContext(dueMillis,
+                    topic + LISTENER_ID_SUFFIX, topicPartition, consumer));
+        } else if (wait > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(wait);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new RetryableErrorException("Interrupted waiting for shared retry record",
+                        exception);
+            }
+        }
+    }
+
+    private static String header(Message<?> message, String name) {
+        Object value = message.getHeaders().get(name);
+        if (value instanceof byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value == null ? null : value.toString();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @FunctionalInterface
+    private interface Publish {
+
+        void send() throws ExecutionException, TimeoutException, InterruptedException;
+    }
+}
@@ -0,0 +1,145 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+/**
+ * Remembers the newest event processed for each resource, so a retried or replayed record that
+ * a newer event for the same resource has already overtaken can be acknowledged without being
+ * processed again. The newer event read the company profile and the resource as they were when
+ * it ran, so nothing the stale one would do is still needed.
+ *
+ * <p>Events are ordered by {@code published_at}, and by original partition and offset when
+ * they were published in the same second. Events without a {@code published_at} that can be
+ * read are never treated as superseded. The resources remembered are bounded, dropping the
+ * least recently used.</p>
+ */
+@Component
+public class Supersession {
+
+    static final String METRIC_NAME = "company.links.supersession";
+
+    private final boolean enabled;
+    private final Map<String, EventPosition> newest;
+    private final Counter supersededCounter;
+    private final Counter recordedCounter;
+
+    /**
+     * Construct the supersession tracker.
+     */
+    public Supersession(@Value("${company-links.consumer.supersession.enable}") boolean enabled,
+            @Value("${company-links.consumer.supersession.max-entries}") int maxEntries,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.newest = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, EventPosition> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.supersededCounter = meterRegistry.counter(METRIC_NAME, "outcome", "superseded");
+        this.recordedCounter = meterRegistry.counter(METRIC_NAME, "outcome", "recorded");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether a newer event for the same resource has already been processed.
+     *
+     * @param payload   the event
+     * @param partition the partition the event was first read from
+     * @param offset    the offset the event was first read from
+     */
+    public boolean isSuperseded(ResourceChangedData payload, int partition, long offset) {
+        EventPosition position = positionOf(payload, partition, offset);
+        if (!enabled || position == null) {
+            return false;
+        }
+        EventPosition processed;
+        synchronized (newest) {
+            processed = newest.get(payload.getResourceUri());
+        }
+        if (processed != null && processed.isAfter(position)) {
+            supersededCounter.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record an event as processed, unless a newer one for the same resource already was.
+     */
+    public void recordProcessed(ResourceChangedData payload, int partition, long offset) {
+        EventPosition position = positionOf(payload, partition, offset);
+        if (!enabled || position == null) {
+            return;
+        }
+        synchronized (newest) {
+            newest.merge(payload.getResourceUri(), position,
+                    (existing, candidate) -> candidate.isAfter(existing) ? candidate : existing);
+        }
+        recordedCounter.increment();
+    }
+
+    static EventPosition positionOf(ResourceChangedData payload, int partition, long offset) {
+        if (payload == null || StringUtils.isBlank(payload.getResourceUri())
+                || payload.getEvent() == null) {
+            return null;
+        }
+        Instant publishedAt = parse(payload.getEvent().getPublishedAt());
+        return publishedAt == null ? null : new EventPosition(publishedAt, partition, offset);
+    }
+
+    private static Instant parse(String publishedAt) {
+        if (StringUtils.isBlank(publishedAt)) {
+            return null;
+        }
+        try {
+            return Instant.parse(publishedAt);
+        } catch (DateTimeParseException exception) {
+            // published_at is usually a UTC date and time without an offset
+        }
+        try {
+            return LocalDateTime.parse(publishedAt).toInstant(ZoneOffset.UTC);
+        } catch (DateTimeParseException exception) {
+            return null;
+        }
+    }
+
+    static final class EventPosition {
+
+        private final Instant publishedAt;
+        private final int partition;
+        private final long offset;
+
+        EventPosition(Instant publishedAt, int partition, long offset) {
+            this.publishedAt = publishedAt;
+            this.partition = partition;
+            this.offset = offset;
+        }
+
+        /**
+         * Whether this event is known to be newer than another. Offsets are only compared
+         * within a partition, and an unknown offset is never newer.
+         */
+        boolean isAfter(EventPosition other) {
+            int compared = publishedAt.compareTo(other.publishedAt);
+            if (compared != 0) {
+                return compared > 0;
+            }
+            return partition == other.partition && offset >= 0 && offset > other.offset;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import java.nio.ByteBuffer;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.annotation.Order;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.config.ListenerAspectOrder;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+/**
+ * Acknowledges retried and replayed records that the {@link Supersession} tracker knows have
+ * been overtaken by a newer event for the same resource, and records every event that is
+ * processed successfully. Events an inner aspect hands on to be processed later are not
+ * recorded until they are processed. Ordered outside the {@link RetryDeferralAspect} so a
+ * superseded record never takes a token from the {@link RetryBudget}.
+ *
+ * <p>Records read from a consumer's retry topic are placed by the original partition and
+ * offset headers the retry topic publisher adds. Records re-driven through
+ * {@link ListenerMethods} already carry their original partition and offset.</p>
+ */
+@Component
+@Aspect
+@Order(ListenerAspectOrder.SUPERSESSION)
+class SupersessionAspect {
+
+    private static final String RETRY_SUFFIX = "-retry";
+
+    private final Supersession supersession;
+    private final SharedRetryTopic sharedRetryTopic;
+    private final ListenerMethods listenerMethods;
+    private final Logger logger;
+
+    SupersessionAspect(Supersession supersession, SharedRetryTopic sharedRetryTopic,
+            ListenerMethods listenerMethods, Logger logger) {
+        this.supersession = supersession;
+        this.sharedRetryTopic = sharedRetryTopic;
+        this.listenerMethods = listenerMethods;
+        this.logger = logger;
+    }
+
+    @Around("@annotation(org.springframework.kafka.annotation.KafkaListener)")
+    public Object skipSuperseded(ProceedingJoinPoint joinPoint) throws Throwable {
+        Object[] args = joinPoint.getArgs();
+        String topic = (String) args[1];
+        Message<?> message = (Message<?>) args[0];
+        if (!supersession.isEnabled() || sharedRetryTopic.isSharedTopic(topic)
+                || !(message.getPayload() instanceof ResourceChangedData payload)) {
+            return joinPoint.proceed();
+        }
+        boolean retryTopic = StringUtils.endsWith(topic, RETRY_SUFFIX);
+        int partition = retryTopic
+                ? (int) header(message, KafkaHeaders.ORIGINAL_PARTITION,
+                        KafkaHeaders.DLT_ORIGINAL_PARTITION)
+                : NumberUtils.toInt((String) args[2], -1);
+        long offset = retryTopic
+                ? header(message, KafkaHeaders.ORIGINAL_OFFSET, KafkaHeaders.DLT_ORIGINAL_OFFSET)
+                : NumberUtils.toLong((String) args[3], -1L);
+
+        if ((retryTopic || listenerMethods.isRedriving())
+                && supersession.isSuperseded(payload, partition, offset)) {
+            logger.info(String.format("Record from topic: %s, partition: %s and offset: %s "
+                    + "with contextId: %s has been superseded by a newer event for %s, "
+                    + "skipping", topic, args[2], args[3], payload.getContextId(),
+                    payload.getResourceUri()), DataMapHolder.getLogMap());
+            return null;
+        }
+        listenerMethods.clearHandedOn();
+        Object result = joinPoint.proceed();
+        // a record handed on to be processed later has not been processed yet
+        if (!listenerMethods.isHandedOn()) {
+            supersession.recordProcessed(payload, partition, offset);
+        }
+        return result;
+    }
+
+    private static long header(Message<?> message, String name, String fallback) {
+        Object value = message.getHeaders().get(name);
+        if (value == null) {
+            value = message.getHeaders().get(fallback);
+        }
+        if (value instanceof Number number) {
+            return number.longValue();
+        }
+        if (value instanceof byte[] bytes) {
+            if (bytes.length == Long.BYTES) {
+                return ByteBuffer.wrap(bytes).getLong();
+            }
+            if (bytes.length == Integer.BYTES) {
+                return ByteBuffer.wrap(bytes).getInt();
+            }
+        }
+        return -1L;
+    }
+}
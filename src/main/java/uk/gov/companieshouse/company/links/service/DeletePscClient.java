@@ -2,7 +2,7 @@ package uk.gov.companieshouse.company.links.service;
 
 import org.springframework.stereotype.Component;
 import uk.gov.companieshouse.api.psc.PscList;
-import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.company.links.exception.NotYetDeletedException;
 import uk.gov.companieshouse.company.links.type.PatchLinkRequest;
 import uk.gov.companieshouse.logging.Logger;
 
@@ -42,8 +42,9 @@ public class DeletePscClient implements LinkClient {
             if (pscList.getItems().stream()
                     .anyMatch(officerSummary -> officerSummary.getLinks().toString()
                             .endsWith(linkRequest.getResourceId()))) {
-                throw new RetryableErrorException(String.format("Psc with id: %s not "
-                        + "deleted", linkRequest.getResourceId()));
+                throw new NotYetDeletedException(String.format("Psc with id: %s not "
+                        + "deleted", linkRequest.getResourceId()),
+                        linkRequest.getCompanyNumber(), () -> patchLink(linkRequest));
             } else {
                 logger.debug(String.format("Psc for company number [%s] still exist",
                         linkRequest.getCompanyNumber()));
@@ -2,7 +2,7 @@ package uk.gov.companieshouse.company.links.service;
 
 import org.springframework.stereotype.Component;
 import uk.gov.companieshouse.api.psc.StatementList;
-import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.company.links.exception.NotYetDeletedException;
 import uk.gov.companieshouse.company.links.logging.DataMapHolder;
 import uk.gov.companieshouse.company.links.type.PatchLinkRequest;
 import uk.gov.companieshouse.logging.Logger;
@@ -45,8 +45,9 @@ public class DeleteStatementsClient implements LinkClient {
             if (statementList.getItems().stream()
                     .anyMatch(officerSummary -> officerSummary.getLinks().getSelf()
                             .endsWith(linkRequest.getResourceId()))) {
-                throw new RetryableErrorException(String.format("Statement with id: %s not "
-                        + "deleted", linkRequest.getResourceId()));
+                throw new NotYetDeletedException(String.format("Statement with id: %s not "
+                        + "deleted", linkRequest.getResourceId()),
+                        linkRequest.getCompanyNumber(), () -> patchLink(linkRequest));
             } else {
                 logger.debug(String.format("Statements for company number [%s] still exist",
                         linkRequest.getCompanyNumber()), DataMapHolder.getLogMap());
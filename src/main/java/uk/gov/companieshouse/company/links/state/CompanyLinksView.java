@@ -0,0 +1,312 @@
+package uk.gov.companieshouse.company.links.state;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.api.company.Data;
+import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.serialization.CompanyProfileDeserializer;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+/**
+ * A local view of the links on every company profile, materialised into the
+ * {@link LinkStateIndex} from the company profile topic, so the sub-resource processors can
+ * skip events whose link is already as it should be without reading the profile from
+ * company-profile-api. A link that does need changing is still changed on a profile read from
+ * company-profile-api, never on the view.
+ *
+ * <p>The view reads every partition of the topic on its own thread, without joining a consumer
+ * group or committing offsets. It carries on from the offsets stored with the last
+ * {@link LinkStateSnapshot}, and only reads a partition from the beginning when there are none.
+ * Until it reaches the end offsets seen at startup only the latest links for each company are
+ * kept, and these are written to the index once it has caught up, or in batches whenever more
+ * than the configured number of companies are waiting, so catching up on a large topic never
+ * holds every company in memory. After that each record is written to the index as it arrives.
+ * Whenever everything read so far is in the index, the offsets are handed to the snapshot.
+ * Lookups on the index are suspended until the view has caught up, and again whenever it has
+ * to restart, so a link changed by another instance is never skipped on a stale entry.</p>
+ *
+ * <p>Links are stamped as verified at the time of the record they came from rather than when
+ * they were read, and records older than the index time to live are not kept at all, so
+ * replaying the topic never makes old links look freshly checked.</p>
+ */
+@Component
+public class CompanyLinksView implements InitializingBean, DisposableBean {
+
+    static final String METRIC_NAME = LinkStateIndex.METRIC_PREFIX + ".view";
+
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(500L);
+    private static final long RESTART_DELAY_MS = 5000L;
+    private static final long SHUTDOWN_TIMEOUT_MS = 30000L;
+    private static final String DELETED_EVENT = "deleted";
+
+    private final boolean enabled;
+    private final String topic;
+    private final String groupId;
+    private final int maxPending;
+    private final ConsumerFactory<String, ResourceChangedData> consumerFactory;
+    private final CompanyProfileDeserializer companyProfileDeserializer;
+    private final LinkStateIndex linkStateIndex;
+    private final LinkStateSnapshot linkStateSnapshot;
+    private final Logger logger;
+    private final Counter appliedCounter;
+    private final Counter skippedCounter;
+    private volatile boolean running;
+    private volatile boolean ready;
+    private volatile Consumer<String, ResourceChangedData> consumer;
+    private Thread thread;
+
+    /**
+     * Construct the company links view.
+     */
+    public CompanyLinksView(
+            @Value("${company-links.consumer.links-view.enable}") boolean enabled,
+            @Value("${company-links.consumer.company-profile.topic}") String topic,
+            @Value("${company-links.consumer.links-view.group-id}") String groupId,
+            @Value("${company-links.consumer.links-view.max-pending}") int maxPending,
+            ConsumerFactory<String, ResourceChangedData> consumerFactory,
+            CompanyProfileDeserializer companyProfileDeserializer,
+            LinkStateIndex linkStateIndex, LinkStateSnapshot linkStateSnapshot, Logger logger,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled && linkStateIndex.isEnabled();
+        this.topic = topic;
+        this.groupId = groupId;
+        this.maxPending = Math.max(maxPending, 1);
+        this.consumerFactory = consumerFactory;
+        this.companyProfileDeserializer = companyProfileDeserializer;
+        this.linkStateIndex = linkStateIndex;
+        this.linkStateSnapshot = linkStateSnapshot;
+        this.logger = logger;
+        this.appliedCounter = meterRegistry.counter(METRIC_NAME + ".records", "outcome",
+                "applied");
+        this.skippedCounter = meterRegistry.counter(METRIC_NAME + ".records", "outcome",
+                "skipped");
+        meterRegistry.gauge(METRIC_NAME + ".ready", this, view -> view.isReady() ? 1.0 : 0.0);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        linkStateIndex.suspendLookups();
+        thread = new CustomizableThreadFactory("links-view-").newThread(this::run);
+        thread.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            Consumer<?, ?> current = consumer;
+            if (current != null) {
+                current.wakeup();
+            }
+            thread.interrupt();
+            thread.join(SHUTDOWN_TIMEOUT_MS);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether the view has caught up with the company profile topic.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    void run() {
+        while (running) {
+            try {
+                materialise();
+            } catch (WakeupException exception) {
+                // shutting down
+            } catch (RuntimeException exception) {
+                ready = false;
+                linkStateIndex.suspendLookups();
+                logger.error(String.format("Company links view of %s failed, restarting in "
+                        + "%d ms", topic, RESTART_DELAY_MS), exception,
+                        DataMapHolder.getLogMap());
+                pause();
+            }
+        }
+        ready = false;
+    }
+
+    private void materialise() {
+        try (Consumer<String, ResourceChangedData> current =
+                consumerFactory.createConsumer(groupId, "links-view-", null)) {
+            consumer = current;
+            if (!running) {
+                return;
+            }
+            List<TopicPartition> partitions = current.partitionsFor(topic).stream()
+                    .map(partition -> new TopicPartition(topic, partition.partition()))
+                    .toList();
+            current.assign(partitions);
+            int resumed = seek(current, partitions);
+            Map<TopicPartition, Long> endOffsets = current.endOffsets(partitions);
+            Map<String, PendingLinks> pending = new HashMap<>();
+            logger.info(String.format("Materialising company links view from %d partitions"
+                    + " of %s, %d carried on from stored offsets", partitions.size(), topic,
+                    resumed), DataMapHolder.getLogMap());
+
+            while (running) {
+                for (ConsumerRecord<String, ResourceChangedData> record
+                        : current.poll(POLL_TIMEOUT)) {
+                    apply(record, pending);
+                }
+                if (!ready && isCaughtUp(current, endOffsets)) {
+                    logger.info(String.format("Company links view caught up with %s after "
+                            + "%d companies", topic, pending.size()), DataMapHolder.getLogMap());
+                    flush(pending);
+                    ready = true;
+                    linkStateIndex.resumeLookups();
+                } else if (pending.size() > maxPending) {
+                    logger.info(String.format("Company links view writing %d companies to the "
+                            + "index while catching up with %s", pending.size(), topic),
+                            DataMapHolder.getLogMap());
+                    flush(pending);
+                }
+                if (pending.isEmpty()) {
+                    // everything read so far is in the index
+                    recordOffsets(current, partitions);
+                }
+            }
+        } finally {
+            consumer = null;
+        }
+    }
+
+    private void apply(ConsumerRecord<String, ResourceChangedData> record,
+            Map<String, PendingLinks> pending) {
+        ResourceChangedData payload = record.value();
+        if (payload == null || StringUtils.isBlank(payload.getResourceId())
+                || record.timestamp() < 0) {
+            skippedCounter.increment();
+            return;
+        }
+        long verifiedEpochSeconds = TimeUnit.MILLISECONDS.toSeconds(record.timestamp());
+        if (!linkStateIndex.isFresh(verifiedEpochSeconds)) {
+            // anything kept for the company so far is older still
+            pending.remove(payload.getResourceId());
+            skippedCounter.increment();
+            return;
+        }
+        Data data;
+        if (payload.getEvent() != null
+                && DELETED_EVENT.equals(payload.getEvent().getType())) {
+            data = new Data();
+        } else {
+            try {
+                data = companyProfileDeserializer.deserialiseCompanyData(payload.getData());
+            } catch (NonRetryableErrorException exception) {
+                skippedCounter.increment();
+                return;
+            }
+            if (data == null) {
+                skippedCounter.increment();
+                return;
+            }
+            // the index only needs the links, so keep nothing else while catching up
+            Data links = new Data();
+            links.setLinks(data.getLinks());
+            data = links;
+        }
+        appliedCounter.increment();
+        if (ready) {
+            linkStateIndex.recordLinks(payload.getResourceId(), data, verifiedEpochSeconds);
+        } else {
+            pending.put(payload.getResourceId(), new PendingLinks(data, verifiedEpochSeconds));
+        }
+    }
+
+    /**
+     * Seek each partition to its stored offset, or to the beginning if it has none.
+     *
+     * @return the number of partitions carried on from a stored offset
+     */
+    private int seek(Consumer<?, ?> current, List<TopicPartition> partitions) {
+        Map<Integer, Long> offsets = linkStateSnapshot.getProfileOffsets();
+        List<TopicPartition> fromBeginning = new ArrayList<>();
+        for (TopicPartition partition : partitions) {
+            Long offset = offsets.get(partition.partition());
+            if (offset == null) {
+                fromBeginning.add(partition);
+            } else {
+                current.seek(partition, offset);
+            }
+        }
+        if (!fromBeginning.isEmpty()) {
+            // an empty list would seek every assigned partition
+            current.seekToBeginning(fromBeginning);
+        }
+        return partitions.size() - fromBeginning.size();
+    }
+
+    private void recordOffsets(Consumer<?, ?> current, List<TopicPartition> partitions) {
+        Map<Integer, Long> offsets = new HashMap<>();
+        for (TopicPartition partition : partitions) {
+            offsets.put(partition.partition(), current.position(partition));
+        }
+        linkStateSnapshot.recordProfileOffsets(offsets);
+    }
+
+    private void flush(Map<String, PendingLinks> pending) {
+        pending.forEach((companyNumber, links) -> linkStateIndex.recordLinks(companyNumber,
+                links.data, links.verifiedEpochSeconds));
+        pending.clear();
+    }
+
+    private static boolean isCaughtUp(Consumer<?, ?> current,
+            Map<TopicPartition, Long> endOffsets) {
+        for (Map.Entry<TopicPartition, Long> entry : endOffsets.entrySet()) {
+            if (current.position(entry.getKey()) < entry.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void pause() {
+        try {
+            TimeUnit.MILLISECONDS.sleep(RESTART_DELAY_MS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private static final class PendingLinks {
+
+        private final Data data;
+        private final long verifiedEpochSeconds;
+
+        private PendingLinks(Data data, long verifiedEpochSeconds) {
+            this.data = data;
+            this.verifiedEpochSeconds = verifiedEpochSeconds;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package uk.gov.companieshouse.company.links.state;
+
+/**
+ * What the link state index knows about a single link on a company profile.
+ */
+public enum LinkState {
+    PRESENT,
+    ABSENT,
+    UNKNOWN
+}
@@ -0,0 +1,379 @@
+package uk.gov.companieshouse.company.links.state;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongSupplier;
+import java.util.function.LongUnaryOperator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.api.company.CompanyProfile;
+import uk.gov.companieshouse.api.company.Data;
+import uk.gov.companieshouse.company.links.type.LinkPatch;
+import uk.gov.companieshouse.company.links.type.LinkType;
+
+/**
+ * An off-heap index of what is known about the links on each company profile, so that
+ * decisions which only depend on whether a link is already present can be made without a
+ * round-trip to company-profile-api.
+ *
+ * <p>Company numbers are packed into a long (six bits per character) and used as keys in an
+ * open-addressed, linearly probed table held in a direct buffer. Each slot is two longs: the
+ * packed company number and a value holding a known mask, a present mask (one bit per
+ * {@link LinkType}) and the epoch second the profile was last verified. Entries older than the
+ * configured time to live are reported as {@link LinkState#UNKNOWN}. The table does not grow;
+ * once it reaches its load limit new companies are not indexed.</p>
+ *
+ * <p>Other instances change profiles this instance never hears about except through the
+ * company profile topic, so while the {@link CompanyLinksView} is behind that topic every
+ * lookup is reported as {@link LinkState#UNKNOWN}, however fresh the entry looks.</p>
+ */
+@Component
+public class LinkStateIndex {
+
+    static final String METRIC_PREFIX = "company.links.state";
+    static final int SLOT_BYTES = 16;
+
+    private static final double MAX_LOAD = 0.75;
+    private static final int MAX_CAPACITY = 1 << 26;
+    private static final int MAX_PACKED_LENGTH = 10;
+    private static final long EMPTY = 0L;
+    private static final long TYPE_MASK = (1L << LinkType.values().length) - 1;
+    private static final int PRESENT_SHIFT = 8;
+    private static final int VERIFIED_SHIFT = 32;
+
+    private final boolean enabled;
+    private final long ttlSeconds;
+    private final LongSupplier epochSeconds;
+    private final ByteBuffer table;
+    private final int mask;
+    private final int maxSize;
+    private final StampedLock lock = new StampedLock();
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter staleCounter;
+    private final Counter suspendedCounter;
+    private final Counter fullCounter;
+    private int size;
+    private volatile boolean suspended;
+
+    /**
+     * Construct the link state index.
+     */
+    public LinkStateIndex(
+            @Value("${company-links.consumer.link-state.enable}") boolean enabled,
+            @Value("${company-links.consumer.link-state.expected-companies}")
+                    int expectedCompanies,
+            @Value("${company-links.consumer.link-state.ttl-seconds}") long ttlSeconds,
+            MeterRegistry meterRegistry) {
+        this(enabled, expectedCompanies, ttlSeconds, meterRegistry,
+                () -> System.currentTimeMillis() / 1000L);
+    }
+
+    LinkStateIndex(boolean enabled, int expectedCompanies, long ttlSeconds,
+            MeterRegistry meterRegistry, LongSupplier epochSeconds) {
+        this.enabled = enabled;
+        this.ttlSeconds = ttlSeconds;
+        this.epochSeconds = epochSeconds;
+        int capacity = enabled ? capacityFor(expectedCompanies) : 1;
+        this.table = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+        this.mask = capacity - 1;
+        this.maxSize = (int) (capacity * MAX_LOAD);
+        this.hitCounter = meterRegistry.counter(METRIC_PREFIX + ".lookup", "outcome", "hit");
+        this.missCounter = meterRegistry.counter(METRIC_PREFIX + ".lookup", "outcome", "miss");
+        this.staleCounter = meterRegistry.counter(METRIC_PREFIX + ".lookup", "outcome", "stale");
+        this.suspendedCounter = meterRegistry.counter(METRIC_PREFIX + ".lookup", "outcome",
+                "suspended");
+        this.fullCounter = meterRegistry.counter(METRIC_PREFIX + ".full");
+        meterRegistry.gauge(METRIC_PREFIX + ".size", this, LinkStateIndex::size);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Look up whether a company profile is known to carry a link.
+     *
+     * @param companyNumber the company's company number
+     * @param type          the link to look up
+     * @return PRESENT or ABSENT if the link was verified within the time to live and lookups
+     *         are not suspended, else UNKNOWN
+     */
+    public LinkState getLinkState(String companyNumber, LinkType type) {
+        long key = pack(companyNumber);
+        if (!enabled || key == EMPTY) {
+            return LinkState.UNKNOWN;
+        }
+        if (suspended) {
+            suspendedCounter.increment();
+            return LinkState.UNKNOWN;
+        }
+
+        long value = read(key);
+        long bit = 1L << type.ordinal();
+        if ((value & bit) == 0) {
+            missCounter.increment();
+            return LinkState.UNKNOWN;
+        }
+        if (!isFresh(value >>> VERIFIED_SHIFT)) {
+            staleCounter.increment();
+            return LinkState.UNKNOWN;
+        }
+        hitCounter.increment();
+        return ((value >>> PRESENT_SHIFT) & bit) != 0 ? LinkState.PRESENT : LinkState.ABSENT;
+    }
+
+    /**
+     * Record every link on a company profile returned by company-profile-api.
+     */
+    public void recordProfile(String companyNumber, CompanyProfile companyProfile) {
+        if (companyProfile != null) {
+            recordLinks(companyNumber, companyProfile.getData());
+        }
+    }
+
+    /**
+     * Record every link on a company profile, replacing anything known about it before.
+     */
+    public void recordLinks(String companyNumber, Data data) {
+        recordLinks(companyNumber, data, epochSeconds.getAsLong());
+    }
+
+    /**
+     * Record every link on a company profile as it was at the given time, replacing anything
+     * known about it before unless that was verified later.
+     */
+    void recordLinks(String companyNumber, Data data, long verifiedEpochSeconds) {
+        if (data == null) {
+            return;
+        }
+        long present = 0;
+        for (LinkType type : LinkType.values()) {
+            if (type.getLink(data.getLinks()) != null) {
+                present |= 1L << type.ordinal();
+            }
+        }
+        long value = encode(TYPE_MASK, present, verifiedEpochSeconds);
+        update(companyNumber, existing -> existing != EMPTY
+                && (existing >>> VERIFIED_SHIFT) > verifiedEpochSeconds ? existing : value);
+    }
+
+    /**
+     * Record the links changed by a successful PATCH.
+     */
+    public void recordPatch(String companyNumber, LinkPatch linkPatch) {
+        linkPatch.getLinks().forEach((type, link) ->
+                recordLink(companyNumber, type, link != null));
+    }
+
+    /**
+     * Record a single link as present or absent. The verified time is only set if nothing else
+     * is known about the company, so a single link never freshens the rest of the entry.
+     */
+    public void recordLink(String companyNumber, LinkType type, boolean present) {
+        long bit = 1L << type.ordinal();
+        update(companyNumber, existing -> {
+            long known = existing & TYPE_MASK;
+            long presentMask = (existing >>> PRESENT_SHIFT) & TYPE_MASK;
+            long verified = known == 0 ? epochSeconds.getAsLong() : existing >>> VERIFIED_SHIFT;
+            presentMask = present ? presentMask | bit : presentMask & ~bit;
+            return encode(known | bit, presentMask, verified);
+        });
+    }
+
+    /**
+     * Forget a link whose state after a request is not known.
+     */
+    public void forgetLink(String companyNumber, LinkType type) {
+        long bit = 1L << type.ordinal();
+        update(companyNumber, existing -> existing & ~bit);
+    }
+
+    /**
+     * The number of companies held in the index.
+     */
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Report every link as unknown until {@link #resumeLookups()}, while changes made elsewhere
+     * may not have reached the index. Entries are still recorded in the meantime.
+     */
+    void suspendLookups() {
+        suspended = true;
+    }
+
+    void resumeLookups() {
+        suspended = false;
+    }
+
+    /**
+     * Whether something verified at the given time is still within the time to live.
+     */
+    boolean isFresh(long verifiedEpochSeconds) {
+        return epochSeconds.getAsLong() - verifiedEpochSeconds <= ttlSeconds;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Copy the raw table into the target buffer, which must have room for capacity slots.
+     *
+     * @return the number of companies copied
+     */
+    int copyTo(ByteBuffer target) {
+        long stamp = lock.readLock();
+        try {
+            target.put(table.duplicate().clear());
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Replace the table with a raw copy previously taken by {@link #copyTo(ByteBuffer)} from an
+     * index of the same capacity. The companies are counted from the occupied slots, so the
+     * load limit holds whatever the copy claims to contain.
+     *
+     * @return the number of companies copied
+     */
+    int copyFrom(ByteBuffer source) {
+        long stamp = lock.writeLock();
+        try {
+            table.clear();
+            table.put(source);
+            table.clear();
+            int occupied = 0;
+            for (int slot = 0; slot <= mask; slot++) {
+                if (table.getLong(slot * SLOT_BYTES) != EMPTY) {
+                    occupied++;
+                }
+            }
+            size = occupied;
+            return occupied;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private long read(long key) {
+        long stamp = lock.tryOptimisticRead();
+        long value = find(key);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                value = find(key);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+
+    private long find(long key) {
+        int slot = slotFor(key);
+        for (int probes = 0; probes <= mask; probes++) {
+            long current = table.getLong(slot * SLOT_BYTES);
+            if (current == key) {
+                return table.getLong(slot * SLOT_BYTES + Long.BYTES);
+            }
+            if (current == EMPTY) {
+                return 0L;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0L;
+    }
+
+    private void update(String companyNumber, LongUnaryOperator change) {
+        long key = pack(companyNumber);
+        if (!enabled || key == EMPTY) {
+            return;
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotFor(key);
+            long current = table.getLong(slot * SLOT_BYTES);
+            int probes = 0;
+            while (current != key && current != EMPTY) {
+                if (++probes > mask) {
+                    // every slot is taken, which the load limit should never allow
+                    fullCounter.increment();
+                    return;
+                }
+                slot = (slot + 1) & mask;
+                current = table.getLong(slot * SLOT_BYTES);
+            }
+            if (current == EMPTY) {
+                if (size >= maxSize) {
+                    fullCounter.increment();
+                    return;
+                }
+                table.putLong(slot * SLOT_BYTES + Long.BYTES, change.applyAsLong(0L));
+                table.putLong(slot * SLOT_BYTES, key);
+                size++;
+            } else {
+                int valueOffset = slot * SLOT_BYTES + Long.BYTES;
+                table.putLong(valueOffset, change.applyAsLong(table.getLong(valueOffset)));
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private int slotFor(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static long encode(long known, long present, long verified) {
+        return (verified << VERIFIED_SHIFT) | (present << PRESENT_SHIFT) | known;
+    }
+
+    /**
+     * Pack a company number of up to ten upper case letters and digits into a long, six bits to
+     * a character. Every character encodes as non-zero so the result is unique and never zero;
+     * anything that cannot be packed returns zero and is not indexed.
+     */
+    static long pack(String companyNumber) {
+        if (companyNumber == null || companyNumber.isEmpty()
+                || companyNumber.length() > MAX_PACKED_LENGTH) {
+            return EMPTY;
+        }
+        long key = 0;
+        for (int i = 0; i < companyNumber.length(); i++) {
+            char character = companyNumber.charAt(i);
+            int code;
+            if (character >= '0' && character <= '9') {
+                code = character - '0' + 1;
+            } else if (character >= 'A' && character <= 'Z') {
+                code = character - 'A' + 11;
+            } else {
+                return EMPTY;
+            }
+            key = (key << 6) | code;
+        }
+        return key;
+    }
+
+    private static int capacityFor(int expectedCompanies) {
+        long required = (long) Math.ceil(Math.max(expectedCompanies, 1) / MAX_LOAD);
+        int capacity = 1;
+        while (capacity < required && capacity < MAX_CAPACITY) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
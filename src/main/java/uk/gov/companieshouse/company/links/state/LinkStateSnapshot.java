@@ -0,0 +1,257 @@
+package uk.gov.companieshouse.company.links.state;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.logging.DataMapHolder;
+import uk.gov.companieshouse.company.links.type.LinkType;
+import uk.gov.companieshouse.logging.Logger;
+
+/**
+ * Periodically writes the raw {@link LinkStateIndex} table to a memory-mapped file and copies
+ * it back on startup, so a restarted consumer keeps what it knew before the deploy.
+ *
+ * <p>The file is a fixed header followed by the table exactly as it is held off-heap, so
+ * loading is a checksum and a bulk copy. The checksum covers the header as well as the table,
+ * and the companies are recounted from the occupied slots rather than taken from the header.
+ * A snapshot with the wrong magic number, version, table shape or checksum is ignored and the
+ * index starts empty. Entries keep their verified time, so anything older than the index time
+ * to live is still treated as unknown.</p>
+ *
+ * <p>The company profile topic offsets the index was up to date with are written next to the
+ * snapshot, so the {@link CompanyLinksView} can carry on from there instead of reading the
+ * topic from the beginning. They are taken before the table is copied and written after it
+ * has been moved into place, so the offsets loaded never run ahead of the table, and they are
+ * only used when the table itself was loaded.</p>
+ */
+@Component
+public class LinkStateSnapshot implements InitializingBean, DisposableBean {
+
+    static final int MAGIC = 0x434C5349;
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 32;
+    static final int CHECKSUM_OFFSET = 24;
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30L;
+
+    private final boolean enabled;
+    private final Path path;
+    private final long intervalSeconds;
+    private final LinkStateIndex linkStateIndex;
+    private final Logger logger;
+    private final Counter loadedCounter;
+    private final Counter rejectedCounter;
+    private final Counter writtenCounter;
+    private final Counter failedCounter;
+    private final Path offsetsPath;
+    private volatile Map<Integer, Long> profileOffsets = Map.of();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Construct the link state snapshot.
+     */
+    public LinkStateSnapshot(
+            @Value("${company-links.consumer.link-state.snapshot.enable}") boolean enabled,
+            @Value("${company-links.consumer.link-state.snapshot.path}") String path,
+            @Value("${company-links.consumer.link-state.snapshot.interval-seconds}")
+                    long intervalSeconds,
+            LinkStateIndex linkStateIndex, Logger logger, MeterRegistry meterRegistry) {
+        this.enabled = enabled && linkStateIndex.isEnabled();
+        this.path = Path.of(path);
+        this.offsetsPath = this.path.resolveSibling(this.path.getFileName() + ".offsets");
+        this.intervalSeconds = intervalSeconds;
+        this.linkStateIndex = linkStateIndex;
+        this.logger = logger;
+        String metricName = LinkStateIndex.METRIC_PREFIX + ".snapshot";
+        this.loadedCounter = meterRegistry.counter(metricName, "outcome", "loaded");
+        this.rejectedCounter = meterRegistry.counter(metricName, "outcome", "rejected");
+        this.writtenCounter = meterRegistry.counter(metricName, "outcome", "written");
+        this.failedCounter = meterRegistry.counter(metricName, "outcome", "failed");
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        load();
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("link-state-snapshot-"));
+        scheduler.scheduleWithFixedDelay(this::write, intervalSeconds, intervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            write();
+        }
+    }
+
+    /**
+     * The company profile topic offset for each partition that the index is up to date with.
+     */
+    public Map<Integer, Long> getProfileOffsets() {
+        return profileOffsets;
+    }
+
+    /**
+     * Record the company profile topic offsets the index is now up to date with, to be written
+     * with the next snapshot. Every record before them must already be in the index.
+     */
+    public void recordProfileOffsets(Map<Integer, Long> offsets) {
+        profileOffsets = Map.copyOf(offsets);
+    }
+
+    /**
+     * Copy a valid snapshot into the index.
+     *
+     * @return true if a snapshot was loaded
+     */
+    boolean load() {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        long tableBytes = (long) linkStateIndex.capacity() * LinkStateIndex.SLOT_BYTES;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() != HEADER_BYTES + tableBytes) {
+                return reject("unexpected size " + channel.size());
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+                return reject("unknown format");
+            }
+            if (mapped.getInt(8) != linkStateIndex.capacity()
+                    || mapped.getInt(12) != LinkType.values().length) {
+                return reject("different table shape");
+            }
+            ByteBuffer table = mapped.slice(HEADER_BYTES, (int) tableBytes);
+            if (mapped.getLong(CHECKSUM_OFFSET) != checksum(mapped, table.duplicate())) {
+                return reject("checksum mismatch");
+            }
+            int size = linkStateIndex.copyFrom(table);
+            profileOffsets = readOffsets();
+            loadedCounter.increment();
+            logger.info(String.format("Loaded %d companies from link state snapshot %s",
+                    size, path), DataMapHolder.getLogMap());
+            return true;
+        } catch (IOException exception) {
+            failedCounter.increment();
+            logger.error(String.format("Unable to read link state snapshot %s", path),
+                    exception, DataMapHolder.getLogMap());
+            return false;
+        }
+    }
+
+    /**
+     * Write the index to a temporary file and move it over the previous snapshot, so a crash
+     * part way through never leaves a torn snapshot behind.
+     */
+    void write() {
+        // taken before the table, so the table holds at least everything before them
+        Map<Integer, Long> offsets = profileOffsets;
+        long tableBytes = (long) linkStateIndex.capacity() * LinkStateIndex.SLOT_BYTES;
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        HEADER_BYTES + tableBytes);
+                ByteBuffer table = mapped.slice(HEADER_BYTES, (int) tableBytes);
+                int size = linkStateIndex.copyTo(table.duplicate());
+                mapped.putInt(0, MAGIC);
+                mapped.putInt(4, VERSION);
+                mapped.putInt(8, linkStateIndex.capacity());
+                mapped.putInt(12, LinkType.values().length);
+                mapped.putInt(16, size);
+                mapped.putLong(CHECKSUM_OFFSET, checksum(mapped, table));
+                mapped.force();
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            writeOffsets(offsets);
+            writtenCounter.increment();
+        } catch (IOException exception) {
+            failedCounter.increment();
+            logger.error(String.format("Unable to write link state snapshot %s", path),
+                    exception, DataMapHolder.getLogMap());
+        }
+    }
+
+    private Map<Integer, Long> readOffsets() {
+        if (!Files.isRegularFile(offsetsPath)) {
+            return Map.of();
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(offsetsPath, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException exception) {
+            // the view reads the topic from the beginning instead
+            logger.error(String.format("Unable to read company profile offsets %s",
+                    offsetsPath), exception, DataMapHolder.getLogMap());
+            return Map.of();
+        }
+        Map<Integer, Long> offsets = new HashMap<>();
+        for (String partition : properties.stringPropertyNames()) {
+            int number = NumberUtils.toInt(partition, -1);
+            long offset = NumberUtils.toLong(properties.getProperty(partition), -1L);
+            if (number >= 0 && offset >= 0) {
+                offsets.put(number, offset);
+            }
+        }
+        return Map.copyOf(offsets);
+    }
+
+    private void writeOffsets(Map<Integer, Long> offsets) throws IOException {
+        Properties properties = new Properties();
+        offsets.forEach((partition, offset) -> properties.setProperty(
+                String.valueOf(partition), String.valueOf(offset)));
+        Path temporary = offsetsPath.resolveSibling(offsetsPath.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+        Files.move(temporary, offsetsPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private boolean reject(String reason) {
+        rejectedCounter.increment();
+        logger.info(String.format("Ignoring link state snapshot %s: %s", path, reason),
+                DataMapHolder.getLogMap());
+        return false;
+    }
+
+    private static long checksum(ByteBuffer snapshot, ByteBuffer table) {
+        CRC32C crc = new CRC32C();
+        crc.update(snapshot.slice(0, CHECKSUM_OFFSET));
+        crc.update(table);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,73 @@
+package uk.gov.companieshouse.company.links.type;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import uk.gov.companieshouse.api.company.Data;
+import uk.gov.companieshouse.api.company.Links;
+
+/**
+ * The changes to a company's profile links: only the links that change, each either added or
+ * removed. Applying it also sets the has_* flag that goes with each changed link.
+ */
+public final class LinkPatch {
+
+    private final Map<LinkType, String> links;
+
+    private LinkPatch(Map<LinkType, String> links) {
+        this.links = Collections.unmodifiableMap(links);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The changed links, keyed by type. A null value means the link is removed.
+     */
+    public Map<LinkType, String> getLinks() {
+        return links;
+    }
+
+    /**
+     * Apply the patch to a company profile data object held in memory.
+     */
+    public void applyTo(Data data) {
+        Links target = data.getLinks() == null ? new Links() : data.getLinks();
+        links.forEach((type, link) -> {
+            type.setLink(target, link);
+            type.setFlag(data, link != null);
+        });
+        data.setLinks(target);
+    }
+
+    public static final class Builder {
+
+        private final Map<LinkType, String> links = new EnumMap<>(LinkType.class);
+
+        private Builder() {
+        }
+
+        public Builder addLink(LinkType type, String companyNumber) {
+            links.put(type, type.linkFor(companyNumber));
+            return this;
+        }
+
+        public Builder removeLink(LinkType type) {
+            links.put(type, null);
+            return this;
+        }
+
+        /**
+         * Add every change in another patch, replacing any change to the same link.
+         */
+        public Builder merge(LinkPatch linkPatch) {
+            links.putAll(linkPatch.getLinks());
+            return this;
+        }
+
+        public LinkPatch build() {
+            return new LinkPatch(new EnumMap<>(links));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package uk.gov.companieshouse.company.links.type;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import uk.gov.companieshouse.api.company.Data;
+import uk.gov.companieshouse.api.company.Links;
+
+public enum LinkType {
+    CHARGES("charges", Links::getCharges, Links::setCharges, Data::setHasCharges),
+    INSOLVENCY("insolvency", Links::getInsolvency, Links::setInsolvency,
+            Data::setHasInsolvencyHistory),
+    REGISTERS("registers", Links::getRegisters, Links::setRegisters, null),
+    OFFICERS("officers", Links::getOfficers, Links::setOfficers, null),
+    PSCS("persons-with-significant-control", Links::getPersonsWithSignificantControl,
+            Links::setPersonsWithSignificantControl, null),
+    STATEMENTS("persons-with-significant-control-statements",
+            Links::getPersonsWithSignificantControlStatements,
+            Links::setPersonsWithSignificantControlStatements, null),
+    EXEMPTIONS("exemptions", Links::getExemptions, Links::setExemptions, null),
+    FILING_HISTORY("filing-history", Links::getFilingHistory, Links::setFilingHistory, null);
+
+    private final String pathSegment;
+    private final Function<Links, String> getter;
+    private final BiConsumer<Links, String> setter;
+    private final BiConsumer<Data, Boolean> flagSetter;
+
+    LinkType(String pathSegment, Function<Links, String> getter,
+            BiConsumer<Links, String> setter, BiConsumer<Data, Boolean> flagSetter) {
+        this.pathSegment = pathSegment;
+        this.getter = getter;
+        this.setter = setter;
+        this.flagSetter = flagSetter;
+    }
+
+    public String linkFor(String companyNumber) {
+        return String.format("/company/%s/%s", companyNumber, pathSegment);
+    }
+
+    public String getLink(Links links) {
+        return links == null ? null : getter.apply(links);
+    }
+
+    public void setLink(Links links, String link) {
+        setter.accept(links, link);
+    }
+
+    /**
+     * Set the has_* flag that accompanies this link, if there is one.
+     */
+    public void setFlag(Data data, boolean value) {
+        if (flagSetter != null) {
+            flagSetter.accept(data, value);
+        }
+    }
+}
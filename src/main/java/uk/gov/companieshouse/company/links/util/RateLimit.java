@@ -0,0 +1,41 @@
+package uk.gov.companieshouse.company.links.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out calls to one API so that no more than the given number are made each second,
+ * across every thread sharing the limit. Used by the link backfill and the topic replays.
+ */
+public final class RateLimit {
+
+    private final long permitIntervalNanos;
+    private long nextPermitNanos = System.nanoTime();
+
+    /**
+     * Construct a rate limit.
+     *
+     * @param permitsPerSecond the most calls to allow each second, or zero for no limit
+     */
+    public RateLimit(double permitsPerSecond) {
+        this.permitIntervalNanos = permitsPerSecond > 0
+                ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0L;
+    }
+
+    /**
+     * Wait until the given number of calls can be made.
+     */
+    public void acquire(int permits) throws InterruptedException {
+        if (permitIntervalNanos == 0L || permits <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            waitNanos = nextPermitNanos - now;
+            nextPermitNanos = Math.max(nextPermitNanos, now) + permitIntervalNanos * permits;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -71,7 +71,7 @@ public class ResponseHandler {
                     String.format("PATCH %s link returned %d %s [retryable]: %s",
                             linkType, statusCode, reason, Arrays.toString(ex.getStackTrace()));
             logger.info(msg, DataMapHolder.getLogMap());
-            throw new RetryableErrorException(msg);
+            throw new RetryableErrorException(msg, ex);
         }
     }
 }
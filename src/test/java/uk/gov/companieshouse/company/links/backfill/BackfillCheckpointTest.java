@@ -0,0 +1,31 @@
+package uk.gov.companieshouse.company.links.backfill;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BackfillCheckpointTest {
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    @DisplayName("The checkpoint only moves past lines once every earlier line has finished")
+    void movesPastContiguousLines() throws IOException {
+        Path path = directory.resolve("report.csv.checkpoint");
+        BackfillCheckpoint checkpoint = BackfillCheckpoint.load(path);
+
+        checkpoint.finish(2L);
+        checkpoint.finish(3L);
+        assertEquals(0L, checkpoint.getFinished());
+        checkpoint.finish(1L);
+        assertEquals(3L, checkpoint.getFinished());
+
+        checkpoint.save();
+        assertEquals(3L, BackfillCheckpoint.load(path).getFinished());
+    }
+}
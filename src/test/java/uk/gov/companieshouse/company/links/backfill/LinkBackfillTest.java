@@ -0,0 +1,158 @@
+package uk.gov.companieshouse.company.links.backfill;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.stubbing.Answer;
+import org.springframework.mock.env.MockEnvironment;
+import uk.gov.companieshouse.api.company.CompanyProfile;
+import uk.gov.companieshouse.api.company.Data;
+import uk.gov.companieshouse.api.model.ApiResponse;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.company.links.processor.CompanyProfileStreamProcessor;
+import uk.gov.companieshouse.company.links.service.CompanyProfileService;
+import uk.gov.companieshouse.company.links.type.LinkType;
+import uk.gov.companieshouse.logging.Logger;
+
+@ExtendWith(MockitoExtension.class)
+class LinkBackfillTest {
+
+    @Mock
+    private CompanyProfileService companyProfileService;
+
+    @Mock
+    private CompanyProfileStreamProcessor companyProfileStreamProcessor;
+
+    @Mock
+    private Logger logger;
+
+    @TempDir
+    private Path directory;
+
+    private LinkBackfill linkBackfill;
+
+    @BeforeEach
+    void setUp() {
+        linkBackfill = new LinkBackfill(2, 1L, new MockEnvironment()
+                .withProperty("company-links.consumer.backfill.rate-limit.default", "0"),
+                companyProfileService, companyProfileStreamProcessor, new ObjectMapper(), logger,
+                new SimpleMeterRegistry());
+    }
+
+    @Test
+    @DisplayName("A dry run reports the missing links for each company in a CSV file")
+    void reportsMissingLinks() throws IOException, InterruptedException {
+        Path input = Files.writeString(directory.resolve("companies.csv"),
+                "company_number,name\n00006400,\"ACME\"\n11111111,GONE\n22222222,DONE\n");
+        Path report = directory.resolve("report.csv");
+        Data data = new Data();
+        when(companyProfileService.getCompanyProfile(anyString(), eq("00006400")))
+                .thenReturn(profile(data));
+        when(companyProfileService.getCompanyProfile(anyString(), eq("11111111")))
+                .thenReturn(new ApiResponse<>(404, Collections.emptyMap()));
+        when(companyProfileService.getCompanyProfile(anyString(), eq("22222222")))
+                .thenReturn(profile(new Data()));
+        doAnswer(addLinks(LinkType.CHARGES)).when(companyProfileStreamProcessor)
+                .reconcileLinks(anyString(), eq("00006400"), eq(data), eq(false), any(), any());
+
+        Map<LinkBackfill.Outcome, Long> totals = linkBackfill.run(input, report, false);
+
+        assertEquals(1L, totals.get(LinkBackfill.Outcome.MISSING));
+        assertEquals(1L, totals.get(LinkBackfill.Outcome.NOT_FOUND));
+        assertEquals(1L, totals.get(LinkBackfill.Outcome.UNCHANGED));
+        List<String> lines = Files.readAllLines(report);
+        assertEquals("company_number,outcome,links,detail", lines.get(0));
+        assertEquals(Set.of("00006400,missing,charges,", "11111111,not_found,,",
+                "22222222,unchanged,,"), Set.copyOf(lines.subList(1, lines.size())));
+        assertEquals("4", Files.readString(directory.resolve("report.csv.checkpoint")));
+        verify(companyProfileStreamProcessor, never()).reconcileLinks(anyString(),
+                eq("11111111"), any(), anyBoolean(), any(), any());
+    }
+
+    @Test
+    @DisplayName("A backfill resumes an NDJSON file from its checkpoint")
+    void resumesFromCheckpoint() throws IOException, InterruptedException {
+        Path input = Files.writeString(directory.resolve("companies.ndjson"),
+                "{\"company_number\":\"00006400\"}\n{\"company_number\":\"11111111\"}\n"
+                        + "{\"company_number\":\"22222222\"}\n");
+        Path report = directory.resolve("report.csv");
+        Files.writeString(directory.resolve("report.csv.checkpoint"), "2");
+        Data data = new Data();
+        when(companyProfileService.getCompanyProfile(anyString(), eq("22222222")))
+                .thenReturn(profile(data));
+        doAnswer(addLinks(LinkType.OFFICERS, LinkType.PSCS)).when(companyProfileStreamProcessor)
+                .reconcileLinks(anyString(), eq("22222222"), eq(data), eq(true), any(), any());
+
+        Map<LinkBackfill.Outcome, Long> totals = linkBackfill.run(input, report, true);
+
+        assertEquals(1L, totals.get(LinkBackfill.Outcome.PATCHED));
+        assertEquals(List.of("company_number,outcome,links,detail",
+                "22222222,patched,officers|persons_with_significant_control,"),
+                Files.readAllLines(report));
+        assertEquals("3", Files.readString(directory.resolve("report.csv.checkpoint")));
+        verify(companyProfileService, never()).getCompanyProfile(anyString(), eq("00006400"));
+    }
+
+    @Test
+    @DisplayName("A company that fails partway is reported with the links already patched")
+    void reportsPartialProgress() throws IOException, InterruptedException {
+        Path input = Files.writeString(directory.resolve("companies.csv"), "00006400\n");
+        Path report = directory.resolve("report.csv");
+        Data data = new Data();
+        when(companyProfileService.getCompanyProfile(anyString(), eq("00006400")))
+                .thenReturn(profile(data));
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(4).run();
+            invocation.<Set<LinkType>>getArgument(5).add(LinkType.CHARGES);
+            throw new RetryableErrorException("officers unavailable");
+        }).when(companyProfileStreamProcessor)
+                .reconcileLinks(anyString(), eq("00006400"), eq(data), eq(true), any(), any());
+
+        Map<LinkBackfill.Outcome, Long> totals = linkBackfill.run(input, report, true);
+
+        assertEquals(1L, totals.get(LinkBackfill.Outcome.FAILED));
+        assertEquals(List.of("company_number,outcome,links,detail",
+                "00006400,failed,charges,\"officers unavailable\""),
+                Files.readAllLines(report));
+    }
+
+    private static Answer<Void> addLinks(LinkType... links) {
+        return invocation -> {
+            Set<LinkType> added = invocation.getArgument(5);
+            for (LinkType link : links) {
+                invocation.<Runnable>getArgument(4).run();
+                added.add(link);
+            }
+            return null;
+        };
+    }
+
+    private static ApiResponse<CompanyProfile> profile(Data data) {
+        CompanyProfile companyProfile = new CompanyProfile();
+        companyProfile.setData(data);
+        return new ApiResponse<>(200, Collections.emptyMap(), companyProfile);
+    }
+}
@@ -0,0 +1,76 @@
+package uk.gov.companieshouse.company.links.catchup;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.companieshouse.stream.EventRecord;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+@ExtendWith(MockitoExtension.class)
+class CatchUpCoalescingInterceptorTest {
+
+    private static final String TOPIC = "stream-company-officers";
+    private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+    private static final String FIRST = "/company/00006400/appointments/abc";
+    private static final String SECOND = "/company/00006400/appointments/def";
+
+    @Mock
+    private CatchUpMode catchUpMode;
+
+    private final CatchUpCoalescingInterceptor interceptor = new CatchUpCoalescingInterceptor();
+
+    @BeforeEach
+    void setUp() {
+        interceptor.configure(Map.of(CatchUpCoalescingInterceptor.CATCH_UP_MODE_CONFIG,
+                catchUpMode));
+    }
+
+    @Test
+    @DisplayName("Only the latest record for each resource is kept while catching up")
+    void keepsLatestPerResource() {
+        when(catchUpMode.isCatchingUp(TOPIC)).thenReturn(true);
+        ConsumerRecords<Object, Object> records = new ConsumerRecords<>(Map.of(PARTITION,
+                List.of(record(0L, FIRST, "changed"), record(1L, SECOND, "changed"),
+                        record(2L, FIRST, "deleted"), record(3L, null, null))));
+
+        ConsumerRecords<Object, Object> coalesced = interceptor.onConsume(records);
+
+        assertEquals(List.of(1L, 2L, 3L), coalesced.records(PARTITION).stream()
+                .map(ConsumerRecord::offset).toList());
+        verify(catchUpMode).recordCoalesced(1);
+    }
+
+    @Test
+    @DisplayName("Records are left alone for topics not catching up")
+    void leavesOtherTopics() {
+        ConsumerRecords<Object, Object> records = new ConsumerRecords<>(Map.of(PARTITION,
+                List.of(record(0L, FIRST, "changed"), record(1L, FIRST, "changed"))));
+
+        assertSame(records, interceptor.onConsume(records));
+    }
+
+    private static ConsumerRecord<Object, Object> record(long offset, String resourceUri,
+            String eventType) {
+        if (resourceUri == null) {
+            return new ConsumerRecord<>(TOPIC, 0, offset, "key", null);
+        }
+        ResourceChangedData payload = new ResourceChangedData();
+        payload.setContextId("context_id");
+        payload.setResourceUri(resourceUri);
+        payload.setEvent(new EventRecord("2024-03-01T10:00:00", eventType, null));
+        return new ConsumerRecord<>(TOPIC, 0, offset, "key", payload);
+    }
+}
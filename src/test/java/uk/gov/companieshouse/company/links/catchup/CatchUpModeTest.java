@@ -0,0 +1,123 @@
+package uk.gov.companieshouse.company.links.catchup;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerProperties;
+import uk.gov.companieshouse.company.links.concurrency.ContainerRestarts;
+import uk.gov.companieshouse.logging.Logger;
+
+@ExtendWith(MockitoExtension.class)
+class CatchUpModeTest {
+
+    private static final String TOPIC = "stream-filing-history";
+    private static final MetricName LAG = new MetricName("records-lag",
+            "consumer-fetch-manager-metrics", "", Map.of("topic", TOPIC, "partition", "0"));
+
+    @Mock
+    private KafkaListenerEndpointRegistry registry;
+    @Mock
+    private ConcurrentMessageListenerContainer<?, ?> container;
+    @Mock
+    private Metric lagMetric;
+    @Mock
+    private Logger logger;
+
+    private final ContainerProperties containerProperties = new ContainerProperties(TOPIC);
+    private CatchUpMode catchUpMode;
+
+    @BeforeEach
+    void setUp() {
+        containerProperties.setAckMode(ContainerProperties.AckMode.RECORD);
+        catchUpMode = new CatchUpMode(true, 10000L, 100L, 1000L, 3, 2000, registry,
+                new ContainerRestarts(), logger, new SimpleMeterRegistry());
+        when(registry.getListenerContainers()).thenReturn(List.of(container));
+        when(container.getContainerProperties()).thenReturn(containerProperties);
+        when(container.isRunning()).thenReturn(true);
+        stubLagMetric();
+    }
+
+    @Test
+    @DisplayName("A listener lagging past the threshold restarts in catch-up mode")
+    void entersCatchUpMode() {
+        when(lagMetric.metricValue()).thenReturn(50000.0);
+
+        catchUpMode.check();
+
+        assertTrue(catchUpMode.isCatchingUp(TOPIC));
+        restart();
+        assertEquals(ContainerProperties.AckMode.BATCH, containerProperties.getAckMode());
+        assertEquals("2000", containerProperties.getKafkaConsumerProperties()
+                .getProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG));
+    }
+
+    @Test
+    @DisplayName("A listener in catch-up mode returns to normal once the lag recovers")
+    void leavesCatchUpMode() {
+        when(lagMetric.metricValue()).thenReturn(50000.0, 5000.0, 50.0);
+
+        catchUpMode.check();
+        restart();
+        catchUpMode.check();
+        assertTrue(catchUpMode.isCatchingUp(TOPIC));
+
+        catchUpMode.check();
+        assertFalse(catchUpMode.isCatchingUp(TOPIC));
+        restart();
+        assertEquals(ContainerProperties.AckMode.RECORD, containerProperties.getAckMode());
+        assertNull(containerProperties.getKafkaConsumerProperties()
+                .getProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG));
+    }
+
+    @Test
+    @DisplayName("Only a sample of records log while catching up")
+    void samplesLogging() {
+        when(lagMetric.metricValue()).thenReturn(Double.NaN);
+        catchUpMode.check();
+        verify(container, never()).stop(any(Runnable.class));
+        assertTrue(catchUpMode.shouldLog(TOPIC));
+        assertTrue(catchUpMode.shouldLog(TOPIC));
+
+        when(lagMetric.metricValue()).thenReturn(50000.0);
+        catchUpMode.check();
+        List<Boolean> logged = List.of(catchUpMode.shouldLog(TOPIC),
+                catchUpMode.shouldLog(TOPIC), catchUpMode.shouldLog(TOPIC),
+                catchUpMode.shouldLog(TOPIC));
+        assertEquals(List.of(true, false, false, true), logged);
+    }
+
+    private void restart() {
+        ArgumentCaptor<Runnable> restart = ArgumentCaptor.forClass(Runnable.class);
+        verify(container, atLeastOnce()).stop(restart.capture());
+        restart.getValue().run();
+        verify(container, atLeastOnce()).start();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void stubLagMetric() {
+        Map metrics = Map.of("consumer-1", Map.of(LAG, lagMetric));
+        when(container.metrics()).thenReturn(metrics);
+    }
+}
@@ -0,0 +1,140 @@
+package uk.gov.companieshouse.company.links.concurrency;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerProperties;
+import uk.gov.companieshouse.company.links.retry.DownstreamBreakers;
+import uk.gov.companieshouse.company.links.retry.RetryBudget;
+import uk.gov.companieshouse.logging.Logger;
+
+@ExtendWith(MockitoExtension.class)
+class AdaptiveConcurrencyTest {
+
+    private static final String TOPIC = "stream-company-charges";
+    private static final MetricName LAG = new MetricName("records-lag",
+            "consumer-fetch-manager-metrics", "", Map.of("topic", TOPIC, "partition", "0"));
+    private static final MetricName RATE = new MetricName("records-consumed-rate",
+            "consumer-fetch-manager-metrics", "", Map.of("client-id", "consumer-1"));
+
+    @Mock
+    private KafkaListenerEndpointRegistry registry;
+    @Mock
+    private ConcurrentMessageListenerContainer<?, ?> container;
+    @Mock
+    private Metric lagMetric;
+    @Mock
+    private Metric rateMetric;
+    @Mock
+    private DownstreamBreakers downstreamBreakers;
+    @Mock
+    private RetryBudget retryBudget;
+    @Mock
+    private Logger logger;
+
+    private final ContainerRestarts containerRestarts = new ContainerRestarts();
+    private AdaptiveConcurrency adaptiveConcurrency;
+
+    @BeforeEach
+    void setUp() {
+        adaptiveConcurrency = new AdaptiveConcurrency(true, 1, 4, 60L, 1000L, 0L, registry,
+                containerRestarts, downstreamBreakers, retryBudget, logger, new SimpleMeterRegistry());
+        when(registry.getListenerContainers()).thenReturn(List.of(container));
+        when(container.getContainerProperties()).thenReturn(new ContainerProperties(TOPIC));
+        when(container.isRunning()).thenReturn(true);
+        stubMetrics();
+    }
+
+    @Test
+    @DisplayName("Concurrency is the lag divided by what one consumer drains in the drain time")
+    void desiredConcurrency() {
+        assertEquals(17, AdaptiveConcurrency.desiredConcurrency(10000L, 10.0, 1, 60L));
+        assertEquals(0, AdaptiveConcurrency.desiredConcurrency(0L, 10.0, 3, 60L));
+        assertEquals(3, AdaptiveConcurrency.desiredConcurrency(10000L, 0.0, 3, 60L));
+    }
+
+    @Test
+    @DisplayName("A lagging listener is restarted with up to twice the consumers")
+    void scalesUp() {
+        when(container.getConcurrency()).thenReturn(1);
+        when(lagMetric.metricValue()).thenReturn(10000.0);
+        when(rateMetric.metricValue()).thenReturn(10.0);
+
+        adaptiveConcurrency.check();
+
+        ArgumentCaptor<Runnable> restart = ArgumentCaptor.forClass(Runnable.class);
+        verify(container).stop(restart.capture());
+        restart.getValue().run();
+        verify(container).setConcurrency(2);
+        verify(container).start();
+        assertEquals(4.25, adaptiveConcurrency.getReplicaDemand());
+    }
+
+    @Test
+    @DisplayName("A listener whose downstream is saturated loses a consumer")
+    void scalesDownWhenSaturated() {
+        when(container.getConcurrency()).thenReturn(3);
+        when(downstreamBreakers.isOpen(TOPIC)).thenReturn(true);
+        lenient().when(lagMetric.metricValue()).thenReturn(10000.0);
+        lenient().when(rateMetric.metricValue()).thenReturn(10.0);
+
+        adaptiveConcurrency.check();
+
+        ArgumentCaptor<Runnable> restart = ArgumentCaptor.forClass(Runnable.class);
+        verify(container).stop(restart.capture());
+        restart.getValue().run();
+        verify(container).setConcurrency(2);
+        assertEquals(0.75, adaptiveConcurrency.getReplicaDemand());
+    }
+
+    @Test
+    @DisplayName("A listener keeping up at its current concurrency is left running")
+    void leavesSteadyListener() {
+        when(container.getConcurrency()).thenReturn(2);
+        when(lagMetric.metricValue()).thenReturn(1000.0);
+        when(rateMetric.metricValue()).thenReturn(20.0);
+
+        adaptiveConcurrency.check();
+
+        verify(container, never()).stop(any(Runnable.class));
+    }
+
+    @Test
+    @DisplayName("A listener still restarting is not restarted again")
+    void leavesRestartingListener() {
+        when(container.getConcurrency()).thenReturn(1);
+        when(lagMetric.metricValue()).thenReturn(10000.0);
+        when(rateMetric.metricValue()).thenReturn(10.0);
+
+        adaptiveConcurrency.check();
+        adaptiveConcurrency.check();
+
+        verify(container).stop(any(Runnable.class));
+        assertTrue(containerRestarts.isRestarting(container));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void stubMetrics() {
+        Map metrics = Map.of("consumer-1", Map.of(LAG, lagMetric, RATE, rateMetric));
+        when(container.metrics()).thenReturn(metrics);
+    }
+}
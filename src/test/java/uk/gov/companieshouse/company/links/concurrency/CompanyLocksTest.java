@@ -0,0 +1,91 @@
+package uk.gov.companieshouse.company.links.concurrency;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+
+class CompanyLocksTest {
+
+    private static final String COMPANY_NUMBER = "12345678";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    @DisplayName("Action runs while holding the stripe for its company")
+    void runsActionUnderLock() {
+        CompanyLocks companyLocks = new CompanyLocks(true, 16, 1000L, meterRegistry);
+        AtomicBoolean held = new AtomicBoolean();
+
+        companyLocks.withLock(COMPANY_NUMBER, () ->
+                held.set(companyLocks.stripeFor(COMPANY_NUMBER).isHeldByCurrentThread()));
+
+        assertTrue(held.get());
+        assertFalse(companyLocks.stripeFor(COMPANY_NUMBER).isLocked());
+    }
+
+    @Test
+    @DisplayName("Disabled locks run the action without locking")
+    void disabledLocksRunActionDirectly() {
+        CompanyLocks companyLocks = new CompanyLocks(false, 16, 1000L, meterRegistry);
+        AtomicBoolean held = new AtomicBoolean(true);
+
+        companyLocks.withLock(COMPANY_NUMBER, () ->
+                held.set(companyLocks.stripeFor(COMPANY_NUMBER).isHeldByCurrentThread()));
+
+        assertFalse(held.get());
+    }
+
+    @Test
+    @DisplayName("Same company always maps to the same stripe")
+    void sameCompanySameStripe() {
+        CompanyLocks companyLocks = new CompanyLocks(true, 1000, 1000L, meterRegistry);
+
+        assertSame(companyLocks.stripeFor(COMPANY_NUMBER),
+                companyLocks.stripeFor(new String(COMPANY_NUMBER.toCharArray())));
+    }
+
+    @Test
+    @DisplayName("Timing out waiting for a held lock throws a retryable error")
+    void timesOutWaitingForLock() throws InterruptedException {
+        CompanyLocks companyLocks = new CompanyLocks(true, 1, 50L, meterRegistry);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> companyLocks.withLock(COMPANY_NUMBER, () -> {
+            locked.countDown();
+            awaitQuietly(release);
+        }));
+        holder.start();
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+        try {
+            assertThrows(RetryableErrorException.class,
+                    () -> companyLocks.withLock(COMPANY_NUMBER, () -> { }));
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+
+        assertEquals(1.0, meterRegistry.counter(CompanyLocks.METRIC_PREFIX + ".contended")
+                .count());
+        assertEquals(1.0, meterRegistry.counter(CompanyLocks.METRIC_PREFIX + ".timeout")
+                .count());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package uk.gov.companieshouse.company.links.concurrency;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.verify;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+@ExtendWith(MockitoExtension.class)
+class ContainerRestartsTest {
+
+    @Mock
+    private MessageListenerContainer container;
+    @Mock
+    private Runnable change;
+
+    private final ContainerRestarts containerRestarts = new ContainerRestarts();
+
+    @Test
+    @DisplayName("The change is made once the container has stopped, then it is started")
+    void restartsContainer() {
+        assertTrue(containerRestarts.restart(container, change));
+        assertTrue(containerRestarts.isRestarting(container));
+
+        ArgumentCaptor<Runnable> stopped = ArgumentCaptor.forClass(Runnable.class);
+        verify(container).stop(stopped.capture());
+        stopped.getValue().run();
+
+        InOrder order = inOrder(change, container);
+        order.verify(change).run();
+        order.verify(container).start();
+        assertFalse(containerRestarts.isRestarting(container));
+    }
+
+    @Test
+    @DisplayName("A container already restarting is not stopped again")
+    void refusesSecondRestart() {
+        assertTrue(containerRestarts.restart(container, change));
+
+        assertFalse(containerRestarts.restart(container, () -> {
+        }));
+
+        verify(container).stop(any(Runnable.class));
+    }
+}
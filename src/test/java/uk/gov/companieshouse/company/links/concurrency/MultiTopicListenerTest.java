@@ -0,0 +1,269 @@
+package uk.gov.companieshouse.company.links.concurrency;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.config.KafkaListenerContainerFactory;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.config.SimpleKafkaListenerEndpoint;
+import org.springframework.kafka.listener.KafkaBackoffException;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.mock.env.MockEnvironment;
+import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.company.links.retry.ErrorTopicPublisher;
+import uk.gov.companieshouse.company.links.retry.ListenerMethods;
+import uk.gov.companieshouse.company.links.retry.RetryPolicies;
+import uk.gov.companieshouse.company.links.retry.RetryTopicPublisher;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+@ExtendWith(MockitoExtension.class)
+class MultiTopicListenerTest {
+
+    private static final String CHARGES = "stream-company-charges";
+    private static final String REGISTERS = "stream-registers";
+    private static final String GROUP_ID = "company-links-consumer";
+    private static final String RESOURCE_URI = "/company/00006400/charges/abc";
+    private static final String OTHER_RESOURCE_URI = "/company/00006400/charges/def";
+    private static final Duration NACK_SLEEP = Duration.ofMillis(1000L);
+    private static final long DELAY_MS = 100L;
+
+    @Mock
+    private KafkaListenerEndpointRegistry registry;
+    @Mock
+    private KafkaListenerContainerFactory<?> listenerContainerFactory;
+    @Mock
+    private ListenerMethods listenerMethods;
+    @Mock
+    private RetryTopicPublisher retryTopicPublisher;
+    @Mock
+    private ErrorTopicPublisher errorTopicPublisher;
+    @Mock
+    private Acknowledgment acknowledgment;
+    @Mock
+    private Consumer<?, ?> consumer;
+    @Mock
+    private MessageListenerContainer container;
+    @Mock
+    private Logger logger;
+
+    private MultiTopicListener multiTopicListener;
+
+    @BeforeEach
+    void setUp() {
+        multiTopicListener = new MultiTopicListener(true, List.of(CHARGES, REGISTERS), GROUP_ID,
+                2, 4, 10, NACK_SLEEP.toMillis(), registry, listenerContainerFactory,
+                listenerMethods, retryTopicPublisher,
+                new RetryPolicies(retryPolicyEnvironment(), new SimpleMeterRegistry()),
+                errorTopicPublisher, logger, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        multiTopicListener.destroy();
+    }
+
+    @Test
+    @DisplayName("The container is registered with the registry as a batch listener")
+    @SuppressWarnings("unchecked")
+    void registersContainer() {
+        multiTopicListener.afterSingletonsInstantiated();
+
+        ArgumentCaptor<SimpleKafkaListenerEndpoint<String, ResourceChangedData>> endpoint =
+                ArgumentCaptor.forClass(SimpleKafkaListenerEndpoint.class);
+        verify(registry).registerListenerContainer(endpoint.capture(),
+                same(listenerContainerFactory));
+        assertEquals(MultiTopicListener.LISTENER_ID, endpoint.getValue().getId());
+        assertEquals(GROUP_ID, endpoint.getValue().getGroupId());
+        assertArrayEquals(new String[] {CHARGES, REGISTERS},
+                endpoint.getValue().getTopics().toArray(String[]::new));
+        assertEquals(2, endpoint.getValue().getConcurrency());
+        assertTrue(endpoint.getValue().getBatchListener());
+        assertEquals("10", endpoint.getValue().getConsumerProperties()
+                .getProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG));
+    }
+
+    @Test
+    @DisplayName("Each record is passed to the listener for its topic and the poll acknowledged")
+    void dispatchesRecords() {
+        ResourceChangedData charge = payload(RESOURCE_URI);
+        ResourceChangedData register = payload(OTHER_RESOURCE_URI);
+
+        multiTopicListener.onMessage(List.of(
+                new ConsumerRecord<>(CHARGES, 0, 6L, "key", charge),
+                new ConsumerRecord<>(REGISTERS, 1, 7L, "key", register)), acknowledgment, consumer);
+
+        verify(listenerMethods).dispatch(CHARGES, "key", 0, 6L, charge);
+        verify(listenerMethods).dispatch(REGISTERS, "key", 1, 7L, register);
+        verify(acknowledgment).acknowledge();
+    }
+
+    @Test
+    @DisplayName("Records for the same resource are processed in the order they were read")
+    void keepsResourceOrder() {
+        ResourceChangedData first = payload(RESOURCE_URI);
+        ResourceChangedData second = payload(RESOURCE_URI);
+        doAnswer(invocation -> {
+            // give the later record every chance to overtake
+            TimeUnit.MILLISECONDS.sleep(DELAY_MS);
+            return null;
+        }).when(listenerMethods).dispatch(CHARGES, "key", 0, 1L, first);
+
+        multiTopicListener.onMessage(List.of(
+                new ConsumerRecord<>(CHARGES, 0, 1L, "key", first),
+                new ConsumerRecord<>(CHARGES, 0, 2L, "key", second)), acknowledgment, consumer);
+
+        InOrder order = inOrder(listenerMethods);
+        order.verify(listenerMethods).dispatch(CHARGES, "key", 0, 1L, first);
+        order.verify(listenerMethods).dispatch(CHARGES, "key", 0, 2L, second);
+    }
+
+    @Test
+    @DisplayName("A record that fails is published with its retry headers and acknowledged")
+    void retriesFailedRecord() throws Exception {
+        ResourceChangedData payload = payload(RESOURCE_URI);
+        RetryableErrorException failure = new RetryableErrorException("retry");
+        doThrow(failure).when(listenerMethods).dispatch(CHARGES, "key", 0, 3L, payload);
+
+        multiTopicListener.onMessage(List.of(new ConsumerRecord<>(CHARGES, 0, 3L, "key",
+                payload)), acknowledgment, consumer);
+
+        verify(retryTopicPublisher).publish(CHARGES, GROUP_ID, "key", 0, 3L, payload, failure,
+                500L);
+        verify(acknowledgment).acknowledge();
+    }
+
+    @Test
+    @DisplayName("A record that cannot be retried is published to its consumer's error topic")
+    void failsNonRetryableRecord() throws Exception {
+        ResourceChangedData payload = payload(RESOURCE_URI);
+        NonRetryableErrorException failure = new NonRetryableErrorException("invalid");
+        doThrow(failure).when(listenerMethods).dispatch(CHARGES, "key", 0, 4L, payload);
+
+        multiTopicListener.onMessage(List.of(new ConsumerRecord<>(CHARGES, 0, 4L, "key",
+                payload)), acknowledgment, consumer);
+
+        verify(errorTopicPublisher).publish(CHARGES, GROUP_ID, "key", 0, 4L, payload, failure);
+        verify(acknowledgment).acknowledge();
+    }
+
+    @Test
+    @DisplayName("A record that is backed off is handed to the retry path, not read again")
+    void retriesBackedOffRecord() throws Exception {
+        ResourceChangedData first = payload(OTHER_RESOURCE_URI);
+        ResourceChangedData second = payload(RESOURCE_URI);
+        KafkaBackoffException backoff = new KafkaBackoffException("Downstream unavailable",
+                new TopicPartition(CHARGES, 0), CHARGES, System.currentTimeMillis());
+        doThrow(backoff).when(listenerMethods).dispatch(CHARGES, "key", 0, 6L, second);
+
+        multiTopicListener.onMessage(List.of(
+                new ConsumerRecord<>(REGISTERS, 1, 5L, "key", first),
+                new ConsumerRecord<>(CHARGES, 0, 6L, "key", second)), acknowledgment, consumer);
+
+        verify(retryTopicPublisher).publish(CHARGES, GROUP_ID, "key", 0, 6L, second, backoff,
+                500L);
+        verify(acknowledgment).acknowledge();
+        verifyNoInteractions(consumer);
+    }
+
+    @Test
+    @DisplayName("A record that cannot be handed on is read again without re-running the rest")
+    void rereadsOnlyRecordNotHandedOn() throws Exception {
+        ResourceChangedData first = payload(RESOURCE_URI);
+        ResourceChangedData second = payload(RESOURCE_URI);
+        ResourceChangedData other = payload(OTHER_RESOURCE_URI);
+        ResourceChangedData register = payload(OTHER_RESOURCE_URI + "/register");
+        RetryableErrorException failure = new RetryableErrorException("retry");
+        doThrow(failure).doNothing().when(listenerMethods).dispatch(CHARGES, "key", 0, 8L,
+                first);
+        doThrow(new TimeoutException("timed out")).when(retryTopicPublisher).publish(
+                eq(CHARGES), eq(GROUP_ID), eq("key"), anyInt(), anyLong(), same(first),
+                same(failure), anyLong());
+        when(registry.getListenerContainer(MultiTopicListener.LISTENER_ID))
+                .thenReturn(container);
+        TopicPartition charges = new TopicPartition(CHARGES, 0);
+        List<ConsumerRecord<String, ResourceChangedData>> chargesRecords = List.of(
+                new ConsumerRecord<>(CHARGES, 0, 8L, "key", first),
+                new ConsumerRecord<>(CHARGES, 0, 9L, "key", second),
+                new ConsumerRecord<>(CHARGES, 0, 10L, "key", other));
+
+        multiTopicListener.onMessage(List.of(chargesRecords.get(0), chargesRecords.get(1),
+                new ConsumerRecord<>(REGISTERS, 1, 4L, "key", register),
+                chargesRecords.get(2)), acknowledgment, consumer);
+
+        verify(listenerMethods, never()).dispatch(CHARGES, "key", 0, 9L, second);
+        verify(consumer).commitSync(Map.of(charges, new OffsetAndMetadata(8L),
+                new TopicPartition(REGISTERS, 1), new OffsetAndMetadata(5L)));
+        verify(consumer).seek(charges, 8L);
+        verify(container).pausePartition(charges);
+        verify(container, timeout(5000)).resumePartition(charges);
+        verify(acknowledgment, never()).acknowledge();
+
+        multiTopicListener.onMessage(chargesRecords, acknowledgment, consumer);
+
+        verify(listenerMethods).dispatch(CHARGES, "key", 0, 9L, second);
+        verify(listenerMethods).dispatch(CHARGES, "key", 0, 10L, other);
+        verify(acknowledgment).acknowledge();
+    }
+
+    @Test
+    @DisplayName("Records are ordered by resource, or by partition when they have none")
+    void orderingKey() {
+        assertEquals(RESOURCE_URI, MultiTopicListener.orderingKey(
+                new ConsumerRecord<>(CHARGES, 0, 1L, "key", payload(RESOURCE_URI))));
+        assertEquals(CHARGES + "-2", MultiTopicListener.orderingKey(
+                new ConsumerRecord<>(CHARGES, 2, 1L, "key", null)));
+    }
+
+    private static MockEnvironment retryPolicyEnvironment() {
+        String prefix = "company-links.consumer.retry-policy.default.";
+        return new MockEnvironment()
+                .withProperty(prefix + "initial-delay-ms", "500")
+                .withProperty(prefix + "multiplier", "2.0")
+                .withProperty(prefix + "max-delay-ms", "8000")
+                .withProperty(prefix + "jitter", "0.0")
+                .withProperty(prefix + "max-attempts", "4");
+    }
+
+    private static ResourceChangedData payload(String resourceUri) {
+        ResourceChangedData payload = new ResourceChangedData();
+        payload.setContextId("context_id");
+        payload.setResourceUri(resourceUri);
+        return payload;
+    }
+}
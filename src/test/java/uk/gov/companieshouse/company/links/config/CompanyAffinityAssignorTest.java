@@ -0,0 +1,117 @@
+package uk.gov.companieshouse.company.links.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.kafka.clients.consumer.ConsumerPartitionAssignor.GroupSubscription;
+import org.apache.kafka.clients.consumer.ConsumerPartitionAssignor.Subscription;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class CompanyAffinityAssignorTest {
+
+    private static final String CHARGES = "stream-company-charges";
+    private static final String OFFICERS = "stream-company-officers";
+
+    private final CompanyAffinityAssignor assignor = new CompanyAffinityAssignor();
+    private final Cluster cluster = cluster(Map.of(CHARGES, 6, OFFICERS, 6));
+
+    @Test
+    @DisplayName("The same partition of every topic goes to the same instance")
+    void assignsSamePartitionsToSameInstance() {
+        Map<String, Subscription> subscriptions = new HashMap<>();
+        subscriptions.put("a-charges", subscription("instance-a", CHARGES));
+        subscriptions.put("a-officers", subscription("instance-a", OFFICERS));
+        subscriptions.put("b-charges", subscription("instance-b", CHARGES));
+        subscriptions.put("b-officers", subscription("instance-b", OFFICERS));
+
+        Map<String, List<TopicPartition>> assigned = assign(subscriptions);
+
+        assertEquals(List.of(0, 2, 4), partitions(assigned.get("a-charges")));
+        assertEquals(List.of(0, 2, 4), partitions(assigned.get("a-officers")));
+        assertEquals(List.of(1, 3, 5), partitions(assigned.get("b-charges")));
+        assertEquals(List.of(1, 3, 5), partitions(assigned.get("b-officers")));
+    }
+
+    @Test
+    @DisplayName("An instance's partitions of a topic are shared between its members")
+    void sharesPartitionsWithinInstance() {
+        Map<String, Subscription> subscriptions = new HashMap<>();
+        subscriptions.put("a-charges-0", subscription("instance-a", CHARGES));
+        subscriptions.put("a-charges-1", subscription("instance-a", CHARGES));
+
+        Map<String, List<TopicPartition>> assigned = assign(subscriptions);
+
+        assertEquals(List.of(0, 2, 4), partitions(assigned.get("a-charges-0")));
+        assertEquals(List.of(1, 3, 5), partitions(assigned.get("a-charges-1")));
+    }
+
+    @Test
+    @DisplayName("A partition that moves is revoked before it is assigned to its new owner")
+    void revokesBeforeMoving() {
+        List<TopicPartition> owned = new ArrayList<>();
+        for (int partition = 0; partition < 6; partition++) {
+            owned.add(new TopicPartition(CHARGES, partition));
+        }
+        Map<String, Subscription> subscriptions = new HashMap<>();
+        subscriptions.put("a-charges", new Subscription(List.of(CHARGES),
+                userData("instance-a"), owned));
+        subscriptions.put("b-charges", subscription("instance-b", CHARGES));
+
+        Map<String, List<TopicPartition>> assigned = assign(subscriptions);
+
+        assertEquals(List.of(0, 2, 4), partitions(assigned.get("a-charges")));
+        assertTrue(assigned.get("b-charges").isEmpty());
+
+        subscriptions.put("a-charges", new Subscription(List.of(CHARGES),
+                userData("instance-a"), assigned.get("a-charges")));
+        assertEquals(List.of(1, 3, 5), partitions(assign(subscriptions).get("b-charges")));
+    }
+
+    private Map<String, List<TopicPartition>> assign(Map<String, Subscription> subscriptions) {
+        Map<String, List<TopicPartition>> assigned = new HashMap<>();
+        assignor.assign(cluster, new GroupSubscription(subscriptions)).groupAssignment()
+                .forEach((memberId, assignment) ->
+                        assigned.put(memberId, assignment.partitions()));
+        return assigned;
+    }
+
+    private static List<Integer> partitions(List<TopicPartition> topicPartitions) {
+        return topicPartitions.stream().map(TopicPartition::partition).sorted().toList();
+    }
+
+    private static Subscription subscription(String instanceId, String topic) {
+        return new Subscription(List.of(topic), userData(instanceId), List.of());
+    }
+
+    private static ByteBuffer userData(String instanceId) {
+        CompanyAffinityAssignor instance = new CompanyAffinityAssignor();
+        instance.configure(Map.of(CompanyAffinityAssignor.INSTANCE_ID_CONFIG, instanceId));
+        ByteBuffer userData = instance.subscriptionUserData(Set.of());
+        assertEquals(instanceId, StandardCharsets.UTF_8.decode(userData.duplicate()).toString());
+        return userData;
+    }
+
+    private static Cluster cluster(Map<String, Integer> partitionCounts) {
+        Node node = new Node(0, "localhost", 9092);
+        List<PartitionInfo> partitions = new ArrayList<>();
+        partitionCounts.forEach((topic, count) -> {
+            for (int partition = 0; partition < count; partition++) {
+                partitions.add(new PartitionInfo(topic, partition, node, new Node[] {node},
+                        new Node[] {node}));
+            }
+        });
+        return new Cluster("cluster", List.of(node), partitions, Set.of(), Set.of());
+    }
+}
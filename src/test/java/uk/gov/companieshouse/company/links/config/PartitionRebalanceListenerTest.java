@@ -0,0 +1,70 @@
+package uk.gov.companieshouse.company.links.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.companieshouse.logging.Logger;
+
+@ExtendWith(MockitoExtension.class)
+class PartitionRebalanceListenerTest {
+
+    private static final List<TopicPartition> PARTITIONS = List.of(
+            new TopicPartition("stream-company-charges", 0),
+            new TopicPartition("stream-company-charges", 1));
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Mock
+    private Logger logger;
+    @Mock
+    private Consumer<?, ?> consumer;
+
+    private PartitionRebalanceListener listener;
+
+    @BeforeEach
+    void setUp() {
+        listener = new PartitionRebalanceListener(logger, meterRegistry);
+    }
+
+    @Test
+    @DisplayName("Revoked partitions are counted")
+    void countsRevokedPartitions() {
+        listener.onPartitionsRevokedBeforeCommit(consumer, PARTITIONS);
+
+        assertEquals(2.0, count("revoked"));
+    }
+
+    @Test
+    @DisplayName("A cooperative rebalance that revokes nothing is ignored")
+    void ignoresEmptyRevocation() {
+        listener.onPartitionsRevokedBeforeCommit(consumer, List.of());
+
+        verifyNoInteractions(logger);
+        assertEquals(0.0, count("revoked"));
+    }
+
+    @Test
+    @DisplayName("Lost and assigned partitions are counted")
+    void countsLostPartitions() {
+        listener.onPartitionsLost(consumer, PARTITIONS);
+        listener.onPartitionsAssigned(consumer, PARTITIONS.subList(0, 1));
+
+        assertEquals(2.0, count("lost"));
+        assertEquals(1.0, count("assigned"));
+    }
+
+    private double count(String outcome) {
+        return meterRegistry.counter(PartitionRebalanceListener.METRIC_NAME, "outcome", outcome)
+                .count();
+    }
+}
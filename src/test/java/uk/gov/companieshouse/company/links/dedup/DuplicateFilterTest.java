@@ -0,0 +1,91 @@
+package uk.gov.companieshouse.company.links.dedup;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class DuplicateFilterTest {
+
+    private static final byte[] CONTENTS = "record".getBytes(StandardCharsets.UTF_8);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicLong now = new AtomicLong(1_700_000_000_000L);
+
+    @Test
+    @DisplayName("A processed record with the same context ID and contents is a duplicate")
+    void suppressesProcessedRecords() {
+        DuplicateFilter filter = new DuplicateFilter(true, 1000L, 0.000001, 60L, meterRegistry,
+                now::get);
+
+        assertFalse(filter.isDuplicate("context_id", CONTENTS));
+        filter.recordProcessed("context_id", CONTENTS);
+
+        assertTrue(filter.isDuplicate("context_id", CONTENTS));
+        assertFalse(filter.isDuplicate("other_context_id", CONTENTS));
+        assertFalse(filter.isDuplicate("context_id",
+                "changed".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(1.0, meterRegistry.counter(DuplicateFilter.METRIC_NAME, "outcome",
+                "suppressed").count());
+    }
+
+    @Test
+    @DisplayName("Records are forgotten after two windows")
+    void forgetsAfterTwoWindows() {
+        DuplicateFilter filter = new DuplicateFilter(true, 1000L, 0.000001, 60L, meterRegistry,
+                now::get);
+        filter.recordProcessed("context_id", CONTENTS);
+
+        now.addAndGet(61_000L);
+        assertTrue(filter.isDuplicate("context_id", CONTENTS));
+        now.addAndGet(61_000L);
+        assertFalse(filter.isDuplicate("context_id", CONTENTS));
+    }
+
+    @Test
+    @DisplayName("The filter rotates once it holds the expected records, bounding false positives")
+    void rotatesWhenFull() {
+        DuplicateFilter filter = new DuplicateFilter(true, 100L, 0.001, 3600L, meterRegistry,
+                now::get);
+        for (int i = 0; i < 250; i++) {
+            filter.recordProcessed("context_" + i, CONTENTS);
+        }
+
+        assertTrue(filter.isDuplicate("context_249", CONTENTS));
+        assertFalse(filter.isDuplicate("context_0", CONTENTS));
+        assertEquals(2.0, meterRegistry.counter(DuplicateFilter.METRIC_NAME + ".rotations")
+                .count());
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (filter.isDuplicate("unseen_" + i, CONTENTS)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 50, "false positives: " + falsePositives);
+    }
+
+    @Test
+    @DisplayName("Memory is bounded by the expected records and false positive rate")
+    void sizesForExpectedRecords() {
+        DuplicateFilter filter = new DuplicateFilter(true, 1_000_000L, 0.000001, 60L,
+                meterRegistry, now::get);
+
+        assertEquals(20, filter.hashFunctions());
+        assertTrue(filter.sizeInBytes() < 8_000_000L);
+    }
+
+    @Test
+    @DisplayName("Nothing is a duplicate when disabled")
+    void disabled() {
+        DuplicateFilter filter = new DuplicateFilter(false, 1000L, 0.000001, 60L, meterRegistry,
+                now::get);
+        filter.recordProcessed("context_id", CONTENTS);
+
+        assertFalse(filter.isDuplicate("context_id", CONTENTS));
+    }
+}
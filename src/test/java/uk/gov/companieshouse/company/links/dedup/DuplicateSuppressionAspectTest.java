@@ -0,0 +1,216 @@
+package uk.gov.companieshouse.company.links.dedup;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.core.Ordered;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.config.ListenerAspectOrder;
+import uk.gov.companieshouse.company.links.retry.ListenerMethods;
+import uk.gov.companieshouse.company.links.retry.SharedRetryTopic;
+import uk.gov.companieshouse.company.links.serialization.ResourceChangedDataSerializer;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+@ExtendWith(MockitoExtension.class)
+class DuplicateSuppressionAspectTest {
+
+    private static final String TOPIC = "stream-company-charges";
+    private static final String SHARED_RETRY_TOPIC = "company-links-consumer-shared-retry";
+    private static final byte[] CONTENTS = "record".getBytes(StandardCharsets.UTF_8);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Mock
+    private ResourceChangedDataSerializer serializer;
+
+    @Mock
+    private SharedRetryTopic sharedRetryTopic;
+
+    @Mock
+    private Logger logger;
+
+    private AnnotationConfigApplicationContext context;
+    private ResourceChangedData payload;
+
+    @BeforeEach
+    void setUp() {
+        payload = new ResourceChangedData();
+        payload.setContextId("context_id");
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    @Test
+    @DisplayName("A record already processed is acknowledged without reaching the listener")
+    void suppressesProcessedRecord() {
+        when(serializer.serialize(TOPIC, payload)).thenReturn(CONTENTS);
+        start(ListenerAspectOrder.RETRY_DEFERRAL);
+
+        consume(TOPIC);
+        consume(TOPIC);
+
+        assertEquals(1, listener().getReceived());
+        assertEquals(1.0, meterRegistry.counter(DuplicateFilter.METRIC_NAME, "outcome",
+                "suppressed").count());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {ListenerAspectOrder.SUPERSESSION, ListenerAspectOrder.RETRY_DEFERRAL,
+            ListenerAspectOrder.DELETE_RECHECK, ListenerAspectOrder.DOWNSTREAM_AVAILABILITY})
+    @DisplayName("A record an inner aspect hands on is processed when it comes round again")
+    void processesRecordHandedOn(int order) {
+        when(serializer.serialize(TOPIC, payload)).thenReturn(CONTENTS);
+        start(order);
+        HandingOnAspect handingOnAspect = context.getBean(HandingOnAspect.class);
+
+        handingOnAspect.setHandingOn(true);
+        consume(TOPIC);
+        handingOnAspect.setHandingOn(false);
+        consume(TOPIC);
+        consume(TOPIC);
+
+        assertEquals(1, listener().getReceived());
+        // the last delivery is suppressed outside the aspect that handed the first one on
+        assertEquals(2, handingOnAspect.getCalls());
+    }
+
+    @Test
+    @DisplayName("A record re-driven through the listener methods is always processed")
+    void processesRedrivenRecord() {
+        when(serializer.serialize(TOPIC, payload)).thenReturn(CONTENTS);
+        start(ListenerAspectOrder.RETRY_DEFERRAL);
+
+        consume(TOPIC);
+        context.getBean(ListenerMethods.class).invoke(TOPIC, "key", 0, 1L, payload);
+
+        assertEquals(2, listener().getReceived());
+    }
+
+    @Test
+    @DisplayName("Records on the shared retry topic are left to the re-drive")
+    void ignoresSharedRetryTopic() {
+        when(sharedRetryTopic.isSharedTopic(SHARED_RETRY_TOPIC)).thenReturn(true);
+        start(ListenerAspectOrder.RETRY_DEFERRAL);
+
+        consume(SHARED_RETRY_TOPIC);
+        consume(SHARED_RETRY_TOPIC);
+
+        assertEquals(2, listener().getReceived());
+        verifyNoInteractions(serializer);
+    }
+
+    private void start(int handingOnOrder) {
+        context = new AnnotationConfigApplicationContext();
+        context.register(AspectConfig.class);
+        context.registerBean(ListenerMethods.class);
+        context.registerBean(DuplicateFilter.class, () -> new DuplicateFilter(true, 1000L,
+                0.000001, 60L, meterRegistry));
+        context.registerBean(DuplicateSuppressionAspect.class, () ->
+                new DuplicateSuppressionAspect(context.getBean(DuplicateFilter.class),
+                        serializer, context.getBean(ListenerMethods.class), sharedRetryTopic,
+                        logger));
+        context.registerBean(HandingOnAspect.class, () -> new HandingOnAspect(handingOnOrder,
+                context.getBean(ListenerMethods.class)));
+        context.registerBean(TestListener.class);
+        context.refresh();
+    }
+
+    private void consume(String topic) {
+        Message<ResourceChangedData> message = MessageBuilder.withPayload(payload).build();
+        listener().receive(message, topic, "0", "1");
+    }
+
+    private TestListener listener() {
+        return context.getBean(TestListener.class);
+    }
+
+    @Configuration
+    @EnableAspectJAutoProxy
+    static class AspectConfig {
+    }
+
+    /**
+     * Stands in for the aspects that hand a record on to be processed later, such as the retry
+     * deferral, at the given order.
+     */
+    @Aspect
+    static class HandingOnAspect implements Ordered {
+
+        private final int order;
+        private final ListenerMethods listenerMethods;
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile boolean handingOn;
+
+        HandingOnAspect(int order, ListenerMethods listenerMethods) {
+            this.order = order;
+            this.listenerMethods = listenerMethods;
+        }
+
+        @Around("@annotation(org.springframework.kafka.annotation.KafkaListener)")
+        public Object handOn(ProceedingJoinPoint joinPoint) throws Throwable {
+            calls.incrementAndGet();
+            if (handingOn) {
+                listenerMethods.markHandedOn();
+                return null;
+            }
+            return joinPoint.proceed();
+        }
+
+        @Override
+        public int getOrder() {
+            return order;
+        }
+
+        void setHandingOn(boolean handingOn) {
+            this.handingOn = handingOn;
+        }
+
+        int getCalls() {
+            return calls.get();
+        }
+    }
+
+    @Component
+    static class TestListener {
+
+        private final AtomicInteger received = new AtomicInteger();
+
+        @KafkaListener(topics = TOPIC)
+        public void receive(Message<?> message, String topic, String partition,
+                String offset) {
+            received.incrementAndGet();
+        }
+
+        public int getReceived() {
+            return received.get();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package uk.gov.companieshouse.company.links.dedup;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class XxHash64Test {
+
+    @Test
+    @DisplayName("Hashes match the reference xxHash64 implementation")
+    void matchesReferenceVectors() {
+        assertEquals(0xEF46DB3751D8E999L, XxHash64.hash(new byte[0], 0L));
+        assertEquals(0xD24EC4F1A98C6E5BL, hash("a"));
+        assertEquals(0x44BC2CF5AD770999L, hash("abc"));
+        assertEquals(0xFBCEA83C8A378BF1L, hash("Nobody inspects the spammish repetition"));
+    }
+
+    private static long hash(String input) {
+        return XxHash64.hash(input.getBytes(StandardCharsets.UTF_8), 0L);
+    }
+}
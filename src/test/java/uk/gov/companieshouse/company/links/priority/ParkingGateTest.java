@@ -0,0 +1,81 @@
+package uk.gov.companieshouse.company.links.priority;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import uk.gov.companieshouse.company.links.retry.ContainerPauses;
+import uk.gov.companieshouse.logging.Logger;
+
+@ExtendWith(MockitoExtension.class)
+class ParkingGateTest {
+
+    private static final String PARKING_TOPIC = "company-links-consumer-parked";
+
+    @Mock
+    private PriorityLanes priorityLanes;
+
+    @Mock
+    private KafkaListenerEndpointRegistry registry;
+
+    @Mock
+    private MessageListenerContainer container;
+
+    @Mock
+    private Logger logger;
+
+    private ParkingGate parkingGate;
+
+    @BeforeEach
+    void setUp() {
+        parkingGate = new ParkingGate(true, 1000L, PARKING_TOPIC, priorityLanes, registry,
+                new ContainerPauses(), logger, new SimpleMeterRegistry());
+        when(registry.getListenerContainer(PARKING_TOPIC + "-consumer")).thenReturn(container);
+    }
+
+    @Test
+    @DisplayName("The parking listener is paused while the low lane is full and resumed after")
+    void pausesWhileLowLaneFull() {
+        when(container.isRunning()).thenReturn(true);
+        when(container.isPauseRequested()).thenReturn(true);
+        when(priorityLanes.hasCapacity(PriorityLanes.Lane.LOW)).thenReturn(false, true);
+
+        parkingGate.check();
+        verify(container).pause();
+
+        parkingGate.check();
+        verify(container).resume();
+    }
+
+    @Test
+    @DisplayName("The parking listener is paused when a record was parked since the last check")
+    void pausesAfterParking() {
+        when(container.isRunning()).thenReturn(true);
+        when(priorityLanes.hasCapacity(PriorityLanes.Lane.LOW)).thenReturn(true);
+        when(priorityLanes.getLastParkedMillis()).thenReturn(System.currentTimeMillis());
+
+        parkingGate.check();
+
+        verify(container).pause();
+    }
+
+    @Test
+    @DisplayName("The parking listener keeps running while the low lane has room")
+    void leavesListenerRunning() {
+        when(priorityLanes.hasCapacity(PriorityLanes.Lane.LOW)).thenReturn(true);
+
+        parkingGate.check();
+
+        verify(container, never()).pause();
+        verify(container, never()).resume();
+    }
+}
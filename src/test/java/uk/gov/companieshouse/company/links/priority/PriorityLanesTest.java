@@ -0,0 +1,243 @@
+package uk.gov.companieshouse.company.links.priority;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.mock.env.MockEnvironment;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.company.links.retry.ListenerMethods;
+import uk.gov.companieshouse.company.links.retry.RetryPolicies;
+import uk.gov.companieshouse.company.links.retry.RetryTopicPublisher;
+import uk.gov.companieshouse.company.links.service.PatchLinkRequestExtractable;
+import uk.gov.companieshouse.company.links.state.LinkState;
+import uk.gov.companieshouse.company.links.state.LinkStateIndex;
+import uk.gov.companieshouse.company.links.type.LinkType;
+import uk.gov.companieshouse.company.links.type.PatchLinkRequest;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.EventRecord;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+@ExtendWith(MockitoExtension.class)
+class PriorityLanesTest {
+
+    private static final String FILING_HISTORY = "stream-filing-history";
+    private static final String INSOLVENCY = "stream-company-insolvency";
+    private static final String CHARGES = "stream-company-charges";
+    private static final String PARKING_TOPIC = "company-links-consumer-parked";
+    private static final String GROUP_ID = "company-links-consumer";
+    private static final String COMPANY_NUMBER = "00006400";
+    private static final String RESOURCE_URI = "/company/00006400/filing-history/abc";
+
+    @Mock
+    private PatchLinkRequestExtractable extractor;
+    @Mock
+    private LinkStateIndex linkStateIndex;
+    @Mock
+    private ListenerMethods listenerMethods;
+    @Mock
+    private RetryTopicPublisher retryTopicPublisher;
+    @Mock
+    private KafkaTemplate<String, Object> kafkaTemplate;
+    @Mock
+    private Logger logger;
+
+    @Captor
+    private ArgumentCaptor<ProducerRecord<String, Object>> recordCaptor;
+
+    private PriorityLanes priorityLanes;
+
+    @BeforeEach
+    void setUp() {
+        priorityLanes = new PriorityLanes(true, List.of(INSOLVENCY),
+                List.of(FILING_HISTORY + "=filing_history"), 0, 2, 1, 0L, PARKING_TOPIC,
+                extractor, linkStateIndex, listenerMethods, retryTopicPublisher,
+                new RetryPolicies(retryPolicyEnvironment(), new SimpleMeterRegistry()),
+                kafkaTemplate, logger, new SimpleMeterRegistry());
+    }
+
+    @Test
+    @DisplayName("Deletes go in the high lane and other records in their topic's lane")
+    void choosesLanes() {
+        assertEquals(PriorityLanes.Lane.HIGH, priorityLanes.laneFor(FILING_HISTORY,
+                payload("deleted")));
+        assertEquals(PriorityLanes.Lane.HIGH, priorityLanes.laneFor(INSOLVENCY,
+                payload("changed")));
+        assertEquals(PriorityLanes.Lane.LOW, priorityLanes.laneFor(FILING_HISTORY,
+                payload("changed")));
+        assertEquals(PriorityLanes.Lane.LOW, priorityLanes.laneFor(FILING_HISTORY + "-"
+                + GROUP_ID + "-retry", payload("changed")));
+        assertEquals(PriorityLanes.Lane.NORMAL, priorityLanes.laneFor(CHARGES,
+                payload("changed")));
+    }
+
+    @Test
+    @DisplayName("A lane turns records away once its quota is in flight")
+    void enforcesQuota() {
+        assertTrue(priorityLanes.tryEnter(PriorityLanes.Lane.LOW));
+        assertFalse(priorityLanes.tryEnter(PriorityLanes.Lane.LOW));
+        assertTrue(priorityLanes.tryEnter(PriorityLanes.Lane.NORMAL));
+
+        priorityLanes.exit(PriorityLanes.Lane.LOW);
+        assertTrue(priorityLanes.tryEnter(PriorityLanes.Lane.LOW));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(priorityLanes.tryEnter(PriorityLanes.Lane.HIGH));
+        }
+    }
+
+    @Test
+    @DisplayName("Only low priority adds whose link state is unknown may be parked")
+    void parksOnlyUnknownLowPriorityAdds() {
+        when(extractor.extractPatchLinkRequest(RESOURCE_URI, "context_id"))
+                .thenReturn(new PatchLinkRequest(COMPANY_NUMBER, "abc", "context_id"));
+        when(linkStateIndex.getLinkState(COMPANY_NUMBER, LinkType.FILING_HISTORY))
+                .thenReturn(LinkState.UNKNOWN, LinkState.PRESENT, LinkState.ABSENT);
+
+        assertTrue(priorityLanes.isParkable(FILING_HISTORY, payload("changed")));
+        assertFalse(priorityLanes.isParkable(FILING_HISTORY, payload("changed")));
+        assertFalse(priorityLanes.isParkable(FILING_HISTORY, payload("changed")));
+        assertFalse(priorityLanes.isParkable(FILING_HISTORY, payload("deleted")));
+        assertFalse(priorityLanes.isParkable(CHARGES, payload("changed")));
+    }
+
+    @Test
+    @DisplayName("A parked record is published to the parking topic with its origin")
+    void parksRecord() {
+        when(kafkaTemplate.send(any(ProducerRecord.class)))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        Message<ResourceChangedData> message = MessageBuilder.withPayload(payload("changed"))
+                .setHeader(KafkaHeaders.RECEIVED_KEY, "key")
+                .build();
+
+        assertTrue(priorityLanes.park(message, FILING_HISTORY, "2", "42", GROUP_ID));
+
+        verify(kafkaTemplate).send(recordCaptor.capture());
+        ProducerRecord<String, Object> published = recordCaptor.getValue();
+        assertEquals(PARKING_TOPIC, published.topic());
+        assertEquals("key", published.key());
+        assertEquals(FILING_HISTORY, header(published, PriorityLanes.PARKED_TOPIC));
+        assertEquals("2", header(published, PriorityLanes.PARKED_PARTITION));
+        assertEquals("42", header(published, PriorityLanes.PARKED_OFFSET));
+        assertEquals(GROUP_ID, header(published, PriorityLanes.PARKED_GROUP_ID));
+    }
+
+    @Test
+    @DisplayName("A parked record is re-driven, and goes to the retry path if it fails")
+    void unparksRecord() throws Exception {
+        ResourceChangedData payload = payload("changed");
+        Message<ResourceChangedData> message = parkedMessage(payload);
+        priorityLanes.unpark(message);
+        verify(listenerMethods).invoke(FILING_HISTORY, "key", 2, 42L, payload);
+
+        RetryableErrorException failure = new RetryableErrorException("retry");
+        doThrow(failure).when(listenerMethods).invoke(FILING_HISTORY, "key", 2, 42L, payload);
+        priorityLanes.unpark(message);
+        verify(retryTopicPublisher).publish(FILING_HISTORY, GROUP_ID, "key", 2, 42L, payload,
+                failure, 500L);
+        verify(kafkaTemplate, never()).send(any(ProducerRecord.class));
+    }
+
+    @Test
+    @DisplayName("A parked record is re-driven as unparking so it waits for its lane")
+    void marksUnparking() {
+        ResourceChangedData payload = payload("changed");
+        AtomicBoolean unparking = new AtomicBoolean();
+        doAnswer(invocation -> {
+            unparking.set(priorityLanes.isUnparking());
+            return null;
+        }).when(listenerMethods).invoke(FILING_HISTORY, "key", 2, 42L, payload);
+
+        priorityLanes.unpark(parkedMessage(payload));
+
+        assertTrue(unparking.get());
+        assertFalse(priorityLanes.isUnparking());
+    }
+
+    @Test
+    @DisplayName("A lane has capacity until its quota is in flight")
+    void reportsCapacity() {
+        assertTrue(priorityLanes.hasCapacity(PriorityLanes.Lane.LOW));
+        assertTrue(priorityLanes.tryEnter(PriorityLanes.Lane.LOW));
+        assertFalse(priorityLanes.hasCapacity(PriorityLanes.Lane.LOW));
+        assertTrue(priorityLanes.hasCapacity(PriorityLanes.Lane.HIGH));
+    }
+
+    @Test
+    @DisplayName("A parked record that cannot be handed to the retry path is failed")
+    void failsUnpublishableParkedRecord() throws Exception {
+        ResourceChangedData payload = payload("changed");
+        RetryableErrorException failure = new RetryableErrorException("retry");
+        doThrow(failure).when(listenerMethods).invoke(FILING_HISTORY, "key", 2, 42L, payload);
+        doThrow(new TimeoutException("timed out")).when(retryTopicPublisher).publish(
+                any(), any(), any(), anyInt(), anyLong(), same(payload), same(failure),
+                anyLong());
+
+        assertThrows(RetryableErrorException.class,
+                () -> priorityLanes.unpark(parkedMessage(payload)));
+    }
+
+    private static MockEnvironment retryPolicyEnvironment() {
+        String prefix = "company-links.consumer.retry-policy.default.";
+        return new MockEnvironment()
+                .withProperty(prefix + "initial-delay-ms", "500")
+                .withProperty(prefix + "multiplier", "2.0")
+                .withProperty(prefix + "max-delay-ms", "8000")
+                .withProperty(prefix + "jitter", "0.0")
+                .withProperty(prefix + "max-attempts", "4");
+    }
+
+    private static Message<ResourceChangedData> parkedMessage(ResourceChangedData payload) {
+        return MessageBuilder.withPayload(payload)
+                .setHeader(KafkaHeaders.RECEIVED_KEY, "key")
+                .setHeader(PriorityLanes.PARKED_TOPIC, bytes(FILING_HISTORY))
+                .setHeader(PriorityLanes.PARKED_PARTITION, bytes("2"))
+                .setHeader(PriorityLanes.PARKED_OFFSET, bytes("42"))
+                .setHeader(PriorityLanes.PARKED_GROUP_ID, bytes(GROUP_ID))
+                .build();
+    }
+
+    private static ResourceChangedData payload(String eventType) {
+        ResourceChangedData payload = new ResourceChangedData();
+        payload.setContextId("context_id");
+        payload.setResourceUri(RESOURCE_URI);
+        payload.setEvent(new EventRecord("2024-03-01T10:00:00", eventType, null));
+        return payload;
+    }
+
+    private static String header(ProducerRecord<String, Object> record, String name) {
+        return new String(record.headers().lastHeader(name).value(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -1,5 +1,6 @@
 package uk.gov.companieshouse.company.links.processor;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.IOException;
 import java.util.Map;
 import java.util.Optional;
@@ -23,11 +24,13 @@ import uk.gov.companieshouse.api.company.Data;
 import uk.gov.companieshouse.api.company.Links;
 import uk.gov.companieshouse.api.model.ApiResponse;
 import uk.gov.companieshouse.company.links.consumer.ChargesStreamConsumer;
+import uk.gov.companieshouse.company.links.concurrency.CompanyLocks;
 import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
 import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
 import uk.gov.companieshouse.company.links.logging.DataMapHolder;
 import uk.gov.companieshouse.company.links.service.ChargesService;
 import uk.gov.companieshouse.company.links.service.CompanyProfileService;
+import uk.gov.companieshouse.company.links.state.LinkStateIndex;
 import uk.gov.companieshouse.logging.Logger;
 import uk.gov.companieshouse.stream.ResourceChangedData;
 
@@ -74,7 +77,14 @@ class ChargesStreamConsumerTest {
         chargesStreamProcessor = spy(new ChargesStreamProcessor(
                 companyProfileService,
                 chargesService,
-                logger));
+                logger,
+                new SpeculativePrefetcher(false, 1, 1, new SimpleMeterRegistry()),
+                new CompanyLocks(true, 16, 1000L, new SimpleMeterRegistry()),
+                new LinkStateIndex(false, 1, 0L, new SimpleMeterRegistry()),
+                new ProfileConflation(false, 1, companyProfileService,
+                        new CompanyLocks(true, 16, 1000L, new SimpleMeterRegistry()),
+                        new LinkStateIndex(false, 1, 0L, new SimpleMeterRegistry()),
+                        logger, new SimpleMeterRegistry())));
         testData = new TestData();
         DataMapHolder.initialise(CONTEXT_ID);
         chargesStreamConsumer = new ChargesStreamConsumer(chargesStreamProcessor, logger);
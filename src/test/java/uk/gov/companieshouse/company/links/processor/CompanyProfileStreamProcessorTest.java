@@ -2,6 +2,7 @@ package uk.gov.companieshouse.company.links.processor;
 
 import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpResponseException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -27,19 +28,24 @@ import uk.gov.companieshouse.api.model.ApiResponse;
 import uk.gov.companieshouse.api.model.filinghistory.FilingHistoryApi;
 import uk.gov.companieshouse.api.psc.PscList;
 import uk.gov.companieshouse.api.psc.StatementList;
+import uk.gov.companieshouse.company.links.concurrency.CompanyLocks;
 import uk.gov.companieshouse.company.links.consumer.CompanyProfileStreamConsumer;
 import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
 import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
 import uk.gov.companieshouse.company.links.logging.DataMapHolder;
 import uk.gov.companieshouse.company.links.serialization.CompanyProfileDeserializer;
 import uk.gov.companieshouse.company.links.service.*;
+import uk.gov.companieshouse.company.links.state.LinkStateIndex;
+import uk.gov.companieshouse.company.links.type.LinkType;
 import uk.gov.companieshouse.company.links.type.PatchLinkRequest;
 import uk.gov.companieshouse.logging.Logger;
 import uk.gov.companieshouse.stream.ResourceChangedData;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -94,7 +100,9 @@ class CompanyProfileStreamProcessorTest {
                 insolvencyService,
                 officerListClient, addOfficersClient,
                 pscListClient, addPscClient,
-                statementsListClient, addStatementsClient));
+                statementsListClient, addStatementsClient,
+                new CompanyLocks(true, 16, 1000L, new SimpleMeterRegistry()),
+                new LinkStateIndex(false, 1, 0L, new SimpleMeterRegistry())));
         testData = new TestData();
         DataMapHolder.initialise(CONTEXT_ID);
         companyProfileStreamConsumer = new CompanyProfileStreamConsumer(companyProfileStreamProcessor, logger);
@@ -106,6 +114,25 @@ class CompanyProfileStreamProcessorTest {
         assertEquals(MOCK_COMPANY_NUMBER, dataMap.get("company_number"));
     }
 
+    @Test
+    @DisplayName("Reconciling links without applying them reports the missing Charges link without patching it")
+    void reconcileLinksReportsMissingChargesLinkWithoutPatching() throws IOException {
+        // given
+        Data companyProfile = testData.createCompanyProfileWithLinksFromJson();
+        companyProfile.getLinks().setCharges(null);
+        when(chargesService.getCharges(any(), any())).thenReturn(
+                new ApiResponse<> (200, null, testData.createCharges()));
+
+        // when
+        Set<LinkType> added = EnumSet.noneOf(LinkType.class);
+        companyProfileStreamProcessor.reconcileLinks(CONTEXT_ID, MOCK_COMPANY_NUMBER,
+                companyProfile, false, () -> { throw new IllegalStateException(); }, added);
+
+        // then
+        assertEquals(Set.of(LinkType.CHARGES), added);
+        verifyNoInteractions(companyProfileService);
+    }
+
     // CHARGES TESTS
     @Test
     @DisplayName("Successfully processes a kafka message containing a Company Profile ResourceChanged payload, " +
@@ -16,6 +16,7 @@ import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 import static uk.gov.companieshouse.company.links.processor.TestData.CONTEXT_ID;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Map;
@@ -39,11 +40,14 @@ import uk.gov.companieshouse.api.company.Data;
 import uk.gov.companieshouse.api.company.Links;
 import uk.gov.companieshouse.api.insolvency.CompanyInsolvency;
 import uk.gov.companieshouse.api.model.ApiResponse;
+import uk.gov.companieshouse.company.links.concurrency.CompanyLocks;
 import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+import uk.gov.companieshouse.company.links.exception.NotYetDeletedException;
 import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
 import uk.gov.companieshouse.company.links.logging.DataMapHolder;
 import uk.gov.companieshouse.company.links.service.InsolvencyService;
 import uk.gov.companieshouse.company.links.service.CompanyProfileService;
+import uk.gov.companieshouse.company.links.state.LinkStateIndex;
 import uk.gov.companieshouse.logging.Logger;
 import uk.gov.companieshouse.stream.EventRecord;
 import uk.gov.companieshouse.stream.ResourceChangedData;
@@ -70,7 +74,14 @@ class InsolvencyStreamProcessorTest {
         DataMapHolder.initialise(CONTEXT_ID);
         insolvencyProcessor = new InsolvencyStreamProcessor(
                 companyProfileService,
-                logger, insolvencyService);
+                logger, insolvencyService,
+                new SpeculativePrefetcher(false, 1, 1, new SimpleMeterRegistry()),
+                new CompanyLocks(true, 16, 1000L, new SimpleMeterRegistry()),
+                new LinkStateIndex(false, 1, 0L, new SimpleMeterRegistry()),
+                new ProfileConflation(false, 1, companyProfileService,
+                        new CompanyLocks(true, 16, 1000L, new SimpleMeterRegistry()),
+                        new LinkStateIndex(false, 1, 0L, new SimpleMeterRegistry()),
+                        logger, new SimpleMeterRegistry()));
     }
 
     @Test
@@ -449,6 +460,55 @@ class InsolvencyStreamProcessorTest {
         verifyLoggingDataMap();
     }
 
+    @Test
+    @DisplayName("DELETE DELTA - Recheck of a not yet deleted insolvency patches a freshly fetched profile")
+    void recheckFetchesCompanyProfileAgain() throws IOException {
+        Message<ResourceChangedData> mockResourceChangedMessage = createResourceChangedMessageWithDeletedEvent();
+        CompanyProfile laterProfile = createCompanyProfileWithInsolvencyLinks();
+        laterProfile.getData().getLinks().setCharges(
+                String.format("/company/%s/charges", MOCK_COMPANY_NUMBER));
+        when(companyProfileService.getCompanyProfile(CONTEXT_ID, MOCK_COMPANY_NUMBER))
+                .thenReturn(new ApiResponse<>(HttpStatus.OK.value(), null,
+                        createCompanyProfileWithInsolvencyLinks()))
+                .thenReturn(new ApiResponse<>(HttpStatus.OK.value(), null, laterProfile));
+        when(insolvencyService.getInsolvency(CONTEXT_ID, MOCK_COMPANY_NUMBER))
+                .thenReturn(new ApiResponse<>(HttpStatus.OK.value(), null, null))
+                .thenReturn(new ApiResponse<>(HttpStatus.NOT_FOUND.value(), null, null));
+        when(companyProfileService.patchCompanyProfile(any(), any(), any()))
+                .thenReturn(new ApiResponse<>(200, null, null));
+
+        NotYetDeletedException exception = assertThrows(NotYetDeletedException.class,
+                () -> insolvencyProcessor.processDelete(mockResourceChangedMessage));
+        exception.getRecheck().run();
+
+        verify(companyProfileService, times(2)).getCompanyProfile(CONTEXT_ID, MOCK_COMPANY_NUMBER);
+        verify(companyProfileService).patchCompanyProfile(
+                eq(CONTEXT_ID), eq(MOCK_COMPANY_NUMBER), companyProfileCaptor.capture());
+        Links patched = companyProfileCaptor.getValue().getData().getLinks();
+        assertNull(patched.getInsolvency());
+        assertEquals(String.format("/company/%s/charges", MOCK_COMPANY_NUMBER),
+                patched.getCharges());
+    }
+
+    @Test
+    @DisplayName("DELETE DELTA - Recheck of an insolvency that is still there only reads the insolvency")
+    void recheckOnlyReadsInsolvencyWhileNotDeleted() throws IOException {
+        Message<ResourceChangedData> mockResourceChangedMessage = createResourceChangedMessageWithDeletedEvent();
+        when(companyProfileService.getCompanyProfile(CONTEXT_ID, MOCK_COMPANY_NUMBER))
+                .thenReturn(new ApiResponse<>(HttpStatus.OK.value(), null,
+                        createCompanyProfileWithInsolvencyLinks()));
+        when(insolvencyService.getInsolvency(CONTEXT_ID, MOCK_COMPANY_NUMBER))
+                .thenReturn(new ApiResponse<>(HttpStatus.OK.value(), null, null));
+
+        NotYetDeletedException exception = assertThrows(NotYetDeletedException.class,
+                () -> insolvencyProcessor.processDelete(mockResourceChangedMessage));
+        assertThrows(NotYetDeletedException.class, () -> exception.getRecheck().run());
+
+        verify(insolvencyService, times(2)).getInsolvency(CONTEXT_ID, MOCK_COMPANY_NUMBER);
+        verify(companyProfileService).getCompanyProfile(CONTEXT_ID, MOCK_COMPANY_NUMBER);
+        verify(companyProfileService, never()).patchCompanyProfile(any(), any(), any());
+    }
+
     private Message<ResourceChangedData> createResourceChangedMessage() throws IOException {
         InputStreamReader exampleInsolvencyJsonPayload = new InputStreamReader(
                 Objects.requireNonNull(ClassLoader.getSystemClassLoader()
@@ -0,0 +1,162 @@
+package uk.gov.companieshouse.company.links.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.companieshouse.api.company.CompanyProfile;
+import uk.gov.companieshouse.api.company.Data;
+import uk.gov.companieshouse.api.company.Links;
+import uk.gov.companieshouse.api.model.ApiResponse;
+import uk.gov.companieshouse.company.links.concurrency.CompanyLocks;
+import uk.gov.companieshouse.company.links.exception.NotYetDeletedException;
+import uk.gov.companieshouse.company.links.service.CompanyProfileService;
+import uk.gov.companieshouse.company.links.state.LinkStateIndex;
+import uk.gov.companieshouse.company.links.type.LinkPatch;
+import uk.gov.companieshouse.company.links.type.LinkType;
+import uk.gov.companieshouse.logging.Logger;
+
+@ExtendWith(MockitoExtension.class)
+class ProfileConflationTest {
+
+    private static final String COMPANY_NUMBER = "00006400";
+
+    @Mock
+    private CompanyProfileService companyProfileService;
+
+    @Mock
+    private Logger logger;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private ProfileConflation profileConflation;
+
+    @BeforeEach
+    void setUp() {
+        profileConflation = new ProfileConflation(true, 2, companyProfileService,
+                new CompanyLocks(true, 16, 1000L, new SimpleMeterRegistry()),
+                new LinkStateIndex(false, 1, 0L, new SimpleMeterRegistry()), logger,
+                meterRegistry);
+        CompanyProfile companyProfile = new CompanyProfile();
+        companyProfile.setData(new Data());
+        when(companyProfileService.getCompanyProfile(anyString(), eq(COMPANY_NUMBER)))
+                .thenReturn(new ApiResponse<>(200, Collections.emptyMap(), companyProfile));
+    }
+
+    @Test
+    @DisplayName("An event for a company with nothing in progress is reconciled on its own")
+    void reconcilesAloneWithoutWaiting() {
+        when(companyProfileService.patchCompanyProfile(anyString(), eq(COMPANY_NUMBER), any()))
+                .thenReturn(new ApiResponse<>(200, Collections.emptyMap()));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(1), () -> profileConflation.submit(
+                "charges-context", COMPANY_NUMBER, data ->
+                        LinkPatch.builder().addLink(LinkType.CHARGES, COMPANY_NUMBER).build()));
+
+        verify(companyProfileService).getCompanyProfile(anyString(), eq(COMPANY_NUMBER));
+        verify(companyProfileService).patchCompanyProfile(anyString(), eq(COMPANY_NUMBER),
+                any());
+    }
+
+    @Test
+    @DisplayName("Changes arriving while one is in progress share one profile GET and PATCH")
+    void mergesChangesIntoOnePatch() throws Exception {
+        when(companyProfileService.patchCompanyProfile(anyString(), eq(COMPANY_NUMBER), any()))
+                .thenReturn(new ApiResponse<>(200, Collections.emptyMap()));
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> inProgress = submitBlocked(release);
+
+        CompletableFuture<Void> charges = CompletableFuture.runAsync(() ->
+                profileConflation.submit("charges-context", COMPANY_NUMBER, data ->
+                        LinkPatch.builder().addLink(LinkType.CHARGES, COMPANY_NUMBER).build()));
+        CompletableFuture<Void> registers = CompletableFuture.runAsync(() ->
+                profileConflation.submit("registers-context", COMPANY_NUMBER, data ->
+                        LinkPatch.builder().addLink(LinkType.REGISTERS, COMPANY_NUMBER).build()));
+        awaitConflated(1.0);
+        release.countDown();
+        CompletableFuture.allOf(inProgress, charges, registers).get(5, TimeUnit.SECONDS);
+
+        ArgumentCaptor<CompanyProfile> patched = ArgumentCaptor.forClass(CompanyProfile.class);
+        verify(companyProfileService, times(2)).getCompanyProfile(anyString(),
+                eq(COMPANY_NUMBER));
+        verify(companyProfileService, times(1)).patchCompanyProfile(anyString(),
+                eq(COMPANY_NUMBER), patched.capture());
+        Links links = patched.getValue().getData().getLinks();
+        assertEquals("/company/00006400/charges", links.getCharges());
+        assertEquals("/company/00006400/registers", links.getRegisters());
+    }
+
+    @Test
+    @DisplayName("An event whose change cannot be worked out fails without failing the others")
+    void failsOnlyTheEventThatFailed() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> inProgress = submitBlocked(release);
+
+        CompletableFuture<Void> delete = CompletableFuture.runAsync(() ->
+                profileConflation.submit("delete-context", COMPANY_NUMBER, data -> {
+                    throw new NotYetDeletedException("not yet", COMPANY_NUMBER, () -> { });
+                }));
+        CompletableFuture<Void> delta = CompletableFuture.runAsync(() ->
+                profileConflation.submit("delta-context", COMPANY_NUMBER, data -> null));
+        awaitConflated(1.0);
+        release.countDown();
+
+        ExecutionException exception = assertThrows(ExecutionException.class,
+                () -> delete.get(5, TimeUnit.SECONDS));
+        assertEquals(NotYetDeletedException.class, exception.getCause().getClass());
+        delta.get(5, TimeUnit.SECONDS);
+        inProgress.get(5, TimeUnit.SECONDS);
+        verify(companyProfileService, never()).patchCompanyProfile(anyString(), anyString(),
+                any());
+    }
+
+    /**
+     * Start a reconcile whose event makes no change, and that stays in progress until released.
+     */
+    private CompletableFuture<Void> submitBlocked(CountDownLatch release)
+            throws InterruptedException {
+        CountDownLatch planning = new CountDownLatch(1);
+        CompletableFuture<Void> inProgress = CompletableFuture.runAsync(() ->
+                profileConflation.submit("blocked-context", COMPANY_NUMBER, data -> {
+                    planning.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException exception) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return null;
+                }));
+        assertTrue(planning.await(5, TimeUnit.SECONDS));
+        return inProgress;
+    }
+
+    private void awaitConflated(double count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (meterRegistry.counter(ProfileConflation.METRIC_NAME, "outcome", "conflated")
+                .count() < count && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10L);
+        }
+    }
+}
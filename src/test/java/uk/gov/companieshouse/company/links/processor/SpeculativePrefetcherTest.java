@@ -0,0 +1,131 @@
+package uk.gov.companieshouse.company.links.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static uk.gov.companieshouse.company.links.processor.TestData.CONTEXT_ID;
+import static uk.gov.companieshouse.company.links.processor.TestData.MOCK_COMPANY_NUMBER;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.company.links.processor.SpeculativePrefetcher.Prefetch;
+
+class SpeculativePrefetcherTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private SpeculativePrefetcher prefetcher;
+
+    @AfterEach
+    void tearDown() {
+        prefetcher.destroy();
+    }
+
+    @Test
+    @DisplayName("Disabled prefetcher defers the call until the result is requested")
+    void disabledPrefetcherDefersCall() {
+        prefetcher = new SpeculativePrefetcher(false, 1, 1, meterRegistry);
+        AtomicInteger calls = new AtomicInteger();
+
+        Prefetch<Integer> prefetch = prefetcher.prefetch(CONTEXT_ID, MOCK_COMPANY_NUMBER,
+                calls::incrementAndGet);
+        assertEquals(0, calls.get());
+
+        assertEquals(1, prefetch.get());
+        prefetch.discard();
+        assertEquals(0.0, wasted());
+    }
+
+    @Test
+    @DisplayName("Enabled prefetcher sends the call ahead of time and records it as used")
+    void enabledPrefetcherRecordsUsedResult() {
+        prefetcher = new SpeculativePrefetcher(true, 1, 1, meterRegistry);
+
+        Prefetch<String> prefetch = prefetcher.prefetch(CONTEXT_ID, MOCK_COMPANY_NUMBER,
+                () -> "charge");
+
+        assertEquals("charge", prefetch.get());
+        assertEquals(1.0, meterRegistry.counter(SpeculativePrefetcher.METRIC_NAME,
+                "outcome", "used").count());
+    }
+
+    @Test
+    @DisplayName("Enabled prefetcher records discarded results as wasted")
+    void enabledPrefetcherRecordsWastedResult() {
+        prefetcher = new SpeculativePrefetcher(true, 1, 1, meterRegistry);
+
+        prefetcher.prefetch(CONTEXT_ID, MOCK_COMPANY_NUMBER, () -> "charge").discard();
+
+        assertEquals(1.0, wasted());
+    }
+
+    @Test
+    @DisplayName("Enabled prefetcher rethrows the failure of the speculative call")
+    void enabledPrefetcherRethrowsFailure() {
+        prefetcher = new SpeculativePrefetcher(true, 1, 1, meterRegistry);
+
+        Prefetch<String> prefetch = prefetcher.prefetch(CONTEXT_ID, MOCK_COMPANY_NUMBER, () -> {
+            throw new RetryableErrorException("charges-data-api unavailable");
+        });
+
+        assertThrows(RetryableErrorException.class, prefetch::get);
+    }
+
+    @Test
+    @DisplayName("Enabled prefetcher does not speculate without a company number")
+    void enabledPrefetcherSkipsMissingCompanyNumber() {
+        prefetcher = new SpeculativePrefetcher(true, 1, 1, meterRegistry);
+        AtomicInteger calls = new AtomicInteger();
+
+        prefetcher.prefetch(CONTEXT_ID, null, calls::incrementAndGet).discard();
+
+        assertEquals(0, calls.get());
+        assertEquals(0.0, wasted());
+    }
+
+    @Test
+    @DisplayName("Enabled prefetcher makes the call when asked once its queue is full")
+    void fullPrefetcherDefersCall() throws InterruptedException {
+        prefetcher = new SpeculativePrefetcher(true, 1, 1, meterRegistry);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+
+        Prefetch<String> running = prefetcher.prefetch(CONTEXT_ID, MOCK_COMPANY_NUMBER, () -> {
+            started.countDown();
+            awaitQuietly(release);
+            return "running";
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Prefetch<String> queued = prefetcher.prefetch(CONTEXT_ID, MOCK_COMPANY_NUMBER,
+                () -> "queued");
+        Prefetch<Integer> dropped = prefetcher.prefetch(CONTEXT_ID, MOCK_COMPANY_NUMBER,
+                calls::incrementAndGet);
+
+        assertEquals(0, calls.get());
+        assertEquals(1, dropped.get());
+        assertEquals(1.0, meterRegistry.counter(SpeculativePrefetcher.METRIC_NAME,
+                "outcome", "rejected").count());
+        release.countDown();
+        assertEquals("running", running.get());
+        assertEquals("queued", queued.get());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private double wasted() {
+        return meterRegistry.counter(SpeculativePrefetcher.METRIC_NAME, "outcome", "wasted")
+                .count();
+    }
+}
@@ -0,0 +1,179 @@
+package uk.gov.companieshouse.company.links.replay;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.support.KafkaHeaders;
+import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.company.links.retry.DownstreamBreakers;
+import uk.gov.companieshouse.company.links.retry.ListenerMethods;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.EventRecord;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+@ExtendWith(MockitoExtension.class)
+class ErrorTopicReplayerTest {
+
+    private static final String TOPIC = "stream-company-charges";
+    private static final String ERROR_TOPIC = TOPIC + "-company-links-consumer-error";
+    private static final TopicPartition PARTITION = new TopicPartition(ERROR_TOPIC, 0);
+
+    @Mock
+    private ConsumerFactory<String, ResourceChangedData> consumerFactory;
+
+    @Mock
+    private ListenerMethods listenerMethods;
+
+    @Mock
+    private DownstreamBreakers downstreamBreakers;
+
+    @Mock
+    private Logger logger;
+
+    private final MockConsumer<String, ResourceChangedData> consumer =
+            new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+
+    private ErrorTopicReplayer errorTopicReplayer;
+
+    @BeforeEach
+    void setUp() {
+        errorTopicReplayer = new ErrorTopicReplayer("company-links-consumer-replay", 10,
+                consumerFactory, listenerMethods, downstreamBreakers, logger,
+                new SimpleMeterRegistry());
+        when(consumerFactory.createConsumer("company-links-consumer-replay", "replay-", null))
+                .thenReturn(consumer);
+        consumer.updatePartitions(ERROR_TOPIC,
+                List.of(new PartitionInfo(ERROR_TOPIC, 0, null, null, null)));
+        consumer.updateBeginningOffsets(Map.of(PARTITION, 0L));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        errorTopicReplayer.destroy();
+    }
+
+    @Test
+    @DisplayName("Selected records are replayed through their original listener once per company")
+    void replaysSelectedRecords() throws InterruptedException {
+        when(listenerMethods.hasListener(TOPIC)).thenReturn(true);
+        doThrow(new RetryableErrorException("still failing")).when(listenerMethods)
+                .invoke(eq(TOPIC), eq("key-3"), anyInt(), anyLong(),
+                        eq(payload("22222222")));
+        consumer.updateEndOffsets(Map.of(PARTITION, 4L));
+        consumer.schedulePollTask(() -> {
+            consumer.addRecord(errorRecord(0, "00006400", RetryableErrorException.class));
+            consumer.addRecord(errorRecord(1, "00006400", RetryableErrorException.class));
+            consumer.addRecord(errorRecord(2, "11111111", NonRetryableErrorException.class));
+            consumer.addRecord(errorRecord(3, "22222222", RetryableErrorException.class));
+        });
+
+        ReplayProgress progress = errorTopicReplayer.start(new ReplayRequest(
+                List.of(ERROR_TOPIC), null, null, "RetryableErrorException", null, 0.0, 2));
+        awaitFinished(progress);
+
+        assertEquals(ReplayProgress.State.COMPLETED, progress.getState());
+        assertEquals(4L, progress.getTotal());
+        assertEquals(4L, progress.getScanned());
+        assertEquals(1L, progress.getFiltered());
+        assertEquals(1L, progress.getDeduplicated());
+        assertEquals(1L, progress.getReplayed());
+        assertEquals(1L, progress.getFailed());
+        verify(listenerMethods).invoke(TOPIC, "key-0", 2, 40L, payload("00006400"));
+        verify(listenerMethods, times(2)).invoke(eq(TOPIC), any(), anyInt(), anyLong(),
+                any());
+    }
+
+    @Test
+    @DisplayName("Records can be selected by company number")
+    void selectsByCompanyNumber() throws InterruptedException {
+        when(listenerMethods.hasListener(TOPIC)).thenReturn(true);
+        consumer.updateEndOffsets(Map.of(PARTITION, 2L));
+        consumer.schedulePollTask(() -> {
+            consumer.addRecord(errorRecord(0, "00006400", RetryableErrorException.class));
+            consumer.addRecord(errorRecord(1, "11111111", RetryableErrorException.class));
+        });
+
+        ReplayProgress progress = errorTopicReplayer.start(new ReplayRequest(
+                List.of(ERROR_TOPIC), null, null, null, "11111111", 0.0, 1));
+        awaitFinished(progress);
+
+        assertEquals(1L, progress.getFiltered());
+        assertEquals(1L, progress.getReplayed());
+        verify(listenerMethods).invoke(TOPIC, "key-1", 2, 41L, payload("11111111"));
+    }
+
+    @Test
+    @DisplayName("Only one replay runs at a time")
+    void rejectsConcurrentReplay() {
+        consumer.updateEndOffsets(Map.of(PARTITION, 1L));
+
+        errorTopicReplayer.start(new ReplayRequest(List.of(ERROR_TOPIC), null, null, null, null,
+                0.0, 1));
+
+        assertThrows(IllegalStateException.class, () -> errorTopicReplayer.start(
+                new ReplayRequest(List.of(ERROR_TOPIC), null, null, null, null, 0.0,
+                        1)));
+        errorTopicReplayer.cancel();
+    }
+
+    private static void awaitFinished(ReplayProgress progress) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (progress.getState() == ReplayProgress.State.RUNNING
+                && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10L);
+        }
+    }
+
+    private static ConsumerRecord<String, ResourceChangedData> errorRecord(long offset,
+            String companyNumber, Class<? extends Exception> exceptionClass) {
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(KafkaHeaders.DLT_ORIGINAL_TOPIC, TOPIC.getBytes(StandardCharsets.UTF_8));
+        headers.add(KafkaHeaders.DLT_ORIGINAL_PARTITION,
+                ByteBuffer.allocate(Integer.BYTES).putInt(2).array());
+        headers.add(KafkaHeaders.DLT_ORIGINAL_OFFSET,
+                ByteBuffer.allocate(Long.BYTES).putLong(40L + offset).array());
+        headers.add(KafkaHeaders.DLT_EXCEPTION_FQCN,
+                exceptionClass.getName().getBytes(StandardCharsets.UTF_8));
+        return new ConsumerRecord<>(ERROR_TOPIC, 0, offset, 0L, TimestampType.CREATE_TIME, 0, 0,
+                "key-" + offset, payload(companyNumber), headers, Optional.empty());
+    }
+
+    private static ResourceChangedData payload(String companyNumber) {
+        ResourceChangedData payload = new ResourceChangedData();
+        payload.setContextId("context_id");
+        payload.setResourceUri(String.format("/company/%s/charges/abc", companyNumber));
+        payload.setEvent(new EventRecord(null, "changed", null));
+        return payload;
+    }
+}
@@ -0,0 +1,145 @@
+package uk.gov.companieshouse.company.links.replay;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.ConsumerFactory;
+import uk.gov.companieshouse.company.links.retry.DownstreamBreakers;
+import uk.gov.companieshouse.company.links.retry.ListenerMethods;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.EventRecord;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+@ExtendWith(MockitoExtension.class)
+class MainTopicReprocessorTest {
+
+    private static final String CHARGES_TOPIC = "stream-company-charges";
+    private static final String OFFICERS_TOPIC = "stream-company-officers";
+
+    @Mock
+    private ConsumerFactory<String, ResourceChangedData> consumerFactory;
+
+    @Mock
+    private ListenerMethods listenerMethods;
+
+    @Mock
+    private DownstreamBreakers downstreamBreakers;
+
+    @Mock
+    private Logger logger;
+
+    private final MockConsumer<String, ResourceChangedData> consumer =
+            new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+
+    private MainTopicReprocessor mainTopicReprocessor;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (mainTopicReprocessor != null) {
+            mainTopicReprocessor.destroy();
+        }
+    }
+
+    @Test
+    @DisplayName("Every main topic is reprocessed up to its end offset once per company")
+    void reprocessesEveryMainTopic() throws InterruptedException {
+        mainTopicReprocessor = reprocessor(List.of());
+        when(listenerMethods.getTopics()).thenReturn(Set.of(CHARGES_TOPIC, OFFICERS_TOPIC));
+        when(listenerMethods.hasListener(any())).thenReturn(true);
+        when(consumerFactory.createConsumer("company-links-consumer-reprocess", "reprocess-",
+                null)).thenReturn(consumer);
+        TopicPartition charges = partition(CHARGES_TOPIC);
+        TopicPartition officers = partition(OFFICERS_TOPIC);
+        consumer.updateBeginningOffsets(Map.of(charges, 0L, officers, 0L));
+        consumer.updateEndOffsets(Map.of(charges, 2L, officers, 1L));
+        consumer.schedulePollTask(() -> {
+            consumer.addRecord(record(CHARGES_TOPIC, 0, "00006400"));
+            consumer.addRecord(record(CHARGES_TOPIC, 1, "00006400"));
+            consumer.addRecord(record(CHARGES_TOPIC, 2, "11111111"));
+            consumer.addRecord(record(OFFICERS_TOPIC, 0, "00006400"));
+        });
+
+        ReplayProgress progress = mainTopicReprocessor.start(null, null, null, 0.0, 2);
+        awaitFinished(progress);
+
+        assertEquals(ReplayProgress.State.COMPLETED, progress.getState());
+        assertEquals(List.of(CHARGES_TOPIC, OFFICERS_TOPIC), progress.getRequest().getTopics());
+        assertEquals(3L, progress.getTotal());
+        assertEquals(3L, progress.getScanned());
+        assertEquals(1L, progress.getDeduplicated());
+        assertEquals(2L, progress.getReplayed());
+        verify(listenerMethods).invoke(CHARGES_TOPIC, "key-0", 0, 0L,
+                payload("00006400"));
+        verify(listenerMethods).invoke(OFFICERS_TOPIC, "key-0", 0, 0L,
+                payload("00006400"));
+        verify(listenerMethods, never()).invoke(any(), any(), anyInt(), anyLong(),
+                eq(payload("11111111")));
+        verify(listenerMethods, times(2)).invoke(any(), any(), anyInt(), anyLong(), any());
+    }
+
+    @Test
+    @DisplayName("Only topics with a listener can be reprocessed")
+    void rejectsTopicWithoutListener() {
+        mainTopicReprocessor = reprocessor(List.of("stream-company-charges-retry"));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> mainTopicReprocessor.start(null, null, null, 0.0, 1));
+    }
+
+    private MainTopicReprocessor reprocessor(List<String> topics) {
+        return new MainTopicReprocessor("company-links-consumer-reprocess", topics, 10,
+                consumerFactory, listenerMethods, downstreamBreakers, logger,
+                new SimpleMeterRegistry());
+    }
+
+    private static void awaitFinished(ReplayProgress progress) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (progress.getState() == ReplayProgress.State.RUNNING
+                && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10L);
+        }
+    }
+
+    private TopicPartition partition(String topic) {
+        consumer.updatePartitions(topic,
+                List.of(new PartitionInfo(topic, 0, null, null, null)));
+        return new TopicPartition(topic, 0);
+    }
+
+    private static ConsumerRecord<String, ResourceChangedData> record(String topic, long offset,
+            String companyNumber) {
+        return new ConsumerRecord<>(topic, 0, offset, "key-" + offset, payload(companyNumber));
+    }
+
+    private static ResourceChangedData payload(String companyNumber) {
+        ResourceChangedData payload = new ResourceChangedData();
+        payload.setContextId("context_id");
+        payload.setResourceUri(String.format("/company/%s/charges/abc", companyNumber));
+        payload.setEvent(new EventRecord(null, "changed", null));
+        return payload;
+    }
+}
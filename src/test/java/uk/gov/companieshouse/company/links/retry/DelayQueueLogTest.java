@@ -0,0 +1,154 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DelayQueueLogTest {
+
+    private static final int SEGMENT_BYTES = 4096;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Entries that were not completed are recovered with their latest attempt")
+    void recoversLiveEntries() throws IOException {
+        DelayQueueLog log = recoveredLog();
+        DelayQueueLog.Entry first = entry(log.nextId(), "first");
+        DelayQueueLog.Entry second = entry(log.nextId(), "second");
+        DelayQueueLog.Entry third = entry(log.nextId(), null);
+        log.write(first);
+        log.write(second);
+        log.write(third);
+        log.complete(second.id);
+        log.write(first.retry(2000L));
+
+        // no close: recovery has to cope with a process that died
+        List<DelayQueueLog.Entry> recovered = recoveredLog().recover();
+
+        assertEquals(2, recovered.size());
+        assertEquals(third.id, recovered.get(0).id);
+        assertNull(recovered.get(0).key);
+        assertEquals(first.id, recovered.get(1).id);
+        assertEquals(2, recovered.get(1).attempt);
+        assertEquals(2000L, recovered.get(1).dueMillis);
+        assertEquals("stream-company-charges", recovered.get(1).topic);
+        assertEquals("company-links-consumer", recovered.get(1).groupId);
+        assertEquals("first", recovered.get(1).key);
+        assertEquals(3, recovered.get(1).partition);
+        assertEquals(42L, recovered.get(1).offset);
+        assertArrayEquals(payload(), recovered.get(1).payload);
+    }
+
+    @Test
+    @DisplayName("Ids carry on from the highest id seen in the log")
+    void continuesIds() throws IOException {
+        DelayQueueLog log = recoveredLog();
+        long id = log.nextId();
+        log.write(entry(id, "key"));
+        log.complete(id);
+
+        DelayQueueLog recovered = new DelayQueueLog(directory, SEGMENT_BYTES);
+        recovered.recover();
+
+        assertTrue(recovered.nextId() > id);
+    }
+
+    @Test
+    @DisplayName("A torn record at the end of a segment is ignored")
+    void ignoresTornRecord() throws IOException {
+        DelayQueueLog log = recoveredLog();
+        DelayQueueLog.Entry entry = entry(log.nextId(), "key");
+        log.write(entry);
+        log.write(entry(log.nextId(), "torn"));
+        corruptLastRecord();
+
+        List<DelayQueueLog.Entry> recovered = recoveredLog().recover();
+
+        assertEquals(1, recovered.size());
+        assertEquals(entry.id, recovered.get(0).id);
+    }
+
+    @Test
+    @DisplayName("Segments are rolled when full and deleted once drained")
+    void rollsAndDeletesSegments() throws IOException {
+        DelayQueueLog log = recoveredLog();
+        long firstId = log.nextId();
+        log.write(entry(firstId, "key"));
+        for (int i = 0; i < 100; i++) {
+            long id = log.nextId();
+            log.write(entry(id, "key"));
+            log.complete(id);
+        }
+        assertTrue(log.segmentCount() > 1);
+
+        log.complete(firstId);
+        log.write(entry(log.nextId(), "key"));
+
+        assertEquals(1, log.segmentCount());
+        assertEquals(1, segmentFiles().size());
+        assertEquals(1, recoveredLog().recover().size());
+    }
+
+    @Test
+    @DisplayName("A record larger than a segment is refused")
+    void refusesOversizedRecord() throws IOException {
+        DelayQueueLog log = recoveredLog();
+        DelayQueueLog.Entry entry = new DelayQueueLog.Entry(log.nextId(), 1000L, 1, "topic",
+                "group", "key", 0, 0L, new byte[SEGMENT_BYTES]);
+
+        assertThrows(IOException.class, () -> log.write(entry));
+    }
+
+    private DelayQueueLog recoveredLog() throws IOException {
+        DelayQueueLog log = new DelayQueueLog(directory, SEGMENT_BYTES);
+        log.recover();
+        return log;
+    }
+
+    private void corruptLastRecord() throws IOException {
+        List<Path> files = segmentFiles();
+        try (FileChannel channel = FileChannel.open(files.get(files.size() - 1),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int position = 0;
+            int previous = 0;
+            while (buffer.getInt(position) > 0) {
+                previous = position;
+                position += 8 + buffer.getInt(position);
+            }
+            buffer.put(previous + 12, (byte) ~buffer.get(previous + 12));
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static DelayQueueLog.Entry entry(long id, String key) {
+        return new DelayQueueLog.Entry(id, 1000L, 1, "stream-company-charges",
+                "company-links-consumer", key, 3, 42L, payload());
+    }
+
+    private static byte[] payload() {
+        return "payload".getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,175 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import uk.gov.companieshouse.company.links.concurrency.CompanyLocks;
+import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+import uk.gov.companieshouse.company.links.exception.NotYetDeletedException;
+import uk.gov.companieshouse.company.links.serialization.ResourceChangedDataSerializer;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+@ExtendWith(MockitoExtension.class)
+class DeleteRecheckerTest {
+
+    private static final String COMPANY_NUMBER = "12345678";
+    private static final String TOPIC = "stream-company-charges";
+    private static final String GROUP_ID = "company-charges-group";
+    private static final String RETRY_TOPIC = TOPIC + "-" + GROUP_ID + "-retry";
+    private static final byte[] PAYLOAD_BYTES = "payload".getBytes(StandardCharsets.UTF_8);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @TempDir
+    Path directory;
+
+    @Mock
+    private RetryTopicPublisher retryTopicPublisher;
+
+    @Mock
+    private ResourceChangedDataSerializer serializer;
+
+    @Mock
+    private Logger logger;
+
+    private DeleteRechecker deleteRechecker;
+    private Message<ResourceChangedData> message;
+
+    @BeforeEach
+    void setUp() {
+        deleteRechecker = deleteRechecker(10L);
+        deleteRechecker.afterSingletonsInstantiated();
+        ResourceChangedData payload = new ResourceChangedData();
+        payload.setContextId("context_id");
+        message = MessageBuilder.withPayload(payload)
+                .setHeader(KafkaHeaders.RECEIVED_KEY, "key")
+                .setHeader(KafkaHeaders.RECEIVED_PARTITION, 1)
+                .setHeader(KafkaHeaders.OFFSET, 7L)
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        deleteRechecker.destroy();
+    }
+
+    @Test
+    @DisplayName("Recheck that succeeds locally is never sent to the retry path")
+    void resolvesLocally() throws Exception {
+        when(serializer.serialize(TOPIC, message.getPayload())).thenReturn(PAYLOAD_BYTES);
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch resolved = new CountDownLatch(1);
+        NotYetDeletedException exception = notYetDeleted(() -> {
+            if (attempts.incrementAndGet() < 2) {
+                throw notYetDeleted(() -> { });
+            }
+            resolved.countDown();
+        });
+
+        assertTrue(deleteRechecker.defer(message, TOPIC, GROUP_ID, exception));
+
+        assertTrue(resolved.await(5, TimeUnit.SECONDS));
+        assertEquals(2, attempts.get());
+        deleteRechecker.destroy();
+        DeleteRechecker restarted = deleteRechecker(10L);
+        restarted.afterSingletonsInstantiated();
+        restarted.destroy();
+        verifyNoInteractions(retryTopicPublisher);
+    }
+
+    @Test
+    @DisplayName("Recheck that runs out of attempts is published to the retry path")
+    void escalatesToRetryPath() throws Exception {
+        when(serializer.serialize(TOPIC, message.getPayload())).thenReturn(PAYLOAD_BYTES);
+        AtomicInteger attempts = new AtomicInteger();
+        NotYetDeletedException exception = notYetDeleted(() -> {
+            attempts.incrementAndGet();
+            throw notYetDeleted(() -> { });
+        });
+
+        assertTrue(deleteRechecker.defer(message, TOPIC, GROUP_ID, exception));
+
+        verify(retryTopicPublisher, timeout(5000)).publish(TOPIC, GROUP_ID, "key", 1, 7L,
+                PAYLOAD_BYTES, exception, 40L);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    @DisplayName("A recheck is not taken over when it cannot be stored")
+    void rethrowsWhenNotStored() {
+        when(serializer.serialize(TOPIC, message.getPayload()))
+                .thenThrow(new NonRetryableErrorException("unable to serialise"));
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertFalse(deleteRechecker.defer(message, TOPIC, GROUP_ID,
+                notYetDeleted(attempts::incrementAndGet)));
+
+        assertEquals(0, attempts.get());
+        assertEquals(1.0, meterRegistry.counter(DeleteRechecker.METRIC_NAME, "outcome",
+                "failed").count());
+        verifyNoInteractions(retryTopicPublisher);
+    }
+
+    @Test
+    @DisplayName("Rechecks still pending at shutdown are published to the retry path on restart")
+    void publishesPendingRechecksOnRestart() throws Exception {
+        deleteRechecker.destroy();
+        deleteRechecker = deleteRechecker(60_000L);
+        deleteRechecker.afterSingletonsInstantiated();
+        when(serializer.serialize(TOPIC, message.getPayload())).thenReturn(PAYLOAD_BYTES);
+        assertTrue(deleteRechecker.defer(message, TOPIC, GROUP_ID, notYetDeleted(() -> { })));
+        deleteRechecker.destroy();
+
+        deleteRechecker = deleteRechecker(60_000L);
+        deleteRechecker.afterSingletonsInstantiated();
+
+        verify(retryTopicPublisher, timeout(5000)).publish(eq(TOPIC), eq(GROUP_ID), eq("key"),
+                eq(1), eq(7L), aryEq(PAYLOAD_BYTES), any(NotYetDeletedException.class),
+                eq(40L));
+    }
+
+    @Test
+    @DisplayName("Records already on a retry topic are not rechecked locally")
+    void doesNotDeferRetryTopicRecords() {
+        assertFalse(deleteRechecker.defer(message, RETRY_TOPIC, GROUP_ID,
+                notYetDeleted(() -> { })));
+        verifyNoInteractions(retryTopicPublisher, serializer);
+    }
+
+    private DeleteRechecker deleteRechecker(long initialDelayMs) {
+        return new DeleteRechecker(true, initialDelayMs, 40L, 3, 5L, 1, directory.toString(),
+                4096, new CompanyLocks(true, 16, 1000L, meterRegistry), retryTopicPublisher,
+                new RetryBudget(false, 0.1, 1.0, 10.0, 0L, meterRegistry), serializer, logger,
+                meterRegistry);
+    }
+
+    private static NotYetDeletedException notYetDeleted(Runnable recheck) {
+        return new NotYetDeletedException("not yet deleted", COMPANY_NUMBER, recheck);
+    }
+}
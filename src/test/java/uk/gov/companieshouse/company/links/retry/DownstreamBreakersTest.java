@@ -0,0 +1,198 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import uk.gov.companieshouse.api.error.ApiErrorResponseException;
+import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.logging.Logger;
+
+@ExtendWith(MockitoExtension.class)
+class DownstreamBreakersTest {
+
+    private static final String TOPIC = "stream-company-charges";
+    private static final String GROUP_ID = "company-links-consumer";
+
+    @Mock
+    private KafkaListenerEndpointRegistry registry;
+
+    @Mock
+    private MessageListenerContainer mainContainer;
+
+    @Mock
+    private MessageListenerContainer retryContainer;
+
+    @Mock
+    private MessageListenerContainer otherContainer;
+
+    @Mock
+    private Logger logger;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private DownstreamBreakers downstreamBreakers;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(registry.getListenerContainers())
+                .thenReturn(List.of(mainContainer, retryContainer, otherContainer));
+        stubContainer(mainContainer, TOPIC);
+        stubContainer(retryContainer, TOPIC + "-" + GROUP_ID + "-retry");
+        stubContainer(otherContainer, "stream-company-charges-extra");
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (downstreamBreakers != null) {
+            downstreamBreakers.destroy();
+        }
+    }
+
+    @Test
+    @DisplayName("Breaker opens and pauses the topic and its retry topic after repeated 5xx")
+    void opensAfterRepeatedUnavailability() {
+        downstreamBreakers = breakers(60000L);
+
+        assertFalse(downstreamBreakers.recordFailure(TOPIC, unavailable(503)));
+        assertTrue(downstreamBreakers.recordFailure(TOPIC, unavailable(502)));
+
+        assertTrue(downstreamBreakers.isOpen(TOPIC));
+        verify(mainContainer).pause();
+        verify(retryContainer).pause();
+        verify(otherContainer, never()).pause();
+    }
+
+    @Test
+    @DisplayName("Failures that do not show the downstream is unavailable do not open the breaker")
+    void ignoresOtherFailures() {
+        downstreamBreakers = breakers(60000L);
+
+        downstreamBreakers.recordFailure(TOPIC, new NonRetryableErrorException("bad request"));
+        downstreamBreakers.recordFailure(TOPIC, new RetryableErrorException("retry",
+                new ApiErrorResponseException(
+                        new HttpResponseException.Builder(404, "not found", new HttpHeaders()))));
+        downstreamBreakers.recordFailure(TOPIC, new IllegalStateException("unexpected"));
+
+        assertFalse(downstreamBreakers.isOpen(TOPIC));
+        verify(mainContainer, never()).pause();
+    }
+
+    @Test
+    @DisplayName("Failures unrelated to availability do not reset the run of unavailable ones")
+    void doesNotCountOtherFailuresAsSuccess() {
+        downstreamBreakers = breakers(60000L);
+
+        downstreamBreakers.recordFailure(TOPIC, unavailable(503));
+        downstreamBreakers.recordFailure(TOPIC, new NonRetryableErrorException("bad request"));
+
+        assertTrue(downstreamBreakers.recordFailure(TOPIC, unavailable(503)));
+    }
+
+    @Test
+    @DisplayName("Breaker resumes consumption after the open interval and closes on success")
+    void resumesAndCloses() {
+        downstreamBreakers = breakers(50L);
+        when(mainContainer.isPauseRequested()).thenReturn(true);
+        downstreamBreakers.recordFailure(TOPIC, unavailable(0));
+        downstreamBreakers.recordFailure(TOPIC, unavailable(0));
+
+        verify(mainContainer, timeout(1000)).resume();
+        assertFalse(downstreamBreakers.isOpen(TOPIC));
+
+        downstreamBreakers.recordSuccess(TOPIC);
+        assertFalse(downstreamBreakers.recordFailure(TOPIC, unavailable(500)));
+    }
+
+    @Test
+    @DisplayName("Probe that fails again reopens the breaker straight away")
+    void reopensOnFailedProbe() {
+        downstreamBreakers = breakers(50L);
+        when(mainContainer.isPauseRequested()).thenReturn(true);
+        downstreamBreakers.recordFailure(TOPIC, unavailable(500));
+        downstreamBreakers.recordFailure(TOPIC, unavailable(500));
+        verify(mainContainer, timeout(1000)).resume();
+
+        assertTrue(downstreamBreakers.recordFailure(TOPIC, unavailable(500)));
+        assertTrue(downstreamBreakers.isOpen(TOPIC));
+    }
+
+    @Test
+    @DisplayName("Only one record at a time probes a half open breaker")
+    void letsOneProbeThrough() {
+        downstreamBreakers = breakers(50L);
+        when(mainContainer.isPauseRequested()).thenReturn(true);
+        downstreamBreakers.recordFailure(TOPIC, unavailable(503));
+        downstreamBreakers.recordFailure(TOPIC, unavailable(503));
+        verify(mainContainer, timeout(1000)).resume();
+
+        assertTrue(downstreamBreakers.tryAttempt(TOPIC));
+        assertFalse(downstreamBreakers.tryAttempt(TOPIC));
+
+        downstreamBreakers.recordSuccess(TOPIC);
+        assertTrue(downstreamBreakers.tryAttempt(TOPIC));
+        assertTrue(downstreamBreakers.tryAttempt(TOPIC));
+        assertEquals(1.0, count("closed"));
+    }
+
+    @Test
+    @DisplayName("A probe that fails for another reason leaves the breaker half open")
+    void keepsHalfOpenAfterUnrelatedProbeFailure() {
+        downstreamBreakers = breakers(50L);
+        when(mainContainer.isPauseRequested()).thenReturn(true);
+        downstreamBreakers.recordFailure(TOPIC, unavailable(503));
+        downstreamBreakers.recordFailure(TOPIC, unavailable(503));
+        verify(mainContainer, timeout(1000)).resume();
+        assertTrue(downstreamBreakers.tryAttempt(TOPIC));
+
+        assertFalse(downstreamBreakers.recordFailure(TOPIC,
+                new NonRetryableErrorException("bad request")));
+
+        assertEquals(0.0, count("closed"));
+        assertTrue(downstreamBreakers.tryAttempt(TOPIC));
+        assertFalse(downstreamBreakers.tryAttempt(TOPIC));
+        assertTrue(downstreamBreakers.recordFailure(TOPIC, unavailable(503)));
+    }
+
+    private double count(String outcome) {
+        return meterRegistry.counter(DownstreamBreakers.METRIC_NAME, "outcome", outcome)
+                .count();
+    }
+
+    private DownstreamBreakers breakers(long openMs) {
+        return new DownstreamBreakers(true, 2, openMs, 60000L, registry, new ContainerPauses(),
+                logger, meterRegistry);
+    }
+
+    private static RetryableErrorException unavailable(int status) {
+        return new RetryableErrorException("unavailable", new ApiErrorResponseException(
+                new HttpResponseException.Builder(status, "unavailable", new HttpHeaders())));
+    }
+
+    private static void stubContainer(MessageListenerContainer container, String topic) {
+        lenient().when(container.getContainerProperties())
+                .thenReturn(new ContainerProperties(topic));
+        lenient().when(container.getGroupId()).thenReturn(GROUP_ID);
+        lenient().when(container.isRunning()).thenReturn(true);
+    }
+}
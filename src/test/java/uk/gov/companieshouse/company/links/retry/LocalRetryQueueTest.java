@@ -0,0 +1,163 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.mock.env.MockEnvironment;
+import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.company.links.serialization.ResourceChangedDataDeserializer;
+import uk.gov.companieshouse.company.links.serialization.ResourceChangedDataSerializer;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+@ExtendWith(MockitoExtension.class)
+class LocalRetryQueueTest {
+
+    private static final String PREFIX = "company-links.consumer.retry-policy.";
+    private static final String TOPIC = "stream-company-charges";
+    private static final String GROUP_ID = "company-charges-group";
+    private static final byte[] PAYLOAD_BYTES = "payload".getBytes(StandardCharsets.UTF_8);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @TempDir
+    Path directory;
+
+    @Mock
+    private ListenerMethods listenerMethods;
+
+    @Mock
+    private ErrorTopicPublisher errorTopicPublisher;
+
+    @Mock
+    private ResourceChangedDataSerializer serializer;
+
+    @Mock
+    private ResourceChangedDataDeserializer deserializer;
+
+    @Mock
+    private Logger logger;
+
+    private LocalRetryQueue localRetryQueue;
+    private ResourceChangedData payload;
+    private Message<ResourceChangedData> message;
+
+    @BeforeEach
+    void setUp() {
+        payload = new ResourceChangedData();
+        payload.setContextId("context_id");
+        message = MessageBuilder.withPayload(payload)
+                .setHeader(KafkaHeaders.RECEIVED_KEY, "key")
+                .build();
+        when(listenerMethods.hasListener(TOPIC)).thenReturn(true);
+        when(serializer.serialize(TOPIC, payload)).thenReturn(PAYLOAD_BYTES);
+        when(deserializer.deserialize(eq(TOPIC), aryEq(PAYLOAD_BYTES))).thenReturn(payload);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (localRetryQueue != null) {
+            localRetryQueue.destroy();
+        }
+    }
+
+    @Test
+    @DisplayName("Record that succeeds when re-driven is completed without an error topic")
+    void redrivesUntilResolved() throws Exception {
+        localRetryQueue = localRetryQueue(10L);
+        doThrow(new RetryableErrorException("retry")).doNothing()
+                .when(listenerMethods).invoke(TOPIC, "key", 1, 7L, payload);
+
+        assertTrue(localRetryQueue.defer(message, TOPIC, "1", "7", GROUP_ID,
+                new RetryableErrorException("retry")));
+
+        verify(listenerMethods, timeout(5000).times(2)).invoke(TOPIC, "key", 1, 7L, payload);
+        localRetryQueue.destroy();
+        localRetryQueue = localRetryQueue(10L);
+        localRetryQueue.destroy();
+        localRetryQueue = null;
+        verifyNoInteractions(errorTopicPublisher);
+    }
+
+    @Test
+    @DisplayName("Record that runs out of attempts is published to the error topic")
+    void publishesExhaustedRecord() throws Exception {
+        localRetryQueue = localRetryQueue(10L);
+        doThrow(new RetryableErrorException("retry"))
+                .when(listenerMethods).invoke(TOPIC, "key", 1, 7L, payload);
+
+        assertTrue(localRetryQueue.defer(message, TOPIC, "1", "7", GROUP_ID,
+                new RetryableErrorException("retry")));
+
+        verify(errorTopicPublisher, timeout(5000)).publish(eq(TOPIC), eq(GROUP_ID), eq("key"),
+                eq(1), eq(7L), aryEq(PAYLOAD_BYTES), any(RetryableErrorException.class));
+        verify(listenerMethods, timeout(5000).times(2)).invoke(TOPIC, "key", 1, 7L, payload);
+    }
+
+    @Test
+    @DisplayName("Record that fails with a non-retryable error goes straight to the error topic")
+    void publishesNonRetryableFailure() throws Exception {
+        localRetryQueue = localRetryQueue(10L);
+        NonRetryableErrorException failure = new NonRetryableErrorException("invalid");
+        doThrow(failure).when(listenerMethods).invoke(TOPIC, "key", 1, 7L, payload);
+
+        assertTrue(localRetryQueue.defer(message, TOPIC, "1", "7", GROUP_ID,
+                new RetryableErrorException("retry")));
+
+        verify(errorTopicPublisher, timeout(5000)).publish(eq(TOPIC), eq(GROUP_ID), eq("key"),
+                eq(1), eq(7L), aryEq(PAYLOAD_BYTES), eq(failure));
+        verify(listenerMethods).invoke(TOPIC, "key", 1, 7L, payload);
+    }
+
+    @Test
+    @DisplayName("Records still waiting at shutdown are re-driven after a restart")
+    void redrivesRecoveredRecords() throws Exception {
+        localRetryQueue = localRetryQueue(1000L);
+        assertTrue(localRetryQueue.defer(message, TOPIC, "1", "7", GROUP_ID,
+                new RetryableErrorException("retry")));
+        localRetryQueue.destroy();
+        verifyNoInteractions(deserializer);
+
+        localRetryQueue = localRetryQueue(1000L);
+
+        verify(listenerMethods, timeout(5000)).invoke(TOPIC, "key", 1, 7L, payload);
+        verifyNoInteractions(errorTopicPublisher);
+    }
+
+    private LocalRetryQueue localRetryQueue(long initialDelayMs) {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty(PREFIX + "default.initial-delay-ms", String.valueOf(initialDelayMs))
+                .withProperty(PREFIX + "default.multiplier", "2.0")
+                .withProperty(PREFIX + "default.max-delay-ms", "60000")
+                .withProperty(PREFIX + "default.jitter", "0.0")
+                .withProperty(PREFIX + "default.max-attempts", "3");
+        LocalRetryQueue queue = new LocalRetryQueue(true, directory.toString(), 4096, 5L, 1,
+                new RetryPolicies(environment, meterRegistry),
+                new RetryBudget(false, 0.1, 1.0, 10.0, 0L, meterRegistry), listenerMethods,
+                errorTopicPublisher, serializer, deserializer, logger, meterRegistry);
+        queue.afterSingletonsInstantiated();
+        return queue;
+    }
+}
@@ -0,0 +1,125 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import uk.gov.companieshouse.logging.Logger;
+
+@ExtendWith(MockitoExtension.class)
+class RetryBackpressureTest {
+
+    private static final MetricName LAG = new MetricName("records-lag-max",
+            "consumer-fetch-manager-metrics", "", Map.of());
+
+    @Mock
+    private KafkaListenerEndpointRegistry registry;
+
+    @Mock
+    private MessageListenerContainer mainContainer;
+
+    @Mock
+    private MessageListenerContainer retryContainer;
+
+    @Mock
+    private Metric lagMetric;
+
+    @Mock
+    private Logger logger;
+
+    private RetryBackpressure retryBackpressure;
+
+    @BeforeEach
+    void setUp() {
+        retryBackpressure = backpressure(new RetryBudget(false, 0.1, 1.0, 10.0, 0L,
+                new SimpleMeterRegistry()));
+        when(registry.getListenerContainers()).thenReturn(List.of(mainContainer, retryContainer));
+        when(mainContainer.getContainerProperties())
+                .thenReturn(new ContainerProperties("stream-company-charges"));
+        when(mainContainer.isRunning()).thenReturn(true);
+        stubLagMetric();
+        lenient().when(retryContainer.getContainerProperties()).thenReturn(
+                new ContainerProperties("stream-company-charges-company-links-consumer-retry"));
+        lenient().when(retryContainer.isRunning()).thenReturn(true);
+    }
+
+    @Test
+    @DisplayName("Retry listeners are paused while main topic lag is above the threshold")
+    void pausesRetryListeners() {
+        when(lagMetric.metricValue()).thenReturn(5000.0);
+
+        retryBackpressure.check();
+
+        verify(retryContainer).pause();
+        verify(mainContainer, never()).pause();
+    }
+
+    @Test
+    @DisplayName("Retry listeners are resumed once main topic lag falls below the lower threshold")
+    void resumesRetryListeners() {
+        when(lagMetric.metricValue()).thenReturn(5000.0, 500.0, 50.0);
+        when(retryContainer.isPauseRequested()).thenReturn(true);
+
+        retryBackpressure.check();
+        retryBackpressure.check();
+        verify(retryContainer, never()).resume();
+
+        retryBackpressure.check();
+        verify(retryContainer).resume();
+    }
+
+    @Test
+    @DisplayName("Retry listeners are left running while main topic lag is low")
+    void leavesRetryListenersRunning() {
+        when(lagMetric.metricValue()).thenReturn(Double.NaN);
+
+        retryBackpressure.check();
+
+        verify(retryContainer, never()).pause();
+    }
+
+    @Test
+    @DisplayName("Retry listeners are paused while the retry budget is exhausted")
+    void pausesRetryListenersWithoutBudget() {
+        RetryBudget retryBudget = new RetryBudget(true, 1.0, 0.0, 1.0, 0L,
+                new SimpleMeterRegistry());
+        retryBackpressure = backpressure(retryBudget);
+        when(lagMetric.metricValue()).thenReturn(Double.NaN);
+        when(retryContainer.isPauseRequested()).thenReturn(true);
+
+        retryBudget.tryAcquire();
+        retryBackpressure.check();
+        verify(retryContainer).pause();
+        verify(retryContainer, never()).resume();
+
+        retryBudget.recordSuccess();
+        retryBackpressure.check();
+        verify(retryContainer).resume();
+    }
+
+    private RetryBackpressure backpressure(RetryBudget retryBudget) {
+        return new RetryBackpressure(true, 1000L, 100L, 1000L, registry, retryBudget,
+                new ContainerPauses(), logger, new SimpleMeterRegistry());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void stubLagMetric() {
+        Map metrics = Map.of("consumer-1", Map.of(LAG, lagMetric));
+        when(mainContainer.metrics()).thenReturn(metrics);
+    }
+}
@@ -0,0 +1,72 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class RetryBudgetTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    @DisplayName("Retries are denied once the budget is spent")
+    void deniesRetriesOnceSpent() {
+        RetryBudget retryBudget = new RetryBudget(true, 0.5, 0.0, 2.0, 0L, meterRegistry);
+
+        assertTrue(retryBudget.tryAcquire());
+        assertTrue(retryBudget.tryAcquire());
+        assertFalse(retryBudget.tryAcquire());
+        assertTrue(retryBudget.isExhausted());
+        assertEquals(2.0, counter("acquired"));
+        assertEquals(1.0, counter("denied"));
+    }
+
+    @Test
+    @DisplayName("Successful records refill the budget by the configured ratio, up to the cap")
+    void refillsFromSuccesses() {
+        RetryBudget retryBudget = new RetryBudget(true, 0.5, 0.0, 2.0, 0L, meterRegistry);
+        retryBudget.tryAcquire();
+        retryBudget.tryAcquire();
+
+        retryBudget.recordSuccess();
+        assertFalse(retryBudget.tryAcquire());
+        retryBudget.recordSuccess();
+        assertTrue(retryBudget.tryAcquire());
+
+        for (int i = 0; i < 10; i++) {
+            retryBudget.recordSuccess();
+        }
+        assertEquals(2.0, retryBudget.available());
+    }
+
+    @Test
+    @DisplayName("Waiting retry is let through by the minimum refill")
+    void waitsForMinimumRefill() {
+        RetryBudget retryBudget = new RetryBudget(true, 0.0, 20.0, 1.0, 1000L, meterRegistry);
+        retryBudget.tryAcquire();
+
+        retryBudget.acquire();
+
+        assertEquals(2.0, counter("acquired"));
+        assertEquals(0.0, counter("denied"));
+    }
+
+    @Test
+    @DisplayName("Disabled budget never denies a retry")
+    void disabledNeverDenies() {
+        RetryBudget retryBudget = new RetryBudget(false, 0.0, 0.0, 1.0, 0L, meterRegistry);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(retryBudget.tryAcquire());
+        }
+        assertFalse(retryBudget.isExhausted());
+    }
+
+    private double counter(String outcome) {
+        return meterRegistry.counter(RetryBudget.METRIC_NAME, "outcome", outcome).count();
+    }
+}
@@ -0,0 +1,107 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import uk.gov.companieshouse.api.error.ApiErrorResponseException;
+import uk.gov.companieshouse.company.links.exception.NotYetDeletedException;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.company.links.retry.RetryPolicies.ErrorClass;
+import uk.gov.companieshouse.company.links.retry.RetryPolicies.RetryPolicy;
+
+class RetryPoliciesTest {
+
+    private static final String PREFIX = "company-links.consumer.retry-policy.";
+    private static final String TOPIC = "stream-company-charges";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private MockEnvironment environment;
+
+    @BeforeEach
+    void setUp() {
+        environment = environment(4);
+    }
+
+    @Test
+    @DisplayName("Errors are classified by exception type and HTTP status")
+    void classifiesErrors() {
+        assertEquals(ErrorClass.NOT_YET_DELETED, RetryPolicies.classify(
+                new NotYetDeletedException("not yet deleted", "12345678", () -> { })));
+        assertEquals(ErrorClass.SERVER_ERROR, RetryPolicies.classify(
+                new RetryableErrorException("retry", apiError(503))));
+        assertEquals(ErrorClass.UNAUTHORISED, RetryPolicies.classify(
+                new RetryableErrorException("retry", apiError(401))));
+        assertEquals(ErrorClass.DEFAULT, RetryPolicies.classify(
+                new RetryableErrorException("retry", apiError(404))));
+        assertEquals(ErrorClass.DEFAULT, RetryPolicies.classify(
+                new RetryableErrorException("retry")));
+    }
+
+    @Test
+    @DisplayName("Delays grow exponentially up to the cap")
+    void growsExponentially() {
+        RetryPolicy policy = new RetryPolicies(environment, meterRegistry)
+                .policyFor(TOPIC, new RetryableErrorException("retry"));
+
+        assertEquals(100L, policy.delayFor(1));
+        assertEquals(200L, policy.delayFor(2));
+        assertEquals(400L, policy.delayFor(3));
+        assertEquals(1000L, policy.delayFor(10));
+        assertTrue(policy.canRetry(3));
+        assertFalse(policy.canRetry(4));
+    }
+
+    @Test
+    @DisplayName("Jitter only ever shortens the delay, by at most the jitter fraction")
+    void appliesJitter() {
+        environment.setProperty(PREFIX + "default.jitter", "0.5");
+        RetryPolicy policy = new RetryPolicies(environment, meterRegistry)
+                .policyFor(TOPIC, new RetryableErrorException("retry"));
+
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.delayFor(2);
+            assertTrue(delay > 100L && delay <= 200L);
+        }
+    }
+
+    @Test
+    @DisplayName("Settings fall back from topic and error class to the default policy")
+    void fallsBackToDefault() {
+        environment.setProperty(PREFIX + "server-error.initial-delay-ms", "1000");
+        environment.setProperty(PREFIX + "server-error.max-delay-ms", "60000");
+        environment.setProperty(PREFIX + TOPIC + ".server-error.max-attempts", "8");
+        RetryPolicies retryPolicies = new RetryPolicies(environment, meterRegistry);
+
+        RetryPolicy charges = retryPolicies.policyFor(TOPIC,
+                new RetryableErrorException("retry", apiError(500)));
+        RetryPolicy officers = retryPolicies.policyFor("stream-company-officers",
+                new RetryableErrorException("retry", apiError(500)));
+
+        assertEquals(ErrorClass.SERVER_ERROR, charges.getErrorClass());
+        assertEquals(2000L, charges.delayFor(2));
+        assertTrue(charges.canRetry(7));
+        assertFalse(officers.canRetry(4));
+    }
+
+    static MockEnvironment environment(int maxAttempts) {
+        return new MockEnvironment()
+                .withProperty(PREFIX + "default.initial-delay-ms", "100")
+                .withProperty(PREFIX + "default.multiplier", "2.0")
+                .withProperty(PREFIX + "default.max-delay-ms", "1000")
+                .withProperty(PREFIX + "default.jitter", "0.0")
+                .withProperty(PREFIX + "default.max-attempts", String.valueOf(maxAttempts));
+    }
+
+    private static ApiErrorResponseException apiError(int status) {
+        return new ApiErrorResponseException(
+                new HttpResponseException.Builder(status, "status", new HttpHeaders()));
+    }
+}
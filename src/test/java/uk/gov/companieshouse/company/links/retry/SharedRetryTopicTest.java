@@ -0,0 +1,205 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.KafkaBackoffException;
+import org.springframework.kafka.listener.KafkaConsumerBackoffManager;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import uk.gov.companieshouse.company.links.exception.NonRetryableErrorException;
+import uk.gov.companieshouse.company.links.exception.RetryableErrorException;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+@ExtendWith(MockitoExtension.class)
+class SharedRetryTopicTest {
+
+    private static final String SHARED_TOPIC = "company-links-consumer-retry";
+    private static final String TOPIC = "stream-company-charges";
+    private static final String GROUP_ID = "company-links-consumer";
+
+    @Mock
+    private ListenerMethods listenerMethods;
+
+    @Mock
+    private ErrorTopicPublisher errorTopicPublisher;
+
+    @Mock
+    private KafkaTemplate<String, Object> kafkaTemplate;
+
+    @Mock
+    private KafkaConsumerBackoffManager backoffManager;
+
+    @Mock
+    private Consumer<String, ResourceChangedData> consumer;
+
+    @Mock
+    private Logger logger;
+
+    @Captor
+    private ArgumentCaptor<ProducerRecord<String, Object>> recordCaptor;
+
+    private SharedRetryTopic sharedRetryTopic;
+    private ResourceChangedData payload;
+
+    @BeforeEach
+    void setUp() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        sharedRetryTopic = new SharedRetryTopic(true, SHARED_TOPIC, 0L,
+                new RetryPolicies(RetryPoliciesTest.environment(3), meterRegistry),
+                listenerMethods, errorTopicPublisher, kafkaTemplate, backoffManager, logger,
+                meterRegistry);
+        payload = new ResourceChangedData();
+        payload.setContextId("context_id");
+    }
+
+    @Test
+    @DisplayName("Main topic failure is published to the shared topic with its origin")
+    void defersToSharedTopic() {
+        when(listenerMethods.hasListener(TOPIC)).thenReturn(true);
+        when(kafkaTemplate.send(any(ProducerRecord.class)))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        Message<ResourceChangedData> message = MessageBuilder.withPayload(payload)
+                .setHeader(KafkaHeaders.RECEIVED_KEY, "key")
+                .build();
+
+        assertTrue(sharedRetryTopic.defer(message, TOPIC, "2", "42", GROUP_ID,
+                new RetryableErrorException("retry")));
+
+        verify(kafkaTemplate).send(recordCaptor.capture());
+        ProducerRecord<String, Object> published = recordCaptor.getValue();
+        assertEquals(SHARED_TOPIC, published.topic());
+        assertEquals("key", published.key());
+        assertEquals(TOPIC, header(published, SharedRetryTopic.ORIGINAL_TOPIC));
+        assertEquals("2", header(published, SharedRetryTopic.ORIGINAL_PARTITION));
+        assertEquals("42", header(published, SharedRetryTopic.ORIGINAL_OFFSET));
+        assertEquals(GROUP_ID, header(published, SharedRetryTopic.ORIGINAL_GROUP_ID));
+        assertEquals("1", header(published, SharedRetryTopic.ATTEMPTS));
+    }
+
+    @Test
+    @DisplayName("Records already on a retry topic are not deferred")
+    void doesNotDeferRetryTopicRecords() {
+        Message<ResourceChangedData> message = MessageBuilder.withPayload(payload).build();
+
+        RetryableErrorException failure = new RetryableErrorException("retry");
+
+        assertFalse(sharedRetryTopic.defer(message, SHARED_TOPIC, "0", "0", GROUP_ID, failure));
+        assertFalse(sharedRetryTopic.defer(message, TOPIC + "-" + GROUP_ID + "-retry", "0",
+                "0", GROUP_ID, failure));
+    }
+
+    @Test
+    @DisplayName("Shared topic record is re-driven through the listener for its original topic")
+    void redrivesToOriginalListener() {
+        sharedRetryTopic.redrive(retryMessage(1), consumer);
+
+        verify(listenerMethods).invoke(TOPIC, "key", 2, 42L, payload);
+        verify(kafkaTemplate, never()).send(any(ProducerRecord.class));
+    }
+
+    @Test
+    @DisplayName("Failed re-drive with attempts left is published again with one more attempt")
+    void republishesFailedRedrive() {
+        doThrow(new RetryableErrorException("retry")).when(listenerMethods)
+                .invoke(TOPIC, "key", 2, 42L, payload);
+        when(kafkaTemplate.send(any(ProducerRecord.class)))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        sharedRetryTopic.redrive(retryMessage(1), consumer);
+
+        verify(kafkaTemplate).send(recordCaptor.capture());
+        assertEquals("2", header(recordCaptor.getValue(), SharedRetryTopic.ATTEMPTS));
+    }
+
+    @Test
+    @DisplayName("Failed re-drive without attempts left is published to the error topic")
+    void publishesExhaustedRedriveToErrorTopic() throws Exception {
+        RetryableErrorException failure = new RetryableErrorException("retry");
+        doThrow(failure).when(listenerMethods).invoke(TOPIC, "key", 2, 42L, payload);
+
+        sharedRetryTopic.redrive(retryMessage(2), consumer);
+
+        verify(errorTopicPublisher).publish(TOPIC, GROUP_ID, "key", 2, 42L, payload, failure);
+        verify(kafkaTemplate, never()).send(any(ProducerRecord.class));
+    }
+
+    @Test
+    @DisplayName("Non-retryable re-drive failure goes straight to the error topic")
+    void publishesNonRetryableToErrorTopic() throws Exception {
+        NonRetryableErrorException failure = new NonRetryableErrorException("invalid");
+        doThrow(failure).when(listenerMethods).invoke(TOPIC, "key", 2, 42L, payload);
+
+        sharedRetryTopic.redrive(retryMessage(1), consumer);
+
+        verify(errorTopicPublisher).publish(eq(TOPIC), eq(GROUP_ID), eq("key"), eq(2), eq(42L),
+                eq(payload), eq(failure));
+    }
+
+    @Test
+    @DisplayName("Record that is not yet due backs off its partition instead of being re-driven")
+    void backsOffRecordNotYetDue() {
+        KafkaBackoffException backoff = new KafkaBackoffException("not yet due",
+                new TopicPartition(SHARED_TOPIC, 0), SHARED_TOPIC + "-consumer", 0L);
+        doThrow(backoff).when(backoffManager).backOffIfNecessary(any());
+        Message<ResourceChangedData> message = MessageBuilder.fromMessage(retryMessage(1))
+                .setHeader(KafkaHeaders.RECEIVED_TOPIC, SHARED_TOPIC)
+                .setHeader(KafkaHeaders.RECEIVED_PARTITION, 0)
+                .setHeader(SharedRetryTopic.DUE,
+                        bytes(String.valueOf(System.currentTimeMillis() + 60000L)))
+                .build();
+
+        assertThrows(KafkaBackoffException.class,
+                () -> sharedRetryTopic.redrive(message, consumer));
+
+        verify(backoffManager).createContext(anyLong(), eq(SHARED_TOPIC + "-consumer"),
+                eq(new TopicPartition(SHARED_TOPIC, 0)), eq(consumer));
+        verifyNoInteractions(listenerMethods, kafkaTemplate, errorTopicPublisher);
+    }
+
+    private Message<ResourceChangedData> retryMessage(int attempts) {
+        return MessageBuilder.withPayload(payload)
+                .setHeader(KafkaHeaders.RECEIVED_KEY, "key")
+                .setHeader(SharedRetryTopic.ORIGINAL_TOPIC, bytes(TOPIC))
+                .setHeader(SharedRetryTopic.ORIGINAL_PARTITION, bytes("2"))
+                .setHeader(SharedRetryTopic.ORIGINAL_OFFSET, bytes("42"))
+                .setHeader(SharedRetryTopic.ORIGINAL_GROUP_ID, bytes(GROUP_ID))
+                .setHeader(SharedRetryTopic.ATTEMPTS, bytes(String.valueOf(attempts)))
+                .build();
+    }
+
+    private static String header(ProducerRecord<String, Object> record, String name) {
+        return new String(record.headers().lastHeader(name).value(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,168 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.core.annotation.Order;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import uk.gov.companieshouse.company.links.config.ListenerAspectOrder;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.EventRecord;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+@ExtendWith(MockitoExtension.class)
+class SupersessionAspectTest {
+
+    private static final String TOPIC = "stream-company-charges";
+    private static final String RESOURCE_URI = "/company/00006400/charges/abc";
+
+    @Mock
+    private SharedRetryTopic sharedRetryTopic;
+
+    @Mock
+    private Logger logger;
+
+    private AnnotationConfigApplicationContext context;
+    private DeferringAspect deferringAspect;
+    private TestListener listener;
+    private ListenerMethods listenerMethods;
+
+    @BeforeEach
+    void setUp() {
+        context = new AnnotationConfigApplicationContext();
+        context.register(AspectConfig.class);
+        context.registerBean(ListenerMethods.class);
+        context.registerBean(SupersessionAspect.class, () -> new SupersessionAspect(
+                new Supersession(true, 16, new SimpleMeterRegistry()), sharedRetryTopic,
+                context.getBean(ListenerMethods.class), logger));
+        context.registerBean(DeferringAspect.class);
+        context.registerBean(TestListener.class);
+        context.refresh();
+        deferringAspect = context.getBean(DeferringAspect.class);
+        listener = context.getBean(TestListener.class);
+        listenerMethods = context.getBean(ListenerMethods.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        context.close();
+    }
+
+    @Test
+    @DisplayName("A record handed on does not supersede an older one until it is processed")
+    void doesNotRecordDeferredRecord() {
+        ResourceChangedData older = payload("2024-03-01T10:00:01");
+        ResourceChangedData newer = payload("2024-03-01T10:00:09");
+
+        deferringAspect.setDeferring(true);
+        consume(newer, 6L);
+        deferringAspect.setDeferring(false);
+        listenerMethods.invoke(TOPIC, "key", 0, 5L, older);
+
+        assertEquals(1, listener.getReceived());
+    }
+
+    @Test
+    @DisplayName("A deferred record superseded while it waits is acknowledged on its re-drive")
+    void acknowledgesSupersededDeferral() {
+        ResourceChangedData older = payload("2024-03-01T10:00:01");
+        ResourceChangedData newer = payload("2024-03-01T10:00:09");
+
+        deferringAspect.setDeferring(true);
+        consume(older, 5L);
+        deferringAspect.setDeferring(false);
+        // the hand-on mark left on this thread must not stop the next record being recorded
+        consume(newer, 6L);
+        listenerMethods.invoke(TOPIC, "key", 0, 5L, older);
+
+        assertEquals(1, listener.getReceived());
+        // the re-drive returns before the deferral, so it is not handed on again
+        assertEquals(2, deferringAspect.getCalls());
+    }
+
+    private void consume(ResourceChangedData payload, long offset) {
+        Message<ResourceChangedData> message = MessageBuilder.withPayload(payload).build();
+        listener.receive(message, TOPIC, "0", String.valueOf(offset));
+    }
+
+    private static ResourceChangedData payload(String publishedAt) {
+        ResourceChangedData payload = new ResourceChangedData();
+        payload.setContextId("context_id");
+        payload.setResourceUri(RESOURCE_URI);
+        payload.setEvent(new EventRecord(publishedAt, "changed", null));
+        return payload;
+    }
+
+    @Configuration
+    @EnableAspectJAutoProxy
+    static class AspectConfig {
+    }
+
+    /**
+     * Stands in for the {@link RetryDeferralAspect}, handing the record on instead of letting
+     * the listener process it.
+     */
+    @Aspect
+    @Order(ListenerAspectOrder.RETRY_DEFERRAL)
+    static class DeferringAspect {
+
+        private final ListenerMethods listenerMethods;
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile boolean deferring;
+
+        DeferringAspect(ListenerMethods listenerMethods) {
+            this.listenerMethods = listenerMethods;
+        }
+
+        @Around("@annotation(org.springframework.kafka.annotation.KafkaListener)")
+        public Object defer(ProceedingJoinPoint joinPoint) throws Throwable {
+            calls.incrementAndGet();
+            if (deferring) {
+                listenerMethods.markHandedOn();
+                return null;
+            }
+            return joinPoint.proceed();
+        }
+
+        void setDeferring(boolean deferring) {
+            this.deferring = deferring;
+        }
+
+        int getCalls() {
+            return calls.get();
+        }
+    }
+
+    @Component
+    static class TestListener {
+
+        private final AtomicInteger received = new AtomicInteger();
+
+        @KafkaListener(topics = TOPIC)
+        public void receive(Message<?> message, String topic, String partition,
+                String offset) {
+            received.incrementAndGet();
+        }
+
+        public int getReceived() {
+            return received.get();
+        }
+    }
+}
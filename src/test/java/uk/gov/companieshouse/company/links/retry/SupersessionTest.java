@@ -0,0 +1,92 @@
+package uk.gov.companieshouse.company.links.retry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import uk.gov.companieshouse.stream.EventRecord;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+class SupersessionTest {
+
+    private static final String RESOURCE_URI = "/company/00006400/charges/abc";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Supersession supersession = new Supersession(true, 2, meterRegistry);
+
+    @Test
+    @DisplayName("An event published before one already processed is superseded")
+    void supersedesOlderEvents() {
+        supersession.recordProcessed(payload(RESOURCE_URI, "2024-03-01T10:00:05"), 0, 10L);
+
+        assertTrue(supersession.isSuperseded(payload(RESOURCE_URI, "2024-03-01T10:00:01"), 1,
+                20L));
+        assertFalse(supersession.isSuperseded(payload(RESOURCE_URI, "2024-03-01T10:00:09"), 0,
+                5L));
+        assertFalse(supersession.isSuperseded(payload("/company/00006400/charges/def",
+                "2024-03-01T10:00:01"), 0, 5L));
+        assertEquals(1.0, meterRegistry.counter(Supersession.METRIC_NAME, "outcome",
+                "superseded").count());
+    }
+
+    @Test
+    @DisplayName("Events published in the same second are ordered by offset within a partition")
+    void ordersBySamePartitionOffset() {
+        supersession.recordProcessed(payload(RESOURCE_URI, "2024-03-01T10:00:05Z"), 0, 10L);
+
+        assertTrue(supersession.isSuperseded(payload(RESOURCE_URI, "2024-03-01T10:00:05"), 0,
+                9L));
+        assertFalse(supersession.isSuperseded(payload(RESOURCE_URI, "2024-03-01T10:00:05"), 0,
+                10L));
+        assertFalse(supersession.isSuperseded(payload(RESOURCE_URI, "2024-03-01T10:00:05"), 1,
+                9L));
+    }
+
+    @Test
+    @DisplayName("An older event never replaces the newest one recorded")
+    void keepsNewestProcessed() {
+        supersession.recordProcessed(payload(RESOURCE_URI, "2024-03-01T10:00:05"), 0, 10L);
+        supersession.recordProcessed(payload(RESOURCE_URI, "2024-03-01T10:00:01"), 0, 4L);
+
+        assertTrue(supersession.isSuperseded(payload(RESOURCE_URI, "2024-03-01T10:00:03"), 0,
+                7L));
+    }
+
+    @Test
+    @DisplayName("Events without a readable published_at, and least recently used resources,"
+            + " are not tracked")
+    void ignoresUntrackedEvents() {
+        supersession.recordProcessed(payload(RESOURCE_URI, "not a date"), 0, 10L);
+        assertFalse(supersession.isSuperseded(payload(RESOURCE_URI, "2024-03-01T10:00:01"), 0,
+                1L));
+
+        supersession.recordProcessed(payload(RESOURCE_URI, "2024-03-01T10:00:05"), 0, 10L);
+        supersession.recordProcessed(payload("/company/1/charges/a", "2024-03-01T10:00:05"), 0,
+                11L);
+        supersession.recordProcessed(payload("/company/2/charges/a", "2024-03-01T10:00:05"), 0,
+                12L);
+
+        assertFalse(supersession.isSuperseded(payload(RESOURCE_URI, "2024-03-01T10:00:01"), 0,
+                1L));
+    }
+
+    @Test
+    @DisplayName("Nothing is superseded when disabled")
+    void disabled() {
+        Supersession disabled = new Supersession(false, 2, meterRegistry);
+        disabled.recordProcessed(payload(RESOURCE_URI, "2024-03-01T10:00:05"), 0, 10L);
+
+        assertFalse(disabled.isSuperseded(payload(RESOURCE_URI, "2024-03-01T10:00:01"), 0, 1L));
+    }
+
+    private static ResourceChangedData payload(String resourceUri, String publishedAt) {
+        ResourceChangedData payload = new ResourceChangedData();
+        payload.setContextId("context_id");
+        payload.setResourceUri(resourceUri);
+        payload.setEvent(new EventRecord(publishedAt, "changed", null));
+        return payload;
+    }
+}
@@ -5,13 +5,16 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.companieshouse.company.links.concurrency.CompanyLocks;
 import uk.gov.companieshouse.company.links.processor.LinkRouter;
+import uk.gov.companieshouse.company.links.state.LinkStateIndex;
 import uk.gov.companieshouse.company.links.type.PatchLinkRequest;
 import uk.gov.companieshouse.company.links.type.ResourceChange;
 import uk.gov.companieshouse.stream.EventRecord;
@@ -55,7 +58,9 @@ class LinkRouterTest {
 
     @BeforeEach
     void setup() {
-        router = new LinkRouter(extractor, factory);
+        router = new LinkRouter(extractor, factory,
+                new CompanyLocks(true, 16, 1000L, new SimpleMeterRegistry()),
+                new LinkStateIndex(false, 1, 0L, new SimpleMeterRegistry()));
         when(data.getContextId()).thenReturn(REQUEST_ID);
     }
 
@@ -0,0 +1,287 @@
+package uk.gov.companieshouse.company.links.state;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.ConsumerFactory;
+import uk.gov.companieshouse.api.company.Data;
+import uk.gov.companieshouse.api.company.Links;
+import uk.gov.companieshouse.company.links.serialization.CompanyProfileDeserializer;
+import uk.gov.companieshouse.company.links.type.LinkType;
+import uk.gov.companieshouse.logging.Logger;
+import uk.gov.companieshouse.stream.EventRecord;
+import uk.gov.companieshouse.stream.ResourceChangedData;
+
+@ExtendWith(MockitoExtension.class)
+class CompanyLinksViewTest {
+
+    private static final String TOPIC = "stream-company-profile";
+    private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+    private static final String COMPANY_NUMBER = "00006400";
+    private static final String DISSOLVED_COMPANY_NUMBER = "SC123456";
+    private static final String GROUP_ID = "company-links-consumer-view";
+
+    @Mock
+    private ConsumerFactory<String, ResourceChangedData> consumerFactory;
+
+    @Mock
+    private CompanyProfileDeserializer companyProfileDeserializer;
+
+    @Mock
+    private Logger logger;
+
+    private final MockConsumer<String, ResourceChangedData> consumer =
+            new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+
+    private final LinkStateIndex linkStateIndex = new LinkStateIndex(true, 16, 3600L,
+            new SimpleMeterRegistry());
+
+    private LinkStateSnapshot linkStateSnapshot;
+
+    private CompanyLinksView companyLinksView;
+
+    @BeforeEach
+    void setUp() {
+        linkStateSnapshot = new LinkStateSnapshot(false, "unused", 300L, linkStateIndex, logger,
+                new SimpleMeterRegistry());
+        companyLinksView = new CompanyLinksView(true, TOPIC, GROUP_ID, 100, consumerFactory,
+                companyProfileDeserializer, linkStateIndex, linkStateSnapshot, logger,
+                new SimpleMeterRegistry());
+        consumer.updatePartitions(TOPIC,
+                List.of(new PartitionInfo(TOPIC, 0, null, null, null)));
+        consumer.updateBeginningOffsets(Map.of(PARTITION, 0L));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        companyLinksView.destroy();
+    }
+
+    @Test
+    @DisplayName("The latest links for each company are indexed once the view has caught up")
+    void materialisesLatestLinks() throws InterruptedException {
+        when(consumerFactory.createConsumer(GROUP_ID, "links-view-", null)).thenReturn(consumer);
+        when(companyProfileDeserializer.deserialiseCompanyData("with-charges"))
+                .thenReturn(profile(LinkType.CHARGES));
+        when(companyProfileDeserializer.deserialiseCompanyData("with-insolvency"))
+                .thenReturn(profile(LinkType.INSOLVENCY));
+        consumer.updateEndOffsets(Map.of(PARTITION, 4L));
+        consumer.schedulePollTask(() -> {
+            consumer.addRecord(record(0, COMPANY_NUMBER, "changed", "with-charges"));
+            consumer.addRecord(record(1, DISSOLVED_COMPANY_NUMBER, "changed", "with-charges"));
+            consumer.addRecord(record(2, COMPANY_NUMBER, "changed", "with-insolvency"));
+            consumer.addRecord(record(3, DISSOLVED_COMPANY_NUMBER, "deleted", null));
+        });
+
+        companyLinksView.afterPropertiesSet();
+        awaitReady();
+
+        assertTrue(companyLinksView.isReady());
+        assertEquals(LinkState.ABSENT,
+                linkStateIndex.getLinkState(COMPANY_NUMBER, LinkType.CHARGES));
+        assertEquals(LinkState.PRESENT,
+                linkStateIndex.getLinkState(COMPANY_NUMBER, LinkType.INSOLVENCY));
+        assertEquals(LinkState.ABSENT,
+                linkStateIndex.getLinkState(DISSOLVED_COMPANY_NUMBER, LinkType.CHARGES));
+        assertEquals(LinkState.UNKNOWN,
+                linkStateIndex.getLinkState("11111111", LinkType.CHARGES));
+    }
+
+    @Test
+    @DisplayName("Nothing is indexed or answered until the view has caught up")
+    void answersNothingWhileCatchingUp() throws InterruptedException {
+        // known before the view started, as if restored from a snapshot
+        linkStateIndex.recordLink(DISSOLVED_COMPANY_NUMBER, LinkType.CHARGES, true);
+        when(consumerFactory.createConsumer(GROUP_ID, "links-view-", null)).thenReturn(consumer);
+        when(companyProfileDeserializer.deserialiseCompanyData("with-charges"))
+                .thenReturn(profile(LinkType.CHARGES));
+        consumer.updateEndOffsets(Map.of(PARTITION, 2L));
+        consumer.schedulePollTask(() ->
+                consumer.addRecord(record(0, COMPANY_NUMBER, "changed", "with-charges")));
+
+        companyLinksView.afterPropertiesSet();
+        TimeUnit.MILLISECONDS.sleep(200L);
+
+        assertFalse(companyLinksView.isReady());
+        assertEquals(LinkState.UNKNOWN,
+                linkStateIndex.getLinkState(COMPANY_NUMBER, LinkType.CHARGES));
+        assertEquals(LinkState.UNKNOWN,
+                linkStateIndex.getLinkState(DISSOLVED_COMPANY_NUMBER, LinkType.CHARGES));
+    }
+
+    @Test
+    @DisplayName("Links are stamped with their record time, and records past the TTL are dropped")
+    void stampsLinksWithRecordTime() throws InterruptedException {
+        when(consumerFactory.createConsumer(GROUP_ID, "links-view-", null)).thenReturn(consumer);
+        when(companyProfileDeserializer.deserialiseCompanyData("with-charges"))
+                .thenReturn(profile(LinkType.CHARGES));
+        long now = System.currentTimeMillis();
+        long stale = now - TimeUnit.HOURS.toMillis(2L);
+        consumer.updateEndOffsets(Map.of(PARTITION, 3L));
+        consumer.schedulePollTask(() -> {
+            consumer.addRecord(record(0, COMPANY_NUMBER, "changed", "with-charges", now));
+            consumer.addRecord(record(1, DISSOLVED_COMPANY_NUMBER, "changed", "with-charges",
+                    now));
+            consumer.addRecord(record(2, DISSOLVED_COMPANY_NUMBER, "deleted", null, stale));
+        });
+
+        companyLinksView.afterPropertiesSet();
+        awaitReady();
+
+        assertTrue(companyLinksView.isReady());
+        assertEquals(LinkState.PRESENT,
+                linkStateIndex.getLinkState(COMPANY_NUMBER, LinkType.CHARGES));
+        assertEquals(LinkState.UNKNOWN,
+                linkStateIndex.getLinkState(DISSOLVED_COMPANY_NUMBER, LinkType.CHARGES));
+    }
+
+    @Test
+    @DisplayName("Companies are written to the index in batches while catching up")
+    void flushesPendingLinksWhileCatchingUp() throws InterruptedException {
+        CompanyLinksView bounded = new CompanyLinksView(true, TOPIC, GROUP_ID, 1,
+                consumerFactory, companyProfileDeserializer, linkStateIndex, linkStateSnapshot,
+                logger, new SimpleMeterRegistry());
+        when(consumerFactory.createConsumer(GROUP_ID, "links-view-", null)).thenReturn(consumer);
+        when(companyProfileDeserializer.deserialiseCompanyData("with-charges"))
+                .thenReturn(profile(LinkType.CHARGES));
+        consumer.updateEndOffsets(Map.of(PARTITION, 3L));
+        consumer.schedulePollTask(() -> {
+            consumer.addRecord(record(0, COMPANY_NUMBER, "changed", "with-charges"));
+            consumer.addRecord(record(1, DISSOLVED_COMPANY_NUMBER, "changed", "with-charges"));
+        });
+
+        try {
+            bounded.afterPropertiesSet();
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (linkStateIndex.size() == 0 && System.currentTimeMillis() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10L);
+            }
+
+            assertFalse(bounded.isReady());
+            assertTrue(linkStateIndex.size() > 0);
+            // written, but not trusted until the view has caught up
+            assertEquals(LinkState.UNKNOWN,
+                    linkStateIndex.getLinkState(COMPANY_NUMBER, LinkType.CHARGES));
+        } finally {
+            bounded.destroy();
+        }
+    }
+
+    @Test
+    @DisplayName("The view carries on from the offsets stored with the snapshot")
+    void resumesFromStoredOffsets() throws InterruptedException {
+        linkStateSnapshot.recordProfileOffsets(Map.of(0, 2L));
+        when(consumerFactory.createConsumer(GROUP_ID, "links-view-", null)).thenReturn(consumer);
+        when(companyProfileDeserializer.deserialiseCompanyData("with-insolvency"))
+                .thenReturn(profile(LinkType.INSOLVENCY));
+        consumer.updateEndOffsets(Map.of(PARTITION, 3L));
+        consumer.schedulePollTask(() -> {
+            // already in the index, so not read again
+            consumer.addRecord(record(1, DISSOLVED_COMPANY_NUMBER, "changed",
+                    "with-insolvency"));
+            consumer.addRecord(record(2, COMPANY_NUMBER, "changed", "with-insolvency"));
+        });
+
+        companyLinksView.afterPropertiesSet();
+        awaitReady();
+
+        assertTrue(companyLinksView.isReady());
+        assertEquals(LinkState.PRESENT,
+                linkStateIndex.getLinkState(COMPANY_NUMBER, LinkType.INSOLVENCY));
+        assertEquals(LinkState.UNKNOWN,
+                linkStateIndex.getLinkState(DISSOLVED_COMPANY_NUMBER, LinkType.INSOLVENCY));
+        awaitOffset(3L);
+        assertEquals(Map.of(0, 3L), linkStateSnapshot.getProfileOffsets());
+    }
+
+    @Test
+    @DisplayName("Offsets are only stored once everything read before them is in the index")
+    void storesOffsetsOnlyOnceIndexed() throws InterruptedException {
+        when(consumerFactory.createConsumer(GROUP_ID, "links-view-", null)).thenReturn(consumer);
+        when(companyProfileDeserializer.deserialiseCompanyData("with-charges"))
+                .thenReturn(profile(LinkType.CHARGES));
+        consumer.updateEndOffsets(Map.of(PARTITION, 2L));
+        consumer.schedulePollTask(() ->
+                consumer.addRecord(record(0, COMPANY_NUMBER, "changed", "with-charges")));
+
+        companyLinksView.afterPropertiesSet();
+        TimeUnit.MILLISECONDS.sleep(200L);
+
+        assertFalse(companyLinksView.isReady());
+        assertTrue(linkStateSnapshot.getProfileOffsets().isEmpty());
+    }
+
+    @Test
+    @DisplayName("The view is disabled without the link state index")
+    void disabledWithoutLinkStateIndex() {
+        LinkStateIndex disabledIndex = new LinkStateIndex(false, 1, 0L,
+                new SimpleMeterRegistry());
+
+        CompanyLinksView disabled = new CompanyLinksView(true, TOPIC, GROUP_ID, 100,
+                consumerFactory, companyProfileDeserializer, disabledIndex, linkStateSnapshot,
+                logger, new SimpleMeterRegistry());
+        disabled.afterPropertiesSet();
+
+        assertFalse(disabled.isEnabled());
+    }
+
+    private void awaitOffset(long offset) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!Long.valueOf(offset).equals(linkStateSnapshot.getProfileOffsets().get(0))
+                && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10L);
+        }
+    }
+
+    private void awaitReady() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!companyLinksView.isReady() && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10L);
+        }
+    }
+
+    private static Data profile(LinkType type) {
+        Links links = new Links();
+        type.setLink(links, type.linkFor(COMPANY_NUMBER));
+        Data data = new Data();
+        data.setLinks(links);
+        return data;
+    }
+
+    private static ConsumerRecord<String, ResourceChangedData> record(long offset,
+            String companyNumber, String eventType, String data) {
+        return record(offset, companyNumber, eventType, data, System.currentTimeMillis());
+    }
+
+    private static ConsumerRecord<String, ResourceChangedData> record(long offset,
+            String companyNumber, String eventType, String data, long timestamp) {
+        ResourceChangedData payload = new ResourceChangedData();
+        payload.setContextId("context_id");
+        payload.setResourceId(companyNumber);
+        payload.setData(data);
+        payload.setEvent(new EventRecord(null, eventType, null));
+        return new ConsumerRecord<>(TOPIC, 0, offset, timestamp, TimestampType.CREATE_TIME, 0,
+                0, companyNumber, payload, new RecordHeaders(), Optional.empty());
+    }
+}
@@ -0,0 +1,157 @@
+package uk.gov.companieshouse.company.links.state;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import uk.gov.companieshouse.api.company.Data;
+import uk.gov.companieshouse.api.company.Links;
+import uk.gov.companieshouse.company.links.type.LinkPatch;
+import uk.gov.companieshouse.company.links.type.LinkType;
+
+class LinkStateIndexTest {
+
+    private static final String COMPANY_NUMBER = "SC123456";
+    private static final long TTL_SECONDS = 60L;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicLong now = new AtomicLong(1_700_000_000L);
+    private final LinkStateIndex index = new LinkStateIndex(true, 1000, TTL_SECONDS,
+            meterRegistry, now::get);
+
+    @Test
+    @DisplayName("Company profile records every link as present or absent")
+    void recordsCompanyProfile() {
+        Links links = new Links();
+        links.setCharges("/company/SC123456/charges");
+        Data data = new Data();
+        data.setLinks(links);
+
+        index.recordLinks(COMPANY_NUMBER, data);
+
+        assertEquals(LinkState.PRESENT, index.getLinkState(COMPANY_NUMBER, LinkType.CHARGES));
+        assertEquals(LinkState.ABSENT, index.getLinkState(COMPANY_NUMBER, LinkType.INSOLVENCY));
+        assertEquals(LinkState.UNKNOWN, index.getLinkState("SC654321", LinkType.CHARGES));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    @DisplayName("Patched links are recorded without touching other links")
+    void recordsPatch() {
+        index.recordLinks(COMPANY_NUMBER, new Data());
+
+        index.recordPatch(COMPANY_NUMBER, LinkPatch.builder()
+                .addLink(LinkType.REGISTERS, COMPANY_NUMBER)
+                .build());
+
+        assertEquals(LinkState.PRESENT, index.getLinkState(COMPANY_NUMBER, LinkType.REGISTERS));
+        assertEquals(LinkState.ABSENT, index.getLinkState(COMPANY_NUMBER, LinkType.OFFICERS));
+    }
+
+    @Test
+    @DisplayName("Links verified earlier never replace links verified later")
+    void keepsLaterVerifiedLinks() {
+        Links links = new Links();
+        links.setCharges("/company/SC123456/charges");
+        Data data = new Data();
+        data.setLinks(links);
+
+        index.recordLinks(COMPANY_NUMBER, data, now.get() - 10);
+        index.recordLinks(COMPANY_NUMBER, new Data(), now.get() - 20);
+
+        assertEquals(LinkState.PRESENT, index.getLinkState(COMPANY_NUMBER, LinkType.CHARGES));
+        now.addAndGet(TTL_SECONDS - 9);
+        assertEquals(LinkState.UNKNOWN, index.getLinkState(COMPANY_NUMBER, LinkType.CHARGES));
+    }
+
+    @Test
+    @DisplayName("Forgotten and expired links are unknown")
+    void forgetsAndExpiresLinks() {
+        index.recordLink(COMPANY_NUMBER, LinkType.PSCS, true);
+        index.recordLink(COMPANY_NUMBER, LinkType.OFFICERS, true);
+
+        index.forgetLink(COMPANY_NUMBER, LinkType.PSCS);
+        assertEquals(LinkState.UNKNOWN, index.getLinkState(COMPANY_NUMBER, LinkType.PSCS));
+        assertEquals(LinkState.PRESENT, index.getLinkState(COMPANY_NUMBER, LinkType.OFFICERS));
+
+        now.addAndGet(TTL_SECONDS + 1);
+        assertEquals(LinkState.UNKNOWN, index.getLinkState(COMPANY_NUMBER, LinkType.OFFICERS));
+        assertEquals(1.0, meterRegistry.counter(LinkStateIndex.METRIC_PREFIX + ".lookup",
+                "outcome", "stale").count());
+    }
+
+    @Test
+    @DisplayName("Suspended lookups are unknown while links are still recorded")
+    void suspendsLookups() {
+        index.recordLink(COMPANY_NUMBER, LinkType.CHARGES, true);
+
+        index.suspendLookups();
+        index.recordLink(COMPANY_NUMBER, LinkType.INSOLVENCY, false);
+        assertEquals(LinkState.UNKNOWN, index.getLinkState(COMPANY_NUMBER, LinkType.CHARGES));
+        assertEquals(1.0, meterRegistry.counter(LinkStateIndex.METRIC_PREFIX + ".lookup",
+                "outcome", "suspended").count());
+
+        index.resumeLookups();
+        assertEquals(LinkState.PRESENT, index.getLinkState(COMPANY_NUMBER, LinkType.CHARGES));
+        assertEquals(LinkState.ABSENT, index.getLinkState(COMPANY_NUMBER, LinkType.INSOLVENCY));
+    }
+
+    @Test
+    @DisplayName("Full index stops taking new companies")
+    void fullIndexRejectsNewCompanies() {
+        LinkStateIndex small = new LinkStateIndex(true, 3, TTL_SECONDS, meterRegistry, now::get);
+
+        for (int i = 0; i < 10; i++) {
+            small.recordLink(String.format("%08d", i), LinkType.CHARGES, true);
+        }
+
+        assertEquals(3, small.size());
+        assertEquals(LinkState.PRESENT, small.getLinkState("00000000", LinkType.CHARGES));
+        assertEquals(LinkState.UNKNOWN, small.getLinkState("00000009", LinkType.CHARGES));
+    }
+
+    @Test
+    @DisplayName("Copied table is recounted and a table with no empty slot is never probed forever")
+    void boundsProbesOfFullTable() {
+        LinkStateIndex small = new LinkStateIndex(true, 3, TTL_SECONDS, meterRegistry, now::get);
+        ByteBuffer full = ByteBuffer.allocate(small.capacity() * LinkStateIndex.SLOT_BYTES);
+        for (int slot = 0; slot < small.capacity(); slot++) {
+            full.putLong(slot + 1L).putLong(0L);
+        }
+
+        assertEquals(small.capacity(), small.copyFrom(full.flip()));
+        assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> small.recordLink(COMPANY_NUMBER, LinkType.CHARGES, true));
+
+        assertEquals(small.capacity(), small.size());
+        assertEquals(1.0, meterRegistry.counter(LinkStateIndex.METRIC_PREFIX + ".full").count());
+    }
+
+    @Test
+    @DisplayName("Disabled index knows nothing")
+    void disabledIndexIsUnknown() {
+        LinkStateIndex disabled = new LinkStateIndex(false, 1000, TTL_SECONDS, meterRegistry,
+                now::get);
+
+        disabled.recordLink(COMPANY_NUMBER, LinkType.CHARGES, true);
+
+        assertEquals(LinkState.UNKNOWN, disabled.getLinkState(COMPANY_NUMBER, LinkType.CHARGES));
+    }
+
+    @Test
+    @DisplayName("Company numbers pack to distinct non-zero keys and invalid ones to zero")
+    void packsCompanyNumbers() {
+        assertNotEquals(0L, LinkStateIndex.pack("00000001"));
+        assertNotEquals(LinkStateIndex.pack("0000001"), LinkStateIndex.pack("00000001"));
+        assertNotEquals(LinkStateIndex.pack("OC123456"), LinkStateIndex.pack("SC123456"));
+        assertEquals(0L, LinkStateIndex.pack("sc123456"));
+        assertEquals(0L, LinkStateIndex.pack("12345678901"));
+        assertEquals(0L, LinkStateIndex.pack(null));
+    }
+}
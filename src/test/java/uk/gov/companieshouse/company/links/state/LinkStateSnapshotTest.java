@@ -0,0 +1,130 @@
+package uk.gov.companieshouse.company.links.state;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Map;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.companieshouse.company.links.type.LinkType;
+import uk.gov.companieshouse.logging.Logger;
+
+@ExtendWith(MockitoExtension.class)
+class LinkStateSnapshotTest {
+
+    private static final String COMPANY_NUMBER = "12345678";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @TempDir
+    private Path directory;
+
+    @Mock
+    private Logger logger;
+
+    @Test
+    @DisplayName("Snapshot written by one index is loaded into a fresh one")
+    void restoresIndexFromSnapshot() {
+        LinkStateIndex original = newIndex(1000);
+        original.recordLink(COMPANY_NUMBER, LinkType.CHARGES, true);
+        original.recordLink(COMPANY_NUMBER, LinkType.INSOLVENCY, false);
+        newSnapshot(original).write();
+
+        LinkStateIndex restored = newIndex(1000);
+        assertTrue(newSnapshot(restored).load());
+
+        assertEquals(1, restored.size());
+        assertEquals(LinkState.PRESENT, restored.getLinkState(COMPANY_NUMBER, LinkType.CHARGES));
+        assertEquals(LinkState.ABSENT,
+                restored.getLinkState(COMPANY_NUMBER, LinkType.INSOLVENCY));
+    }
+
+    @Test
+    @DisplayName("Corrupt snapshot is ignored")
+    void ignoresCorruptSnapshot() throws IOException {
+        LinkStateIndex original = newIndex(1000);
+        original.recordLink(COMPANY_NUMBER, LinkType.CHARGES, true);
+        newSnapshot(original).write();
+        try (RandomAccessFile file = new RandomAccessFile(snapshotPath().toFile(), "rw")) {
+            file.seek(file.length() - 1);
+            file.write(0x7F);
+        }
+
+        LinkStateIndex restored = newIndex(1000);
+        assertFalse(newSnapshot(restored).load());
+
+        assertEquals(0, restored.size());
+        assertEquals(1.0, meterRegistry.counter(LinkStateIndex.METRIC_PREFIX + ".snapshot",
+                "outcome", "rejected").count());
+    }
+
+    @Test
+    @DisplayName("Snapshot with a corrupt header is ignored")
+    void ignoresCorruptHeader() throws IOException {
+        LinkStateIndex original = newIndex(1000);
+        original.recordLink(COMPANY_NUMBER, LinkType.CHARGES, true);
+        newSnapshot(original).write();
+        try (RandomAccessFile file = new RandomAccessFile(snapshotPath().toFile(), "rw")) {
+            file.seek(16);
+            file.writeInt(Integer.MAX_VALUE);
+        }
+
+        assertFalse(newSnapshot(newIndex(1000)).load());
+    }
+
+    @Test
+    @DisplayName("Snapshot from a differently sized index is ignored")
+    void ignoresSnapshotOfDifferentCapacity() {
+        newSnapshot(newIndex(1000)).write();
+
+        assertFalse(newSnapshot(newIndex(100_000)).load());
+    }
+
+    @Test
+    @DisplayName("Company profile offsets are restored along with the snapshot")
+    void restoresProfileOffsets() {
+        LinkStateSnapshot original = newSnapshot(newIndex(1000));
+        original.recordProfileOffsets(Map.of(0, 42L, 3, 7L));
+        original.write();
+
+        LinkStateSnapshot restored = newSnapshot(newIndex(1000));
+        assertTrue(restored.load());
+
+        assertEquals(Map.of(0, 42L, 3, 7L), restored.getProfileOffsets());
+    }
+
+    @Test
+    @DisplayName("Company profile offsets are not used when the snapshot is ignored")
+    void ignoresProfileOffsetsOfIgnoredSnapshot() {
+        LinkStateSnapshot original = newSnapshot(newIndex(1000));
+        original.recordProfileOffsets(Map.of(0, 42L));
+        original.write();
+
+        LinkStateSnapshot restored = newSnapshot(newIndex(100_000));
+        assertFalse(restored.load());
+
+        assertTrue(restored.getProfileOffsets().isEmpty());
+    }
+
+    private LinkStateIndex newIndex(int expectedCompanies) {
+        return new LinkStateIndex(true, expectedCompanies, 3600L, meterRegistry);
+    }
+
+    private LinkStateSnapshot newSnapshot(LinkStateIndex index) {
+        return new LinkStateSnapshot(true, snapshotPath().toString(), 60L, index, logger,
+                meterRegistry);
+    }
+
+    private Path snapshotPath() {
+        return directory.resolve("link-state.snapshot");
+    }
+}
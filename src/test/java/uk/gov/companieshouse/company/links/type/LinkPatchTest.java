@@ -0,0 +1,36 @@
+package uk.gov.companieshouse.company.links.type;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import uk.gov.companieshouse.api.company.Data;
+import uk.gov.companieshouse.api.company.Links;
+
+class LinkPatchTest {
+
+    private static final String COMPANY_NUMBER = "12345678";
+
+    @Test
+    @DisplayName("Patch is applied to company profile data held in memory")
+    void appliesToData() {
+        Data data = new Data();
+        Links links = new Links();
+        links.setInsolvency("/company/12345678/insolvency");
+        data.setLinks(links);
+
+        LinkPatch.builder()
+                .addLink(LinkType.CHARGES, COMPANY_NUMBER)
+                .removeLink(LinkType.INSOLVENCY)
+                .build()
+                .applyTo(data);
+
+        assertEquals("/company/12345678/charges", data.getLinks().getCharges());
+        assertNull(data.getLinks().getInsolvency());
+        assertTrue(data.getHasCharges());
+        assertFalse(data.getHasInsolvencyHistory());
+    }
+}